@@ -1568,6 +1568,32 @@ public class GNSCommand extends CommandPacket {
             GNSProtocol.QUERY.toString(), query);
   }
 
+  /**
+   * Selects a page of the guid records that match {@code query}.
+   * At most {@code limit} results are returned. The result type of the
+   * execution result is then {@link CommandResultType#MAP} with the results
+   * under {@link GNSProtocol#RESULTS} and, if there are more, a cursor under
+   * {@link GNSProtocol#CURSOR}. Passing the cursor with the same arguments
+   * returns the next page. Cursors expire if they aren't used for a while and
+   * only work on the server that returned them.
+   *
+   * @param reader
+   * The guid issuing the query or null if all fields accessed are world readable.
+   * @param query
+   * The select query being issued.
+   * @param limit
+   * The most guids to return.
+   * @param cursor
+   * The cursor returned with the previous page or null for the first page.
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  public static final CommandPacket selectQuery(GuidEntry reader, String query, int limit, String cursor)
+          throws ClientException {
+    return selectPage(CommandType.SelectQuery, reader, limit, cursor,
+            GNSProtocol.QUERY.toString(), query);
+  }
+
   /**
    * Selects all guid records that match the {@code query}.
    * The {@code fields} parameter is a list of the fields that
@@ -1635,6 +1661,38 @@ public class GNSCommand extends CommandPacket {
     );
   }
 
+  /**
+   * Selects a page of the guid records that match the {@code query}.
+   * The {@code fields} parameter is a list of the fields that
+   * should be included in the returned records. {@code null}
+   * means return all fields.
+   * At most {@code limit} results are returned. The result type of the
+   * execution result is then {@link CommandResultType#MAP} with the results
+   * under {@link GNSProtocol#RESULTS} and, if there are more, a cursor under
+   * {@link GNSProtocol#CURSOR}. Passing the cursor with the same arguments
+   * returns the next page. Cursors expire if they aren't used for a while and
+   * only work on the server that returned them.
+   *
+   * @param reader
+   * The guid issuing the query or null if all fields accessed are world readable.
+   * @param query
+   * The select query being issued.
+   * @param fields A list of fields or null meaning all fields
+   * @param limit
+   * The most records to return.
+   * @param cursor
+   * The cursor returned with the previous page or null for the first page.
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  public static final CommandPacket selectRecords(GuidEntry reader, String query, List<String> fields,
+          int limit, String cursor)
+          throws ClientException {
+    return selectPage(CommandType.SelectQuery, reader, limit, cursor,
+            GNSProtocol.QUERY.toString(), query,
+            GNSProtocol.FIELDS.toString(), fields == null ? GNSProtocol.ENTIRE_RECORD : fields);
+  }
+
   /**
    * Set up a context-aware group guid corresponding to the query. Requires
    * {@code accountGuid} and {@code publicKey} that are used to set up the new
@@ -1773,6 +1831,37 @@ public static final CommandPacket select(GuidEntry reader, String field, String
             GNSProtocol.VALUE.toString(), value);
   }
 
+  /**
+   * Searches for a page of the GUIDs whose {@code field} has the value {@code value}.
+   * At most {@code limit} results are returned. The result type of the
+   * execution result is then {@link CommandResultType#MAP} with the results
+   * under {@link GNSProtocol#RESULTS} and, if there are more, a cursor under
+   * {@link GNSProtocol#CURSOR}. Passing the cursor with the same arguments
+   * returns the next page. Cursors expire if they aren't used for a while and
+   * only work on the server that returned them.
+   *
+   * @param reader
+   * The guid issuing the query or null if the field is world readable.
+   * @param field
+   * The field key.
+   * @param value
+   * The value that is being searched.
+   * @param limit
+   * The most guids to return.
+   * @param cursor
+   * The cursor returned with the previous page or null for the first page.
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  @SuppressWarnings("deprecation")
+  public static final CommandPacket select(GuidEntry reader, String field, String value,
+          int limit, String cursor)
+          throws ClientException {
+    return selectPage(CommandType.Select, reader, limit, cursor,
+            GNSProtocol.FIELD.toString(), field,
+            GNSProtocol.VALUE.toString(), value);
+  }
+
   /**
    * If {@code field} is a GeoSpatial field, the query searches for all GUIDs
    * that have fields that are within the bounding box specified by
@@ -1821,6 +1910,38 @@ public static final CommandPacket selectWithin(GuidEntry reader, String field, J
             value.toString());
   }
 
+  /**
+   * Searches for a page of the GUIDs whose GeoSpatial {@code field} is within
+   * the bounding box {@code value}: [[LONG_UL, LAT_UL],[LONG_BR, LAT_BR]].
+   * At most {@code limit} results are returned. The result type of the
+   * execution result is then {@link CommandResultType#MAP} with the results
+   * under {@link GNSProtocol#RESULTS} and, if there are more, a cursor under
+   * {@link GNSProtocol#CURSOR}. Passing the cursor with the same arguments
+   * returns the next page. Cursors expire if they aren't used for a while and
+   * only work on the server that returned them.
+   *
+   * @param reader
+   * The guid issuing the query or null if the field is world readable.
+   * @param field
+   * The field key.
+   * @param value
+   * - [[LONG_UL, LAT_UL],[LONG_BR, LAT_BR]]
+   * @param limit
+   * The most guids to return.
+   * @param cursor
+   * The cursor returned with the previous page or null for the first page.
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  @SuppressWarnings("deprecation")
+  public static final CommandPacket selectWithin(GuidEntry reader, String field, JSONArray value,
+          int limit, String cursor)
+          throws ClientException {
+    return selectPage(CommandType.SelectWithin, reader, limit, cursor,
+            GNSProtocol.FIELD.toString(), field,
+            GNSProtocol.WITHIN.toString(), value.toString());
+  }
+
   /**
    * If {@code field} is a GeoSpatial field, the query searches for all GUIDs
    * whose {@code field} is near {@code value} that is a point specified as a
@@ -1870,6 +1991,40 @@ public static final CommandPacket selectNear(GuidEntry reader, String field, JSO
             GNSProtocol.MAX_DISTANCE.toString(), Double.toString(maxDistance));
   }
 
+  /**
+   * Searches for a page of the GUIDs whose GeoSpatial {@code field} is near
+   * {@code value}: [LONG, LAT]. {@code maxDistance} is in meters.
+   * At most {@code limit} results are returned. The result type of the
+   * execution result is then {@link CommandResultType#MAP} with the results
+   * under {@link GNSProtocol#RESULTS} and, if there are more, a cursor under
+   * {@link GNSProtocol#CURSOR}. Passing the cursor with the same arguments
+   * returns the next page. Cursors expire if they aren't used for a while and
+   * only work on the server that returned them.
+   *
+   * @param reader
+   * The guid issuing the query or null if the field is world readable.
+   * @param field
+   * The field key
+   * @param value
+   * - [LONG, LAT]
+   * @param maxDistance
+   * - distance in meters
+   * @param limit
+   * The most guids to return.
+   * @param cursor
+   * The cursor returned with the previous page or null for the first page.
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  @SuppressWarnings("deprecation")
+  public static final CommandPacket selectNear(GuidEntry reader, String field, JSONArray value,
+          Double maxDistance, int limit, String cursor) throws ClientException {
+    return selectPage(CommandType.SelectNear, reader, limit, cursor,
+            GNSProtocol.FIELD.toString(), field,
+            GNSProtocol.NEAR.toString(), value.toString(),
+            GNSProtocol.MAX_DISTANCE.toString(), Double.toString(maxDistance));
+  }
+
   /**
    * Update the location field for {@code targetGUID}.
    * See also {@link GNSProtocol#LOCATION_FIELD_NAME}.
@@ -2545,6 +2700,23 @@ public static final CommandPacket selectNear(GuidEntry reader, String field, JSO
   // ///////////////////////////////
   // // PRIVATE METHODS BELOW /////
   // /////////////////////////////
+  // Adds the reader, the limit and the cursor to the arguments of a paged select.
+  private static CommandPacket selectPage(CommandType type, GuidEntry reader,
+          int limit, String cursor, Object... keysAndValues) throws ClientException {
+    List<Object> arguments = new ArrayList<>(Arrays.asList(keysAndValues));
+    if (reader != null) {
+      arguments.add(GNSProtocol.GUID.toString());
+      arguments.add(reader.getGuid());
+    }
+    arguments.add(GNSProtocol.LIMIT.toString());
+    arguments.add(limit);
+    if (cursor != null) {
+      arguments.add(GNSProtocol.CURSOR.toString());
+      arguments.add(cursor);
+    }
+    return getCommand(type, reader, arguments.toArray());
+  }
+
   private static GuidEntry lookupOrCreateGuidEntry(String gnsInstance,
           String alias) throws NoSuchAlgorithmException, EncryptionException {
     GuidEntry guidEntry = GuidUtils.lookupGuidEntryFromDatabase(gnsInstance, alias);
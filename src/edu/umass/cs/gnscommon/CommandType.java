@@ -686,7 +686,9 @@ public enum CommandType {
           // optional parameters
           new String[]{GNSProtocol.GUID.toString(), // the reader
             GNSProtocol.SIGNATURE.toString(),
-            GNSProtocol.SIGNATUREFULLMESSAGE.toString()}),
+            GNSProtocol.SIGNATUREFULLMESSAGE.toString(),
+            GNSProtocol.LIMIT.toString(),
+            GNSProtocol.CURSOR.toString()}),
   /**
    *
    */
@@ -703,7 +705,9 @@ public enum CommandType {
           // optional parameters
           new String[]{GNSProtocol.GUID.toString(), // the reader
             GNSProtocol.SIGNATURE.toString(),
-            GNSProtocol.SIGNATUREFULLMESSAGE.toString()}),
+            GNSProtocol.SIGNATUREFULLMESSAGE.toString(),
+            GNSProtocol.LIMIT.toString(),
+            GNSProtocol.CURSOR.toString()}),
   /**
    * Why is this deprecated??
    */
@@ -720,7 +724,9 @@ public enum CommandType {
           // optional parameters
           new String[]{GNSProtocol.GUID.toString(), // the reader
             GNSProtocol.SIGNATURE.toString(),
-            GNSProtocol.SIGNATUREFULLMESSAGE.toString()}),
+            GNSProtocol.SIGNATUREFULLMESSAGE.toString(),
+            GNSProtocol.LIMIT.toString(),
+            GNSProtocol.CURSOR.toString()}),
   /**
    *
    */
@@ -728,13 +734,17 @@ public enum CommandType {
           CommandResultType.LIST, false, false,
           "Returns the guids of all records that satisfy the query. "
           + "For details see http://gns.name/wiki/index.php/Query_Syntax "
-          + "Values are returned as a JSON array of guids.",
+          + "Values are returned as a JSON array of guids. "
+          + "With a limit they are returned as a JSON object with at most that many results and "
+          + "a cursor that returns the next ones if there are more.",
           new String[]{GNSProtocol.QUERY.toString()},
           // optional parameters
           new String[]{GNSProtocol.GUID.toString(), // the reader
             GNSProtocol.FIELDS.toString(),
             GNSProtocol.SIGNATURE.toString(),
-            GNSProtocol.SIGNATUREFULLMESSAGE.toString()}),
+            GNSProtocol.SIGNATUREFULLMESSAGE.toString(),
+            GNSProtocol.LIMIT.toString(),
+            GNSProtocol.CURSOR.toString()}),
   //
   // Select commands that maintain a group guid
   //
@@ -747,7 +757,9 @@ public enum CommandType {
           "Prototype functionality of a full-fledged Context Name Service. "
           + "Returns all records for a group guid that was previously setup with SelectGroupSetupQuery. "
           + "For details see http://gns.name/wiki/index.php/Query_Syntax "
-          + "Values are returned as a JSON array of guids.",
+          + "Values are returned as a JSON array of guids. "
+          + "With a limit they are returned as a JSON object with at most that many results and "
+          + "a cursor that returns the next ones if there are more.",
           new String[]{GNSProtocol.ACCOUNT_GUID.toString()},
           // optional parameters
           new String[]{GNSProtocol.GUID.toString(), // the reader
@@ -761,7 +773,9 @@ public enum CommandType {
           "Prototype functionality of a full-fledged Context Name Service. "
           + "Initializes a new group guid to automatically update and maintain all records that satisfy the query. "
           + "For details see http://gns.name/wiki/index.php/Query_Syntax "
-          + "Values are returned as a JSON array of guids.",
+          + "Values are returned as a JSON array of guids. "
+          + "With a limit they are returned as a JSON object with at most that many results and "
+          + "a cursor that returns the next ones if there are more.",
           new String[]{GNSProtocol.ACCOUNT_GUID.toString(),
             GNSProtocol.QUERY.toString()},
           // optional parameters
@@ -776,7 +790,9 @@ public enum CommandType {
           "Prototype functionality of a full-fledged Context Name Service. "
           + "Initializes the given group guid to automatically update and maintain all records that satisfy the query. "
           + "For details see http://gns.name/wiki/index.php/Query_Syntax "
-          + "Values are returned as a JSON array of guids.",
+          + "Values are returned as a JSON array of guids. "
+          + "With a limit they are returned as a JSON object with at most that many results and "
+          + "a cursor that returns the next ones if there are more.",
           new String[]{GNSProtocol.QUERY.toString(),
             GNSProtocol.ACCOUNT_GUID.toString()},
           // optional parameters
@@ -810,7 +826,9 @@ public enum CommandType {
           + "Interval is the minimum refresh interval of the query - lookups happening more "
           + "quickly than this interval will retrieve a stale value. "
           + "For details see http://gns.name/wiki/index.php/Query_Syntax "
-          + "Values are returned as a JSON array of guids.",
+          + "Values are returned as a JSON array of guids. "
+          + "With a limit they are returned as a JSON object with at most that many results and "
+          + "a cursor that returns the next ones if there are more.",
           new String[]{GNSProtocol.QUERY.toString(),
             GNSProtocol.INTERVAL.toString()},
           // optional parameters
@@ -304,6 +304,20 @@ public enum GNSProtocol {
    * to determine refresh interval.
    */
   INTERVAL("interval"),
+  /**
+   * The maximum number of results in a command. Used for select commands
+   * that return their results a page at a time.
+   */
+  LIMIT("limit"),
+  /**
+   * The cursor field in a command and in the result of a select command
+   * with a limit. Used to ask for the next page of a select.
+   */
+  CURSOR("cursor"),
+  /**
+   * The results field in the result of a select command with a limit.
+   */
+  RESULTS("results"),
   /**
    * Used in commands to represent the use of all fields.
    */
@@ -19,8 +19,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import org.json.JSONArray;
@@ -47,6 +52,7 @@ public class JSONByteConverter {
 	private static final byte FLOAT_INDICATOR = 5;
 	private static final byte DOUBLE_INDICATOR = 6;
 	private static final byte BOOLEAN_INDICATOR = 7;
+	private static final byte NULL_INDICATOR = 8;
 	
 	//private static ByteBuffer fourByteBuffer = ByteBuffer.allocate(4);
 	//private static ByteBuffer eightByteBuffer = ByteBuffer.allocate(8);
@@ -108,6 +114,9 @@ public class JSONByteConverter {
 			eightByteBuffer.putDouble((Double)value);
 			out.write(eightByteBuffer.array());
 		}
+		else if (value == JSONObject.NULL){
+			out.write(NULL_INDICATOR);
+		}
 		else if (value instanceof String){
 			byte[] stringBytes = ((String)value).getBytes();
 			out.write(STRING_INDICATOR);
@@ -244,7 +253,9 @@ public class JSONByteConverter {
 		case FLOAT_INDICATOR:
 			return bytes.getFloat();
 		case BOOLEAN_INDICATOR:
-			return bytes.get() == 1 ? 1: 0;
+			return bytes.get() == 1;
+		case NULL_INDICATOR:
+			return JSONObject.NULL;
 		default:
 			throw new JSONException("Tried to decode unknown type from byte array!");
 		}
@@ -302,6 +313,12 @@ public class JSONByteConverter {
 			case FLOAT_INDICATOR:
 				json.put(key,bytes.getFloat());
 				break;
+			case BOOLEAN_INDICATOR:
+				json.put(key,bytes.get() == 1);
+				break;
+			case NULL_INDICATOR:
+				json.put(key,JSONObject.NULL);
+				break;
 			default:
 				throw new JSONException("Tried to decode unknown type from byte array!");
 			}
@@ -348,6 +365,12 @@ public class JSONByteConverter {
 			case FLOAT_INDICATOR:
 				json.put(bytes.getFloat());
 				break;
+			case BOOLEAN_INDICATOR:
+				json.put(bytes.get() == 1);
+				break;
+			case NULL_INDICATOR:
+				json.put(JSONObject.NULL);
+				break;
 			default:
 				throw new JSONException("Tried to decode unknown type from byte array!");
 			}
@@ -381,4 +404,181 @@ public class JSONByteConverter {
 		return (JSONObject)valueFromBytes(bbuf);
 	}
 
+
+  /**
+   * Converts a JSONObject to the compact form of the bytes of {@link #toBytesHardcoded}.
+   * It uses the same type indicators but lengths and integers are varints, strings
+   * are UTF-8 and each map key is written once with later uses referring back to it.
+   * Large arrays of records with the same fields shrink the most.
+   *
+   * @param json The JSONObject to be converted to bytes.
+   * @return The byte array representation of the JSONObject.
+   * @throws JSONException
+   * @throws IOException
+   */
+  public static byte[] toBytesCompact(JSONObject json) throws JSONException, IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(1200);
+    byteCompactValue(json, out, new HashMap<String, Integer>());
+    out.close();
+    return out.toByteArray();
+  }
+
+  /**
+   * Converts bytes made by {@link #toBytesCompact} back into a JSONObject.
+   *
+   * @param bbuf
+   * @return The reconstructed JSONObject
+   * @throws JSONException
+   */
+  public static JSONObject fromBytesCompact(ByteBuffer bbuf) throws JSONException {
+    Object value = compactValueFromBytes(bbuf, new ArrayList<String>());
+    if (!(value instanceof JSONObject)) {
+      throw new JSONException("Compact bytes don't hold a JSONObject");
+    }
+    return (JSONObject) value;
+  }
+
+  // keys maps each key already written to its position in the order they were written
+  private static void byteCompactValue(Object value, ByteArrayOutputStream out,
+          Map<String, Integer> keys) throws JSONException, IOException {
+    if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      out.write(ARRAY_INDICATOR);
+      writeVarLong(array.length(), out);
+      for (int i = 0; i < array.length(); i++) {
+        byteCompactValue(array.get(i), out, keys);
+      }
+    } else if (value instanceof Integer) {
+      out.write(INTEGER_INDICATOR);
+      writeVarLong(zigZag((Integer) value), out);
+    } else if (value instanceof Long) {
+      out.write(LONG_INDICATOR);
+      writeVarLong(zigZag((Long) value), out);
+    } else if (value instanceof Boolean) {
+      out.write(BOOLEAN_INDICATOR);
+      out.write((Boolean) value ? 1 : 0);
+    } else if (value instanceof Float) {
+      out.write(FLOAT_INDICATOR);
+      out.write(ByteBuffer.allocate(4).putFloat((Float) value).array());
+    } else if (value instanceof Double) {
+      out.write(DOUBLE_INDICATOR);
+      out.write(ByteBuffer.allocate(8).putDouble((Double) value).array());
+    } else if (value == JSONObject.NULL) {
+      out.write(NULL_INDICATOR);
+    } else if (value instanceof String) {
+      out.write(STRING_INDICATOR);
+      writeCompactString((String) value, out);
+    } else if (value instanceof JSONObject) {
+      JSONObject json = (JSONObject) value;
+      out.write(MAP_INDICATOR);
+      writeVarLong(json.length(), out);
+      @SuppressWarnings("unchecked") // Assumption: All keys in the json are strings.
+      Iterator<String> iterator = json.keys();
+      while (iterator.hasNext()) {
+        String key = iterator.next();
+        Integer index = keys.get(key);
+        if (index != null) {
+          writeVarLong(index + 1, out);
+        } else {
+          // zero means a new key follows
+          writeVarLong(0, out);
+          writeCompactString(key, out);
+          keys.put(key, keys.size());
+        }
+        byteCompactValue(json.get(key), out, keys);
+      }
+    } else {
+      throw new JSONException("UNKNOWN TYPE IN JSON!");
+    }
+  }
+
+  private static Object compactValueFromBytes(ByteBuffer bytes, List<String> keys) throws JSONException {
+    byte type = bytes.get();
+    switch (type) {
+      case MAP_INDICATOR:
+        JSONObject json = new JSONObject();
+        int size = (int) readVarLong(bytes);
+        for (int i = 0; i < size; i++) {
+          int index = (int) readVarLong(bytes);
+          String key;
+          if (index == 0) {
+            key = readCompactString(bytes);
+            keys.add(key);
+          } else if (index <= keys.size()) {
+            key = keys.get(index - 1);
+          } else {
+            throw new JSONException("Unknown key reference in compact bytes");
+          }
+          json.put(key, compactValueFromBytes(bytes, keys));
+        }
+        return json;
+      case ARRAY_INDICATOR:
+        JSONArray array = new JSONArray();
+        int length = (int) readVarLong(bytes);
+        for (int i = 0; i < length; i++) {
+          array.put(compactValueFromBytes(bytes, keys));
+        }
+        return array;
+      case STRING_INDICATOR:
+        return readCompactString(bytes);
+      case INTEGER_INDICATOR:
+        return (int) unZigZag(readVarLong(bytes));
+      case LONG_INDICATOR:
+        return unZigZag(readVarLong(bytes));
+      case DOUBLE_INDICATOR:
+        return bytes.getDouble();
+      case FLOAT_INDICATOR:
+        return bytes.getFloat();
+      case BOOLEAN_INDICATOR:
+        return bytes.get() == 1;
+      case NULL_INDICATOR:
+        return JSONObject.NULL;
+      default:
+        throw new JSONException("Tried to decode unknown type from byte array!");
+    }
+  }
+
+  private static void writeCompactString(String string, ByteArrayOutputStream out) throws IOException {
+    byte[] stringBytes = string.getBytes(StandardCharsets.UTF_8);
+    writeVarLong(stringBytes.length, out);
+    out.write(stringBytes);
+  }
+
+  private static String readCompactString(ByteBuffer bytes) {
+    int length = (int) readVarLong(bytes);
+    String string = new String(bytes.array(), bytes.arrayOffset() + bytes.position(), length,
+            StandardCharsets.UTF_8);
+    bytes.position(bytes.position() + length);
+    return string;
+  }
+
+  // small negative numbers become small positive ones so they make short varints
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  // seven bits at a time, the high bit says more follow
+  private static void writeVarLong(long value, ByteArrayOutputStream out) {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static long readVarLong(ByteBuffer bytes) {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = bytes.get();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
 }
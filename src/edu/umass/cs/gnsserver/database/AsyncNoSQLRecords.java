@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.database;
+
+import edu.umass.cs.gnsserver.utils.ValuesMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.json.JSONObject;
+
+/**
+ * The asynchronous version of the {@link NoSQLRecords} operations.
+ *
+ * Each method starts the operation and returns without waiting for the database.
+ * The returned future completes exceptionally with the exception the blocking
+ * method would have thrown: a FailedDBOperationException,
+ * RecordNotFoundException or RecordExistsException.
+ * Operations are not ordered with respect to each other, a caller that
+ * needs one to happen after another must wait for the first future.
+ *
+ * Backends that can overlap operations implement this directly. Any other
+ * NoSQLRecords can be used through {@link AsyncRecordsAdapter#getAsyncRecords}
+ * and a future can be waited on using {@link AsyncRecordsAdapter#await}.
+ *
+ * @author westy
+ */
+public interface AsyncNoSQLRecords {
+
+  /**
+   * Create a new record with the given name using the JSONObject.
+   *
+   * @param collection
+   * @param name
+   * @param value
+   * @return a future that completes when the record is inserted
+   */
+  public CompletableFuture<Void> insertAsync(String collection, String name, JSONObject value);
+
+  /**
+   * For the record with given name, return the entire record as a JSONObject.
+   *
+   * @param collection
+   * @param name
+   * @return a future for the record
+   */
+  public CompletableFuture<JSONObject> lookupEntireRecordAsync(String collection, String name);
+
+  /**
+   * For record with given name, return the values of the given keys
+   * from the values map field of the record.
+   *
+   * @param collection
+   * @param name
+   * @param nameField
+   * @param valuesMapField
+   * @param valuesMapKeys
+   * @return a future for a hashmap of ColumnField to Objects
+   */
+  public CompletableFuture<HashMap<ColumnField, Object>> lookupSomeFieldsAsync(String collection,
+          String name, ColumnField nameField, ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys);
+
+  /**
+   * For each of the given names, return the record as a JSONObject.
+   * See {@link NoSQLRecords#lookupMany}.
+   *
+   * @param collection
+   * @param names
+   * @param projection the user fields to return or null for all of them
+   * @return a future for a map of name to record
+   */
+  public CompletableFuture<Map<String, JSONObject>> lookupManyAsync(String collection,
+          Collection<String> names, List<String> projection);
+
+  /**
+   * Remove the record with the given name.
+   *
+   * @param collection
+   * @param name
+   * @return a future that completes when the record is removed
+   */
+  public CompletableFuture<Void> removeEntireRecordAsync(String collection, String name);
+
+  /**
+   * For the record with given name, replace the values map.
+   *
+   * @param collection
+   * @param name
+   * @param valuesMap
+   * @return a future that completes when the record is updated
+   */
+  public CompletableFuture<Void> updateEntireRecordAsync(String collection, String name,
+          ValuesMap valuesMap);
+
+  /**
+   * For the record with given name, set the given keys of the values map.
+   * See {@link NoSQLRecords#updateIndividualFields}.
+   *
+   * @param collection
+   * @param name
+   * @param valuesMapField
+   * @param valuesMapKeys
+   * @param valuesMapValues
+   * @return a future that completes when the record is updated
+   */
+  public CompletableFuture<Void> updateIndividualFieldsAsync(String collection, String name,
+          ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys,
+          ArrayList<Object> valuesMapValues);
+
+  /**
+   * For the record with given name, remove the keys from the map field.
+   *
+   * @param collection
+   * @param name
+   * @param mapField
+   * @param mapKeys
+   * @return a future that completes when the keys are removed
+   */
+  public CompletableFuture<Void> removeMapKeysAsync(String collection, String name,
+          ColumnField mapField, ArrayList<ColumnField> mapKeys);
+
+  /**
+   * Performs a query on the database. The cursor itself is blocking.
+   * See {@link NoSQLRecords#selectRecordsQuery}.
+   *
+   * @param collection
+   * @param valuesMapField
+   * @param query
+   * @param projection the user fields to return or null for the entire record
+   * @return a future for the cursor
+   */
+  public CompletableFuture<AbstractRecordCursor> selectRecordsQueryAsync(String collection,
+          ColumnField valuesMapField, String query, List<String> projection);
+}
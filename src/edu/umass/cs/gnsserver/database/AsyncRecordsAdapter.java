@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.database;
+
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
+import edu.umass.cs.gnsserver.utils.ValuesMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONObject;
+
+/**
+ * Runs the blocking operations of a {@link NoSQLRecords} on an executor
+ * so that it can be used as an {@link AsyncNoSQLRecords}.
+ *
+ * Also has the helpers used by the backends that implement AsyncNoSQLRecords
+ * themselves and {@link #await} for callers that need to block on a result.
+ *
+ * @author westy
+ */
+public class AsyncRecordsAdapter implements AsyncNoSQLRecords {
+
+  // Used for backends that don't implement AsyncNoSQLRecords themselves.
+  private static final ExecutorService SHARED_EXECUTOR
+          = Executors.newCachedThreadPool(threadFactory("AsyncRecords"));
+
+  private final NoSQLRecords records;
+  private final Executor executor;
+
+  /**
+   * Creates an AsyncRecordsAdapter that runs the operations of records
+   * on the executor.
+   *
+   * @param records
+   * @param executor
+   */
+  public AsyncRecordsAdapter(NoSQLRecords records, Executor executor) {
+    this.records = records;
+    this.executor = executor;
+  }
+
+  /**
+   * Returns the records if they implement AsyncNoSQLRecords, otherwise
+   * an adapter that runs their blocking operations on a shared executor.
+   *
+   * @param records
+   * @return an AsyncNoSQLRecords
+   */
+  public static AsyncNoSQLRecords getAsyncRecords(NoSQLRecords records) {
+    if (records instanceof AsyncNoSQLRecords) {
+      return (AsyncNoSQLRecords) records;
+    }
+    return new AsyncRecordsAdapter(records, SHARED_EXECUTOR);
+  }
+
+  /**
+   * A blocking database operation.
+   *
+   * @param <T>
+   */
+  public interface DatabaseCall<T> {
+
+    /**
+     * Performs the operation.
+     *
+     * @return the result
+     * @throws FailedDBOperationException
+     * @throws RecordNotFoundException
+     * @throws RecordExistsException
+     */
+    public T call() throws FailedDBOperationException, RecordNotFoundException,
+            RecordExistsException;
+  }
+
+  /**
+   * Runs the call on the executor, or in the calling thread if the
+   * executor is null, and returns a future for the result.
+   *
+   * @param <T>
+   * @param call
+   * @param executor
+   * @return a future for the result
+   */
+  public static <T> CompletableFuture<T> submit(final DatabaseCall<T> call, Executor executor) {
+    if (executor == null) {
+      CompletableFuture<T> future = new CompletableFuture<>();
+      try {
+        future.complete(call.call());
+      } catch (FailedDBOperationException | RecordNotFoundException | RecordExistsException
+              | RuntimeException e) {
+        future.completeExceptionally(e);
+      }
+      return future;
+    }
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return call.call();
+      } catch (FailedDBOperationException | RecordNotFoundException | RecordExistsException e) {
+        throw new CompletionException(e);
+      }
+    }, executor);
+  }
+
+  /**
+   * Waits for the future and returns its value, rethrowing the exception
+   * the operation failed with.
+   *
+   * @param <T>
+   * @param future
+   * @return the value
+   * @throws FailedDBOperationException
+   * @throws RecordNotFoundException
+   * @throws RecordExistsException
+   */
+  public static <T> T await(CompletableFuture<T> future) throws FailedDBOperationException,
+          RecordNotFoundException, RecordExistsException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FailedDBOperationException(null, null, "Interrupted while waiting for the database");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof FailedDBOperationException) {
+        throw (FailedDBOperationException) cause;
+      } else if (cause instanceof RecordNotFoundException) {
+        throw (RecordNotFoundException) cause;
+      } else if (cause instanceof RecordExistsException) {
+        throw (RecordExistsException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new FailedDBOperationException(null, null, String.valueOf(cause));
+    }
+  }
+
+  /**
+   * Returns a ThreadFactory that makes daemon threads with the given name prefix.
+   *
+   * @param name
+   * @return a ThreadFactory
+   */
+  static ThreadFactory threadFactory(final String name) {
+    final AtomicInteger count = new AtomicInteger();
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  @Override
+  public CompletableFuture<Void> insertAsync(String collection, String name, JSONObject value) {
+    return submit(() -> {
+      records.insert(collection, name, value);
+      return null;
+    }, executor);
+  }
+
+  @Override
+  public CompletableFuture<JSONObject> lookupEntireRecordAsync(String collection, String name) {
+    return submit(() -> records.lookupEntireRecord(collection, name), executor);
+  }
+
+  @Override
+  public CompletableFuture<HashMap<ColumnField, Object>> lookupSomeFieldsAsync(String collection,
+          String name, ColumnField nameField, ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys) {
+    return submit(() -> records.lookupSomeFields(collection, name, nameField, valuesMapField, valuesMapKeys),
+            executor);
+  }
+
+  @Override
+  public CompletableFuture<Map<String, JSONObject>> lookupManyAsync(String collection,
+          Collection<String> names, List<String> projection) {
+    return submit(() -> records.lookupMany(collection, names, projection), executor);
+  }
+
+  @Override
+  public CompletableFuture<Void> removeEntireRecordAsync(String collection, String name) {
+    return submit(() -> {
+      records.removeEntireRecord(collection, name);
+      return null;
+    }, executor);
+  }
+
+  @Override
+  public CompletableFuture<Void> updateEntireRecordAsync(String collection, String name,
+          ValuesMap valuesMap) {
+    return submit(() -> {
+      records.updateEntireRecord(collection, name, valuesMap);
+      return null;
+    }, executor);
+  }
+
+  @Override
+  public CompletableFuture<Void> updateIndividualFieldsAsync(String collection, String name,
+          ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys,
+          ArrayList<Object> valuesMapValues) {
+    return submit(() -> {
+      records.updateIndividualFields(collection, name, valuesMapField, valuesMapKeys, valuesMapValues);
+      return null;
+    }, executor);
+  }
+
+  @Override
+  public CompletableFuture<Void> removeMapKeysAsync(String collection, String name,
+          ColumnField mapField, ArrayList<ColumnField> mapKeys) {
+    return submit(() -> {
+      records.removeMapKeys(collection, name, mapField, mapKeys);
+      return null;
+    }, executor);
+  }
+
+  @Override
+  public CompletableFuture<AbstractRecordCursor> selectRecordsQueryAsync(String collection,
+          ColumnField valuesMapField, String query, List<String> projection) {
+    return submit(() -> records.selectRecordsQuery(collection, valuesMapField, query, projection),
+            executor);
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.database;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.util.JSON;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A select query in GNS syntax that has been parsed once.
+ *
+ * GNS queries look like mongo queries without the outer braces, with parentheses
+ * allowed in place of braces and with the user fields written as <code>~field</code>.
+ * Compiling one parses it into the tree of BasicDBObjects and BasicDBLists the
+ * mongo parser produces with the <code>~</code> keys left as they are. The tree gives
+ * the fields the query uses for the ACL checks, tells if the query uses forbidden
+ * keys and is translated to the native query the backends run, which is
+ * the tree with the user fields moved into the values map and records that
+ * aren't guids filtered out.
+ *
+ * Compiled queries are cached by their text (see
+ * {@link GNSConfig.GNSC#SELECT_QUERY_CACHE_SIZE}) so the same query, like the one
+ * stored with a context aware group, isn't parsed again each time it runs.
+ * Each server compiles the queries it runs itself, trees from other servers
+ * aren't trusted to match their text.
+ *
+ * Compiled queries and the native queries they return are shared, so neither is
+ * to be modified.
+ *
+ * @author westy
+ */
+public class CompiledSelectQuery {
+
+  private static final String WHERE = "$where";
+  private static final Cache<String, CompiledSelectQuery> PLANS
+          = CacheBuilder.newBuilder().concurrencyLevel(Runtime.getRuntime().availableProcessors())
+          .maximumSize(Config.getGlobalInt(GNSConfig.GNSC.SELECT_QUERY_CACHE_SIZE))
+          .build();
+
+  private final String text;
+  private final BasicDBObject tree;
+  private final List<String> fields;
+  private final boolean evil;
+  // values map field name => native query
+  private final Map<String, BasicDBObject> nativeQueries = new ConcurrentHashMap<>();
+
+  private CompiledSelectQuery(String text, BasicDBObject tree) {
+    this.text = text;
+    this.tree = tree;
+    Set<String> treeFields = new LinkedHashSet<>();
+    this.evil = walk(tree, treeFields);
+    this.fields = Collections.unmodifiableList(new ArrayList<>(treeFields));
+  }
+
+  /**
+   * Returns the compiled form of a query, parsing it if it isn't cached.
+   *
+   * @param text a query in GNS syntax
+   * @return the compiled query
+   * @throws IllegalArgumentException if the query can't be parsed
+   */
+  public static CompiledSelectQuery compile(String text) {
+    CompiledSelectQuery plan = PLANS.getIfPresent(text);
+    if (plan == null) {
+      plan = new CompiledSelectQuery(text, parse(text));
+      PLANS.put(text, plan);
+    }
+    return plan;
+  }
+
+  private static BasicDBObject parse(String text) {
+    // convert something like this: ~fred : ($gt: 0) into this: {~fred : {$gt: 0}}
+    String edittedQuery = "{" + text.replace("(", "{").replace(")", "}") + "}";
+    Object parsed;
+    try {
+      parsed = JSON.parse(edittedQuery);
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Unable to parse query " + text, e);
+    }
+    if (!(parsed instanceof BasicDBObject)) {
+      throw new IllegalArgumentException("Unable to parse query " + text);
+    }
+    return (BasicDBObject) parsed;
+  }
+
+  // Collects the user fields and returns true if a key is one users can't query.
+  private static boolean walk(Object value, Set<String> fields) {
+    boolean evil = false;
+    if (value instanceof Map) {
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        String key = entry.getKey().toString();
+        if (key.startsWith("~")) {
+          fields.add(key.substring(1));
+        }
+        if (key.contains(NameRecord.VALUES_MAP.getName()) || key.contains(WHERE)) {
+          evil = true;
+        }
+        evil |= walk(entry.getValue(), fields);
+      }
+    } else if (value instanceof Collection) {
+      for (Object element : (Collection<?>) value) {
+        evil |= walk(element, fields);
+      }
+    }
+    return evil;
+  }
+
+  /**
+   * Returns the text the query was compiled from.
+   *
+   * @return the text
+   */
+  public String getText() {
+    return text;
+  }
+
+  /**
+   * Returns the user fields the query uses.
+   *
+   * @return the fields
+   */
+  public List<String> getFields() {
+    return fields;
+  }
+
+  /**
+   * Returns true if the query contains operations that are not allowed,
+   * currently $where and keys naming the values map.
+   *
+   * @return true if the query is bad
+   */
+  public boolean containsEvil() {
+    return evil;
+  }
+
+  /**
+   * Returns the query the backends run. It's mongo syntax, which the
+   * {@link JSONQueryMatcher} evaluates too.
+   *
+   * @param valuesMapField
+   * @return the native query
+   */
+  public BasicDBObject toNativeQuery(ColumnField valuesMapField) {
+    BasicDBObject query = nativeQueries.get(valuesMapField.getName());
+    if (query == null) {
+      // Filter out HRN records
+      BasicDBList and = new BasicDBList();
+      and.add(new BasicDBObject(NameRecord.VALUES_MAP.getName() + "." + AccountAccess.GUID_INFO,
+              new BasicDBObject("$exists", true)));
+      and.add(moveIntoValuesMap(tree, valuesMapField.getName() + "."));
+      query = new BasicDBObject("$and", and);
+      nativeQueries.put(valuesMapField.getName(), query);
+    }
+    return query;
+  }
+
+  // Returns a copy of the tree with ~field keys replaced by prefix + field.
+  private static Object moveIntoValuesMap(Object value, String prefix) {
+    if (value instanceof Map) {
+      BasicDBObject result = new BasicDBObject();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        String key = entry.getKey().toString();
+        result.put(key.startsWith("~") ? prefix + key.substring(1) : key,
+                moveIntoValuesMap(entry.getValue(), prefix));
+      }
+      return result;
+    } else if (value instanceof Collection) {
+      BasicDBList result = new BasicDBList();
+      for (Object element : (Collection<?>) value) {
+        result.add(moveIntoValuesMap(element, prefix));
+      }
+      return result;
+    }
+    return value;
+  }
+}
@@ -16,9 +16,18 @@ import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.DiskMap;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+
+import com.mongodb.MongoException;
 
 import org.json.JSONObject;
 
@@ -30,12 +39,43 @@ import org.json.JSONObject;
  * A collection is basically a named separate namespace for documents.
  * A document is a JSONObject.
  *
+ * Changed records are written behind to mongo by a background flusher
+ * every DISKMAP_FLUSH_INTERVAL ms or as soon as DISKMAP_DIRTY_WATERMARK records
+ * are dirty. Every change gets a sequence number and operations that need mongo to be
+ * up to date call {@link #awaitFlushed()} to wait for the changes made before they
+ * were called. The flusher and the commits of records the DiskMap pages out
+ * write to mongo one at a time so neither overwrites the other with an older value.
+ *
  * @author westy
  */
 public class DiskMapCollection {
 
   private DiskMap<String, JSONObject> map;
   private MongoRecords mongoRecords;
+  private final DiskMapIndexes indexes;
+  private final boolean indexesEnabled = Config.getGlobalBoolean(GNSConfig.GNSC.DISKMAP_INDEXES);
+  // Set when an index build fails, the next select starts it again.
+  private final AtomicBoolean indexBuildFailed = new AtomicBoolean();
+
+  // The field marking an entire record as changed.
+  private static final String ENTIRE_RECORD = "";
+
+  // record name => changed dotted field => sequence number of the last change
+  private final ConcurrentHashMap<String, Map<String, Long>> dirtyFields = new ConcurrentHashMap<>();
+  private final AtomicLong dirtySequence = new AtomicLong();
+  // Marking takes the read lock, the flusher takes the write lock to snapshot
+  // the dirty fields together with the sequence number they go up to.
+  private final ReentrantReadWriteLock dirtyLock = new ReentrantReadWriteLock();
+  // Held while writing to mongo. The flusher reads the values before taking it
+  // because DiskMap may hold its own lock when it calls commit.
+  private final Object mongoLock = new Object();
+
+  private final boolean persistent = !Config.getGlobalBoolean(GNSConfig.GNSC.IN_MEMORY_DB);
+  private final int dirtyWatermark = Config.getGlobalInt(GNSConfig.GNSC.DISKMAP_DIRTY_WATERMARK);
+  private final Object flushMonitor = new Object();
+  private volatile long flushedSequence = 0;
+  private boolean flushRequested = false;
+  private volatile boolean running = true;
 
   /**
    * Create a DiskMapCollection name collection on a given nodeID.
@@ -60,14 +100,29 @@ public class DiskMapCollection {
   public DiskMapCollection(String nodeID, int port, String collectionName) {
     this.mongoRecords = new MongoRecords(nodeID + "-"
             + collectionName + new Random().nextInt(), port);
+    this.indexes = new DiskMapIndexes(collectionName);
     this.map = new DiskMap<String, JSONObject>(!Config.getGlobalBoolean(GNSConfig.GNSC.IN_MEMORY_DB) ? 128*1024 :
     	Long.MAX_VALUE) {
       @Override
       public Set<String> commit(Map<String, JSONObject> toCommit) throws IOException {
-        try {
-        	mongoRecords.bulkUpdate(DBNAMERECORD, toCommit);
-        } catch (FailedDBOperationException | RecordExistsException e) {
-          throw new IOException(e);
+        synchronized (mongoLock) {
+          Map<String, Map<String, Long>> committing = getDirtyFields(toCommit.keySet());
+          Map<String, JSONObject> writing = toCommit;
+          if (persistent) {
+            // Clean records were already written by the flusher, maybe with newer values
+            writing = new HashMap<>();
+            for (String name : committing.keySet()) {
+              writing.put(name, toCommit.get(name));
+            }
+          }
+          try {
+            if (!writing.isEmpty()) {
+              mongoRecords.bulkUpdate(DBNAMERECORD, writing, toFieldSets(committing));
+            }
+          } catch (FailedDBOperationException | RecordExistsException | MongoException e) {
+            throw new IOException(e);
+          }
+          clearDirtyFields(committing);
         }
         return toCommit.keySet();
       }
@@ -86,6 +141,298 @@ public class DiskMapCollection {
         return null;
       }
     };
+    if (persistent) {
+      Thread flusher = new Thread(this::flushLoop, "DiskMapFlusher-" + collectionName);
+      flusher.setDaemon(true);
+      flusher.start();
+    }
+    if (indexesEnabled) {
+      // Rebuild the indexes mongo has from the last run
+      boolean added = false;
+      for (Map.Entry<String, String> entry : mongoRecords.getIndexedFields(DBNAMERECORD).entrySet()) {
+        added |= indexes.addIndex(entry.getKey(), entry.getValue());
+      }
+      if (added) {
+        startIndexBuild();
+      }
+    }
+  }
+
+  /**
+   * Adds an in memory index on the full dotted field name and builds it
+   * in the background. Does nothing if DISKMAP_INDEXES is off.
+   *
+   * @param field
+   * @param type the mongo index type
+   */
+  public void createIndex(String field, String type) {
+    if (indexesEnabled && indexes.addIndex(field, type)) {
+      startIndexBuild();
+    }
+  }
+
+  private void startIndexBuild() {
+    Thread builder = new Thread(this::buildIndexes, "DiskMapIndexer");
+    builder.setDaemon(true);
+    builder.start();
+  }
+
+  // Changes made once an index is added are applied to it directly so the
+  // scan only has to see the records as they were when it was added.
+  private void buildIndexes() {
+    try {
+      if (persistent) {
+        awaitFlushed();
+        indexes.build(mongoRecords.getAllRowsIterator(DBNAMERECORD));
+      } else {
+        indexes.build(new EmbeddedRecordCursor(map.values().iterator()));
+      }
+    } catch (FailedDBOperationException | RuntimeException e) {
+      // The indexes stay unused until a build gets all the way through
+      indexBuildFailed.set(true);
+      GNSConfig.getLogger().log(Level.WARNING, "Unable to build indexes {0}, will retry on the next select: {1}",
+              new Object[]{indexes, e.getMessage()});
+    }
+  }
+
+  /**
+   * Starts building the indexes again if the last build failed.
+   * Called by selects before they look at the indexes.
+   */
+  public void retryFailedIndexBuild() {
+    if (indexBuildFailed.compareAndSet(true, false)) {
+      startIndexBuild();
+    }
+  }
+
+  /**
+   * Waits until all changes made before this call have been written to mongo.
+   * Gives up after SELECT_REQUEST_TIMEOUT ms.
+   *
+   * @throws FailedDBOperationException if the changes weren't written in time
+   */
+  public void awaitFlushed() throws FailedDBOperationException {
+    if (!persistent) {
+      return;
+    }
+    long target = dirtySequence.get();
+    long deadline = System.currentTimeMillis()
+            + Config.getGlobalInt(GNSConfig.GNSC.SELECT_REQUEST_TIMEOUT);
+    synchronized (flushMonitor) {
+      while (flushedSequence < target && running) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          GNSConfig.getLogger().log(Level.WARNING,
+                  "Timed out waiting for flush of {0} up to {1}; at {2}",
+                  new Object[]{mongoRecords, target, flushedSequence});
+          throw new FailedDBOperationException(DBNAMERECORD, mongoRecords.toString(),
+                  "Changes up to " + target + " not written to mongo, at " + flushedSequence);
+        }
+        flushRequested = true;
+        flushMonitor.notifyAll();
+        try {
+          flushMonitor.wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new FailedDBOperationException(DBNAMERECORD, mongoRecords.toString(),
+                  "Interrupted waiting for changes to be written to mongo");
+        }
+      }
+    }
+  }
+
+  /**
+   * Stops the background flusher after writing the outstanding changes.
+   */
+  public void close() {
+    synchronized (flushMonitor) {
+      running = false;
+      flushMonitor.notifyAll();
+    }
+    if (persistent) {
+      flush();
+    }
+  }
+
+  private void flushLoop() {
+    long interval = Config.getGlobalInt(GNSConfig.GNSC.DISKMAP_FLUSH_INTERVAL);
+    while (running) {
+      synchronized (flushMonitor) {
+        long deadline = System.currentTimeMillis() + interval;
+        long remaining;
+        while (running && !flushRequested && dirtyFields.size() < dirtyWatermark
+                && (remaining = deadline - System.currentTimeMillis()) > 0) {
+          try {
+            flushMonitor.wait(remaining);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        flushRequested = false;
+      }
+      if (running) {
+        flush();
+      }
+    }
+  }
+
+  // Writes the records that are dirty now and advances the flushed sequence
+  // once they are in mongo. Waiters stay blocked if the write fails.
+  private void flush() {
+    long target;
+    Map<String, Map<String, Long>> committing;
+    dirtyLock.writeLock().lock();
+    try {
+      target = dirtySequence.get();
+      committing = getDirtyFields(dirtyFields.keySet());
+    } finally {
+      dirtyLock.writeLock().unlock();
+    }
+    if (!committing.isEmpty()) {
+      // Values are read after the dirty fields so they are at least as new.
+      Map<String, JSONObject> values = new HashMap<>();
+      for (String name : committing.keySet()) {
+        values.put(name, map.get(name));
+      }
+      try {
+        synchronized (mongoLock) {
+          // Fields a page out committed since they were read are already in mongo
+          committing = getUnchangedDirtyFields(committing);
+          Map<String, JSONObject> toCommit = new HashMap<>();
+          for (String name : committing.keySet()) {
+            toCommit.put(name, values.get(name));
+          }
+          if (!toCommit.isEmpty()) {
+            mongoRecords.bulkUpdate(DBNAMERECORD, toCommit, toFieldSets(committing));
+          }
+          clearDirtyFields(committing);
+        }
+      } catch (FailedDBOperationException | RecordExistsException | MongoException e) {
+        // The dirty fields are kept and retried on the next flush
+        GNSConfig.getLogger().log(Level.WARNING, "Flush of {0} failed with {1}, retrying later: {2}",
+                new Object[]{mongoRecords, e.getClass().getSimpleName(), e.getMessage()});
+        return;
+      }
+    }
+    synchronized (flushMonitor) {
+      flushedSequence = Math.max(flushedSequence, target);
+      flushMonitor.notifyAll();
+    }
+  }
+
+  /**
+   * Marks a dotted field of a record as changed so that the next commit
+   * of the record only writes the changed fields.
+   *
+   * @param name
+   * @param field
+   */
+  public void markDirty(String name, String field) {
+    if (!persistent) {
+      return;
+    }
+    dirtyLock.readLock().lock();
+    try {
+      markDirtyLocked(name, field);
+    } finally {
+      dirtyLock.readLock().unlock();
+    }
+    if (dirtyFields.size() >= dirtyWatermark) {
+      synchronized (flushMonitor) {
+        flushMonitor.notifyAll();
+      }
+    }
+  }
+
+  private void markDirtyLocked(String name, String field) {
+    long sequence = dirtySequence.incrementAndGet();
+    dirtyFields.compute(name, (key, fields) -> {
+      if (fields == null) {
+        fields = new HashMap<>();
+      }
+      // Overlapping fields collapse into the shorter one
+      // as mongo won't update a field and its parent together.
+      String covering = field;
+      for (Iterator<String> iterator = fields.keySet().iterator(); iterator.hasNext();) {
+        String existing = iterator.next();
+        if (covers(existing, covering)) {
+          covering = existing;
+          iterator.remove();
+        } else if (covers(covering, existing)) {
+          iterator.remove();
+        }
+      }
+      fields.put(covering, sequence);
+      return fields;
+    });
+  }
+
+  /**
+   * Marks a record as entirely changed (inserted, replaced or removed)
+   * so that the next commit writes the whole record.
+   *
+   * @param name
+   */
+  public void markReplaced(String name) {
+    markDirty(name, ENTIRE_RECORD);
+  }
+
+  private static boolean covers(String parent, String field) {
+    return ENTIRE_RECORD.equals(parent) || field.equals(parent) || field.startsWith(parent + ".");
+  }
+
+  private Map<String, Map<String, Long>> getDirtyFields(Set<String> names) {
+    Map<String, Map<String, Long>> result = new HashMap<>();
+    for (String name : names) {
+      dirtyFields.computeIfPresent(name, (key, fields) -> {
+        result.put(name, new HashMap<>(fields));
+        return fields;
+      });
+    }
+    return result;
+  }
+
+  // Returns the read dirty fields that are still marked with the same change.
+  private Map<String, Map<String, Long>> getUnchangedDirtyFields(Map<String, Map<String, Long>> read) {
+    Map<String, Map<String, Long>> result = new HashMap<>();
+    for (Map.Entry<String, Map<String, Long>> entry : read.entrySet()) {
+      dirtyFields.computeIfPresent(entry.getKey(), (key, fields) -> {
+        Map<String, Long> unchanged = new HashMap<>();
+        for (Map.Entry<String, Long> field : entry.getValue().entrySet()) {
+          if (field.getValue().equals(fields.get(field.getKey()))) {
+            unchanged.put(field.getKey(), field.getValue());
+          }
+        }
+        if (!unchanged.isEmpty()) {
+          result.put(key, unchanged);
+        }
+        return fields;
+      });
+    }
+    return result;
+  }
+
+  // Records without field changes, or that were replaced, are written whole.
+  private static Map<String, Set<String>> toFieldSets(Map<String, Map<String, Long>> dirty) {
+    Map<String, Set<String>> result = new HashMap<>();
+    for (Map.Entry<String, Map<String, Long>> entry : dirty.entrySet()) {
+      if (!entry.getValue().containsKey(ENTIRE_RECORD)) {
+        result.put(entry.getKey(), entry.getValue().keySet());
+      }
+    }
+    return result;
+  }
+
+  // Only clears marks that haven't been changed again since they were read.
+  private void clearDirtyFields(Map<String, Map<String, Long>> committed) {
+    for (Map.Entry<String, Map<String, Long>> entry : committed.entrySet()) {
+      dirtyFields.computeIfPresent(entry.getKey(), (key, fields) -> {
+        for (Map.Entry<String, Long> field : entry.getValue().entrySet()) {
+          fields.remove(field.getKey(), field.getValue());
+        }
+        return fields.isEmpty() ? null : fields;
+      });
+    }
   }
 
   /**
@@ -96,6 +443,14 @@ public class DiskMapCollection {
     return map;
   }
 
+  /**
+   *
+   * @return the in memory indexes
+   */
+  public DiskMapIndexes getIndexes() {
+    return indexes;
+  }
+
   /**
    * 
    * @return the mongo records
@@ -0,0 +1,619 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.database;
+
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * The in memory secondary indexes of one DiskMap collection.
+ *
+ * Each index maps the values of one dotted field of the records to the names
+ * of the records that have them. Ordinary indexes are sorted so they can answer
+ * equality, $in and range conditions. Indexes of type 2d or 2dsphere are grids
+ * of one degree cells that answer $geoWithin / $within ($box and $center)
+ * and $near conditions.
+ *
+ * {@link #update} must be called with the new version of a record after every
+ * change to it. An index is built by scanning the records in the background
+ * and isn't used until the scan is done; records that change during the scan
+ * are taken from the updates instead. If a scan fails {@link #build} can
+ * simply be called again.
+ *
+ * The indexes only narrow down the records a select has to look at, the
+ * caller still checks each candidate against the whole query.
+ *
+ * @author westy
+ */
+public class DiskMapIndexes {
+
+  private static final double CELL_SIZE = 1.0;
+  // Beyond this many cells a geospatial condition doesn't narrow things down enough.
+  private static final int MAX_CELLS = 64 * 1024;
+  private static final String NAME_FIELD = NameRecord.NAME.getName();
+
+  private final String collection;
+  // full dotted field name => index
+  private final ConcurrentHashMap<String, FieldIndex> sortedIndexes = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, FieldIndex> spatialIndexes = new ConcurrentHashMap<>();
+
+  /**
+   * Creates the indexes for a collection.
+   *
+   * @param collection
+   */
+  public DiskMapIndexes(String collection) {
+    this.collection = collection;
+  }
+
+  /**
+   * Returns true if the type is a geospatial index type.
+   *
+   * @param type
+   * @return true for 2d and 2dsphere
+   */
+  public static boolean isSpatial(String type) {
+    return "2d".equals(type) || "2dsphere".equals(type);
+  }
+
+  /**
+   * Returns true if there is an index of the given type on the field,
+   * whether or not it is built yet.
+   *
+   * @param field the full dotted field name
+   * @param type
+   * @return true if the index exists
+   */
+  public boolean hasIndex(String field, String type) {
+    return (isSpatial(type) ? spatialIndexes : sortedIndexes).containsKey(field);
+  }
+
+  /**
+   * Adds an index on the field. It is used once {@link #build} has been
+   * called with all the records in the collection.
+   *
+   * @param field the full dotted field name
+   * @param type
+   * @return false if the index already exists
+   */
+  public boolean addIndex(String field, String type) {
+    ConcurrentHashMap<String, FieldIndex> indexes = isSpatial(type) ? spatialIndexes : sortedIndexes;
+    return indexes.putIfAbsent(field, isSpatial(type) ? new SpatialIndex(field) : new SortedIndex(field)) == null;
+  }
+
+  /**
+   * Adds all the records from the cursor to the indexes that are being built
+   * and then starts using them.
+   *
+   * @param cursor
+   * @throws FailedDBOperationException
+   */
+  public void build(AbstractRecordCursor cursor) throws FailedDBOperationException {
+    List<FieldIndex> building = new ArrayList<>();
+    for (FieldIndex index : allIndexes()) {
+      if (!index.built) {
+        building.add(index);
+      }
+    }
+    int count = 0;
+    while (cursor.hasNext()) {
+      JSONObject record = cursor.nextJSONObject();
+      String name = record.optString(NAME_FIELD, null);
+      if (name != null) {
+        for (FieldIndex index : building) {
+          index.addScanned(name, record);
+        }
+        count++;
+      }
+    }
+    for (FieldIndex index : building) {
+      index.finishBuilding();
+    }
+    DatabaseConfig.getLogger().log(Level.INFO, "{0} built {1} index(es) from {2} records",
+            new Object[]{collection, building.size(), count});
+  }
+
+  private List<FieldIndex> allIndexes() {
+    List<FieldIndex> result = new ArrayList<>(sortedIndexes.values());
+    result.addAll(spatialIndexes.values());
+    return result;
+  }
+
+  /**
+   * Updates the indexes for the new version of the record.
+   * The record can contain DBObjects and DBLists.
+   *
+   * @param name
+   * @param record - the record or null if it was removed
+   */
+  public void update(String name, Object record) {
+    if (sortedIndexes.isEmpty() && spatialIndexes.isEmpty()) {
+      return;
+    }
+    for (FieldIndex index : allIndexes()) {
+      index.update(name, record);
+    }
+  }
+
+  /**
+   * Returns the names of the records that might match the query, or null
+   * if none of the built indexes help. The query is one parsed by
+   * {@link com.mongodb.util.JSON#parse(String)} with full field names.
+   *
+   * @param query
+   * @return a set of names or null
+   */
+  public Set<String> candidates(Map<?, ?> query) {
+    Set<String> best = null;
+    for (Map.Entry<?, ?> entry : query.entrySet()) {
+      String key = entry.getKey().toString();
+      Set<String> result = null;
+      if ("$and".equals(key) && entry.getValue() instanceof Collection) {
+        for (Object clause : (Collection<?>) entry.getValue()) {
+          if (clause instanceof Map) {
+            best = smaller(best, candidates((Map<?, ?>) clause));
+          }
+        }
+      } else if ("$or".equals(key) && entry.getValue() instanceof Collection) {
+        // only helps if every branch can use an index
+        result = new HashSet<>();
+        for (Object clause : (Collection<?>) entry.getValue()) {
+          Set<String> branch = clause instanceof Map ? candidates((Map<?, ?>) clause) : null;
+          if (branch == null) {
+            result = null;
+            break;
+          }
+          result.addAll(branch);
+        }
+      } else if (!key.startsWith("$")) {
+        FieldIndex index = sortedIndexes.get(key);
+        if (index != null && index.built) {
+          result = index.candidates(entry.getValue());
+        }
+        index = spatialIndexes.get(key);
+        if (index != null && index.built) {
+          result = smaller(result, index.candidates(entry.getValue()));
+        }
+      }
+      best = smaller(best, result);
+    }
+    return best;
+  }
+
+  private static Set<String> smaller(Set<String> a, Set<String> b) {
+    if (a == null) {
+      return b;
+    } else if (b == null) {
+      return a;
+    }
+    return a.size() <= b.size() ? a : b;
+  }
+
+  @Override
+  public String toString() {
+    return "DiskMapIndexes{" + collection + " sorted=" + sortedIndexes.keySet()
+            + " spatial=" + spatialIndexes.keySet() + '}';
+  }
+
+  // An index of one field. Subclasses say which keys a record has and
+  // which keys a condition needs.
+  private static abstract class FieldIndex {
+
+    protected final String field;
+    private final String[] path;
+    // name => keys the record is currently indexed under
+    private final ConcurrentHashMap<String, Collection<Object>> keysByName = new ConcurrentHashMap<>();
+    // names that changed while the index was being built
+    private Set<String> changedWhileBuilding = new HashSet<>();
+    private volatile boolean built = false;
+
+    FieldIndex(String field) {
+      this.field = field;
+      this.path = field.split("\\.");
+    }
+
+    abstract Collection<Object> keys(List<Object> values);
+
+    abstract void add(Object key, String name);
+
+    abstract void remove(Object key, String name);
+
+    abstract Set<String> candidates(Object condition);
+
+    synchronized void update(String name, Object record) {
+      if (changedWhileBuilding != null) {
+        changedWhileBuilding.add(name);
+      }
+      replace(name, record);
+    }
+
+    synchronized void addScanned(String name, JSONObject record) {
+      // another build may have finished first
+      if (changedWhileBuilding != null && !changedWhileBuilding.contains(name)) {
+        replace(name, record);
+      }
+    }
+
+    synchronized void finishBuilding() {
+      changedWhileBuilding = null;
+      built = true;
+    }
+
+    private void replace(String name, Object record) {
+      Collection<Object> newKeys = Collections.emptySet();
+      if (record != null) {
+        List<Object> values = new ArrayList<>();
+        resolve(record, path, 0, values);
+        newKeys = keys(values);
+      }
+      Collection<Object> oldKeys = newKeys.isEmpty() ? keysByName.remove(name) : keysByName.put(name, newKeys);
+      if (oldKeys != null) {
+        for (Object key : oldKeys) {
+          if (!newKeys.contains(key)) {
+            remove(key, name);
+          }
+        }
+      }
+      for (Object key : newKeys) {
+        if (oldKeys == null || !oldKeys.contains(key)) {
+          add(key, name);
+        }
+      }
+    }
+  }
+
+  // Like JSONQueryMatcher.resolve but also walks the DBObjects and DBLists
+  // that records in the DiskMap can contain.
+  private static void resolve(Object node, String[] path, int i, List<Object> values) {
+    if (i == path.length) {
+      values.add(node);
+    } else if (node instanceof JSONObject) {
+      JSONObject json = (JSONObject) node;
+      if (json.has(path[i])) {
+        resolve(json.opt(path[i]), path, i + 1, values);
+      }
+    } else if (node instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) node;
+      if (map.containsKey(path[i])) {
+        resolve(map.get(path[i]), path, i + 1, values);
+      }
+    } else if (node instanceof JSONArray || node instanceof List) {
+      List<Object> list = asList(node);
+      int index = arrayIndex(path[i]);
+      if (index >= 0 && index < list.size()) {
+        resolve(list.get(index), path, i + 1, values);
+      }
+      for (Object element : list) {
+        if (element instanceof JSONObject || element instanceof Map) {
+          resolve(element, path, i, values);
+        }
+      }
+    }
+  }
+
+  private static List<Object> asList(Object node) {
+    if (node instanceof JSONArray) {
+      JSONArray array = (JSONArray) node;
+      List<Object> list = new ArrayList<>(array.length());
+      for (int i = 0; i < array.length(); i++) {
+        list.add(array.opt(i));
+      }
+      return list;
+    }
+    return new ArrayList<Object>((List<?>) node);
+  }
+
+  private static int arrayIndex(String segment) {
+    if (segment.isEmpty() || segment.length() > 9) {
+      return -1;
+    }
+    for (int i = 0; i < segment.length(); i++) {
+      if (!Character.isDigit(segment.charAt(i))) {
+        return -1;
+      }
+    }
+    return Integer.parseInt(segment);
+  }
+
+  // Numbers sort before strings which sort before booleans. Only values
+  // of the same kind are ever compared by a query.
+  private static final Comparator<Object> KEY_ORDER = new Comparator<Object>() {
+    @Override
+    @SuppressWarnings("unchecked")
+    public int compare(Object a, Object b) {
+      int rank = Integer.compare(rank(a), rank(b));
+      return rank != 0 ? rank : ((Comparable<Object>) a).compareTo(b);
+    }
+  };
+
+  private static int rank(Object key) {
+    return key instanceof Double ? 0 : key instanceof String ? 1 : 2;
+  }
+
+  // Returns the key for a scalar value or null if it can't be indexed.
+  private static Object normalize(Object value) {
+    if (value instanceof Number) {
+      double d = ((Number) value).doubleValue();
+      return Double.isNaN(d) ? null : d;
+    } else if (value instanceof String || value instanceof Boolean) {
+      return value;
+    }
+    return null;
+  }
+
+  // Answers equality, $in and range conditions. Array values are indexed
+  // under each of their elements like a mongo multikey index.
+  private static class SortedIndex extends FieldIndex {
+
+    private final ConcurrentSkipListMap<Object, Set<String>> names = new ConcurrentSkipListMap<>(KEY_ORDER);
+
+    SortedIndex(String field) {
+      super(field);
+    }
+
+    @Override
+    Collection<Object> keys(List<Object> values) {
+      Set<Object> keys = new HashSet<>();
+      for (Object value : values) {
+        if (value instanceof JSONArray || value instanceof List) {
+          for (Object element : asList(value)) {
+            addKey(keys, element);
+          }
+        } else {
+          addKey(keys, value);
+        }
+      }
+      return keys;
+    }
+
+    private static void addKey(Set<Object> keys, Object value) {
+      Object key = normalize(value);
+      if (key != null) {
+        keys.add(key);
+      }
+    }
+
+    @Override
+    void add(Object key, String name) {
+      Set<String> set = names.get(key);
+      if (set == null) {
+        names.putIfAbsent(key, ConcurrentHashMap.<String>newKeySet());
+        set = names.get(key);
+      }
+      set.add(name);
+    }
+
+    @Override
+    void remove(Object key, String name) {
+      Set<String> set = names.get(key);
+      if (set != null) {
+        set.remove(name);
+        if (set.isEmpty()) {
+          names.remove(key, set);
+        }
+      }
+    }
+
+    @Override
+    Set<String> candidates(Object condition) {
+      if (!(condition instanceof Map)) {
+        return equal(condition);
+      }
+      Map<?, ?> operators = (Map<?, ?>) condition;
+      Set<String> best = null;
+      Object lower = null, upper = null;
+      boolean lowerInclusive = false, upperInclusive = false;
+      for (Map.Entry<?, ?> entry : operators.entrySet()) {
+        String operator = entry.getKey().toString();
+        Object argument = entry.getValue();
+        if (!operator.startsWith("$")) {
+          // matching a whole object, not something we index
+          return null;
+        }
+        switch (operator) {
+          case "$eq":
+            best = smaller(best, equal(argument));
+            break;
+          case "$in":
+            best = smaller(best, in(argument));
+            break;
+          case "$gt":
+          case "$gte":
+            lower = normalize(argument);
+            lowerInclusive = "$gte".equals(operator);
+            break;
+          case "$lt":
+          case "$lte":
+            upper = normalize(argument);
+            upperInclusive = "$lte".equals(operator);
+            break;
+          default:
+            // everything else only narrows things down further
+            break;
+        }
+      }
+      if (lower instanceof Boolean || upper instanceof Boolean) {
+        return best;
+      }
+      if (lower != null || upper != null) {
+        best = smaller(best, range(lower, lowerInclusive, upper, upperInclusive));
+      }
+      return best;
+    }
+
+    private Set<String> equal(Object argument) {
+      Object key = normalize(argument);
+      if (key == null) {
+        return null;
+      }
+      Set<String> set = names.get(key);
+      return set != null ? new HashSet<>(set) : new HashSet<String>();
+    }
+
+    private Set<String> in(Object argument) {
+      if (!(argument instanceof Collection)) {
+        return null;
+      }
+      Set<String> result = new HashSet<>();
+      for (Object element : (Collection<?>) argument) {
+        if (element instanceof Pattern) {
+          return null;
+        }
+        Set<String> set = equal(element);
+        if (set == null) {
+          return null;
+        }
+        result.addAll(set);
+      }
+      return result;
+    }
+
+    private Set<String> range(Object lower, boolean lowerInclusive, Object upper, boolean upperInclusive) {
+      if (lower != null && upper != null && rank(lower) != rank(upper)) {
+        // a number can't be both greater than a number and less than a string
+        return new HashSet<>();
+      }
+      // comparisons only match values of the same kind
+      Object kind = lower != null ? lower : upper;
+      NavigableMap<Object, Set<String>> sameKind = kind instanceof Double
+              ? names.subMap(Double.NEGATIVE_INFINITY, true, "", false)
+              : names.subMap("", true, Boolean.FALSE, false);
+      NavigableMap<Object, Set<String>> selected = sameKind;
+      if (lower != null) {
+        selected = selected.tailMap(lower, lowerInclusive);
+      }
+      if (upper != null) {
+        selected = selected.headMap(upper, upperInclusive);
+      }
+      Set<String> result = new HashSet<>();
+      for (Set<String> set : selected.values()) {
+        result.addAll(set);
+      }
+      return result;
+    }
+  }
+
+  // Answers geospatial conditions using a grid of cells.
+  private static class SpatialIndex extends FieldIndex {
+
+    private final ConcurrentHashMap<Long, Set<String>> cells = new ConcurrentHashMap<>();
+
+    SpatialIndex(String field) {
+      super(field);
+    }
+
+    private static long cell(double x, double y) {
+      return ((long) Math.floor(x / CELL_SIZE) << 32) ^ ((long) Math.floor(y / CELL_SIZE) & 0xffffffffL);
+    }
+
+    @Override
+    Collection<Object> keys(List<Object> values) {
+      Set<Object> keys = new HashSet<>();
+      for (Object value : values) {
+        double[] point = JSONQueryMatcher.point(value);
+        if (point != null) {
+          keys.add(cell(point[0], point[1]));
+        }
+      }
+      return keys;
+    }
+
+    @Override
+    void add(Object key, String name) {
+      Set<String> set = cells.get((Long) key);
+      if (set == null) {
+        cells.putIfAbsent((Long) key, ConcurrentHashMap.<String>newKeySet());
+        set = cells.get((Long) key);
+      }
+      set.add(name);
+    }
+
+    @Override
+    void remove(Object key, String name) {
+      Set<String> set = cells.get((Long) key);
+      if (set != null) {
+        set.remove(name);
+        if (set.isEmpty()) {
+          cells.remove((Long) key, set);
+        }
+      }
+    }
+
+    @Override
+    Set<String> candidates(Object condition) {
+      if (!(condition instanceof Map)) {
+        return null;
+      }
+      Map<?, ?> operators = (Map<?, ?>) condition;
+      Object within = operators.containsKey("$geoWithin") ? operators.get("$geoWithin") : operators.get("$within");
+      if (within instanceof Map) {
+        Map<?, ?> shape = (Map<?, ?>) within;
+        if (shape.get("$box") instanceof List && ((List<?>) shape.get("$box")).size() == 2) {
+          List<?> box = (List<?>) shape.get("$box");
+          double[] corner1 = JSONQueryMatcher.point(box.get(0));
+          double[] corner2 = JSONQueryMatcher.point(box.get(1));
+          if (corner1 != null && corner2 != null) {
+            return inBox(corner1, corner2);
+          }
+        } else if (shape.get("$center") instanceof List && ((List<?>) shape.get("$center")).size() == 2) {
+          List<?> circle = (List<?>) shape.get("$center");
+          double[] center = JSONQueryMatcher.point(circle.get(0));
+          if (center != null && circle.get(1) instanceof Number) {
+            return around(center, ((Number) circle.get(1)).doubleValue());
+          }
+        }
+      } else if (operators.containsKey("$near") && operators.get("$maxDistance") instanceof Number) {
+        double[] center = JSONQueryMatcher.point(operators.get("$near"));
+        if (center != null) {
+          return around(center, ((Number) operators.get("$maxDistance")).doubleValue());
+        }
+      }
+      return null;
+    }
+
+    private Set<String> around(double[] center, double distance) {
+      return inBox(new double[]{center[0] - distance, center[1] - distance},
+              new double[]{center[0] + distance, center[1] + distance});
+    }
+
+    private Set<String> inBox(double[] corner1, double[] corner2) {
+      long x1 = (long) Math.floor(Math.min(corner1[0], corner2[0]) / CELL_SIZE);
+      long x2 = (long) Math.floor(Math.max(corner1[0], corner2[0]) / CELL_SIZE);
+      long y1 = (long) Math.floor(Math.min(corner1[1], corner2[1]) / CELL_SIZE);
+      long y2 = (long) Math.floor(Math.max(corner1[1], corner2[1]) / CELL_SIZE);
+      if ((x2 - x1 + 1) * (y2 - y1 + 1) > MAX_CELLS) {
+        return null;
+      }
+      Set<String> result = new HashSet<>();
+      for (long x = x1; x <= x2; x++) {
+        for (long y = y1; y <= y2; y++) {
+          Set<String> set = cells.get(cell(x * CELL_SIZE, y * CELL_SIZE));
+          if (set != null) {
+            result.addAll(set);
+          }
+        }
+      }
+      return result;
+    }
+  }
+}
@@ -8,28 +8,38 @@
 package edu.umass.cs.gnsserver.database;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.mongodb.BulkWriteException;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import com.mongodb.util.JSON;
 
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
 import edu.umass.cs.gnscommon.utils.JSONDotNotation;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnsserver.utils.JSONUtils;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
+import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.DiskMap;
 
 /**
@@ -38,13 +48,29 @@ import edu.umass.cs.utils.DiskMap;
  *
  * See DiskMapCollection for more details.
  *
+ * Selects on indexed fields are answered from the in memory indexes
+ * of the collection (see DiskMapIndexes), anything else waits for the write
+ * behind and goes to mongo.
+ *
+ * Asynchronous inserts, removes and entire record updates only touch
+ * the in memory map, changes are written behind to mongo, so they complete in the
+ * calling thread. Everything else may have to restore a record from
+ * mongo and runs on a separate pool.
+ *
  *
  * @author westy, arun
  */
-public class DiskMapRecords implements NoSQLRecords {
+public class DiskMapRecords implements NoSQLRecords, AsyncNoSQLRecords {
 
   private static final Logger LOGGER = Logger.getLogger(DiskMapRecords.class.getName());
 
+  // Runs the operations that can block on restoring records from mongo.
+  private static final ExecutorService RESTORE_EXECUTOR
+          = Executors.newCachedThreadPool(AsyncRecordsAdapter.threadFactory("DiskMapRecords"));
+  private final AsyncRecordsAdapter restoringRecords = new AsyncRecordsAdapter(this, RESTORE_EXECUTOR);
+
+  private final static double METERS_PER_DEGREE = 111.12 * 1000; // at the equator
+
   private Map<String, DiskMapCollection> collections;
   private String mongoNodeID;
   private int mongoPort;
@@ -98,6 +124,8 @@ public class DiskMapRecords implements NoSQLRecords {
   public void insert(String collection, String name, JSONObject value)
           throws FailedDBOperationException, RecordExistsException {
     getMap(collection).put(name, value);
+    getCollection(collection).markReplaced(name);
+    getCollection(collection).getIndexes().update(name, value);
   }
 
   @Override
@@ -116,6 +144,29 @@ public class DiskMapRecords implements NoSQLRecords {
     }
   }
 
+  @Override
+  public Map<String, JSONObject> lookupMany(String collection, Collection<String> names,
+          List<String> projection) throws FailedDBOperationException {
+    DiskMap<String, JSONObject> map = getMap(collection);
+    Map<String, JSONObject> result = new HashMap<>();
+    try {
+      for (String name : names) {
+        JSONObject record = map.get(name);
+        if (record != null) {
+          if (projection != null) {
+            record = EmbeddedRecords.project(record, MongoRecords.generateLookupFields(projection));
+          }
+          // Make a new object to make sure there aren't any DBObjects lurking in here
+          result.put(name, recursiveCopyJSONObject(record));
+        }
+      }
+    } catch (JSONException e) {
+      DatabaseConfig.getLogger().log(Level.FINE, "lookupMany failed: {0}", e.getMessage());
+      throw new FailedDBOperationException(collection, names.toString(), "Unable to parse json record");
+    }
+    return result;
+  }
+
   /**
    * The methods below copy a JSONObject recursively without stringification while
    * converting BasicDBObject and BasicDBList as needed. As in any JSONObject, it is assumed
@@ -155,8 +206,8 @@ public class DiskMapRecords implements NoSQLRecords {
     return copy;
   }
 
-  // Used in MongoRecords
-  static JSONObject recursiveCopyMap(Map<String, ?> map)
+  // Used for copy-on-write of DBObjects stored by JSONParse
+  private static JSONObject recursiveCopyMap(Map<String, ?> map)
           throws JSONException {
     JSONObject copy = new JSONObject();
     for (String key : map.keySet()) {
@@ -201,7 +252,13 @@ public class DiskMapRecords implements NoSQLRecords {
           ColumnField nameField, ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys)
           throws RecordNotFoundException, FailedDBOperationException {
 
-    JSONObject record = lookupEntireRecord(collection, name);
+    return extractSomeFields(lookupEntireRecord(collection, name), name,
+            nameField, valuesMapField, valuesMapKeys);
+  }
+
+  // Used in EmbeddedRecords
+  static HashMap<ColumnField, Object> extractSomeFields(JSONObject record, String name,
+          ColumnField nameField, ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys) {
 //    LOGGER.log(Level.FINE, "Full record " + record.toString());
     HashMap<ColumnField, Object> hashMap = new HashMap<>();
     hashMap.put(nameField, name);
@@ -257,6 +314,8 @@ public class DiskMapRecords implements NoSQLRecords {
   public void removeEntireRecord(String collection, String name) throws FailedDBOperationException {
     LOGGER.log(Level.FINE, "Remove: {0}", name);
     getMap(collection).remove(name);
+    getCollection(collection).markReplaced(name);
+    getCollection(collection).getIndexes().update(name, null);
   }
 
   @Override
@@ -267,6 +326,8 @@ public class DiskMapRecords implements NoSQLRecords {
       json.put(NameRecord.NAME.getName(), name);
       json.put(NameRecord.VALUES_MAP.getName(), valuesMap);
       getMap(collection).put(name, json);
+      getCollection(collection).markReplaced(name);
+      getCollection(collection).getIndexes().update(name, json);
     } catch (JSONException e) {
 
     }
@@ -277,87 +338,167 @@ public class DiskMapRecords implements NoSQLRecords {
           ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys,
           ArrayList<Object> valuesMapValues) throws FailedDBOperationException {
     LOGGER.log(Level.FINE, "Update fields {0}/{1}", new Object[]{name, valuesMapKeys});
-    JSONObject record;
-    try {
-      record = lookupEntireRecord(collection, name);
-    } catch (RecordNotFoundException e) {
-      DatabaseConfig.getLogger().log(Level.FINE, "updateIndividualFields failed: {0}", e.getMessage());
-      throw new FailedDBOperationException(collection, name, "Record not found.");
-    }
+    DiskMapCollection diskMapCollection = getCollection(collection);
+    JSONObject record = diskMapCollection.getMap().get(name);
     LOGGER.log(Level.FINE, "Record before:{0}", record);
     if (record == null) {
-      throw new FailedDBOperationException(collection, name, "Record is null.");
+      DatabaseConfig.getLogger().log(Level.FINE, "updateIndividualFields failed: {0} not found", name);
+      throw new FailedDBOperationException(collection, name, "Record not found.");
     }
+    List<String> dirty = new ArrayList<>();
     if (valuesMapField != null && valuesMapKeys != null) {
       try {
-        JSONObject json = record.getJSONObject(valuesMapField.getName());
+        // Copy on write: only the objects along the updated paths are copied, the
+        // rest is shared with the previous version which is never modified.
+        Set<Object> copies = Collections.newSetFromMap(new IdentityHashMap<>());
+        record = shallowCopy(record, copies);
+        JSONObject json = writableChild(record, valuesMapField.getName(), false, copies);
+        if (json == null) {
+          throw new JSONException(valuesMapField.getName() + " not found");
+        }
         for (int i = 0; i < valuesMapKeys.size(); i++) {
           String fieldName = valuesMapKeys.get(i).getName();
+          Object value;
           switch (valuesMapKeys.get(i).type()) {
             case LIST_STRING:
-              JSONDotNotation.putWithDotNotation(json, fieldName, valuesMapValues.get(i));
+              value = valuesMapValues.get(i);
               break;
             case USER_JSON:
-              JSONDotNotation.putWithDotNotation(json, fieldName, JSONParse(valuesMapValues.get(i)));
+              value = JSONParse(valuesMapValues.get(i));
               break;
             default:
               LOGGER.log(Level.WARNING,
                       "Ignoring unknown format: {0}", valuesMapKeys.get(i).type());
-              break;
+              continue;
+          }
+          if (putWithCopyOnWrite(json, fieldName, value, copies)) {
+            dirty.add(valuesMapField.getName() + "." + fieldName);
           }
         }
-        LOGGER.log(Level.FINE, "Json after:{0}", json);
-        record.put(valuesMapField.getName(), json);
         LOGGER.log(Level.FINE, "Record after:{0}", record);
       } catch (Exception e) {
         LOGGER.log(Level.SEVERE, "Problem updating json: {0}", e.getMessage());
         throw new FailedDBOperationException(collection, name, "Unable to parse json " + e.getMessage());
       }
     }
-    getMap(collection).put(name, record);
+    diskMapCollection.getMap().put(name, record);
+    for (String field : dirty) {
+      diskMapCollection.markDirty(name, field);
+    }
+    diskMapCollection.getIndexes().update(name, record);
   }
-  // not sure why the JSON.parse doesn't handle things this way but it doesn't
 
-  private Object JSONParse(Object object) {
-    if (object instanceof String || object instanceof Number) {
-      return object;
-    } else {
-      return JSON.parse(object.toString());
-    }
+  private Object JSONParse(Object object) throws JSONException {
+    return JSONDBObjectConverter.toDBValue(object);
   }
 
   @Override
   public void removeMapKeys(String collection, String name,
           ColumnField mapField, ArrayList<ColumnField> mapKeys)
           throws FailedDBOperationException {
-    JSONObject record = null;
-    try {
-      record = lookupEntireRecord(collection, name);
-    } catch (RecordNotFoundException e) {
-    }
+    DiskMapCollection diskMapCollection = getCollection(collection);
+    JSONObject record = diskMapCollection.getMap().get(name);
     LOGGER.log(Level.FINE, "Record before:{0}", record);
     if (record == null) {
       DatabaseConfig.getLogger().log(Level.FINE, "removeMapKeys failed. record is null");
       throw new FailedDBOperationException(collection, name, "Record not found.");
     }
+    List<String> dirty = new ArrayList<>();
     if (mapField != null && mapKeys != null) {
       try {
-        JSONObject json = record.getJSONObject(mapField.getName());
-        LOGGER.log(Level.FINE, "Json before:{0}", json);
+        Set<Object> copies = Collections.newSetFromMap(new IdentityHashMap<>());
+        record = shallowCopy(record, copies);
+        JSONObject json = writableChild(record, mapField.getName(), false, copies);
+        if (json == null) {
+          throw new JSONException(mapField.getName() + " not found");
+        }
         for (int i = 0; i < mapKeys.size(); i++) {
           String fieldName = mapKeys.get(i).getName();
           LOGGER.log(Level.FINE, "Removing: {0}", fieldName);
-          JSONDotNotation.removeWithDotNotation(fieldName, json);
+          if (removeWithCopyOnWrite(json, fieldName, copies)) {
+            dirty.add(mapField.getName() + "." + fieldName);
+          }
         }
-        LOGGER.log(Level.FINE, "Json after:{0}", json);
-        record.put(mapField.getName(), json);
         LOGGER.log(Level.FINE, "Record after:{0}", record);
       } catch (JSONException e) {
         LOGGER.log(Level.SEVERE,
                 "Problem updating json: {0}", e.getMessage());
       }
     }
-    getMap(collection).put(name, record);
+    diskMapCollection.getMap().put(name, record);
+    for (String field : dirty) {
+      diskMapCollection.markDirty(name, field);
+    }
+    diskMapCollection.getIndexes().update(name, record);
+  }
+
+  /**
+   * Like JSONDotNotation.putWithDotNotation but copies each object along the
+   * path that wasn't already copied during this update before modifying it.
+   */
+  private static boolean putWithCopyOnWrite(JSONObject destination, String key, Object value,
+          Set<Object> copies) throws JSONException {
+    int indexOfDot = key.indexOf('.');
+    if (indexOfDot < 0) {
+      destination.put(key, value);
+      return true;
+    }
+    JSONObject subDestination = writableChild(destination, key.substring(0, indexOfDot), true, copies);
+    return subDestination != null
+            && putWithCopyOnWrite(subDestination, key.substring(indexOfDot + 1), value, copies);
+  }
+
+  private static boolean removeWithCopyOnWrite(JSONObject json, String key,
+          Set<Object> copies) throws JSONException {
+    int indexOfDot = key.indexOf('.');
+    if (indexOfDot < 0) {
+      return json.remove(key) != null;
+    }
+    JSONObject subJSON = writableChild(json, key.substring(0, indexOfDot), false, copies);
+    return subJSON != null
+            && removeWithCopyOnWrite(subJSON, key.substring(indexOfDot + 1), copies);
+  }
+
+  /**
+   * Returns a modifiable version of the child object with the given key, replacing
+   * the child in the (already copied) parent with a shallow copy if needed.
+   * Returns null if the child isn't an object, or is missing and create is false.
+   */
+  @SuppressWarnings("unchecked")
+  private static JSONObject writableChild(JSONObject parent, String key, boolean create,
+          Set<Object> copies) throws JSONException {
+    Object child = parent.opt(key);
+    JSONObject writable;
+    if (child instanceof JSONObject) {
+      if (copies.contains(child)) {
+        return (JSONObject) child;
+      }
+      writable = shallowCopy((JSONObject) child, copies);
+    } else if (child instanceof Map) {
+      // a DBObject written by JSONParse
+      writable = recursiveCopyMap((Map<String, ?>) child);
+      copies.add(writable);
+    } else if (child == null && create) {
+      writable = new JSONObject();
+      copies.add(writable);
+    } else {
+      return null;
+    }
+    parent.put(key, writable);
+    return writable;
+  }
+
+  private static JSONObject shallowCopy(JSONObject json, Set<Object> copies)
+          throws JSONException {
+    JSONObject copy = new JSONObject();
+    String[] keys = JSONObject.getNames(json);
+    if (keys != null) { // oddly, empty returns null
+      for (String key : keys) {
+        copy.put(key, json.get(key));
+      }
+    }
+    copies.add(copy);
+    return copy;
   }
 
   @Override
@@ -367,35 +508,210 @@ public class DiskMapRecords implements NoSQLRecords {
   }
 
   @Override
-  public AbstractRecordCursor selectRecords(String collection, ColumnField valuesMapField, String key, Object value) throws FailedDBOperationException {
+  public AbstractRecordCursor selectRecords(String collection, ColumnField valuesMapField, String key, Object value,
+          List<String> projection) throws FailedDBOperationException {
+    Map<String, Object> query = new HashMap<>();
+    query.put(valuesMapField.getName() + "." + key, value);
+    AbstractRecordCursor cursor = selectIndexed(collection, query, projection, null, null);
+    if (cursor != null) {
+      return cursor;
+    }
     commit(collection);
-    return getMongoRecords(collection).selectRecords(MongoRecords.DBNAMERECORD, valuesMapField, key, value);
+    return getMongoRecords(collection).selectRecords(MongoRecords.DBNAMERECORD, valuesMapField, key, value, projection);
   }
 
   @Override
-  public AbstractRecordCursor selectRecordsWithin(String collection, ColumnField valuesMapField, String key, String value) throws FailedDBOperationException {
+  public AbstractRecordCursor selectRecordsWithin(String collection, ColumnField valuesMapField, String key, String value,
+          List<String> projection) throws FailedDBOperationException {
+    String fieldName = valuesMapField.getName() + "." + key;
+    double[] corner1, corner2;
+    try {
+      JSONArray box = new JSONArray(value);
+      corner1 = JSONQueryMatcher.point(box.getJSONArray(0));
+      corner2 = JSONQueryMatcher.point(box.getJSONArray(1));
+    } catch (JSONException e) {
+      corner1 = corner2 = null;
+    }
+    if (corner1 != null && corner2 != null) {
+      Map<String, Object> shape = new HashMap<>();
+      shape.put("$box", Arrays.asList(Arrays.asList(corner1[0], corner1[1]),
+              Arrays.asList(corner2[0], corner2[1])));
+      Map<String, Object> query = new HashMap<>();
+      query.put(fieldName, Collections.singletonMap("$geoWithin", shape));
+      AbstractRecordCursor cursor = selectIndexed(collection, query, projection, null, null);
+      if (cursor != null) {
+        return cursor;
+      }
+    }
     commit(collection);
-    return getMongoRecords(collection).selectRecordsWithin(MongoRecords.DBNAMERECORD, valuesMapField, key, value);
+    return getMongoRecords(collection).selectRecordsWithin(MongoRecords.DBNAMERECORD, valuesMapField, key, value, projection);
   }
 
   @Override
-  public AbstractRecordCursor selectRecordsNear(String collection, ColumnField valuesMapField, String key, String value, Double maxDistance) throws FailedDBOperationException {
+  public AbstractRecordCursor selectRecordsNear(String collection, ColumnField valuesMapField, String key, String value, Double maxDistance,
+          List<String> projection) throws FailedDBOperationException {
+    String fieldName = valuesMapField.getName() + "." + key;
+    double[] center;
+    try {
+      center = JSONQueryMatcher.point(new JSONArray(value));
+    } catch (JSONException e) {
+      center = null;
+    }
+    if (center != null && maxDistance != null) {
+      // Like mongo's 2d index the distance is in degrees
+      Map<String, Object> near = new HashMap<>();
+      near.put("$near", Arrays.asList(center[0], center[1]));
+      near.put("$maxDistance", maxDistance / METERS_PER_DEGREE);
+      Map<String, Object> query = new HashMap<>();
+      query.put(fieldName, near);
+      AbstractRecordCursor cursor = selectIndexed(collection, query, projection, fieldName, center);
+      if (cursor != null) {
+        return cursor;
+      }
+    }
     commit(collection);
-    return getMongoRecords(collection).selectRecordsNear(MongoRecords.DBNAMERECORD, valuesMapField, key, value, maxDistance);
+    return getMongoRecords(collection).selectRecordsNear(MongoRecords.DBNAMERECORD, valuesMapField, key, value, maxDistance, projection);
   }
 
   @Override
   public AbstractRecordCursor selectRecordsQuery(String collection, ColumnField valuesMapField,
           String query, List<String> projection) throws FailedDBOperationException {
+    Map<?, ?> parsedQuery = null;
+    try {
+      parsedQuery = CompiledSelectQuery.compile(query).toNativeQuery(valuesMapField);
+    } catch (IllegalArgumentException e) {
+      // let mongo report it
+    }
+    if (parsedQuery != null) {
+      AbstractRecordCursor cursor = selectIndexed(collection, parsedQuery, projection, null, null);
+      if (cursor != null) {
+        return cursor;
+      }
+    }
     commit(collection);
     return getMongoRecords(collection).selectRecordsQuery(MongoRecords.DBNAMERECORD, valuesMapField,
             query, projection);
   }
 
+  /**
+   * Answers a select from the in memory indexes without going to mongo.
+   * The records the indexes point at are checked against the whole query so
+   * the indexes only have to narrow things down. Candidates are copied and
+   * checked as the cursor is read so only the names are held, except for
+   * $near whose matches have to be sorted by distance.
+   * Returns null if the indexes can't help with the query.
+   *
+   * @param nearField the field to sort the results by distance on, or null
+   * @param center the point to sort from
+   */
+  private AbstractRecordCursor selectIndexed(final String collection, final Map<?, ?> query, List<String> projection,
+          String nearField, double[] center) throws FailedDBOperationException {
+    if (!JSONQueryMatcher.isSupported(query)) {
+      // something the matcher doesn't do, leave it to mongo
+      LOGGER.log(Level.FINE, "Not using indexes for {0}", query);
+      return null;
+    }
+    final DiskMapCollection diskMapCollection = getCollection(collection);
+    diskMapCollection.retryFailedIndexBuild();
+    Set<String> names = diskMapCollection.getIndexes().candidates(query);
+    if (names == null) {
+      return null;
+    }
+    final List<String> fields = MongoRecords.generateSelectFields(projection);
+    if (nearField != null) {
+      final Map<JSONObject, Double> distances = new HashMap<>();
+      List<JSONObject> result = new ArrayList<>();
+      for (String name : names) {
+        JSONObject record = matchCandidate(collection, diskMapCollection, name, query, null);
+        if (record != null) {
+          distances.put(record, nearestDistance(record, nearField, center));
+          result.add(record);
+        }
+      }
+      // $near returns the closest first
+      result.sort(Comparator.comparing(distances::get));
+      LOGGER.log(Level.FINE, "Indexed select of {0} checked {1} records and found {2}",
+              new Object[]{query, names.size(), result.size()});
+      final Iterator<JSONObject> sorted = result.iterator();
+      return new AbstractRecordCursor() {
+        @Override
+        public boolean hasNext() {
+          return sorted.hasNext();
+        }
+
+        @Override
+        public JSONObject nextJSONObject() throws FailedDBOperationException {
+          JSONObject record = sorted.next();
+          try {
+            return fields == null ? record : EmbeddedRecords.project(record, fields);
+          } catch (JSONException e) {
+            throw new FailedDBOperationException(collection, fields.toString(),
+                    "Unable to project records: " + e.getMessage());
+          }
+        }
+      };
+    }
+    final Iterator<String> candidates = names.iterator();
+    return new AbstractRecordCursor() {
+      private JSONObject next = null;
+
+      @Override
+      public boolean hasNext() throws FailedDBOperationException {
+        while (next == null && candidates.hasNext()) {
+          next = matchCandidate(collection, diskMapCollection, candidates.next(), query, fields);
+        }
+        return next != null;
+      }
+
+      @Override
+      public JSONObject nextJSONObject() throws FailedDBOperationException {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        JSONObject result = next;
+        next = null;
+        return result;
+      }
+    };
+  }
+
+  // Returns a projected copy of the named record if it matches the query, otherwise null.
+  private static JSONObject matchCandidate(String collection, DiskMapCollection diskMapCollection, String name,
+          Map<?, ?> query, List<String> fields) throws FailedDBOperationException {
+    JSONObject record = diskMapCollection.getMap().get(name);
+    if (record == null) {
+      return null;
+    }
+    try {
+      // Make a new object to make sure there aren't any DBObjects lurking in here
+      record = recursiveCopyJSONObject(record);
+      if (!JSONQueryMatcher.matches(query, record)) {
+        return null;
+      }
+      return fields == null ? record : EmbeddedRecords.project(record, fields);
+    } catch (IllegalArgumentException | JSONException e) {
+      DatabaseConfig.getLogger().log(Level.FINE, "selectIndexed failed: {0}", e.getMessage());
+      throw new FailedDBOperationException(collection, query.toString(), "Unable to match record: " + e.getMessage());
+    }
+  }
+
+  private static double nearestDistance(JSONObject record, String field, double[] center) {
+    double nearest = Double.MAX_VALUE;
+    for (Object location : JSONQueryMatcher.resolve(record, field)) {
+      double[] point = JSONQueryMatcher.point(location);
+      if (point != null) {
+        nearest = Math.min(nearest, JSONQueryMatcher.distance(point, center));
+      }
+    }
+    return nearest;
+  }
+
   @Override
   public void createIndex(String collection, String field, String index) {
-    commit(collection);
-    getMongoRecords(collection).createIndex(MongoRecords.DBNAMERECORD, field, index);
+    if (!Config.getGlobalBoolean(GNSConfig.GNSC.IN_MEMORY_DB)) {
+      getMongoRecords(collection).createIndex(MongoRecords.DBNAMERECORD, field, index);
+    }
+    getCollection(collection).createIndex(NameRecord.VALUES_MAP.getName() + "." + field, index);
   }
 
   @Override
@@ -404,12 +720,72 @@ public class DiskMapRecords implements NoSQLRecords {
     getMongoRecords(collection).printAllEntries(MongoRecords.DBNAMERECORD);
   }
 
-  private void commit(String collection) {
-    try{
-      getMap(collection).commit();
-    } catch (BulkWriteException e) {
-      LOGGER.log(Level.WARNING, "Caught {e}, ignoring and proceeding: {1}", new Object[]{e.getClass().getSimpleName(), e.getMessage()});
-    }
+  @Override
+  public CompletableFuture<Void> insertAsync(String collection, String name, JSONObject value) {
+    return AsyncRecordsAdapter.submit(() -> {
+      insert(collection, name, value);
+      return null;
+    }, null);
+  }
+
+  @Override
+  public CompletableFuture<JSONObject> lookupEntireRecordAsync(String collection, String name) {
+    return restoringRecords.lookupEntireRecordAsync(collection, name);
+  }
+
+  @Override
+  public CompletableFuture<HashMap<ColumnField, Object>> lookupSomeFieldsAsync(String collection,
+          String name, ColumnField nameField, ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys) {
+    return restoringRecords.lookupSomeFieldsAsync(collection, name, nameField, valuesMapField, valuesMapKeys);
+  }
+
+  @Override
+  public CompletableFuture<Map<String, JSONObject>> lookupManyAsync(String collection,
+          Collection<String> names, List<String> projection) {
+    return restoringRecords.lookupManyAsync(collection, names, projection);
+  }
+
+  @Override
+  public CompletableFuture<Void> removeEntireRecordAsync(String collection, String name) {
+    return AsyncRecordsAdapter.submit(() -> {
+      removeEntireRecord(collection, name);
+      return null;
+    }, null);
+  }
+
+  @Override
+  public CompletableFuture<Void> updateEntireRecordAsync(String collection, String name,
+          ValuesMap valuesMap) {
+    return AsyncRecordsAdapter.submit(() -> {
+      updateEntireRecord(collection, name, valuesMap);
+      return null;
+    }, null);
+  }
+
+  @Override
+  public CompletableFuture<Void> updateIndividualFieldsAsync(String collection, String name,
+          ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys,
+          ArrayList<Object> valuesMapValues) {
+    return restoringRecords.updateIndividualFieldsAsync(collection, name, valuesMapField,
+            valuesMapKeys, valuesMapValues);
+  }
+
+  @Override
+  public CompletableFuture<Void> removeMapKeysAsync(String collection, String name,
+          ColumnField mapField, ArrayList<ColumnField> mapKeys) {
+    return restoringRecords.removeMapKeysAsync(collection, name, mapField, mapKeys);
+  }
+
+  @Override
+  public CompletableFuture<AbstractRecordCursor> selectRecordsQueryAsync(String collection,
+          ColumnField valuesMapField, String query, List<String> projection) {
+    // selects wait for the write behind to catch up so they don't run in the caller
+    return restoringRecords.selectRecordsQueryAsync(collection, valuesMapField, query, projection);
+  }
 
+  // Waits for the background flusher to write the changes made before this call
+  // rather than synchronously committing the whole map.
+  private void commit(String collection) throws FailedDBOperationException {
+    getCollection(collection).awaitFlushed();
   }
 }
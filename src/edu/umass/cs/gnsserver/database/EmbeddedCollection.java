@@ -0,0 +1,438 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * One collection of the embedded database used by {@link EmbeddedRecords}.
+ *
+ * Records are appended to a sequence of memory-mapped segment files in the
+ * collection directory. The only on-heap state is an index from record name
+ * to the position of the latest version of that record, so the record
+ * contents themselves live in the page cache rather than in the JVM heap.
+ *
+ * Each entry in a segment looks like this:
+ * <pre>
+ * [int length][int crc][byte type][int nameLength][name bytes][value bytes]
+ * </pre>
+ * where length covers everything after the crc and the value is the UTF-8
+ * encoded JSON of the record. Removes are written as entries of type DELETE
+ * with an empty value. Segments are pre-sized and zero filled so a length of
+ * zero marks the end of the log. On startup the segments are replayed in order
+ * to rebuild the index; a torn entry at the end of the log (bad crc or truncated)
+ * ends the replay.
+ *
+ * When more than half of the log is garbage (and the garbage exceeds
+ * the segment size) the live records are copied into fresh segments
+ * and the old segments are deleted.
+ *
+ * Writes go to the page cache and survive a process crash. {@link #sync()} forces
+ * them to the disk.
+ *
+ * @author westy
+ */
+public class EmbeddedCollection {
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final Charset CHARSET = StandardCharsets.UTF_8;
+
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+  // length + crc
+  private static final int HEADER_SIZE = 8;
+  // type + name length
+  private static final int BODY_PREFIX_SIZE = 5;
+  // room for the zero length that terminates the log
+  private static final int TERMINATOR_SIZE = 4;
+
+  private final String name;
+  private final File directory;
+  private final int segmentSize;
+
+  private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+  // name => (segment id << 32 | offset) of the latest version of the record
+  private final Map<String, Long> index = new ConcurrentHashMap<>();
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private Segment current;
+  private long totalBytes = 0;
+  private long garbageBytes = 0;
+
+  /**
+   * Opens (or creates) the collection stored in the given directory.
+   *
+   * @param name
+   * @param directory
+   * @param segmentSize the size in bytes of each segment file
+   * @throws IOException
+   */
+  public EmbeddedCollection(String name, File directory, int segmentSize) throws IOException {
+    this.name = name;
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create directory " + directory);
+    }
+    recover();
+  }
+
+  /**
+   * Returns the name of this collection.
+   *
+   * @return the name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the number of records in the collection.
+   *
+   * @return the number of records
+   */
+  public int size() {
+    return index.size();
+  }
+
+  /**
+   * Returns true if a record with the given name exists.
+   *
+   * @param key
+   * @return true if the record exists
+   */
+  public boolean containsKey(String key) {
+    return index.containsKey(key);
+  }
+
+  /**
+   * Returns a snapshot of the names of all the records in the collection.
+   *
+   * @return a list of names
+   */
+  public List<String> keys() {
+    return new ArrayList<>(index.keySet());
+  }
+
+  /**
+   * Returns a freshly decoded copy of the record with the given name
+   * or null if there is no such record.
+   *
+   * @param key
+   * @return a JSONObject or null
+   * @throws JSONException
+   */
+  public JSONObject get(String key) throws JSONException {
+    lock.readLock().lock();
+    try {
+      Long location = index.get(key);
+      if (location == null) {
+        return null;
+      }
+      ByteBuffer entry = entryAt(location);
+      int length = entry.getInt();
+      entry.getInt(); // crc
+      entry.get(); // type
+      int nameLength = entry.getInt();
+      entry.position(entry.position() + nameLength);
+      byte[] value = new byte[length - BODY_PREFIX_SIZE - nameLength];
+      entry.get(value);
+      return new JSONObject(new String(value, CHARSET));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Writes a new version of the record with the given name.
+   *
+   * @param key
+   * @param value
+   * @throws IOException
+   */
+  public void put(String key, JSONObject value) throws IOException {
+    byte[] bytes = value.toString().getBytes(CHARSET);
+    lock.writeLock().lock();
+    try {
+      long location = append(PUT, key, bytes);
+      Long previous = index.put(key, location);
+      if (previous != null) {
+        garbageBytes += entryLength(previous);
+      }
+      compactIfNeeded();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes the record with the given name.
+   *
+   * @param key
+   * @return true if the record existed
+   * @throws IOException
+   */
+  public boolean remove(String key) throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (!index.containsKey(key)) {
+        return false;
+      }
+      long tombstone = append(DELETE, key, new byte[0]);
+      Long previous = index.remove(key);
+      garbageBytes += entryLength(previous) + entryLength(tombstone);
+      compactIfNeeded();
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Forces all the segments to disk.
+   */
+  public void sync() {
+    lock.readLock().lock();
+    try {
+      for (Segment segment : segments.values()) {
+        segment.buffer.force();
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Removes all records and deletes the segment files.
+   *
+   * @throws IOException
+   */
+  public void clear() throws IOException {
+    lock.writeLock().lock();
+    try {
+      for (Segment segment : segments.values()) {
+        segment.delete();
+      }
+      segments.clear();
+      index.clear();
+      current = null;
+      totalBytes = 0;
+      garbageBytes = 0;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void recover() throws IOException {
+    File[] files = directory.listFiles((dir, fileName)
+            -> fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX));
+    if (files == null) {
+      throw new IOException("Unable to list " + directory);
+    }
+    Arrays.sort(files);
+    for (File file : files) {
+      String fileName = file.getName();
+      int id = Integer.parseInt(fileName.substring(SEGMENT_PREFIX.length(),
+              fileName.length() - SEGMENT_SUFFIX.length()));
+      Segment segment = new Segment(id, file, (int) file.length());
+      segments.put(id, segment);
+      replay(segment);
+      current = segment;
+    }
+    DatabaseConfig.getLogger().log(Level.INFO,
+            "Recovered {0} records for {1} from {2} segments in {3}",
+            new Object[]{index.size(), name, segments.size(), directory});
+  }
+
+  private void replay(Segment segment) {
+    ByteBuffer buffer = segment.buffer.duplicate();
+    int offset = 0;
+    while (offset + HEADER_SIZE <= buffer.capacity()) {
+      buffer.position(offset);
+      int length = buffer.getInt();
+      if (length < BODY_PREFIX_SIZE || offset + HEADER_SIZE + length > buffer.capacity()) {
+        break;
+      }
+      long crc = buffer.getInt() & 0xffffffffL;
+      byte[] body = new byte[length];
+      buffer.get(body);
+      if (crc != checksum(body)) {
+        DatabaseConfig.getLogger().log(Level.WARNING,
+                "Ignoring torn entry at {0} in {1}", new Object[]{offset, segment.file});
+        break;
+      }
+      ByteBuffer entry = ByteBuffer.wrap(body);
+      byte type = entry.get();
+      int nameLength = entry.getInt();
+      String key = new String(body, BODY_PREFIX_SIZE, nameLength, CHARSET);
+      long location = location(segment.id, offset);
+      int entryLength = HEADER_SIZE + length;
+      totalBytes += entryLength;
+      Long previous;
+      if (type == PUT) {
+        previous = index.put(key, location);
+      } else {
+        previous = index.remove(key);
+        garbageBytes += entryLength;
+      }
+      if (previous != null) {
+        garbageBytes += entryLength(previous);
+      }
+      offset += entryLength;
+    }
+    segment.position = offset;
+  }
+
+  private long append(byte type, String key, byte[] value) throws IOException {
+    byte[] nameBytes = key.getBytes(CHARSET);
+    int length = BODY_PREFIX_SIZE + nameBytes.length + value.length;
+    int entryLength = HEADER_SIZE + length;
+    if (current == null || current.remaining() < entryLength + TERMINATOR_SIZE) {
+      current = newSegment(entryLength + TERMINATOR_SIZE);
+    }
+    ByteBuffer body = ByteBuffer.allocate(length);
+    body.put(type).putInt(nameBytes.length).put(nameBytes).put(value);
+    byte[] bytes = body.array();
+
+    int offset = current.position;
+    ByteBuffer buffer = current.buffer.duplicate();
+    buffer.position(offset);
+    buffer.putInt(length).putInt((int) checksum(bytes)).put(bytes);
+    current.position += entryLength;
+    totalBytes += entryLength;
+    return location(current.id, offset);
+  }
+
+  private Segment newSegment(int minimumSize) throws IOException {
+    int id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+    File file = new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    Segment segment = new Segment(id, file, Math.max(segmentSize, minimumSize));
+    segments.put(id, segment);
+    return segment;
+  }
+
+  private void compactIfNeeded() throws IOException {
+    if (garbageBytes < segmentSize || garbageBytes * 2 < totalBytes) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    List<Segment> old = new ArrayList<>(segments.values());
+    current = null;
+    totalBytes = 0;
+    garbageBytes = 0;
+    for (Map.Entry<String, Long> entry : index.entrySet()) {
+      ByteBuffer source = entryAt(entry.getValue());
+      int length = source.getInt();
+      source.getInt(); // crc
+      source.get(); // type
+      int nameLength = source.getInt();
+      source.position(source.position() + nameLength);
+      byte[] value = new byte[length - BODY_PREFIX_SIZE - nameLength];
+      source.get(value);
+      entry.setValue(append(PUT, entry.getKey(), value));
+    }
+    // the rewritten records have to be on disk before the only other copy goes
+    for (Segment segment : segments.values()) {
+      if (!old.contains(segment)) {
+        segment.force();
+      }
+    }
+    for (Segment segment : old) {
+      segments.remove(segment.id);
+      segment.delete();
+    }
+    DatabaseConfig.getLogger().log(Level.FINE,
+            "Compacted {0} to {1} bytes in {2}ms",
+            new Object[]{name, totalBytes, System.currentTimeMillis() - start});
+  }
+
+  private ByteBuffer entryAt(long location) {
+    ByteBuffer buffer = segments.get((int) (location >>> 32)).buffer.duplicate();
+    buffer.position((int) location);
+    return buffer;
+  }
+
+  private int entryLength(long location) {
+    return HEADER_SIZE + entryAt(location).getInt();
+  }
+
+  private static long location(int segmentId, int offset) {
+    return ((long) segmentId << 32) | (offset & 0xffffffffL);
+  }
+
+  private static long checksum(byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length);
+    return crc.getValue();
+  }
+
+  @Override
+  public String toString() {
+    return "EmbeddedCollection{" + name + ", records=" + index.size()
+            + ", segments=" + segments.size() + ", bytes=" + totalBytes
+            + ", garbage=" + garbageBytes + "}";
+  }
+
+  private static class Segment {
+
+    private final int id;
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private int position = 0;
+
+    private Segment(int id, File file, int size) throws IOException {
+      this.id = id;
+      this.file = file;
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        if (raf.length() < size) {
+          raf.setLength(size);
+        }
+        // the mapping remains valid after the channel is closed
+        this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      }
+    }
+
+    private int remaining() {
+      return buffer.capacity() - position;
+    }
+
+    // Forces the records and the file's metadata to disk.
+    private void force() throws IOException {
+      buffer.force();
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.getChannel().force(true);
+      }
+    }
+
+    private void delete() {
+      if (!file.delete()) {
+        DatabaseConfig.getLogger().log(Level.WARNING, "Unable to delete {0}", file);
+      }
+    }
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.database;
+
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.json.JSONObject;
+
+/**
+ * Provides a cursor that iterates through records of the embedded database.
+ *
+ * @author westy
+ */
+public class EmbeddedRecordCursor extends AbstractRecordCursor {
+
+  private final Iterator<JSONObject> iterator;
+
+  /**
+   * Wraps a cursor around an iterator of records.
+   *
+   * @param iterator
+   */
+  public EmbeddedRecordCursor(Iterator<JSONObject> iterator) {
+    this.iterator = iterator;
+  }
+
+  /**
+   * Returns the next row as a JSONObject.
+   *
+   * @return the next row as a JSONObject
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  @Override
+  public JSONObject nextJSONObject() throws FailedDBOperationException {
+    if (!iterator.hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return iterator.next();
+  }
+
+  /**
+   * Returns true if the iteration has more elements.
+   *
+   * @return true or false
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  @Override
+  public boolean hasNext() throws FailedDBOperationException {
+    return iterator.hasNext();
+  }
+}
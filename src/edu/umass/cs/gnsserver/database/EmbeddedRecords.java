@@ -0,0 +1,579 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
+import edu.umass.cs.gnscommon.exceptions.server.ServerRuntimeException;
+import edu.umass.cs.gnscommon.utils.JSONDotNotation;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.gnsserver.utils.ValuesMap;
+import edu.umass.cs.utils.Config;
+
+/**
+ * A NoSQLRecords implementation that keeps the records in an embedded,
+ * memory-mapped, log-structured store inside the GNS JVM so that no
+ * mongo process is needed. Each collection is an {@link EmbeddedCollection}
+ * stored in its own directory under
+ * {@link edu.umass.cs.gnsserver.main.GNSConfig.GNSC#EMBEDDED_DB_DIRECTORY}.
+ *
+ * Selects are evaluated by scanning the collection with a {@link JSONQueryMatcher}
+ * which understands the same query syntax that is sent to mongo.
+ *
+ * Use it by setting NOSQL_RECORDS_CLASS to edu.umass.cs.gnsserver.database.EmbeddedRecords.
+ *
+ * @author westy
+ */
+public class EmbeddedRecords implements NoSQLRecords {
+
+  private static final Logger LOGGER = Logger.getLogger(EmbeddedRecords.class.getName());
+
+  private final static double METERS_PER_DEGREE = 111.12 * 1000; // at the equator
+
+  private final Map<String, EmbeddedCollection> collections = new ConcurrentHashMap<>();
+  private final String nodeID;
+  private final File directory;
+
+  /**
+   * Creates the embedded database for nodeID.
+   *
+   * @param nodeID nodeID of name server
+   */
+  public EmbeddedRecords(String nodeID) {
+    this(nodeID, -1);
+  }
+
+  /**
+   * Creates the embedded database for nodeID.
+   * The port is ignored and only here so that this class can be created
+   * the same way as the other NoSQLRecords classes.
+   *
+   * @param nodeID nodeID of name server
+   * @param port ignored
+   */
+  public EmbeddedRecords(String nodeID, int port) {
+    this.nodeID = nodeID;
+    this.directory = getNodeDirectory(nodeID);
+    LOGGER.log(Level.INFO, "Embedded DB for {0} is in {1}", new Object[]{nodeID, directory});
+  }
+
+  private static File getNodeDirectory(String nodeID) {
+    return new File(Config.getGlobalString(GNSConfig.GNSC.EMBEDDED_DB_DIRECTORY),
+            nodeID.replaceAll("[^A-Za-z0-9_.-]", "_"));
+  }
+
+  private EmbeddedCollection getCollection(String name) throws FailedDBOperationException {
+    EmbeddedCollection collection = collections.get(name);
+    if (collection == null) {
+      synchronized (collections) {
+        if ((collection = collections.get(name)) == null) {
+          try {
+            collection = new EmbeddedCollection(name, new File(directory, name),
+                    Config.getGlobalInt(GNSConfig.GNSC.EMBEDDED_DB_SEGMENT_SIZE));
+          } catch (IOException e) {
+            DatabaseConfig.getLogger().log(Level.SEVERE, "Unable to open {0}: {1}",
+                    new Object[]{name, e.getMessage()});
+            throw new FailedDBOperationException(name, directory.getPath(),
+                    "Unable to open collection: " + e.getMessage());
+          }
+          collections.put(name, collection);
+        }
+      }
+    }
+    return collection;
+  }
+
+  @Override
+  public void insert(String collection, String name, JSONObject value)
+          throws FailedDBOperationException, RecordExistsException {
+    EmbeddedCollection embeddedCollection = getCollection(collection);
+    synchronized (embeddedCollection) {
+      if (embeddedCollection.containsKey(name)) {
+        throw new RecordExistsException(collection, name);
+      }
+      put(embeddedCollection, name, value);
+    }
+  }
+
+  @Override
+  public JSONObject lookupEntireRecord(String collection, String name)
+          throws FailedDBOperationException, RecordNotFoundException {
+    JSONObject record = get(getCollection(collection), name);
+    if (record == null) {
+      throw new RecordNotFoundException(name);
+    }
+    return record;
+  }
+
+  @Override
+  public Map<String, JSONObject> lookupMany(String collection, Collection<String> names,
+          List<String> projection) throws FailedDBOperationException {
+    EmbeddedCollection embeddedCollection = getCollection(collection);
+    Map<String, JSONObject> result = new HashMap<>();
+    try {
+      for (String name : names) {
+        JSONObject record = get(embeddedCollection, name);
+        if (record != null) {
+          result.put(name, projection == null ? record
+                  : project(record, MongoRecords.generateLookupFields(projection)));
+        }
+      }
+    } catch (JSONException e) {
+      DatabaseConfig.getLogger().log(Level.FINE, "lookupMany failed: {0}", e.getMessage());
+      throw new FailedDBOperationException(collection, names.toString(), "Unable to parse json record");
+    }
+    return result;
+  }
+
+  @Override
+  public HashMap<ColumnField, Object> lookupSomeFields(String collection, String name,
+          ColumnField nameField, ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys)
+          throws RecordNotFoundException, FailedDBOperationException {
+    return DiskMapRecords.extractSomeFields(lookupEntireRecord(collection, name), name,
+            nameField, valuesMapField, valuesMapKeys);
+  }
+
+  @Override
+  public boolean contains(String collection, String name) throws FailedDBOperationException {
+    return getCollection(collection).containsKey(name);
+  }
+
+  @Override
+  public void removeEntireRecord(String collection, String name) throws FailedDBOperationException {
+    LOGGER.log(Level.FINE, "Remove: {0}", name);
+    EmbeddedCollection embeddedCollection = getCollection(collection);
+    synchronized (embeddedCollection) {
+      try {
+        embeddedCollection.remove(name);
+      } catch (IOException e) {
+        DatabaseConfig.getLogger().log(Level.FINE, "removeEntireRecord failed: {0}", e.getMessage());
+        throw new FailedDBOperationException(collection, name, "Unable to remove: " + e.getMessage());
+      }
+    }
+  }
+
+  @Override
+  public void updateEntireRecord(String collection, String name, ValuesMap valuesMap)
+          throws FailedDBOperationException {
+    LOGGER.log(Level.FINE, "Update record {0}/{1}", new Object[]{name, valuesMap});
+    JSONObject json = new JSONObject();
+    try {
+      json.put(NameRecord.NAME.getName(), name);
+      json.put(NameRecord.VALUES_MAP.getName(), valuesMap);
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, name, "Unable to build record: " + e.getMessage());
+    }
+    EmbeddedCollection embeddedCollection = getCollection(collection);
+    synchronized (embeddedCollection) {
+      put(embeddedCollection, name, json);
+    }
+  }
+
+  @Override
+  public void updateIndividualFields(String collection, String name,
+          ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys,
+          ArrayList<Object> valuesMapValues) throws FailedDBOperationException {
+    LOGGER.log(Level.FINE, "Update fields {0}/{1}", new Object[]{name, valuesMapKeys});
+    EmbeddedCollection embeddedCollection = getCollection(collection);
+    synchronized (embeddedCollection) {
+      JSONObject record = get(embeddedCollection, name);
+      if (record == null) {
+        DatabaseConfig.getLogger().log(Level.FINE, "updateIndividualFields failed: {0} not found", name);
+        throw new FailedDBOperationException(collection, name, "Record not found.");
+      }
+      if (valuesMapField != null && valuesMapKeys != null) {
+        try {
+          JSONObject json = record.optJSONObject(valuesMapField.getName());
+          if (json == null) {
+            json = new JSONObject();
+            record.put(valuesMapField.getName(), json);
+          }
+          for (int i = 0; i < valuesMapKeys.size(); i++) {
+            String fieldName = valuesMapKeys.get(i).getName();
+            switch (valuesMapKeys.get(i).type()) {
+              case LIST_STRING:
+                JSONDotNotation.putWithDotNotation(json, fieldName, valuesMapValues.get(i));
+                break;
+              case USER_JSON:
+                JSONDotNotation.putWithDotNotation(json, fieldName, toJSONValue(valuesMapValues.get(i)));
+                break;
+              default:
+                LOGGER.log(Level.WARNING,
+                        "Ignoring unknown format: {0}", valuesMapKeys.get(i).type());
+                break;
+            }
+          }
+        } catch (JSONException e) {
+          LOGGER.log(Level.SEVERE, "Problem updating json: {0}", e.getMessage());
+          throw new FailedDBOperationException(collection, name, "Unable to parse json " + e.getMessage());
+        }
+      }
+      put(embeddedCollection, name, record);
+    }
+  }
+
+  // Values arrive as JSON, mongo style Maps and Lists or as their string forms.
+  private static Object toJSONValue(Object object) throws JSONException {
+    if (object instanceof Map) {
+      return new JSONObject((Map<?, ?>) object);
+    } else if (object instanceof Collection) {
+      return new JSONArray((Collection<?>) object);
+    } else if (object == null) {
+      return JSONObject.NULL;
+    }
+    return object;
+  }
+
+  @Override
+  public void removeMapKeys(String collection, String name,
+          ColumnField mapField, ArrayList<ColumnField> mapKeys)
+          throws FailedDBOperationException {
+    EmbeddedCollection embeddedCollection = getCollection(collection);
+    synchronized (embeddedCollection) {
+      JSONObject record = get(embeddedCollection, name);
+      if (record == null) {
+        DatabaseConfig.getLogger().log(Level.FINE, "removeMapKeys failed. record is null");
+        throw new FailedDBOperationException(collection, name, "Record not found.");
+      }
+      if (mapField != null && mapKeys != null) {
+        JSONObject json = record.optJSONObject(mapField.getName());
+        if (json != null) {
+          for (ColumnField key : mapKeys) {
+            LOGGER.log(Level.FINE, "Removing: {0}", key.getName());
+            try {
+              JSONDotNotation.removeWithDotNotation(key.getName(), json);
+            } catch (JSONException e) {
+              // like mongo's $unset removing a field that doesn't exist is a noop
+            }
+          }
+        }
+      }
+      put(embeddedCollection, name, record);
+    }
+  }
+
+  @Override
+  public AbstractRecordCursor getAllRowsIterator(String collection) throws FailedDBOperationException {
+    final EmbeddedCollection embeddedCollection = getCollection(collection);
+    final Iterator<String> keys = embeddedCollection.keys().iterator();
+    // Reads each record lazily and skips those removed since the iterator was created.
+    return new EmbeddedRecordCursor(new Iterator<JSONObject>() {
+      private JSONObject next = null;
+
+      @Override
+      public boolean hasNext() {
+        while (next == null && keys.hasNext()) {
+          try {
+            next = embeddedCollection.get(keys.next());
+          } catch (JSONException e) {
+            throw new ServerRuntimeException("Error parsing JSON object.", e);
+          }
+        }
+        return next != null;
+      }
+
+      @Override
+      public JSONObject next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        JSONObject result = next;
+        next = null;
+        return result;
+      }
+    });
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecords(String collection, ColumnField valuesMapField,
+          String key, Object value, List<String> projection) throws FailedDBOperationException {
+    // As in mongo a list value matches if it *contains* the value
+    Map<String, Object> query = new HashMap<>();
+    query.put(valuesMapField.getName() + "." + key, value);
+    return select(collection, query, MongoRecords.generateSelectFields(projection));
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsWithin(String collection, ColumnField valuesMapField,
+          String key, String value, List<String> projection) throws FailedDBOperationException {
+    String fieldName = valuesMapField.getName() + "." + key;
+    double[] corner1, corner2;
+    try {
+      JSONArray box = new JSONArray(value);
+      corner1 = JSONQueryMatcher.point(box.getJSONArray(0));
+      corner2 = JSONQueryMatcher.point(box.getJSONArray(1));
+    } catch (JSONException e) {
+      corner1 = corner2 = null;
+    }
+    if (corner1 == null || corner2 == null) {
+      DatabaseConfig.getLogger().log(Level.SEVERE, "{0} Unable to parse JSON: {1}",
+              new Object[]{nodeID, value});
+      throw new FailedDBOperationException(collection, fieldName, "Unable to parse box " + value);
+    }
+    final double[] lowerLeft = corner1, upperRight = corner2;
+    final List<String> fields = MongoRecords.generateSelectFields(projection);
+    return new ScanCursor(collection, fieldName) {
+      @Override
+      JSONObject accept(JSONObject record) throws JSONException {
+        for (Object location : JSONQueryMatcher.resolve(record, fieldName)) {
+          double[] point = JSONQueryMatcher.point(location);
+          if (point != null && JSONQueryMatcher.inBox(point, lowerLeft, upperRight)) {
+            return fields == null ? record : project(record, fields);
+          }
+        }
+        return null;
+      }
+    };
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsNear(String collection, ColumnField valuesMapField,
+          String key, String value, Double maxDistance, List<String> projection) throws FailedDBOperationException {
+    String fieldName = valuesMapField.getName() + "." + key;
+    double[] center;
+    try {
+      center = JSONQueryMatcher.point(new JSONArray(value));
+    } catch (JSONException e) {
+      center = null;
+    }
+    if (center == null) {
+      DatabaseConfig.getLogger().log(Level.SEVERE, "{0} Unable to parse JSON: {1}",
+              new Object[]{nodeID, value});
+      throw new FailedDBOperationException(collection, fieldName, "Unable to parse point " + value);
+    }
+    // Like mongo's 2d index the distance is in degrees
+    double maxDistanceInDegrees = maxDistance / METERS_PER_DEGREE;
+    final Map<JSONObject, Double> distances = new HashMap<>();
+    AbstractRecordCursor cursor = getAllRowsIterator(collection);
+    while (cursor.hasNext()) {
+      JSONObject record = cursor.nextJSONObject();
+      for (Object location : JSONQueryMatcher.resolve(record, fieldName)) {
+        double[] point = JSONQueryMatcher.point(location);
+        double distance;
+        if (point != null && (distance = JSONQueryMatcher.distance(point, center)) <= maxDistanceInDegrees) {
+          distances.put(record, distance);
+          break;
+        }
+      }
+    }
+    // $near returns the closest first so only the matches are held to be sorted
+    List<JSONObject> result = new ArrayList<>(distances.keySet());
+    result.sort(Comparator.comparing(distances::get));
+    return new EmbeddedRecordCursor(project(collection, result, projection).iterator());
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsQuery(String collection, ColumnField valuesMapField,
+          String query, List<String> projection) throws FailedDBOperationException {
+    Map<?, ?> parsedQuery;
+    try {
+      parsedQuery = CompiledSelectQuery.compile(query).toNativeQuery(valuesMapField);
+    } catch (IllegalArgumentException e) {
+      DatabaseConfig.getLogger().log(Level.FINE, "{0} selectRecordsQuery failed: {1}",
+              new Object[]{nodeID, e.getMessage()});
+      throw new FailedDBOperationException(collection, query, "Unable to parse query: " + e.getMessage());
+    }
+    return select(collection, parsedQuery, MongoRecords.generateSelectFields(projection));
+  }
+
+  private AbstractRecordCursor select(String collection, final Map<?, ?> query, final List<String> fields)
+          throws FailedDBOperationException {
+    return new ScanCursor(collection, query.toString()) {
+      @Override
+      JSONObject accept(JSONObject record) throws JSONException {
+        if (!JSONQueryMatcher.matches(query, record)) {
+          return null;
+        }
+        return fields == null ? record : project(record, fields);
+      }
+    };
+  }
+
+  /**
+   * Reads a collection one record at a time as the selected records are
+   * consumed so a select never holds more than the record it is on.
+   */
+  private abstract class ScanCursor extends AbstractRecordCursor {
+
+    private final String collection;
+    private final String query;
+    private final AbstractRecordCursor rows;
+    private JSONObject next = null;
+
+    ScanCursor(String collection, String query) throws FailedDBOperationException {
+      this.collection = collection;
+      this.query = query;
+      this.rows = getAllRowsIterator(collection);
+    }
+
+    // Returns the result for a record, null if it isn't selected.
+    abstract JSONObject accept(JSONObject record) throws JSONException;
+
+    @Override
+    public boolean hasNext() throws FailedDBOperationException {
+      while (next == null && rows.hasNext()) {
+        try {
+          next = accept(rows.nextJSONObject());
+        } catch (IllegalArgumentException | JSONException e) {
+          DatabaseConfig.getLogger().log(Level.FINE, "{0} select failed: {1}",
+                  new Object[]{nodeID, e.getMessage()});
+          throw new FailedDBOperationException(collection, query, e.getMessage());
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public JSONObject nextJSONObject() throws FailedDBOperationException {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      JSONObject result = next;
+      next = null;
+      return result;
+    }
+  }
+
+  // Reduces the selected records to the fields needed for the projection.
+  private static List<JSONObject> project(String collection, List<JSONObject> records,
+          List<String> projection) throws FailedDBOperationException {
+    List<String> fields = MongoRecords.generateSelectFields(projection);
+    if (fields == null) {
+      return records;
+    }
+    List<JSONObject> result = new ArrayList<>(records.size());
+    try {
+      for (JSONObject record : records) {
+        result.add(project(record, fields));
+      }
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, fields.toString(), "Unable to project records: " + e.getMessage());
+    }
+    return result;
+  }
+
+  // Copies the given dotted fields, where present, into a new record.
+  // Also used by DiskMapRecords.
+  static JSONObject project(JSONObject record, List<String> fields) throws JSONException {
+    JSONObject result = new JSONObject();
+    for (String field : fields) {
+      copyField(record, result, field.split("\\."), 0);
+    }
+    return result;
+  }
+
+  private static void copyField(JSONObject from, JSONObject to, String[] path, int i) throws JSONException {
+    Object value = from.opt(path[i]);
+    if (value == null) {
+      return;
+    }
+    if (i == path.length - 1) {
+      to.put(path[i], value);
+    } else if (value instanceof JSONObject) {
+      JSONObject child = to.optJSONObject(path[i]);
+      if (child == null) {
+        child = new JSONObject();
+        to.put(path[i], child);
+      }
+      copyField((JSONObject) value, child, path, i + 1);
+    }
+  }
+
+  @Override
+  public void createIndex(String collection, String field, String index) {
+    // Selects are evaluated by scanning so there is nothing to do here.
+    LOGGER.log(Level.FINE, "Ignoring index {0} on {1}", new Object[]{index, field});
+  }
+
+  @Override
+  public void printAllEntries(String collection) throws FailedDBOperationException {
+    AbstractRecordCursor cursor = getAllRowsIterator(collection);
+    while (cursor.hasNext()) {
+      LOGGER.log(Level.INFO, "{0}", cursor.nextJSONObject());
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "EmbeddedRecords{" + nodeID + ", " + collections.values() + "}";
+  }
+
+  /**
+   * Forces all the collections to disk.
+   */
+  public void close() {
+    for (EmbeddedCollection collection : collections.values()) {
+      collection.sync();
+    }
+  }
+
+  /**
+   * Deletes the embedded database of a node.
+   *
+   * @param nodeID
+   */
+  public static void dropNodeDatabase(String nodeID) {
+    File nodeDirectory = getNodeDirectory(nodeID);
+    if (nodeDirectory.exists()) {
+      delete(nodeDirectory);
+      LOGGER.log(Level.INFO, "Dropped DB {0}", nodeDirectory);
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    if (!file.delete()) {
+      DatabaseConfig.getLogger().log(Level.WARNING, "Unable to delete {0}", file);
+    }
+  }
+
+  private JSONObject get(EmbeddedCollection collection, String name) throws FailedDBOperationException {
+    try {
+      return collection.get(name);
+    } catch (JSONException e) {
+      DatabaseConfig.getLogger().log(Level.FINE, "lookup failed: {0}", e.getMessage());
+      throw new FailedDBOperationException(collection.getName(), name, "Unable to parse json record");
+    }
+  }
+
+  private void put(EmbeddedCollection collection, String name, JSONObject record)
+          throws FailedDBOperationException {
+    try {
+      collection.put(name, record);
+    } catch (IOException e) {
+      DatabaseConfig.getLogger().log(Level.SEVERE, "write failed: {0}", e.getMessage());
+      throw new FailedDBOperationException(collection.getName(), name, "Unable to write: " + e.getMessage());
+    }
+  }
+}
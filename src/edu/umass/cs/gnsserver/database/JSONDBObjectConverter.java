@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.database;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import org.bson.types.ObjectId;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Converts between JSONObjects and mongo DBObjects by walking the tree once.
+ *
+ * This replaces the old idiom of <code>JSON.parse(json.toString())</code> and
+ * <code>new JSONObject(dbObject.toString())</code> which serialized every record
+ * to a string and parsed it again on each read and write.
+ *
+ * @author westy
+ */
+public class JSONDBObjectConverter {
+
+  private static final String OBJECT_ID = "$oid";
+
+  /**
+   * Converts a JSONObject into a BasicDBObject.
+   *
+   * @param json
+   * @return a BasicDBObject
+   * @throws JSONException
+   */
+  public static BasicDBObject toDBObject(JSONObject json) throws JSONException {
+    BasicDBObject dbObject = new BasicDBObject();
+    Iterator<?> keys = json.keys();
+    while (keys.hasNext()) {
+      String key = (String) keys.next();
+      dbObject.put(key, toDBValue(json.get(key)));
+    }
+    return dbObject;
+  }
+
+  /**
+   * Converts a JSONArray into a BasicDBList.
+   *
+   * @param array
+   * @return a BasicDBList
+   * @throws JSONException
+   */
+  public static BasicDBList toDBList(JSONArray array) throws JSONException {
+    BasicDBList list = new BasicDBList();
+    for (int i = 0; i < array.length(); i++) {
+      list.add(toDBValue(array.get(i)));
+    }
+    return list;
+  }
+
+  /**
+   * Converts any value that can appear in a JSONObject into the value
+   * mongo expects. Strings, numbers and booleans are returned as is.
+   *
+   * @param value
+   * @return the converted value
+   * @throws JSONException
+   */
+  @SuppressWarnings("unchecked")
+  public static Object toDBValue(Object value) throws JSONException {
+    if (value == null || value == JSONObject.NULL) {
+      return null;
+    } else if (value instanceof String || value instanceof Number
+            || value instanceof Boolean) {
+      return value;
+    } else if (value instanceof JSONObject) {
+      return toDBObject((JSONObject) value);
+    } else if (value instanceof JSONArray) {
+      return toDBList((JSONArray) value);
+    } else if (value instanceof Map) {
+      BasicDBObject dbObject = new BasicDBObject();
+      for (Map.Entry<String, ?> entry : ((Map<String, ?>) value).entrySet()) {
+        dbObject.put(entry.getKey(), toDBValue(entry.getValue()));
+      }
+      return dbObject;
+    } else if (value instanceof Collection) {
+      BasicDBList list = new BasicDBList();
+      for (Object element : (Collection<?>) value) {
+        list.add(toDBValue(element));
+      }
+      return list;
+    }
+    // Anything else gets the old treatment.
+    return JSON.parse(value.toString());
+  }
+
+  /**
+   * Converts a DBObject into a JSONObject.
+   *
+   * @param dbObject
+   * @return a JSONObject
+   * @throws JSONException
+   */
+  public static JSONObject toJSONObject(DBObject dbObject) throws JSONException {
+    JSONObject json = new JSONObject();
+    for (String key : dbObject.keySet()) {
+      json.put(key, toJSONValue(dbObject.get(key)));
+    }
+    return json;
+  }
+
+  /**
+   * Converts a list value read from mongo into a JSONArray.
+   *
+   * @param value
+   * @return a JSONArray
+   * @throws JSONException if the value is not a list
+   */
+  public static JSONArray toJSONArray(Object value) throws JSONException {
+    Object converted = toJSONValue(value);
+    if (converted instanceof JSONArray) {
+      return (JSONArray) converted;
+    }
+    throw new JSONException("Not a list: " + value);
+  }
+
+  /**
+   * Converts any value read from mongo into the value a JSONObject expects.
+   * ObjectIds are rendered the same way mongo renders them as JSON.
+   *
+   * @param value
+   * @return the converted value
+   * @throws JSONException
+   */
+  @SuppressWarnings("unchecked")
+  public static Object toJSONValue(Object value) throws JSONException {
+    if (value == null) {
+      return JSONObject.NULL;
+    } else if (value instanceof String || value instanceof Number
+            || value instanceof Boolean || value instanceof JSONObject
+            || value instanceof JSONArray) {
+      return value;
+    } else if (value instanceof Map) {
+      JSONObject json = new JSONObject();
+      for (Map.Entry<String, ?> entry : ((Map<String, ?>) value).entrySet()) {
+        json.put(entry.getKey(), toJSONValue(entry.getValue()));
+      }
+      return json;
+    } else if (value instanceof Collection) {
+      JSONArray array = new JSONArray();
+      for (Object element : (Collection<?>) value) {
+        array.put(toJSONValue(element));
+      }
+      return array;
+    } else if (value instanceof DBObject) {
+      return toJSONObject((DBObject) value);
+    } else if (value instanceof ObjectId) {
+      return new JSONObject().put(OBJECT_ID, value.toString());
+    }
+    return value.toString();
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.database;
+
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import java.util.Arrays;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Compares converting records to and from DBObjects by string round trips
+ * against JSONDBObjectConverter for records of 1, 10 and 100 fields.
+ *
+ * Typical incantation:
+ *
+ * java -cp jars/GNS.jar edu.umass.cs.gnsserver.database.JSONDBObjectConverterBenchmark 100000
+ *
+ * @author westy
+ */
+public class JSONDBObjectConverterBenchmark {
+
+  private static final int[] FIELD_COUNTS = {1, 10, 100};
+  // keeps the JIT from throwing away the work
+  private static int sink = 0;
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   * @throws JSONException
+   */
+  public static void main(String[] args) throws JSONException {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    for (int fields : FIELD_COUNTS) {
+      JSONObject record = createRecord(fields);
+      // warm up
+      runStrings(record, iterations);
+      runConverter(record, iterations);
+      long stringTime = runStrings(record, iterations);
+      long converterTime = runConverter(record, iterations);
+      System.out.println(String.format("%3d fields: string round trip %8.2fus/op   converter %8.2fus/op",
+              fields, stringTime / 1000.0 / iterations, converterTime / 1000.0 / iterations));
+    }
+    System.out.println(sink);
+  }
+
+  private static JSONObject createRecord(int fields) throws JSONException {
+    JSONObject valuesMap = new JSONObject();
+    for (int i = 0; i < fields; i++) {
+      switch (i % 4) {
+        case 0:
+          valuesMap.put("field" + i, "value" + i);
+          break;
+        case 1:
+          valuesMap.put("field" + i, i * 1.5);
+          break;
+        case 2:
+          valuesMap.put("field" + i, new JSONArray(Arrays.asList("a" + i, "b" + i)));
+          break;
+        default:
+          valuesMap.put("field" + i, new JSONObject().put("inner", i).put("flag", true));
+          break;
+      }
+    }
+    return new JSONObject().put(NameRecord.NAME.getName(), "benchmarkGuid")
+            .put(NameRecord.VALUES_MAP.getName(), valuesMap);
+  }
+
+  private static long runStrings(JSONObject record, int iterations) throws JSONException {
+    long startTime = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      DBObject dbObject = (DBObject) JSON.parse(record.toString());
+      JSONObject json = new JSONObject(dbObject.toString());
+      sink += json.length();
+    }
+    return System.nanoTime() - startTime;
+  }
+
+  private static long runConverter(JSONObject record, int iterations) throws JSONException {
+    long startTime = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      DBObject dbObject = JSONDBObjectConverter.toDBObject(record);
+      JSONObject json = JSONDBObjectConverter.toJSONObject(dbObject);
+      sink += json.length();
+    }
+    return System.nanoTime() - startTime;
+  }
+}
@@ -0,0 +1,601 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.database;
+
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Evaluates mongo style queries against records held as JSONObjects.
+ *
+ * The query is the Map / Collection structure produced by
+ * {@link com.mongodb.util.JSON#parse(String)} (BasicDBObject and BasicDBList) so that
+ * the same query strings the GNS sends to mongo can be evaluated without a mongo
+ * server. Field names use dot notation and, as in mongo, a field that holds an
+ * array matches a condition if the array itself or any of its elements does.
+ *
+ * Supported operators are $and, $or, $nor, $eq, $ne, $gt, $gte, $lt, $lte, $in,
+ * $nin, $exists, $regex (with $options), $not, $all, $size, $elemMatch,
+ * $geoWithin / $within with $box or $center, and $near with $maxDistance.
+ * Geospatial distances are planar in the units of the coordinates (degrees) like
+ * mongo's legacy 2d index. Anything else results in an IllegalArgumentException.
+ *
+ * @author westy
+ */
+public class JSONQueryMatcher {
+
+  private static final Set<String> OPERATORS = new HashSet<>(Arrays.asList("$eq", "$ne", "$gt", "$gte",
+          "$lt", "$lte", "$in", "$nin", "$exists", "$regex", "$options", "$maxDistance", "$not", "$size",
+          "$all", "$elemMatch", "$geoWithin", "$within", "$near"));
+
+  /**
+   * Converts a select query in GNS syntax into the form {@link #matches} takes.
+   *
+   * @param query
+   * @return the query
+   * @throws IllegalArgumentException if the query can't be parsed
+   */
+  public static Map<?, ?> parseSelectQuery(String query) {
+    return CompiledSelectQuery.compile(query).toNativeQuery(NameRecord.VALUES_MAP);
+  }
+
+  /**
+   * Returns true if {@link #matches} can evaluate the query, that is it only uses
+   * the supported operators with the arguments they need.
+   *
+   * @param query
+   * @return true if the query is supported
+   */
+  public static boolean isSupported(Map<?, ?> query) {
+    for (Map.Entry<?, ?> entry : query.entrySet()) {
+      String key = entry.getKey().toString();
+      switch (key) {
+        case "$and":
+        case "$or":
+        case "$nor":
+          if (!(entry.getValue() instanceof Collection)) {
+            return false;
+          }
+          for (Object clause : (Collection<?>) entry.getValue()) {
+            if (!(clause instanceof Map) || !isSupported((Map<?, ?>) clause)) {
+              return false;
+            }
+          }
+          break;
+        default:
+          if (key.startsWith("$") || !isSupportedCondition(entry.getValue())) {
+            return false;
+          }
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSupportedCondition(Object condition) {
+    if (!(condition instanceof Map) || !isOperatorMap((Map<?, ?>) condition)) {
+      return true;
+    }
+    Map<?, ?> operators = (Map<?, ?>) condition;
+    for (Map.Entry<?, ?> entry : operators.entrySet()) {
+      String operator = entry.getKey().toString();
+      Object argument = entry.getValue();
+      if (!OPERATORS.contains(operator)) {
+        return false;
+      }
+      switch (operator) {
+        case "$not":
+          if (!isSupportedCondition(argument)) {
+            return false;
+          }
+          break;
+        case "$elemMatch":
+          if (!(argument instanceof Map) || !(isOperatorMap((Map<?, ?>) argument)
+                  ? isSupportedCondition(argument) : isSupported((Map<?, ?>) argument))) {
+            return false;
+          }
+          break;
+        case "$geoWithin":
+        case "$within":
+          if (!(argument instanceof Map) || !(((Map<?, ?>) argument).containsKey("$box")
+                  || ((Map<?, ?>) argument).containsKey("$center"))) {
+            return false;
+          }
+          break;
+        case "$near":
+          if (point(argument) == null || !(operators.get("$maxDistance") instanceof Number)) {
+            return false;
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if the record satisfies the query.
+   *
+   * @param query
+   * @param record
+   * @return true if the record matches
+   * @throws IllegalArgumentException if the query uses an unsupported operator
+   */
+  public static boolean matches(Map<?, ?> query, JSONObject record) {
+    for (Map.Entry<?, ?> entry : query.entrySet()) {
+      String key = entry.getKey().toString();
+      Object condition = entry.getValue();
+      switch (key) {
+        case "$and":
+          for (Object clause : asCollection(key, condition)) {
+            if (!matches(asMap(key, clause), record)) {
+              return false;
+            }
+          }
+          break;
+        case "$or":
+          if (!matchesAny(key, condition, record)) {
+            return false;
+          }
+          break;
+        case "$nor":
+          if (matchesAny(key, condition, record)) {
+            return false;
+          }
+          break;
+        default:
+          if (key.startsWith("$")) {
+            throw new IllegalArgumentException("Unsupported query operator " + key);
+          }
+          if (!matchesField(resolve(record, key), condition)) {
+            return false;
+          }
+      }
+    }
+    return true;
+  }
+
+  private static boolean matchesAny(String operator, Object clauses, JSONObject record) {
+    for (Object clause : asCollection(operator, clauses)) {
+      if (matches(asMap(operator, clause), record)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns all the values that the dotted field name refers to in the record.
+   * An empty list means the field does not exist. Arrays along the path are
+   * traversed either by numeric index or by descending into each element.
+   *
+   * @param record
+   * @param field
+   * @return a list of values
+   */
+  public static List<Object> resolve(JSONObject record, String field) {
+    List<Object> values = new ArrayList<>();
+    resolve(record, field.split("\\."), 0, values);
+    return values;
+  }
+
+  private static void resolve(Object node, String[] path, int i, List<Object> values) {
+    if (i == path.length) {
+      values.add(node);
+    } else if (node instanceof JSONObject) {
+      JSONObject json = (JSONObject) node;
+      if (json.has(path[i])) {
+        resolve(json.opt(path[i]), path, i + 1, values);
+      }
+    } else if (node instanceof JSONArray) {
+      JSONArray array = (JSONArray) node;
+      int index = arrayIndex(path[i]);
+      if (index >= 0 && index < array.length()) {
+        resolve(array.opt(index), path, i + 1, values);
+      }
+      for (int j = 0; j < array.length(); j++) {
+        if (array.opt(j) instanceof JSONObject) {
+          resolve(array.opt(j), path, i, values);
+        }
+      }
+    }
+  }
+
+  private static int arrayIndex(String segment) {
+    if (segment.isEmpty() || segment.length() > 9) {
+      return -1;
+    }
+    for (int i = 0; i < segment.length(); i++) {
+      if (!Character.isDigit(segment.charAt(i))) {
+        return -1;
+      }
+    }
+    return Integer.parseInt(segment);
+  }
+
+  private static boolean matchesField(List<Object> values, Object condition) {
+    if (condition instanceof Map && isOperatorMap((Map<?, ?>) condition)) {
+      Map<?, ?> operators = (Map<?, ?>) condition;
+      for (Map.Entry<?, ?> entry : operators.entrySet()) {
+        if (!matchesOperator(values, entry.getKey().toString(), entry.getValue(), operators)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (condition instanceof Pattern) {
+      return matchesPattern(values, (Pattern) condition);
+    }
+    return equalsAny(values, condition);
+  }
+
+  private static boolean isOperatorMap(Map<?, ?> map) {
+    if (map.isEmpty()) {
+      return false;
+    }
+    for (Object key : map.keySet()) {
+      if (!key.toString().startsWith("$")) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean matchesOperator(List<Object> values, String operator,
+          Object argument, Map<?, ?> operators) {
+    switch (operator) {
+      case "$eq":
+        return equalsAny(values, argument);
+      case "$ne":
+        return !equalsAny(values, argument);
+      case "$gt":
+        return compareAny(values, argument, 1, false);
+      case "$gte":
+        return compareAny(values, argument, 1, true);
+      case "$lt":
+        return compareAny(values, argument, -1, false);
+      case "$lte":
+        return compareAny(values, argument, -1, true);
+      case "$in":
+        return inAny(values, asCollection(operator, argument));
+      case "$nin":
+        return !inAny(values, asCollection(operator, argument));
+      case "$exists":
+        return isTrue(argument) != values.isEmpty();
+      case "$regex":
+        return matchesPattern(values, argument instanceof Pattern ? (Pattern) argument
+                : Pattern.compile(argument.toString(), patternFlags(operators.get("$options"))));
+      case "$options":
+      case "$maxDistance":
+        // consumed by $regex and $near
+        return true;
+      case "$not":
+        return !matchesField(values, argument);
+      case "$size":
+        for (Object value : values) {
+          if (value instanceof JSONArray && argument instanceof Number
+                  && ((JSONArray) value).length() == ((Number) argument).intValue()) {
+            return true;
+          }
+        }
+        return false;
+      case "$all":
+        for (Object element : asCollection(operator, argument)) {
+          if (!equalsAny(values, element)) {
+            return false;
+          }
+        }
+        return true;
+      case "$elemMatch":
+        return elemMatch(values, asMap(operator, argument));
+      case "$geoWithin":
+      case "$within":
+        return withinAny(values, asMap(operator, argument));
+      case "$near":
+        double[] center = point(argument);
+        Object maxDistance = operators.get("$maxDistance");
+        if (center == null || !(maxDistance instanceof Number)) {
+          throw new IllegalArgumentException("$near needs a point and a $maxDistance");
+        }
+        return nearAny(values, center, ((Number) maxDistance).doubleValue());
+      default:
+        throw new IllegalArgumentException("Unsupported query operator " + operator);
+    }
+  }
+
+  // Values plus the elements of any array values.
+  private static List<Object> expand(List<Object> values) {
+    List<Object> expanded = new ArrayList<>(values);
+    for (Object value : values) {
+      if (value instanceof JSONArray) {
+        JSONArray array = (JSONArray) value;
+        for (int i = 0; i < array.length(); i++) {
+          expanded.add(array.opt(i));
+        }
+      }
+    }
+    return expanded;
+  }
+
+  private static boolean equalsAny(List<Object> values, Object argument) {
+    if (argument == null && values.isEmpty()) {
+      return true;
+    }
+    for (Object value : expand(values)) {
+      if (valuesEqual(argument, value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean inAny(List<Object> values, Collection<?> arguments) {
+    for (Object argument : arguments) {
+      if (argument instanceof Pattern ? matchesPattern(values, (Pattern) argument)
+              : equalsAny(values, argument)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean compareAny(List<Object> values, Object argument, int sign, boolean orEqual) {
+    for (Object value : expand(values)) {
+      Integer comparison = compare(value, argument);
+      if (comparison != null && (Integer.signum(comparison) == sign || (orEqual && comparison == 0))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean matchesPattern(List<Object> values, Pattern pattern) {
+    for (Object value : expand(values)) {
+      if (value instanceof String && pattern.matcher((String) value).find()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean elemMatch(List<Object> values, Map<?, ?> condition) {
+    boolean operators = isOperatorMap(condition);
+    for (Object value : values) {
+      if (value instanceof JSONArray) {
+        JSONArray array = (JSONArray) value;
+        for (int i = 0; i < array.length(); i++) {
+          Object element = array.opt(i);
+          if (operators ? matchesField(Collections.singletonList(element), condition)
+                  : element instanceof JSONObject && matches(condition, (JSONObject) element)) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean withinAny(List<Object> values, Map<?, ?> shape) {
+    if (shape.containsKey("$box")) {
+      List<?> box = asList("$box", shape.get("$box"));
+      double[] corner1 = box.size() == 2 ? point(box.get(0)) : null;
+      double[] corner2 = box.size() == 2 ? point(box.get(1)) : null;
+      if (corner1 == null || corner2 == null) {
+        throw new IllegalArgumentException("$box needs two corners");
+      }
+      for (Object value : values) {
+        double[] p = point(value);
+        if (p != null && inBox(p, corner1, corner2)) {
+          return true;
+        }
+      }
+      return false;
+    } else if (shape.containsKey("$center")) {
+      List<?> circle = asList("$center", shape.get("$center"));
+      double[] center = circle.size() == 2 ? point(circle.get(0)) : null;
+      if (center == null || !(circle.get(1) instanceof Number)) {
+        throw new IllegalArgumentException("$center needs a point and a radius");
+      }
+      return nearAny(values, center, ((Number) circle.get(1)).doubleValue());
+    }
+    throw new IllegalArgumentException("Unsupported shape " + shape.keySet());
+  }
+
+  private static boolean nearAny(List<Object> values, double[] center, double maxDistance) {
+    for (Object value : values) {
+      double[] p = point(value);
+      if (p != null && distance(p, center) <= maxDistance) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if the point is inside the box with the given corners.
+   *
+   * @param point
+   * @param corner1
+   * @param corner2
+   * @return true if the point is inside the box
+   */
+  public static boolean inBox(double[] point, double[] corner1, double[] corner2) {
+    return point[0] >= Math.min(corner1[0], corner2[0])
+            && point[0] <= Math.max(corner1[0], corner2[0])
+            && point[1] >= Math.min(corner1[1], corner2[1])
+            && point[1] <= Math.max(corner1[1], corner2[1]);
+  }
+
+  /**
+   * Returns the planar distance between two points.
+   *
+   * @param p1
+   * @param p2
+   * @return the distance
+   */
+  public static double distance(double[] p1, double[] p2) {
+    double dx = p1[0] - p2[0];
+    double dy = p1[1] - p2[1];
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+
+  /**
+   * Extracts a [x, y] point from a legacy coordinate pair (a JSONArray or list),
+   * or from a GeoJSON style object with a coordinates field.
+   * Returns null if the value isn't a point.
+   *
+   * @param value
+   * @return a two element array or null
+   */
+  public static double[] point(Object value) {
+    if (value instanceof JSONObject) {
+      return point(((JSONObject) value).opt("coordinates"));
+    }
+    if (value instanceof Map) {
+      return point(((Map<?, ?>) value).get("coordinates"));
+    }
+    Object x = null;
+    Object y = null;
+    if (value instanceof JSONArray && ((JSONArray) value).length() == 2) {
+      x = ((JSONArray) value).opt(0);
+      y = ((JSONArray) value).opt(1);
+    } else if (value instanceof List && ((List<?>) value).size() == 2) {
+      x = ((List<?>) value).get(0);
+      y = ((List<?>) value).get(1);
+    }
+    if (x instanceof Number && y instanceof Number) {
+      return new double[]{((Number) x).doubleValue(), ((Number) y).doubleValue()};
+    }
+    return null;
+  }
+
+  /**
+   * Compares a value from a record with a value from a query. Numbers compare numerically
+   * and strings lexicographically. Returns null if the values aren't comparable.
+   */
+  private static Integer compare(Object value, Object argument) {
+    if (value instanceof Number && argument instanceof Number) {
+      return Double.compare(((Number) value).doubleValue(), ((Number) argument).doubleValue());
+    }
+    if (value instanceof String && argument instanceof String) {
+      return ((String) value).compareTo((String) argument);
+    }
+    return null;
+  }
+
+  /**
+   * Structural equality between a query value (maps, lists and scalars) and a
+   * record value (JSONObjects, JSONArrays and scalars).
+   */
+  private static boolean valuesEqual(Object argument, Object value) {
+    if (argument == null || argument == JSONObject.NULL) {
+      return value == null || value == JSONObject.NULL;
+    }
+    if (argument instanceof Number && value instanceof Number) {
+      return Double.compare(((Number) argument).doubleValue(), ((Number) value).doubleValue()) == 0;
+    }
+    if (argument instanceof Map && value instanceof JSONObject) {
+      Map<?, ?> map = (Map<?, ?>) argument;
+      JSONObject json = (JSONObject) value;
+      if (map.size() != json.length()) {
+        return false;
+      }
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        String key = entry.getKey().toString();
+        if (!json.has(key) || !valuesEqual(entry.getValue(), json.opt(key))) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (argument instanceof List && value instanceof JSONArray) {
+      List<?> list = (List<?>) argument;
+      JSONArray array = (JSONArray) value;
+      if (list.size() != array.length()) {
+        return false;
+      }
+      for (int i = 0; i < list.size(); i++) {
+        if (!valuesEqual(list.get(i), array.opt(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (argument instanceof JSONObject || argument instanceof JSONArray) {
+      return value != null && argument.toString().equals(value.toString());
+    }
+    return argument.equals(value);
+  }
+
+  private static boolean isTrue(Object argument) {
+    if (argument instanceof Boolean) {
+      return (Boolean) argument;
+    }
+    if (argument instanceof Number) {
+      return ((Number) argument).doubleValue() != 0;
+    }
+    return argument != null;
+  }
+
+  private static int patternFlags(Object options) {
+    int flags = 0;
+    if (options != null) {
+      for (char c : options.toString().toCharArray()) {
+        switch (c) {
+          case 'i':
+            flags |= Pattern.CASE_INSENSITIVE;
+            break;
+          case 'm':
+            flags |= Pattern.MULTILINE;
+            break;
+          case 's':
+            flags |= Pattern.DOTALL;
+            break;
+          case 'x':
+            flags |= Pattern.COMMENTS;
+            break;
+          default:
+            break;
+        }
+      }
+    }
+    return flags;
+  }
+
+  private static Map<?, ?> asMap(String operator, Object argument) {
+    if (argument instanceof Map) {
+      return (Map<?, ?>) argument;
+    }
+    throw new IllegalArgumentException(operator + " needs an object but got " + argument);
+  }
+
+  private static Collection<?> asCollection(String operator, Object argument) {
+    if (argument instanceof Collection) {
+      return (Collection<?>) argument;
+    }
+    throw new IllegalArgumentException(operator + " needs an array but got " + argument);
+  }
+
+  private static List<?> asList(String operator, Object argument) {
+    if (argument instanceof List) {
+      return (List<?>) argument;
+    }
+    throw new IllegalArgumentException(operator + " needs an array but got " + argument);
+  }
+}
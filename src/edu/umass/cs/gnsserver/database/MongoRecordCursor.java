@@ -84,7 +84,7 @@ public class MongoRecordCursor extends AbstractRecordCursor {
       if (cursor.hasNext()) {
         DBObject dbObject = cursor.next();
         try {
-          return new JSONObject(dbObject.toString());
+          return JSONDBObjectConverter.toJSONObject(dbObject);
         } catch (JSONException e) {
           // Since next can't throw anything which isn't a runtime exception.
           // replace these with not a runtime exception?
@@ -122,7 +122,7 @@ public class MongoRecordCursor extends AbstractRecordCursor {
       DBObject dbObject = cursor.next();
       try {
         // capitalizing on the fact that we know dbObjects are really JSONObjects
-        return new JSONObject(dbObject.toString()).getString(name);
+        return JSONDBObjectConverter.toJSONObject(dbObject).getString(name);
       } catch (JSONException e) {
         throw new ServerRuntimeException("Error parsing JSON object.");
       }
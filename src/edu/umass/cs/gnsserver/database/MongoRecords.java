@@ -21,9 +21,13 @@ package edu.umass.cs.gnsserver.database;
 
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 
 import org.json.JSONArray;
@@ -41,7 +45,6 @@ import com.mongodb.DBObject;
 import com.mongodb.DuplicateKeyException;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoException;
-import com.mongodb.util.JSON;
 
 import edu.umass.cs.gnscommon.GNSProtocol;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
@@ -62,9 +65,13 @@ import edu.umass.cs.utils.Util;
  * guid, key, record triples using JSONObjects as the intermediate representation.
  * All records are stored in a document called NameRecord.
  *
+ * The asynchronous operations run on a pool with one thread for each
+ * connection in the driver's connection pool so that many operations can be
+ * outstanding against mongo at once. The 2.x driver has no asynchronous API.
+ *
  * @author westy, Abhigyan, arun
  */
-public class MongoRecords implements NoSQLRecords {
+public class MongoRecords implements NoSQLRecords, AsyncNoSQLRecords {
 
   private static final String DBROOTNAME = "UMASS_GNS_DB_";
   /**
@@ -77,6 +84,8 @@ public class MongoRecords implements NoSQLRecords {
 
   private MongoClient mongoClient;
   private MongoCollectionSpecs mongoCollectionSpecs;
+  private ExecutorService asyncExecutor;
+  private AsyncRecordsAdapter asyncRecords;
 
   /**
    * Creates database tables for nodeID, by connecting to mongoDB on default port.
@@ -172,7 +181,37 @@ public class MongoRecords implements NoSQLRecords {
   }
   
   /**
-   * This function checks if an index is an int in 
+   * Returns the fields of the values map that have an index in the collection
+   * mapped to the index type (1, -1, 2d, 2dsphere...).
+   * Used by DiskMapRecords to rebuild its own indexes.
+   *
+   * @param collectionName
+   * @return a map of full field name to index type
+   */
+  public Map<String, String> getIndexedFields(String collectionName) {
+    Map<String, String> result = new HashMap<>();
+    if (db == null) {
+      return result;
+    }
+    String prefix = NameRecord.VALUES_MAP.getName() + ".";
+    try {
+      for (DBObject index : db.getCollection(collectionName).getIndexInfo()) {
+        DBObject keys = (DBObject) index.get("key");
+        for (String field : keys.keySet()) {
+          if (field.startsWith(prefix)) {
+            result.put(field, String.valueOf(keys.get(field)));
+          }
+        }
+      }
+    } catch (MongoException e) {
+      DatabaseConfig.getLogger().log(Level.WARNING, "{0} Unable to read indexes: {1}",
+              new Object[]{dbName, e.getMessage()});
+    }
+    return result;
+  }
+
+  /**
+   * This function checks if an index is an int in
    * the form of a string. In mongodb, there are some
    * string indexes, and then are some int indexes like 1
    * , -1 etc. So, we need to know which one a user
@@ -204,7 +243,7 @@ public class MongoRecords implements NoSQLRecords {
       DBCollection collection = db.getCollection(collectionName);
       DBObject dbObject;
       try {
-        dbObject = (DBObject) JSON.parse(value.toString());
+        dbObject = JSONDBObjectConverter.toDBObject(value);
       } catch (Exception e) {
         throw new FailedDBOperationException(collectionName, guid,
                 "Unable to parse json" + e.getMessage());
@@ -243,11 +282,7 @@ public class MongoRecords implements NoSQLRecords {
       }
       if (cursor.hasNext()) {
         DBObject obj = cursor.next();
-        // arun: optimized for the common case of Map
-        @SuppressWarnings("unchecked")
-        JSONObject json = obj instanceof Map ? DiskMapRecords
-                .recursiveCopyMap((Map<String, ?>) obj)
-                : new JSONObject(obj.toString());
+        JSONObject json = JSONDBObjectConverter.toJSONObject(obj);
         // instrumentation
         DelayProfiler.updateDelay("lookupEntireRecord", startTime);
         // older style
@@ -321,14 +356,14 @@ public class MongoRecords implements NoSQLRecords {
           try {
             switch (valuesMapKeys.get(i).type()) {
               case USER_JSON:
-                Object value = getWithDotNotation(userKey, bson);
+                Object value = JSONDBObjectConverter.toJSONValue(getWithDotNotation(userKey, bson));
                 DatabaseConfig.getLogger().log(Level.FINE,
                         "{0} Object is {1}", new Object[]{dbName, value.toString()});
                 valuesMap.put(userKey, value);
                 break;
               case LIST_STRING:
                 valuesMap.putAsArray(userKey,
-                        JSONUtils.JSONArrayToResultValue(new JSONArray(getWithDotNotation(userKey, bson).toString())));
+                        JSONUtils.JSONArrayToResultValue(JSONDBObjectConverter.toJSONArray(getWithDotNotation(userKey, bson))));
                 break;
               default:
                 DatabaseConfig.getLogger().log(Level.SEVERE,
@@ -353,6 +388,54 @@ public class MongoRecords implements NoSQLRecords {
     }
   }
 
+  @Override
+  public Map<String, JSONObject> lookupMany(String collectionName, Collection<String> names,
+          List<String> projection) throws FailedDBOperationException {
+    Map<String, JSONObject> result = new HashMap<>();
+    if (names.isEmpty()) {
+      return result;
+    }
+    long startTime = System.currentTimeMillis();
+    db.requestStart();
+    try {
+      String primaryKey = mongoCollectionSpecs.getCollectionSpec(collectionName).getPrimaryKey().getName();
+      db.requestEnsureConnection();
+      DBCollection collection = db.getCollection(collectionName);
+      // One query for all the names
+      BasicDBObject query = new BasicDBObject(primaryKey,
+              new BasicDBObject("$in", new ArrayList<>(names)));
+      BasicDBObject fields = null;
+      if (projection != null) {
+        fields = new BasicDBObject().append("_id", 0);
+        for (String field : generateLookupFields(projection)) {
+          fields.append(field, 1);
+        }
+      }
+      DBCursor cursor = collection.find(query, fields);
+      try {
+        while (cursor.hasNext()) {
+          DBObject dbObject = cursor.next();
+          result.put((String) dbObject.get(primaryKey), JSONDBObjectConverter.toJSONObject(dbObject));
+        }
+      } finally {
+        cursor.close();
+      }
+      DelayProfiler.updateDelay("lookupMany", startTime);
+      return result;
+    } catch (JSONException e) {
+      DatabaseConfig.getLogger().log(Level.WARNING, "{0} Unable to parse JSON: {1}",
+              new Object[]{dbName, e.getMessage()});
+      throw new FailedDBOperationException(collectionName, names.toString(),
+              "Unable to parse json" + e.getMessage());
+    } catch (MongoException e) {
+      DatabaseConfig.getLogger().log(Level.FINE, "{0} lookupMany failed: {1}", new Object[]{dbName, e.getMessage()});
+      throw new FailedDBOperationException(collectionName, names.toString(),
+              "Original mongo exception:" + e.getMessage());
+    } finally {
+      db.requestDone();
+    }
+  }
+
   private Object getWithDotNotation(String key, BasicDBObject bson) throws JSONException {
     if (key.contains(".")) {
       int indexOfDot = key.indexOf(".");
@@ -418,7 +501,7 @@ public class MongoRecords implements NoSQLRecords {
           throws FailedDBOperationException {
     BasicDBObject updates = new BasicDBObject();
     try {
-      updates.append(NameRecord.VALUES_MAP.getName(), JSON.parse(valuesMap.toString()));
+      updates.append(NameRecord.VALUES_MAP.getName(), JSONDBObjectConverter.toDBObject(valuesMap));
     } catch (Exception e) {
       throw new FailedDBOperationException(collectionName, guid,
               "Unable to parse json" + e.getMessage());
@@ -435,6 +518,24 @@ public class MongoRecords implements NoSQLRecords {
    */
   public void bulkUpdate(String collectionName, Map<String, JSONObject> values)
           throws FailedDBOperationException, RecordExistsException {
+    bulkUpdate(collectionName, values, null);
+  }
+
+  /**
+   * Writes the given records. For records that have an entry in dirtyFields
+   * only those (dotted) fields are written using $set, or $unset if
+   * the field is no longer in the record. The other records are replaced
+   * entirely and null values remove the record.
+   *
+   * @param collectionName
+   * @param values
+   * @param dirtyFields the changed fields of each record, may be null
+   * @throws FailedDBOperationException
+   * @throws RecordExistsException
+   */
+  public void bulkUpdate(String collectionName, Map<String, JSONObject> values,
+          Map<String, ? extends Collection<String>> dirtyFields)
+          throws FailedDBOperationException, RecordExistsException {
     //String primaryKey = mongoCollectionSpecs.getCollectionSpec(collectionName).getPrimaryKey().getName();
     DBCollection collection = db.getCollection(collectionName);
     String primaryKey = mongoCollectionSpecs.getCollectionSpec(collectionName).getPrimaryKey().getName();
@@ -443,10 +544,37 @@ public class MongoRecords implements NoSQLRecords {
     for (Map.Entry<String, JSONObject> entry : values.entrySet()) {
       BasicDBObject query = new BasicDBObject(primaryKey, entry.getKey());
       JSONObject value = entry.getValue();
-      if (value != null) {
+      Collection<String> fields = dirtyFields != null ? dirtyFields.get(entry.getKey()) : null;
+      if (value != null && fields != null) {
+        BasicDBObject sets = new BasicDBObject();
+        BasicDBObject unsets = new BasicDBObject();
+        try {
+          for (String field : fields) {
+            Object fieldValue = getFieldForUpdate(value, field);
+            if (fieldValue == MISSING_FIELD) {
+              unsets.append(field, 1);
+            } else {
+              sets.append(field, fieldValue);
+            }
+          }
+        } catch (Exception e) {
+          throw new FailedDBOperationException(collectionName, "bulkUpdate",
+                  "Unable to parse json" + e.getMessage());
+        }
+        BasicDBObject update = new BasicDBObject();
+        if (!sets.isEmpty()) {
+          update.append("$set", sets);
+        }
+        if (!unsets.isEmpty()) {
+          update.append("$unset", unsets);
+        }
+        if (!update.isEmpty()) {
+          unordered.find(query).updateOne(update);
+        }
+      } else if (value != null) {
         DBObject document;
         try {
-          document = (DBObject) JSON.parse(value.toString());
+          document = JSONDBObjectConverter.toDBObject(value);
         } catch (Exception e) {
           throw new FailedDBOperationException(collectionName, "bulkUpdate",
                   "Unable to parse json" + e.getMessage());
@@ -460,6 +588,27 @@ public class MongoRecords implements NoSQLRecords {
     unordered.execute();
   }
 
+  private static final Object MISSING_FIELD = new Object();
+
+  // Returns the value of the dotted field in a form mongo accepts or MISSING_FIELD.
+  // Handles DBObjects stored in the record by JSONParse as well as JSONObjects.
+  private static Object getFieldForUpdate(Object record, String field) throws JSONException {
+    Object value = record;
+    for (String key : field.split("\\.")) {
+      if (value instanceof JSONObject) {
+        value = ((JSONObject) value).opt(key);
+      } else if (value instanceof Map) {
+        value = ((Map<?, ?>) value).get(key);
+      } else {
+        value = null;
+      }
+      if (value == null) {
+        return MISSING_FIELD;
+      }
+    }
+    return JSONDBObjectConverter.toDBValue(value);
+  }
+
   @Override
   public void updateIndividualFields(String collectionName, String guid,
           ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys,
@@ -475,7 +624,12 @@ public class MongoRecords implements NoSQLRecords {
             break;
           case USER_JSON:
             // value is any valid JSON
-            updates.append(fieldName, JSONParse(valuesMapValues.get(i)));
+            try {
+              updates.append(fieldName, JSONParse(valuesMapValues.get(i)));
+            } catch (JSONException e) {
+              throw new FailedDBOperationException(collectionName, guid,
+                      "Unable to parse json" + e.getMessage());
+            }
             break;
           default:
             DatabaseConfig.getLogger().log(Level.WARNING,
@@ -512,13 +666,8 @@ public class MongoRecords implements NoSQLRecords {
     }
   }
 
-  // not sure why the JSON.parse doesn't handle things this way but it doesn't
-  private Object JSONParse(Object object) {
-    if (object instanceof String || object instanceof Number) {
-      return object;
-    } else {
-      return JSON.parse(object.toString());
-    }
+  private Object JSONParse(Object object) throws JSONException {
+    return JSONDBObjectConverter.toDBValue(object);
   }
 
   @Override
@@ -563,13 +712,14 @@ public class MongoRecords implements NoSQLRecords {
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
   @Override
-  public MongoRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value)
+  public MongoRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value,
+          List<String> projection)
           throws FailedDBOperationException {
-    return selectRecords(collectionName, valuesMapField, key, value, false);
+    return selectRecords(collectionName, valuesMapField, key, value, projection, false);
   }
 
   private MongoRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value,
-          boolean explain) throws FailedDBOperationException {
+          List<String> projection, boolean explain) throws FailedDBOperationException {
     db.requestEnsureConnection();
     DBCollection collection = db.getCollection(collectionName);
     // note that if the value of the key in the database is a list (which it is) this
@@ -587,7 +737,7 @@ public class MongoRecords implements NoSQLRecords {
     //System.out.println("***GNSProtocol.QUERY.toString()***: " + query.toString());
     DBCursor cursor = null;
     try {
-      cursor = collection.find(query);
+      cursor = find(collection, query, projection);
     } catch (MongoException e) {
       DatabaseConfig.getLogger().log(Level.FINE, "{0} selectRecords failed: {1}",
               new Object[]{dbName, e.getMessage()});
@@ -601,12 +751,14 @@ public class MongoRecords implements NoSQLRecords {
   }
 
   @Override
-  public MongoRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value)
+  public MongoRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value,
+          List<String> projection)
           throws FailedDBOperationException {
-    return selectRecordsWithin(collectionName, valuesMapField, key, value, false);
+    return selectRecordsWithin(collectionName, valuesMapField, key, value, projection, false);
   }
 
-  private MongoRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value, boolean explain)
+  private MongoRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value,
+          List<String> projection, boolean explain)
           throws FailedDBOperationException {
     db.requestEnsureConnection();
     DBCollection collection = db.getCollection(collectionName);
@@ -618,7 +770,7 @@ public class MongoRecords implements NoSQLRecords {
     BasicDBObject query = new BasicDBObject(fieldName, withinClause);
     DBCursor cursor = null;
     try {
-      cursor = collection.find(query);
+      cursor = find(collection, query, projection);
     } catch (MongoException e) {
       DatabaseConfig.getLogger().log(Level.FINE, "{0} selectRecordsWithin failed: {1}",
               new Object[]{dbName, e.getMessage()});
@@ -655,12 +807,12 @@ public class MongoRecords implements NoSQLRecords {
 
   @Override
   public MongoRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value,
-          Double maxDistance) throws FailedDBOperationException {
-    return selectRecordsNear(collectionName, valuesMapField, key, value, maxDistance, false);
+          Double maxDistance, List<String> projection) throws FailedDBOperationException {
+    return selectRecordsNear(collectionName, valuesMapField, key, value, maxDistance, projection, false);
   }
 
   private MongoRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value,
-          Double maxDistance, boolean explain) throws FailedDBOperationException {
+          Double maxDistance, List<String> projection, boolean explain) throws FailedDBOperationException {
     db.requestEnsureConnection();
     DBCollection collection = db.getCollection(collectionName);
 
@@ -679,7 +831,7 @@ public class MongoRecords implements NoSQLRecords {
     BasicDBObject query = new BasicDBObject(fieldName, nearClause);
     DBCursor cursor = null;
     try {
-      cursor = collection.find(query);
+      cursor = find(collection, query, projection);
     } catch (MongoException e) {
       DatabaseConfig.getLogger().log(Level.FINE, "{0} selectNear failed: {1}",
               new Object[]{dbName, e.getMessage()});
@@ -704,15 +856,7 @@ public class MongoRecords implements NoSQLRecords {
     DBCollection collection = db.getCollection(collectionName);
     DBCursor cursor = null;
     try {
-      if (projection == null
-              // this handles the special case of the user wanting all fields 
-              // in the projection
-              || (!projection.isEmpty()
-              && projection.get(0).equals(GNSProtocol.ENTIRE_RECORD.toString()))) {
-        cursor = collection.find(parseMongoQuery(query, valuesMapField));
-      } else {
-        cursor = collection.find(parseMongoQuery(query, valuesMapField), generateProjection(projection));
-      }
+      cursor = find(collection, parseMongoQuery(query, valuesMapField), projection);
     } catch (MongoException e) {
       DatabaseConfig.getLogger().log(Level.FINE, "{0} selectRecordsQuery failed: {1}",
               new Object[]{dbName, e.getMessage()});
@@ -726,25 +870,12 @@ public class MongoRecords implements NoSQLRecords {
   }
 
   private DBObject parseMongoQuery(String query, ColumnField valuesMapField) {
-    // convert something like this: ~fred : ($gt: 0) into the queryable 
-    // format, namely this: {~nr_valuesMap.fred : ($gt: 0)}
-    String edittedQuery = query;
-    edittedQuery = "{" + edittedQuery + "}";
-    edittedQuery = edittedQuery.replace("(", "{");
-    edittedQuery = edittedQuery.replace(")", "}");
-    edittedQuery = edittedQuery.replace("~", valuesMapField.getName() + ".");
-    // Filter out HRN records
-    String guidFilter = "{" + NameRecord.VALUES_MAP.getName()
-            + "." + AccountAccess.GUID_INFO + ": { $exists: true}}";
-    edittedQuery = buildAndQuery(guidFilter, edittedQuery);
     try {
-      DatabaseConfig.getLogger().log(Level.FINE, "{0} Edited query = {1}",
-              new Object[]{dbName, edittedQuery});
-      DBObject parse = (DBObject) JSON.parse(edittedQuery);
+      DBObject parse = CompiledSelectQuery.compile(query).toNativeQuery(valuesMapField);
       DatabaseConfig.getLogger().log(Level.FINE, "{0} Parse = {1}",
-              new Object[]{dbName, parse.toString()});
+              new Object[]{dbName, parse});
       return parse;
-    } catch (Exception e) {
+    } catch (IllegalArgumentException e) {
       throw new MongoException("Unable to parse query", e);
     }
   }
@@ -766,25 +897,74 @@ public static String buildAndQuery(String... querys) {
     return result.toString();
   }
 
-  private DBObject generateProjection(List<String> fields) {
+  // Runs the query only returning the fields needed for the projection.
+  private static DBCursor find(DBCollection collection, DBObject query, List<String> projection) {
+    List<String> fields = generateSelectFields(projection);
+    if (fields == null) {
+      return collection.find(query);
+    }
     // produces { field1: true, field2: true ... }
-    DBObject result = new BasicDBObject();
+    DBObject keys = new BasicDBObject();
+    for (String field : fields) {
+      keys.put(field, "true");
+    }
+    return collection.find(query, keys);
+  }
+
+  /**
+   * Returns the full names of the fields that a select with the given projection
+   * needs to read or null if it needs the entire record.
+   * Also used by the {@link EmbeddedRecords}.
+   *
+   * @param projection
+   * @return a list of dotted field names or null
+   */
+  static List<String> generateSelectFields(List<String> projection) {
+    if (projection == null
+            // this handles the special case of the user wanting all fields
+            // in the projection
+            || (!projection.isEmpty()
+            && projection.get(0).equals(GNSProtocol.ENTIRE_RECORD.toString()))) {
+      return null;
+    }
+    return generateProjectionFields(projection);
+  }
+
+  /**
+   * Returns the full names of the fields that a select with the given projection reads.
+   * Also used by the {@link EmbeddedRecords}.
+   *
+   * @param fields
+   * @return a list of dotted field names
+   */
+  static List<String> generateProjectionFields(List<String> fields) {
+    List<String> result = new ArrayList<>();
     // Always return the guid
-    result.put(NameRecord.NAME.getName(), "true");
+    result.add(NameRecord.NAME.getName());
     // Put this in so the upstream receiver knows that it is a GUID record
-    result.put(NameRecord.VALUES_MAP.getName() + "." + AccountAccess.GUID_INFO, "true");
+    result.add(NameRecord.VALUES_MAP.getName() + "." + AccountAccess.GUID_INFO);
     
     
     // aditya: We also read the ACL fields here. We only need to read the read acls for 
     // select requests. Although, by reading the prefix of READ_WHITELIST we read 
     // the full ACL. 
-    result.put(NameRecord.VALUES_MAP.getName() + "." 
-    				+ MetaDataTypeName.READ_WHITELIST.getPrefix(), "true");
+    result.add(NameRecord.VALUES_MAP.getName() + "." 
+    				+ MetaDataTypeName.READ_WHITELIST.getPrefix());
     
     
     // Add all the fields in the projection
     for (String field : fields) {
-      result.put(NameRecord.VALUES_MAP.getName() + "." + field, "true");
+      result.add(NameRecord.VALUES_MAP.getName() + "." + field);
+    }
+    return result;
+  }
+
+  // Returns the name field and the projected user fields for lookupMany.
+  static List<String> generateLookupFields(List<String> projection) {
+    List<String> result = new ArrayList<>();
+    result.add(NameRecord.NAME.getName());
+    for (String field : projection) {
+      result.add(NameRecord.VALUES_MAP.getName() + "." + field);
     }
     return result;
   }
@@ -814,9 +994,79 @@ public static String buildAndQuery(String... querys) {
    * "to dispose of an instance, make sure you call MongoClient.close() to clean up resources."
    */
   public void close() {
+    synchronized (this) {
+      if (asyncExecutor != null) {
+        asyncExecutor.shutdown();
+      }
+    }
     mongoClient.close();
   }
 
+  // Created on first use because in memory DiskMapRecords never use it.
+  private synchronized AsyncRecordsAdapter getAsyncRecords() {
+    if (asyncRecords == null) {
+      int threads = mongoClient != null
+              ? mongoClient.getMongoClientOptions().getConnectionsPerHost() : 1;
+      asyncExecutor = Executors.newFixedThreadPool(threads,
+              AsyncRecordsAdapter.threadFactory("MongoRecords-" + dbName));
+      asyncRecords = new AsyncRecordsAdapter(this, asyncExecutor);
+    }
+    return asyncRecords;
+  }
+
+  @Override
+  public CompletableFuture<Void> insertAsync(String collection, String name, JSONObject value) {
+    return getAsyncRecords().insertAsync(collection, name, value);
+  }
+
+  @Override
+  public CompletableFuture<JSONObject> lookupEntireRecordAsync(String collection, String name) {
+    return getAsyncRecords().lookupEntireRecordAsync(collection, name);
+  }
+
+  @Override
+  public CompletableFuture<HashMap<ColumnField, Object>> lookupSomeFieldsAsync(String collection,
+          String name, ColumnField nameField, ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys) {
+    return getAsyncRecords().lookupSomeFieldsAsync(collection, name, nameField, valuesMapField, valuesMapKeys);
+  }
+
+  @Override
+  public CompletableFuture<Map<String, JSONObject>> lookupManyAsync(String collection,
+          Collection<String> names, List<String> projection) {
+    return getAsyncRecords().lookupManyAsync(collection, names, projection);
+  }
+
+  @Override
+  public CompletableFuture<Void> removeEntireRecordAsync(String collection, String name) {
+    return getAsyncRecords().removeEntireRecordAsync(collection, name);
+  }
+
+  @Override
+  public CompletableFuture<Void> updateEntireRecordAsync(String collection, String name,
+          ValuesMap valuesMap) {
+    return getAsyncRecords().updateEntireRecordAsync(collection, name, valuesMap);
+  }
+
+  @Override
+  public CompletableFuture<Void> updateIndividualFieldsAsync(String collection, String name,
+          ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys,
+          ArrayList<Object> valuesMapValues) {
+    return getAsyncRecords().updateIndividualFieldsAsync(collection, name, valuesMapField,
+            valuesMapKeys, valuesMapValues);
+  }
+
+  @Override
+  public CompletableFuture<Void> removeMapKeysAsync(String collection, String name,
+          ColumnField mapField, ArrayList<ColumnField> mapKeys) {
+    return getAsyncRecords().removeMapKeysAsync(collection, name, mapField, mapKeys);
+  }
+
+  @Override
+  public CompletableFuture<AbstractRecordCursor> selectRecordsQueryAsync(String collection,
+          ColumnField valuesMapField, String query, List<String> projection) {
+    return getAsyncRecords().selectRecordsQueryAsync(collection, valuesMapField, query, projection);
+  }
+
   /**
    * @param nodeID
    */
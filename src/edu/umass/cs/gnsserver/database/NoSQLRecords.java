@@ -25,8 +25,10 @@ import edu.umass.cs.gnsserver.utils.ValuesMap;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Provides an interface for insert, update, remove and lookup 
@@ -86,6 +88,23 @@ public interface NoSQLRecords {
           String guid, ColumnField nameField, ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys)
           throws RecordNotFoundException, FailedDBOperationException;
 
+  /**
+   * For each of the given names, return the record as a JSONObject in one
+   * operation against the database. If projection is null the entire records
+   * are returned, otherwise the records contain the name and just the user
+   * fields in the projection (which can use dot notation).
+   * Names that don't exist are left out of the result.
+   *
+   * @param collection the name of the collection
+   * @param names the names of the records
+   * @param projection the user fields to return or null for all of them
+   * @return a map of name to record
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public Map<String, JSONObject> lookupMany(String collection, Collection<String> names,
+          List<String> projection)
+          throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+
   /**
    * Returns true if a record with the given name exists, false otherwise.
    *
@@ -163,10 +182,12 @@ public interface NoSQLRecords {
    * @param valuesMapField
    * @param key
    * @param value
+   * @param projection the user fields to return or null for the entire record
    * @return AbstractRecordCursor
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
-  public AbstractRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value)
+  public AbstractRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value,
+          List<String> projection)
           throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 
   /**
@@ -177,10 +198,12 @@ public interface NoSQLRecords {
    * @param valuesMapField
    * @param key
    * @param value
+   * @param projection the user fields to return or null for the entire record
    * @return AbstractRecordCursor
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
-  public AbstractRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value)
+  public AbstractRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value,
+          List<String> projection)
           throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 
   /**
@@ -192,10 +215,12 @@ public interface NoSQLRecords {
    * @param key
    * @param value
    * @param maxDistance
+   * @param projection the user fields to return or null for the entire record
    * @return an AbstractRecordCursor
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
-  public AbstractRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value, Double maxDistance)
+  public AbstractRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value, Double maxDistance,
+          List<String> projection)
           throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 
   /**
@@ -205,7 +230,7 @@ public interface NoSQLRecords {
    * @param collection the name of the collection
    * @param valuesMapField the field that contains the ValuesMap
    * @param query the query to execute
-   * @param projection
+   * @param projection the user fields to return or null for the entire record
    * @return an AbstractRecordCursor
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
@@ -0,0 +1,562 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.database;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import edu.umass.cs.gnscommon.utils.Base64;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.InternalField;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A compact summary of the fields and values of the records on one replica
+ * that can prove that a select has no matches there.
+ *
+ * The summary has a bloom filter of the dotted paths of the fields that exist
+ * and of the path and value pairs for equality, the smallest and largest
+ * number of each field for ranges and the one degree grid cells (the same ones
+ * {@link DiskMapIndexes} uses) that contain the locations of each field for
+ * $geoWithin / $within and $near.
+ * Like in mongo the elements of an array count as values of the field.
+ *
+ * Values can only be added, so a summary that has seen removed or changed
+ * records only gets less precise; it has to be rebuilt to forget them.
+ * {@link #mayMatch} errs on the side of a match for anything it doesn't
+ * understand.
+ *
+ * @author westy
+ */
+public class ReplicaSummary {
+
+  private static final String VALUES_MAP_PREFIX = NameRecord.VALUES_MAP.getName() + ".";
+  private static final Funnel<CharSequence> FUNNEL = Funnels.stringFunnel(Charsets.UTF_8);
+  private static final double FALSE_POSITIVE_RATE = 0.01;
+  // Deeper values aren't summarized, anything at or below the path may match.
+  private static final int MAX_DEPTH = 8;
+  // Fields with ranges or locations beyond this many aren't tracked.
+  private static final int MAX_FIELDS = 10000;
+  // Locations spread over more cells than this could be anywhere.
+  private static final int MAX_CELLS = 4096;
+  private static final double CELL_SIZE = 1.0;
+  // Bloom filter keys: "path" + PRESENT, "path" + PRESENT + value and "path" + OPAQUE.
+  private static final char PRESENT = '\u0000';
+  private static final char OPAQUE = '\u0001';
+
+  private final BloomFilter<CharSequence> bloomFilter;
+  private final Map<String, FieldRange> ranges;
+  // false once there were too many fields to track all of their ranges
+  private boolean rangesComplete;
+  private long insertions;
+
+  // The range and locations of one field
+  private static class FieldRange {
+
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    // null if there are too many cells
+    private Set<Long> cells = new HashSet<>();
+  }
+
+  private enum Presence {
+    ABSENT, PRESENT, UNKNOWN
+  }
+
+  /**
+   * Creates an empty summary.
+   *
+   * @param expectedInsertions the number of distinct field values the bloom filter is sized for
+   */
+  public ReplicaSummary(int expectedInsertions) {
+    this(BloomFilter.create(FUNNEL, Math.max(1, expectedInsertions), FALSE_POSITIVE_RATE),
+            new HashMap<String, FieldRange>(), true);
+  }
+
+  private ReplicaSummary(BloomFilter<CharSequence> bloomFilter, Map<String, FieldRange> ranges,
+          boolean rangesComplete) {
+    this.bloomFilter = bloomFilter;
+    this.ranges = ranges;
+    this.rangesComplete = rangesComplete;
+  }
+
+  /**
+   * Returns the number of distinct entries added to the bloom filter.
+   * Used to size the next summary.
+   *
+   * @return the number of insertions
+   */
+  public synchronized long getInsertions() {
+    return insertions;
+  }
+
+  /**
+   * Adds all of the fields of the values map of a record.
+   *
+   * @param valuesMap
+   */
+  public synchronized void addValuesMap(JSONObject valuesMap) {
+    if (valuesMap == null) {
+      return;
+    }
+    Iterator<?> keys = valuesMap.keys();
+    while (keys.hasNext()) {
+      String key = (String) keys.next();
+      addField(key, valuesMap.opt(key));
+    }
+  }
+
+  /**
+   * Adds the value of one dotted field of the values map of a record.
+   *
+   * @param field
+   * @param value
+   */
+  public synchronized void addField(String field, Object value) {
+    String path = VALUES_MAP_PREFIX + field;
+    // the fields above this one exist too
+    for (int i = field.indexOf('.'); i >= 0; i = field.indexOf('.', i + 1)) {
+      put(VALUES_MAP_PREFIX + field.substring(0, i) + PRESENT);
+    }
+    if (InternalField.isInternalField(field)) {
+      put(path + PRESENT);
+      put(path + OPAQUE);
+    } else {
+      add(path, value, 1);
+    }
+  }
+
+  private void add(String path, Object value, int depth) {
+    put(path + PRESENT);
+    if (value == null || value == JSONObject.NULL) {
+      return;
+    }
+    if (depth > MAX_DEPTH) {
+      put(path + OPAQUE);
+      return;
+    }
+    if (value instanceof JSONObject || value instanceof Map || value instanceof JSONArray
+            || value instanceof Collection) {
+      double[] point = JSONQueryMatcher.point(value);
+      if (point != null) {
+        addPoint(path, point);
+      }
+    }
+    if (value instanceof JSONObject) {
+      JSONObject json = (JSONObject) value;
+      Iterator<?> keys = json.keys();
+      while (keys.hasNext()) {
+        String key = (String) keys.next();
+        add(path + "." + key, json.opt(key), depth + 1);
+      }
+    } else if (value instanceof Map) {
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        add(path + "." + entry.getKey(), entry.getValue(), depth + 1);
+      }
+    } else if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      for (int i = 0; i < array.length(); i++) {
+        add(path, array.opt(i), depth + 1);
+      }
+    } else if (value instanceof Collection) {
+      for (Object element : (Collection<?>) value) {
+        add(path, element, depth + 1);
+      }
+    } else if (value instanceof Number) {
+      put(path + PRESENT + canonical(value));
+      FieldRange range = range(path);
+      if (range != null) {
+        double number = ((Number) value).doubleValue();
+        range.min = Double.isNaN(range.min) ? number : Math.min(range.min, number);
+        range.max = Double.isNaN(range.max) ? number : Math.max(range.max, number);
+      }
+    } else if (value instanceof String || value instanceof Boolean) {
+      put(path + PRESENT + canonical(value));
+    } else {
+      put(path + OPAQUE);
+    }
+  }
+
+  private void addPoint(String path, double[] point) {
+    FieldRange range = range(path);
+    if (range != null && range.cells != null) {
+      range.cells.add(cell((long) Math.floor(point[0] / CELL_SIZE), (long) Math.floor(point[1] / CELL_SIZE)));
+      if (range.cells.size() > MAX_CELLS) {
+        range.cells = null;
+      }
+    }
+  }
+
+  private FieldRange range(String path) {
+    FieldRange range = ranges.get(path);
+    if (range == null && rangesComplete) {
+      if (ranges.size() < MAX_FIELDS) {
+        range = new FieldRange();
+        ranges.put(path, range);
+      } else {
+        rangesComplete = false;
+      }
+    }
+    return range;
+  }
+
+  private void put(String key) {
+    if (bloomFilter.put(key)) {
+      insertions++;
+    }
+  }
+
+  private static long cell(long x, long y) {
+    return (x << 32) ^ (y & 0xffffffffL);
+  }
+
+  // Numbers that are equal in a query are equal here too.
+  private static String canonical(Object value) {
+    if (value instanceof Number) {
+      return "n:" + Double.toString(((Number) value).doubleValue());
+    } else if (value instanceof Boolean) {
+      return "b:" + value;
+    } else {
+      return "s:" + value;
+    }
+  }
+
+  /**
+   * Returns false if no record summarized here can match the GNS select query.
+   *
+   * @param query a query in the syntax of {@link edu.umass.cs.gnsserver.gnsapp.Select}
+   * @return true if some record may match
+   */
+  public boolean mayMatchQuery(String query) {
+    Map<?, ?> parsed;
+    try {
+      parsed = JSONQueryMatcher.parseSelectQuery(query);
+    } catch (IllegalArgumentException e) {
+      // the replica will report the problem
+      return true;
+    }
+    return mayMatch(parsed);
+  }
+
+  /**
+   * Returns false if no record summarized here can match the mongo style query.
+   *
+   * @param query
+   * @return true if some record may match
+   */
+  public synchronized boolean mayMatch(Map<?, ?> query) {
+    for (Map.Entry<?, ?> entry : query.entrySet()) {
+      String key = String.valueOf(entry.getKey());
+      Object condition = entry.getValue();
+      switch (key) {
+        case "$and":
+          if (condition instanceof List) {
+            for (Object clause : (List<?>) condition) {
+              if (clause instanceof Map && !mayMatch((Map<?, ?>) clause)) {
+                return false;
+              }
+            }
+          }
+          break;
+        case "$or":
+          if (condition instanceof List && !((List<?>) condition).isEmpty()) {
+            boolean any = false;
+            for (Object clause : (List<?>) condition) {
+              if (!(clause instanceof Map) || mayMatch((Map<?, ?>) clause)) {
+                any = true;
+                break;
+              }
+            }
+            if (!any) {
+              return false;
+            }
+          }
+          break;
+        default:
+          if (!key.startsWith("$") && !mayMatchCondition(key, condition)) {
+            return false;
+          }
+          break;
+      }
+    }
+    return true;
+  }
+
+  private boolean mayMatchCondition(String path, Object condition) {
+    if (!path.startsWith(VALUES_MAP_PREFIX)) {
+      return true;
+    }
+    Presence presence = presence(path);
+    if (presence == Presence.UNKNOWN) {
+      return true;
+    }
+    if (!(condition instanceof Map) || !isOperators((Map<?, ?>) condition)) {
+      return mayEqual(path, presence, condition);
+    }
+    Map<?, ?> operators = (Map<?, ?>) condition;
+    for (Map.Entry<?, ?> entry : operators.entrySet()) {
+      Object argument = entry.getValue();
+      boolean mayMatch;
+      switch (String.valueOf(entry.getKey())) {
+        case "$eq":
+          mayMatch = mayEqual(path, presence, argument);
+          break;
+        case "$in":
+          mayMatch = !(argument instanceof List);
+          if (argument instanceof List) {
+            for (Object element : (List<?>) argument) {
+              if (mayEqual(path, presence, element)) {
+                mayMatch = true;
+                break;
+              }
+            }
+          }
+          break;
+        case "$gt":
+        case "$gte":
+        case "$lt":
+        case "$lte":
+          mayMatch = mayBeInRange(path, presence, String.valueOf(entry.getKey()), argument);
+          break;
+        case "$exists":
+          mayMatch = !Boolean.TRUE.equals(argument) || presence == Presence.PRESENT;
+          break;
+        case "$geoWithin":
+        case "$within":
+          mayMatch = mayBeWithin(path, presence, argument);
+          break;
+        case "$near":
+          mayMatch = mayBeNear(path, presence, argument, operators.get("$maxDistance"));
+          break;
+        default:
+          // $ne, $nin, $not and the like can match records without the field
+          mayMatch = true;
+          break;
+      }
+      if (!mayMatch) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isOperators(Map<?, ?> condition) {
+    for (Object key : condition.keySet()) {
+      if (!String.valueOf(key).startsWith("$")) {
+        return false;
+      }
+    }
+    return !condition.isEmpty();
+  }
+
+  private Presence presence(String path) {
+    String[] parts = path.substring(VALUES_MAP_PREFIX.length()).split("\\.");
+    StringBuilder prefix = new StringBuilder(NameRecord.VALUES_MAP.getName());
+    for (String part : parts) {
+      // array positions aren't summarized
+      if (part.isEmpty() || Character.isDigit(part.charAt(0))) {
+        return Presence.UNKNOWN;
+      }
+      prefix.append('.').append(part);
+      if (bloomFilter.mightContain(prefix.toString() + OPAQUE)) {
+        return Presence.UNKNOWN;
+      }
+    }
+    return bloomFilter.mightContain(path + PRESENT) ? Presence.PRESENT : Presence.ABSENT;
+  }
+
+  private boolean mayEqual(String path, Presence presence, Object value) {
+    if (value == null) {
+      // null also matches records without the field
+      return true;
+    }
+    if (value instanceof String || value instanceof Number || value instanceof Boolean) {
+      return presence == Presence.PRESENT && bloomFilter.mightContain(path + PRESENT + canonical(value));
+    }
+    return presence == Presence.PRESENT;
+  }
+
+  private boolean mayBeInRange(String path, Presence presence, String operator, Object argument) {
+    if (presence == Presence.ABSENT) {
+      return false;
+    }
+    if (!(argument instanceof Number)) {
+      return true;
+    }
+    FieldRange range = ranges.get(path);
+    if (range == null) {
+      // only numbers compare with numbers
+      return !rangesComplete;
+    }
+    if (Double.isNaN(range.min)) {
+      return false;
+    }
+    double number = ((Number) argument).doubleValue();
+    switch (operator) {
+      case "$gt":
+        return range.max > number;
+      case "$gte":
+        return range.max >= number;
+      case "$lt":
+        return range.min < number;
+      default:
+        return range.min <= number;
+    }
+  }
+
+  private boolean mayBeWithin(String path, Presence presence, Object shape) {
+    if (!(shape instanceof Map)) {
+      return true;
+    }
+    Map<?, ?> shapeMap = (Map<?, ?>) shape;
+    if (shapeMap.get("$box") instanceof List && ((List<?>) shapeMap.get("$box")).size() == 2) {
+      List<?> box = (List<?>) shapeMap.get("$box");
+      double[] corner1 = JSONQueryMatcher.point(box.get(0));
+      double[] corner2 = JSONQueryMatcher.point(box.get(1));
+      if (corner1 != null && corner2 != null) {
+        return mayHaveLocationIn(path, presence, corner1, corner2);
+      }
+    } else if (shapeMap.get("$center") instanceof List && ((List<?>) shapeMap.get("$center")).size() == 2) {
+      List<?> circle = (List<?>) shapeMap.get("$center");
+      double[] center = JSONQueryMatcher.point(circle.get(0));
+      if (center != null && circle.get(1) instanceof Number) {
+        return mayHaveLocationAround(path, presence, center, ((Number) circle.get(1)).doubleValue());
+      }
+    }
+    return true;
+  }
+
+  private boolean mayBeNear(String path, Presence presence, Object near, Object maxDistance) {
+    // GeoJSON points are in meters and go with 2dsphere indexes
+    if (!(near instanceof List)) {
+      return true;
+    }
+    double[] center = JSONQueryMatcher.point(near);
+    if (center == null) {
+      return true;
+    }
+    return mayHaveLocationAround(path, presence, center,
+            maxDistance instanceof Number ? ((Number) maxDistance).doubleValue() : Double.POSITIVE_INFINITY);
+  }
+
+  private boolean mayHaveLocationAround(String path, Presence presence, double[] center, double distance) {
+    return mayHaveLocationIn(path, presence, new double[]{center[0] - distance, center[1] - distance},
+            new double[]{center[0] + distance, center[1] + distance});
+  }
+
+  private boolean mayHaveLocationIn(String path, Presence presence, double[] corner1, double[] corner2) {
+    if (presence == Presence.ABSENT) {
+      return false;
+    }
+    FieldRange range = ranges.get(path);
+    if (range == null) {
+      return !rangesComplete;
+    }
+    if (range.cells == null) {
+      return true;
+    }
+    double x1 = Math.floor(Math.min(corner1[0], corner2[0]) / CELL_SIZE);
+    double x2 = Math.floor(Math.max(corner1[0], corner2[0]) / CELL_SIZE);
+    double y1 = Math.floor(Math.min(corner1[1], corner2[1]) / CELL_SIZE);
+    double y2 = Math.floor(Math.max(corner1[1], corner2[1]) / CELL_SIZE);
+    for (long cell : range.cells) {
+      long x = cell >> 32;
+      long y = (int) cell;
+      if (x >= x1 && x <= x2 && y >= y1 && y <= y2) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Converts the summary to JSON so that it can be sent to other replicas.
+   *
+   * @return a JSONObject
+   * @throws JSONException
+   */
+  public synchronized JSONObject toJSONObject() throws JSONException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      bloomFilter.writeTo(bytes);
+    } catch (IOException e) {
+      // can't happen with a byte array
+      throw new JSONException(e);
+    }
+    JSONObject fields = new JSONObject();
+    for (Map.Entry<String, FieldRange> entry : ranges.entrySet()) {
+      FieldRange range = entry.getValue();
+      JSONObject json = new JSONObject();
+      if (!Double.isNaN(range.min)) {
+        json.put("min", range.min);
+        json.put("max", range.max);
+      }
+      if (range.cells != null) {
+        json.put("cells", new JSONArray(range.cells));
+      }
+      fields.put(entry.getKey(), json);
+    }
+    return new JSONObject().put("bloom", Base64.encodeToString(bytes.toByteArray(), false))
+            .put("insertions", insertions).put("complete", rangesComplete).put("fields", fields);
+  }
+
+  /**
+   * Creates a summary from JSON made by {@link #toJSONObject}.
+   *
+   * @param json
+   * @return the summary
+   * @throws JSONException
+   */
+  public static ReplicaSummary fromJSON(JSONObject json) throws JSONException {
+    BloomFilter<CharSequence> bloomFilter;
+    try {
+      bloomFilter = BloomFilter.readFrom(new ByteArrayInputStream(Base64.decode(json.getString("bloom"))), FUNNEL);
+    } catch (IOException | IllegalArgumentException e) {
+      DatabaseConfig.getLogger().log(Level.FINE, "Unable to read summary: {0}", e.getMessage());
+      throw new JSONException(e);
+    }
+    Map<String, FieldRange> ranges = new HashMap<>();
+    JSONObject fields = json.getJSONObject("fields");
+    Iterator<?> keys = fields.keys();
+    while (keys.hasNext()) {
+      String path = (String) keys.next();
+      JSONObject field = fields.getJSONObject(path);
+      FieldRange range = new FieldRange();
+      if (field.has("min")) {
+        range.min = field.getDouble("min");
+        range.max = field.getDouble("max");
+      }
+      JSONArray cells = field.optJSONArray("cells");
+      if (cells == null) {
+        range.cells = null;
+      } else {
+        for (int i = 0; i < cells.length(); i++) {
+          range.cells.add(cells.getLong(i));
+        }
+      }
+      ranges.put(path, range);
+    }
+    ReplicaSummary summary = new ReplicaSummary(bloomFilter, ranges, json.getBoolean("complete"));
+    summary.insertions = json.optLong("insertions");
+    return summary;
+  }
+}
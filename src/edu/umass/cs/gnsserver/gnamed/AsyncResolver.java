@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.gnsserver.utils.Shutdownable;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DelayProfiler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.SecureRandom;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.SimpleResolver;
+
+/**
+ * Runs the branches of the GNS / DNS lookup race for all the queries of a
+ * DNS server without creating threads per query.
+ *
+ * Queries forwarded to other name servers are each sent from their own non-blocking
+ * DatagramChannel bound to a random port under a random id, and a selector
+ * thread matches them to their responses. A response is only taken if it comes
+ * from the server the query went to with the query's id and question, so spoofing
+ * one means guessing the port and the id. Truncated responses are retried over
+ * TCP. Lookups that block, like
+ * the ones in the local GNS, run on a bounded pool of
+ * {@link GNSConfig.GNSC#DNS_RESOLVER_THREADS} threads.
+ *
+ * Every branch fails with a TimeoutException after
+ * {@link GNSConfig.GNSC#DNS_LOOKUP_TIMEOUT}. Cancelling a branch stops waiting
+ * for its response or interrupts its lookup. The latency of each branch and the
+ * number of timeouts are reported to the DelayProfiler as AsyncResolver.branch
+ * and AsyncResolver.branch.timeouts.
+ *
+ * @author westy
+ */
+public class AsyncResolver implements Shutdownable {
+
+  // a query sent over UDP that hasn't been answered yet
+  private static class Pending {
+
+    private final Message query;
+    private final int id;
+    private final InetSocketAddress server;
+    private final CompletableFuture<Message> future;
+
+    Pending(Message query, int id, InetSocketAddress server, CompletableFuture<Message> future) {
+      this.query = query;
+      this.id = id;
+      this.server = server;
+      this.future = future;
+    }
+  }
+
+  private static final int MAX_RESPONSE_SIZE = 65535;
+  private static final int FIRST_PORT = 1024;
+  private static final int PORT_ATTEMPTS = 10;
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private final Selector selector;
+  // channels of queries the selector thread hasn't registered yet
+  private final Queue<DatagramChannel> registrations = new ConcurrentLinkedQueue<>();
+  private final ThreadPoolExecutor executor;
+  private final ScheduledExecutorService timer;
+  private final long timeout;
+  private final int maxPending;
+  // channel => query
+  private final ConcurrentMap<DatagramChannel, Pending> pending = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a resolver using the settings in {@link GNSConfig}.
+   *
+   * @throws SocketException
+   */
+  public AsyncResolver() throws SocketException {
+    this(Config.getGlobalInt(GNSConfig.GNSC.DNS_RESOLVER_THREADS),
+            Config.getGlobalInt(GNSConfig.GNSC.DNS_RESOLVER_MAX_PENDING),
+            Config.getGlobalInt(GNSConfig.GNSC.DNS_LOOKUP_TIMEOUT));
+  }
+
+  /**
+   * Creates a resolver.
+   *
+   * @param threads the number of threads for blocking lookups
+   * @param maxPending the most queries waiting for a response or a thread
+   * @param timeout the time in milliseconds each branch has
+   * @throws SocketException
+   */
+  public AsyncResolver(int threads, int maxPending, long timeout) throws SocketException {
+    this.timeout = timeout;
+    this.maxPending = maxPending;
+    try {
+      this.selector = Selector.open();
+    } catch (IOException e) {
+      throw (SocketException) new SocketException("Unable to open resolver selector").initCause(e);
+    }
+    this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(maxPending), new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "AsyncResolver" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "AsyncResolverTimer");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    Thread receiver = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        receive();
+      }
+    }, "AsyncResolverReceive");
+    receiver.setDaemon(true);
+    receiver.start();
+  }
+
+  /**
+   * Sends a query to a name server.
+   *
+   * @param branch the name the branch is reported under
+   * @param query
+   * @param server
+   * @return the future of the response
+   */
+  public CompletableFuture<Message> forward(String branch, Message query, InetSocketAddress server) {
+    final CompletableFuture<Message> future = new CompletableFuture<>();
+    if (pending.size() >= maxPending) {
+      future.completeExceptionally(new IOException("Too many queries waiting for name servers"));
+      return future;
+    }
+    final DatagramChannel channel;
+    try {
+      channel = openChannel();
+    } catch (IOException e) {
+      future.completeExceptionally(e);
+      return future;
+    }
+    // random ids make spoofed responses harder to get accepted
+    int id = RANDOM.nextInt(0x10000);
+    pending.put(channel, new Pending(query, id, server, future));
+    future.whenComplete(new BiConsumer<Message, Throwable>() {
+      @Override
+      public void accept(Message response, Throwable throwable) {
+        pending.remove(channel);
+        close(channel);
+      }
+    });
+    Message sent = (Message) query.clone();
+    sent.getHeader().setID(id);
+    try {
+      if (channel.send(ByteBuffer.wrap(sent.toWire()), server) == 0) {
+        future.completeExceptionally(new IOException("No room to send query to " + server));
+        return future;
+      }
+    } catch (IOException e) {
+      future.completeExceptionally(e);
+      return future;
+    }
+    registrations.add(channel);
+    selector.wakeup();
+    return withTimeout(branch, future);
+  }
+
+  // Opens a channel on a random port so the port of a query can't be guessed.
+  private static DatagramChannel openChannel() throws IOException {
+    DatagramChannel channel = DatagramChannel.open();
+    try {
+      channel.configureBlocking(false);
+      for (int i = 0; i < PORT_ATTEMPTS; i++) {
+        try {
+          channel.socket().bind(new InetSocketAddress(FIRST_PORT + RANDOM.nextInt(0x10000 - FIRST_PORT)));
+          return channel;
+        } catch (SocketException e) {
+          // in use, try another one
+        }
+      }
+      // leave it to the OS
+      channel.socket().bind(new InetSocketAddress(0));
+      return channel;
+    } catch (IOException | RuntimeException e) {
+      close(channel);
+      throw e;
+    }
+  }
+
+  private static void close(DatagramChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      NameResolution.getLogger().log(Level.FINE, "Problem closing resolver channel: {0}", e);
+    }
+  }
+
+  /**
+   * Runs a lookup that blocks on the resolver's threads.
+   *
+   * @param branch the name the branch is reported under
+   * @param lookup
+   * @return the future of the response
+   */
+  public CompletableFuture<Message> submit(String branch, final Callable<Message> lookup) {
+    final CompletableFuture<Message> future = new CompletableFuture<>();
+    try {
+      final Future<?> task = executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            future.complete(lookup.call());
+          } catch (Exception e) {
+            future.completeExceptionally(e);
+          }
+        }
+      });
+      future.whenComplete(new BiConsumer<Message, Throwable>() {
+        @Override
+        public void accept(Message response, Throwable throwable) {
+          if (throwable != null) {
+            // cancelled or timed out
+            task.cancel(true);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(e);
+      return future;
+    }
+    return withTimeout(branch, future);
+  }
+
+  // Fails the future if it takes longer than the timeout and reports its latency.
+  private CompletableFuture<Message> withTimeout(final String branch, final CompletableFuture<Message> future) {
+    final long startTime = System.currentTimeMillis();
+    final ScheduledFuture<?> timeoutTask = timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        if (future.completeExceptionally(new TimeoutException(branch + " lookup timed out"))) {
+          DelayProfiler.updateCount("AsyncResolver." + branch + ".timeouts", 1);
+        }
+      }
+    }, timeout, TimeUnit.MILLISECONDS);
+    future.whenComplete(new BiConsumer<Message, Throwable>() {
+      @Override
+      public void accept(Message response, Throwable throwable) {
+        timeoutTask.cancel(false);
+        if (throwable == null) {
+          DelayProfiler.updateDelay("AsyncResolver." + branch, startTime);
+        }
+      }
+    });
+    return future;
+  }
+
+  private void receive() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_RESPONSE_SIZE);
+    while (selector.isOpen()) {
+      try {
+        selector.select();
+        DatagramChannel registration;
+        while ((registration = registrations.poll()) != null) {
+          try {
+            registration.register(selector, SelectionKey.OP_READ);
+          } catch (ClosedChannelException e) {
+            // the query was answered or timed out already
+          }
+        }
+        for (SelectionKey key : selector.selectedKeys()) {
+          DatagramChannel channel = (DatagramChannel) key.channel();
+          try {
+            InetSocketAddress from;
+            while ((from = (InetSocketAddress) channel.receive(buffer)) != null) {
+              buffer.flip();
+              byte[] bytes = new byte[buffer.remaining()];
+              buffer.get(bytes);
+              buffer.clear();
+              handleResponse(pending.get(channel), from, bytes);
+            }
+          } catch (ClosedChannelException e) {
+            // the query was answered or timed out while we were reading
+          }
+        }
+        selector.selectedKeys().clear();
+      } catch (ClosedSelectorException e) {
+        return;
+      } catch (IOException | RuntimeException e) {
+        if (selector.isOpen()) {
+          NameResolution.getLogger().log(Level.WARNING, "Problem receiving name server response: {0}", e);
+        }
+      }
+    }
+  }
+
+  private void handleResponse(final Pending query, InetSocketAddress from, byte[] bytes) {
+    if (query == null) {
+      return;
+    }
+    Message response;
+    try {
+      response = new Message(bytes);
+    } catch (IOException e) {
+      NameResolution.getLogger().log(Level.FINE, "Ignoring bad response from {0}", from);
+      return;
+    }
+    if (!query.server.equals(from) || response.getHeader().getID() != query.id
+            || !response.getHeader().getFlag(Flags.QR)
+            || response.getQuestion() == null || !response.getQuestion().equals(query.query.getQuestion())) {
+      // late, duplicate or spoofed
+      NameResolution.getLogger().log(Level.FINE, "Ignoring unexpected response from {0}", from);
+      return;
+    }
+    if (response.getHeader().getFlag(Flags.TC)) {
+      // too big for UDP so ask again over TCP
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              SimpleResolver resolver = new SimpleResolver();
+              resolver.setAddress(query.server);
+              resolver.setTCP(true);
+              resolver.setTimeout((int) (timeout / 1000), (int) (timeout % 1000));
+              query.future.complete(resolver.send(query.query));
+            } catch (IOException e) {
+              query.future.completeExceptionally(e);
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        query.future.completeExceptionally(e);
+      }
+      return;
+    }
+    response.getHeader().setID(query.query.getHeader().getID());
+    query.future.complete(response);
+  }
+
+  /**
+   * Returns the number of queries sent over UDP waiting for a response.
+   *
+   * @return the number of queries
+   */
+  public int getPendingCount() {
+    return pending.size();
+  }
+
+  @Override
+  public void shutdown() {
+    try {
+      selector.close();
+    } catch (IOException e) {
+      NameResolution.getLogger().log(Level.WARNING, "Problem closing resolver: {0}", e);
+    }
+    executor.shutdownNow();
+    timer.shutdownNow();
+    for (Pending query : pending.values()) {
+      query.future.completeExceptionally(new IOException("Resolver shut down"));
+    }
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[" + pending.size() + " pending]";
+  }
+}
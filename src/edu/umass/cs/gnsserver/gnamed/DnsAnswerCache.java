@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.OPTRecord;
+import org.xbill.DNS.Opcode;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+
+/**
+ * Caches the answers the GNS gives to DNS queries in wire format so queries
+ * for hot names are answered without reading the database.
+ *
+ * Answers are cached by the name and type of the question (see
+ * {@link GNSConfig.GNSC#DNS_ANSWER_CACHE_SIZE}) until the smallest TTL of their
+ * records runs out. Only successful answers are cached. The answer for a query
+ * is a copy of the cached bytes with the query's id, recursion flag and
+ * question name patched in and an EDNS0 OPT record appended if the query had one.
+ *
+ * Answers are dropped when the DNS fields or the read active code of their guid or
+ * the record of their name are changed on this replica (see
+ * {@link NameResolution#recordChanged}). Answers of guids with read active code
+ * aren't cached since the code sees the client's address and can answer each
+ * client differently.
+ *
+ * @author westy
+ */
+public class DnsAnswerCache {
+
+  private static class Key {
+
+    private final Name name;
+    private final int type;
+
+    Key(Name name, int type) {
+      this.name = name;
+      this.type = type;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      // Name equality ignores case
+      return o instanceof Key && ((Key) o).type == type && ((Key) o).name.equals(name);
+    }
+
+    @Override
+    public int hashCode() {
+      return name.hashCode() * 31 + type;
+    }
+
+    @Override
+    public String toString() {
+      return name + "/" + type;
+    }
+  }
+
+  private static class Answer {
+
+    private final byte[] wire;
+    private final long expires;
+    private final String[] names;
+
+    Answer(byte[] wire, long expires, String[] names) {
+      this.wire = wire;
+      this.expires = expires;
+      this.names = names;
+    }
+  }
+
+  private static final int HEADER_LENGTH = 12;
+  private static final int RA_BYTE = 3;
+  private static final int RA_BIT = 0x80;
+  private static final int ARCOUNT_BYTE = 10;
+
+  /**
+   * The record fields the DNS answers are built from.
+   */
+  public static final Collection<String> DNS_FIELDS = Arrays.asList("A", "NS", "CNAME", "SOA", "PTR", "MX");
+
+  private static final int SIZE = Config.getGlobalInt(GNSConfig.GNSC.DNS_ANSWER_CACHE_SIZE);
+  // guid or domain name => the answers built from its record, guarded by itself.
+  // An answer is only cached while holding it.
+  private static final Map<String, Set<Key>> KEYS = new HashMap<>();
+  private static final Cache<Key, Answer> ANSWERS
+          = CacheBuilder.newBuilder().concurrencyLevel(Runtime.getRuntime().availableProcessors())
+          .maximumSize(SIZE)
+          .removalListener(new RemovalListener<Key, Answer>() {
+            @Override
+            public void onRemoval(RemovalNotification<Key, Answer> notification) {
+              if (notification.getCause() == RemovalCause.REPLACED) {
+                // the new answer is indexed under the key already
+                return;
+              }
+              synchronized (KEYS) {
+                if (ANSWERS.asMap().containsKey(notification.getKey())) {
+                  // put cached a new answer under the key, and indexed it, since this one was removed
+                  return;
+                }
+                for (String name : notification.getValue().names) {
+                  Set<Key> keys = KEYS.get(name);
+                  if (keys != null) {
+                    keys.remove(notification.getKey());
+                    if (keys.isEmpty()) {
+                      KEYS.remove(name);
+                    }
+                  }
+                }
+              }
+            }
+          })
+          .build();
+  // bumped by every invalidation so answers read before it aren't cached after it
+  private static final AtomicLong GENERATION = new AtomicLong();
+
+  /**
+   * Returns the current generation. Take this before reading the records
+   * an answer is built from and pass it to {@link #put}.
+   *
+   * @return the generation
+   */
+  public static long getGeneration() {
+    return GENERATION.get();
+  }
+
+  /**
+   * Returns the answer to a query in wire format if it is cached.
+   *
+   * @param query
+   * @param maxLength the largest answer the client takes
+   * @return the answer or null
+   */
+  public static byte[] get(Message query, int maxLength) {
+    if (SIZE <= 0 || query.getHeader().getFlag(Flags.QR)
+            || query.getHeader().getOpcode() != Opcode.QUERY
+            || query.getHeader().getRcode() != Rcode.NOERROR) {
+      return null;
+    }
+    Record question = query.getQuestion();
+    if (question == null) {
+      return null;
+    }
+    Key key = new Key(question.getName(), question.getType());
+    Answer answer = ANSWERS.getIfPresent(key);
+    if (answer == null) {
+      return null;
+    }
+    if (answer.expires <= System.currentTimeMillis()) {
+      ANSWERS.asMap().remove(key, answer);
+      return null;
+    }
+    byte[] opt = null;
+    if (query.getOPT() != null) {
+      opt = new OPTRecord(Math.max(Config.getGlobalInt(GNSConfig.GNSC.DNS_EDNS_PAYLOAD_SIZE), 512), 0, 0)
+              .toWire(Section.ADDITIONAL);
+    }
+    int length = answer.wire.length + (opt != null ? opt.length : 0);
+    if (length > maxLength) {
+      // let the answer be built and truncated the usual way
+      return null;
+    }
+    byte[] wire = Arrays.copyOf(answer.wire, length);
+    int id = query.getHeader().getID();
+    wire[0] = (byte) (id >>> 8);
+    wire[1] = (byte) id;
+    if (query.getHeader().getFlag(Flags.RD)) {
+      wire[RA_BYTE] |= RA_BIT;
+    }
+    // echo the case the client used, the cached name is the same length
+    byte[] name = question.getName().toWire();
+    System.arraycopy(name, 0, wire, HEADER_LENGTH, name.length);
+    if (opt != null) {
+      System.arraycopy(opt, 0, wire, answer.wire.length, opt.length);
+      int count = ((wire[ARCOUNT_BYTE] & 0xFF) << 8 | (wire[ARCOUNT_BYTE + 1] & 0xFF)) + 1;
+      wire[ARCOUNT_BYTE] = (byte) (count >>> 8);
+      wire[ARCOUNT_BYTE + 1] = (byte) count;
+    }
+    return wire;
+  }
+
+  /**
+   * Caches the GNS answer to a query.
+   *
+   * @param query
+   * @param response the answer, not yet sent
+   * @param generation the generation before the records were read
+   * @param names the guid and domain name the answer was built from
+   */
+  public static void put(Message query, Message response, long generation, String... names) {
+    if (SIZE <= 0 || response.getHeader().getRcode() != Rcode.NOERROR
+            || response.getSectionArray(Section.ANSWER).length == 0 || response.getOPT() != null) {
+      return;
+    }
+    long ttl = Long.MAX_VALUE;
+    for (int section : new int[]{Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL}) {
+      for (Record record : response.getSectionArray(section)) {
+        ttl = Math.min(ttl, record.getTTL());
+      }
+    }
+    if (ttl <= 0) {
+      return;
+    }
+    Message cached = (Message) response.clone();
+    cached.getHeader().setID(0);
+    // set per query
+    cached.getHeader().unsetFlag(Flags.RA);
+    Key key = new Key(query.getQuestion().getName(), query.getQuestion().getType());
+    Answer answer = new Answer(cached.toWire(), System.currentTimeMillis() + ttl * 1000, names);
+    // Indexed and cached under the lock so the removal of an older answer
+    // sees either neither or both
+    synchronized (KEYS) {
+      for (String name : names) {
+        Set<Key> keys = KEYS.get(name);
+        if (keys == null) {
+          keys = new HashSet<>();
+          KEYS.put(name, keys);
+        }
+        keys.add(key);
+      }
+      ANSWERS.put(key, answer);
+    }
+    if (GENERATION.get() != generation) {
+      // the records changed while the answer was being built
+      ANSWERS.asMap().remove(key, answer);
+    }
+  }
+
+  /**
+   * Drops the answers built from a record whose DNS fields changed.
+   *
+   * @param name the guid or domain name of the record
+   */
+  public static void recordChanged(String name) {
+    if (SIZE <= 0) {
+      return;
+    }
+    GENERATION.incrementAndGet();
+    Set<Key> keys;
+    synchronized (KEYS) {
+      keys = KEYS.remove(name);
+    }
+    if (keys != null) {
+      NameResolution.getLogger().log(Level.FINE, "Dropping DNS answers {0} for {1}", new Object[]{keys, name});
+      ANSWERS.invalidateAll(keys);
+    }
+  }
+
+  /**
+   * Returns the number of cached answers.
+   *
+   * @return the number of answers
+   */
+  public static long size() {
+    return ANSWERS.size();
+  }
+}
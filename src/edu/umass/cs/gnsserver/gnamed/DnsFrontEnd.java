@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.gnsserver.utils.Shutdownable;
+import edu.umass.cs.utils.Config;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Rcode;
+
+/**
+ * Receives DNS queries over UDP and hands them to a pool of workers
+ * which send the responses back through {@link #send}.
+ *
+ * Several threads receive on the one DatagramChannel, each into its own
+ * direct buffer that it reuses for every packet, so a slow lookup never holds
+ * up receiving. Java 8 has no SO_REUSEPORT so the threads share the channel
+ * instead of each binding its own socket.
+ *
+ * The workers take queries from a bounded queue. When it is full the
+ * query is shed: it is answered with SERVFAIL or dropped
+ * (see {@link GNSConfig.GNSC#DNS_SHED_WITH_SERVFAIL}). Queries up to
+ * {@link GNSConfig.GNSC#DNS_EDNS_PAYLOAD_SIZE} bytes are accepted.
+ *
+ * @author westy
+ */
+public class DnsFrontEnd implements DnsTransport, Shutdownable {
+
+  /**
+   * Creates the task that answers a query.
+   */
+  public interface WorkerFactory {
+
+    /**
+     * @param transport the front end to send the response through
+     * @param client the address the query came from
+     * @param query the bytes of the query
+     * @return the task
+     */
+    Runnable createWorker(DnsTransport transport, InetSocketAddress client, byte[] query);
+  }
+
+  private final String name;
+  private final DatagramChannel channel;
+  private final WorkerFactory workerFactory;
+  private final int receiveThreads;
+  private final ThreadPoolExecutor workers;
+  private final boolean shedWithServfail;
+  private final int maxQuerySize;
+  private final AtomicLong shedCount = new AtomicLong();
+  private volatile boolean running = true;
+
+  /**
+   * Creates a front end bound to the given IP/port using the settings in {@link GNSConfig}.
+   *
+   * @param name used to name the threads
+   * @param addr IP to bind (0.0.0.0 is acceptable)
+   * @param port port to bind (53 is default for DNS)
+   * @param workerFactory
+   * @throws SocketException
+   */
+  public DnsFrontEnd(String name, InetAddress addr, int port, WorkerFactory workerFactory) throws SocketException {
+    this(name, addr, port, workerFactory, Config.getGlobalInt(GNSConfig.GNSC.DNS_RECEIVE_THREADS),
+            Config.getGlobalInt(GNSConfig.GNSC.DNS_WORKER_THREADS),
+            Config.getGlobalInt(GNSConfig.GNSC.DNS_QUEUE_SIZE));
+  }
+
+  /**
+   * Creates a front end bound to the given IP/port.
+   *
+   * @param name used to name the threads
+   * @param addr IP to bind (0.0.0.0 is acceptable)
+   * @param port port to bind (53 is default for DNS, 0 for any)
+   * @param workerFactory
+   * @param receiveThreads
+   * @param workerThreads
+   * @param queueSize
+   * @throws SocketException
+   */
+  public DnsFrontEnd(final String name, InetAddress addr, int port, WorkerFactory workerFactory,
+          int receiveThreads, int workerThreads, int queueSize) throws SocketException {
+    this.name = name;
+    this.workerFactory = workerFactory;
+    this.receiveThreads = receiveThreads;
+    this.shedWithServfail = Config.getGlobalBoolean(GNSConfig.GNSC.DNS_SHED_WITH_SERVFAIL);
+    this.maxQuerySize = Math.max(Config.getGlobalInt(GNSConfig.GNSC.DNS_EDNS_PAYLOAD_SIZE), 512);
+    try {
+      this.channel = DatagramChannel.open();
+    } catch (IOException e) {
+      throw (SocketException) new SocketException("Unable to open DNS channel").initCause(e);
+    }
+    // the socket adaptor throws BindException like the DatagramSocket did
+    this.channel.socket().bind(new InetSocketAddress(addr, port));
+    this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + "Worker" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Starts the receiving threads.
+   */
+  public void start() {
+    for (int i = 0; i < receiveThreads; i++) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          receive();
+        }
+      }, name + "Receive" + i);
+      thread.start();
+    }
+  }
+
+  /**
+   * Returns the address the front end is bound to.
+   *
+   * @return the address
+   */
+  public InetSocketAddress getLocalAddress() {
+    return (InetSocketAddress) channel.socket().getLocalSocketAddress();
+  }
+
+  /**
+   * Returns the number of queries that were shed because the workers were behind.
+   *
+   * @return the count
+   */
+  public long getShedCount() {
+    return shedCount.get();
+  }
+
+  private void receive() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(maxQuerySize);
+    while (running) {
+      try {
+        buffer.clear();
+        InetSocketAddress client = (InetSocketAddress) channel.receive(buffer);
+        buffer.flip();
+        byte[] query = new byte[buffer.remaining()];
+        buffer.get(query);
+        try {
+          workers.execute(workerFactory.createWorker(this, client, query));
+        } catch (RejectedExecutionException e) {
+          shed(client, query);
+        }
+      } catch (ClosedChannelException e) {
+        // shut down
+        return;
+      } catch (IOException | RuntimeException e) {
+        NameResolution.getLogger().log(Level.SEVERE, "Error in {0} receiving DNS query: {1}",
+                new Object[]{name, e});
+      }
+    }
+  }
+
+  // Answers a query the workers have no room for with SERVFAIL or drops it.
+  private void shed(InetSocketAddress client, byte[] query) {
+    if (!running) {
+      return;
+    }
+    long count = shedCount.incrementAndGet();
+    NameResolution.getLogger().log(Level.FINE, "{0} shedding query from {1} ({2} so far)",
+            new Object[]{name, client, count});
+    if (shedWithServfail) {
+      Message response = NameResolution.errorMessage(query, Rcode.SERVFAIL);
+      if (response != null) {
+        response.getHeader().setFlag(Flags.QR);
+        send(client, response.toWire());
+      }
+    }
+  }
+
+  @Override
+  public void send(InetSocketAddress client, byte[] response) {
+    try {
+      channel.send(ByteBuffer.wrap(response), client);
+      NameResolution.getLogger().log(Level.FINE, "Response sent to {0}", client);
+    } catch (IOException e) {
+      NameResolution.getLogger().log(Level.SEVERE, "Failed to send response{0}", e);
+    }
+  }
+
+  @Override
+  public boolean stream(InetSocketAddress client, byte[] response) {
+    send(client, response);
+    return true;
+  }
+
+  @Override
+  public boolean isStream() {
+    return false;
+  }
+
+  @Override
+  public void shutdown() {
+    running = false;
+    try {
+      channel.close();
+    } catch (IOException e) {
+      NameResolution.getLogger().log(Level.WARNING, "Problem closing {0}: {1}", new Object[]{name, e});
+    }
+    workers.shutdown();
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+/**
+ * Measures the queries per second a {@link DnsFrontEnd} answers on loopback
+ * with 1 to the given number of receive threads. The workers answer every
+ * query with the same A record so only the front end is measured.
+ *
+ * Typical incantation:
+ *
+ * java -cp jars/GNS.jar edu.umass.cs.gnsserver.gnamed.DnsFrontEndBenchmark 10 32 4
+ *
+ * which runs 32 clients for 10 seconds against each of 1, 2 and 4 receive threads.
+ *
+ * @author westy
+ */
+public class DnsFrontEndBenchmark {
+
+  private static final int WORKER_THREADS = 8;
+  private static final int QUEUE_SIZE = 1000;
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args seconds, clients, most receive threads
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    int clients = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+    int maxReceiveThreads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+    for (int receiveThreads = 1; receiveThreads <= maxReceiveThreads; receiveThreads *= 2) {
+      DnsFrontEnd frontEnd = new DnsFrontEnd("Benchmark", InetAddress.getLoopbackAddress(), 0,
+              new DnsFrontEnd.WorkerFactory() {
+        @Override
+        public Runnable createWorker(final DnsTransport transport, final InetSocketAddress client,
+                final byte[] query) {
+          return new Runnable() {
+            @Override
+            public void run() {
+              try {
+                transport.send(client, answer(new Message(query)).toWire(512));
+              } catch (IOException e) {
+                // a bad query, no answer
+              }
+            }
+          };
+        }
+      }, receiveThreads, WORKER_THREADS, QUEUE_SIZE);
+      frontEnd.start();
+      // warm up
+      run(frontEnd.getLocalAddress(), clients, Math.max(1, seconds / 5));
+      long[] result = run(frontEnd.getLocalAddress(), clients, seconds);
+      System.out.println(String.format("%d receive thread(s): %,10.0f queries/s   %d timeouts   %d shed",
+              receiveThreads, result[0] / (double) seconds, result[1], frontEnd.getShedCount()));
+      frontEnd.shutdown();
+    }
+  }
+
+  private static Message answer(Message query) throws IOException {
+    Message response = new Message(query.getHeader().getID());
+    response.getHeader().setFlag(Flags.QR);
+    response.getHeader().setFlag(Flags.AA);
+    Record question = query.getQuestion();
+    response.addRecord(question, Section.QUESTION);
+    response.addRecord(new ARecord(question.getName(), DClass.IN, 60,
+            InetAddress.getLoopbackAddress()), Section.ANSWER);
+    return response;
+  }
+
+  // Returns the number of answers and the number of timeouts.
+  private static long[] run(final InetSocketAddress server, int clients, int seconds)
+          throws InterruptedException {
+    final AtomicLong answers = new AtomicLong();
+    final AtomicLong timeouts = new AtomicLong();
+    final long end = System.currentTimeMillis() + seconds * 1000L;
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < clients; i++) {
+      final int clientNumber = i;
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(1000);
+            socket.connect(server);
+            byte[] query = Message.newQuery(Record.newRecord(
+                    Name.fromString("host" + clientNumber + ".example.com."), Type.A, DClass.IN)).toWire();
+            byte[] buffer = new byte[512];
+            DatagramPacket incoming = new DatagramPacket(buffer, buffer.length);
+            while (System.currentTimeMillis() < end) {
+              socket.send(new DatagramPacket(query, query.length));
+              try {
+                incoming.setLength(buffer.length);
+                socket.receive(incoming);
+                answers.incrementAndGet();
+              } catch (SocketTimeoutException e) {
+                timeouts.incrementAndGet();
+              }
+            }
+          } catch (IOException e) {
+            System.out.println("Client failed: " + e);
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return new long[]{answers.get(), timeouts.get()};
+  }
+}
@@ -20,25 +20,22 @@
 package edu.umass.cs.gnsserver.gnamed;
 
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnsserver.utils.Shutdownable;
-import edu.umass.cs.gnscommon.utils.ThreadUtils;
-import edu.umass.cs.utils.DelayProfiler;
+import edu.umass.cs.utils.Config;
 
-import java.io.IOException;
-import java.io.InterruptedIOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.logging.Level;
 
 /**
  * This class defines a DnsTranslator that serves DNS requests through UDP.
  *
  * It acts as a DNS translator for DNS requests for records in GNS.
+ * Queries are received and answered by a {@link DnsFrontEnd} and, with
+ * {@link GNSConfig.GNSC#DNS_TCP}, a {@link TcpDnsFrontEnd} on the same port.
  *
  * @author Vijay
  * @version 1.0
@@ -46,8 +43,8 @@ import java.util.logging.Level;
 public class DnsTranslator extends Thread implements Shutdownable {
 
   private final int port;
-  private final DatagramSocket sock;
-  private ExecutorService executor = null;
+  private final DnsFrontEnd frontEnd;
+  private final TcpDnsFrontEnd tcpFrontEnd;
   private final ClientRequestHandlerInterface handler;
 
   /**
@@ -63,43 +60,35 @@ public class DnsTranslator extends Thread implements Shutdownable {
    */
   public DnsTranslator(InetAddress addr, int port, ClientRequestHandlerInterface handler) throws SecurityException, SocketException, UnknownHostException {
     this.port = port;
-    this.sock = new DatagramSocket(port, addr);
-    this.executor = Executors.newFixedThreadPool(5);
     this.handler = handler;
+    DnsFrontEnd.WorkerFactory workerFactory = new DnsFrontEnd.WorkerFactory() {
+      @Override
+      public Runnable createWorker(DnsTransport transport, InetSocketAddress client, byte[] query) {
+        return new LookupWorker(transport, client, query, null, null, null, null,
+                DnsTranslator.this.handler);
+      }
+    };
+    this.frontEnd = new DnsFrontEnd("DnsTranslator", addr, port, workerFactory);
+    // same port over TCP for truncated answers and zone transfers
+    this.tcpFrontEnd = Config.getGlobalBoolean(GNSConfig.GNSC.DNS_TCP)
+            ? new TcpDnsFrontEnd("DnsTranslator", addr, frontEnd.getLocalAddress().getPort(), workerFactory) : null;
   }
 
   @Override
   public void run() {
     NameResolution.getLogger().log(Level.INFO,
             "CCP Node starting local DNS Translator server on port {0}", port);
-    while (true) {
-      try {
-        final short udpLength = 512;
-        while (true) {
-          byte[] incomingData = new byte[udpLength];
-          DatagramPacket incomingPacket = new DatagramPacket(incomingData, incomingData.length);
-          // Read the incoming request
-          incomingPacket.setLength(incomingData.length);
-          try {
-            sock.receive(incomingPacket);
-          } catch (InterruptedIOException e) {
-            continue;
-          }
-          executor.execute(new LookupWorker(sock, incomingPacket, incomingData, null, null, null, handler));
-          NameResolution.getLogger().fine(DelayProfiler.getStats());
-        }
-      } catch (IOException e) {
-        NameResolution.getLogger().log(Level.SEVERE, 
-                "Error in DNS Translator Server (will sleep for 3 seconds and try again): {0}", e);
-        ThreadUtils.sleep(3000);
-      }
+    frontEnd.start();
+    if (tcpFrontEnd != null) {
+      tcpFrontEnd.start();
     }
   }
 
   @Override
   public void shutdown() {
-    if (executor != null) {
-      executor.shutdown();
+    frontEnd.shutdown();
+    if (tcpFrontEnd != null) {
+      tcpFrontEnd.shutdown();
     }
   }
 }
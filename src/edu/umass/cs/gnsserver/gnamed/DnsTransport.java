@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Sends DNS responses back to the clients of a front end,
+ * either in datagrams ({@link DnsFrontEnd}) or over connections ({@link TcpDnsFrontEnd}).
+ *
+ * @author westy
+ */
+public interface DnsTransport {
+
+  /**
+   * Sends a response to a client.
+   *
+   * @param client the address the query came from
+   * @param response
+   */
+  void send(InetSocketAddress client, byte[] response);
+
+  /**
+   * Sends one of the several responses to a query, waiting while the client
+   * is behind on reading the earlier ones.
+   *
+   * @param client the address the query came from
+   * @param response
+   * @return false if the client is gone and the rest needn't be sent
+   */
+  boolean stream(InetSocketAddress client, byte[] response);
+
+  /**
+   * Returns true if responses are sent over a connection, which means they can be
+   * up to 65535 bytes long and a query can be answered with several of them
+   * like zone transfers are.
+   *
+   * @return true for connections
+   */
+  boolean isStream();
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import edu.umass.cs.gigapaxos.interfaces.Callback;
+import edu.umass.cs.gnsclient.client.GNSClient;
+import edu.umass.cs.gnsclient.client.GNSCommand;
+import edu.umass.cs.gnsclient.client.util.GuidEntry;
+import edu.umass.cs.gnscommon.exceptions.client.ClientException;
+import edu.umass.cs.gnscommon.packets.CommandPacket;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.gnsserver.utils.Shutdownable;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DelayProfiler;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Writes the record changes of the {@link ManagedDNSServiceProxy} to the GNS
+ * without a blocking round trip per change.
+ *
+ * Changes are queued per guid. While a guid has an update outstanding, its new
+ * changes wait and are merged, the last change of a field winning. The merged
+ * changes of a guid then go out as one ReplaceUserJSON command, plus a RemoveField
+ * command per removed field, sent asynchronously with {@link GNSClient}.
+ * One guid has at most one update outstanding so its changes are applied in
+ * order, and at most {@link GNSConfig.GNSC#DNS_PROXY_WINDOW} guids have one.
+ *
+ * Callers are held back when {@link GNSConfig.GNSC#DNS_PROXY_MAX_PENDING} changes
+ * are waiting. Changes to fields that are already waiting are merged and never
+ * held back. An update that gets no response in
+ * {@link GNSConfig.GNSC#DNS_PROXY_TIMEOUT} may still be applied by the GNS, so its
+ * guid stays outstanding and its changes are sent again with the changes that came
+ * in since merged in, until an update of the guid gets its responses. The writes
+ * aren't versioned, so a timed out update the GNS applies after the one sent again
+ * leaves the older values of its fields in place until they are changed again.
+ * Changes the GNS rejects are logged and counted but not retried, since a newer
+ * change may already be queued.
+ *
+ * @author westy
+ */
+public class DnsUpdatePipeline implements Shutdownable {
+
+  // marks a field to remove in the pending changes
+  private static final Object REMOVE = new Object();
+
+  // The changes of a guid.
+  private static class Guid {
+
+    private final GuidEntry entry;
+    private Map<String, Object> pending = new LinkedHashMap<>();
+    private boolean outstanding;
+
+    Guid(GuidEntry entry) {
+      this.entry = entry;
+    }
+  }
+
+  private final GNSClient client;
+  private final int window;
+  private final int maxPending;
+  private final long timeout;
+
+  // all guarded by this
+  private final Map<String, Guid> guids = new HashMap<>();
+  // guids with pending changes and no update outstanding
+  private final Deque<Guid> ready = new ArrayDeque<>();
+  private int pendingChanges;
+  private int outstanding;
+  private boolean shutdown;
+
+  private long submitted;
+  private long merged;
+  private long sent;
+  private long completed;
+  private long failed;
+  private long retried;
+
+  private final Thread sender;
+  private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "DnsUpdatePipelineTimer");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  /**
+   * Creates a pipeline configured by {@link GNSConfig.GNSC}.
+   *
+   * @param client
+   */
+  public DnsUpdatePipeline(GNSClient client) {
+    this(client, Config.getGlobalInt(GNSConfig.GNSC.DNS_PROXY_WINDOW),
+            Config.getGlobalInt(GNSConfig.GNSC.DNS_PROXY_MAX_PENDING),
+            Config.getGlobalInt(GNSConfig.GNSC.DNS_PROXY_TIMEOUT));
+  }
+
+  /**
+   * Creates a pipeline.
+   *
+   * @param client
+   * @param window the most guids with an update outstanding
+   * @param maxPending the most changes waiting before callers are held back
+   * @param timeout ms to wait for an update to complete
+   */
+  public DnsUpdatePipeline(GNSClient client, int window, int maxPending, long timeout) {
+    this.client = client;
+    this.window = Math.max(window, 1);
+    this.maxPending = Math.max(maxPending, 1);
+    this.timeout = timeout;
+    this.sender = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        sendUpdates();
+      }
+    }, "DnsUpdatePipeline");
+    sender.setDaemon(true);
+    sender.start();
+  }
+
+  /**
+   * Queues an update of a field, waiting up to the timeout for room.
+   *
+   * @param entry
+   * @param field
+   * @param value
+   * @return false if the pipeline is busy and the change was dropped
+   * @throws InterruptedException
+   */
+  public boolean update(GuidEntry entry, String field, Object value) throws InterruptedException {
+    return change(entry, field, value);
+  }
+
+  /**
+   * Queues the removal of a field, waiting up to the timeout for room.
+   *
+   * @param entry
+   * @param field
+   * @return false if the pipeline is busy and the change was dropped
+   * @throws InterruptedException
+   */
+  public boolean remove(GuidEntry entry, String field) throws InterruptedException {
+    return change(entry, field, REMOVE);
+  }
+
+  private synchronized boolean change(GuidEntry entry, String field, Object value) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeout;
+    Guid guid = guids.get(entry.getGuid());
+    while (!shutdown && pendingChanges >= maxPending
+            && (guid == null || !guid.pending.containsKey(field))) {
+      long wait = deadline - System.currentTimeMillis();
+      if (wait <= 0) {
+        return false;
+      }
+      wait(wait);
+      guid = guids.get(entry.getGuid());
+    }
+    if (shutdown) {
+      return false;
+    }
+    submitted++;
+    if (guid == null) {
+      guid = new Guid(entry);
+      guids.put(entry.getGuid(), guid);
+    }
+    boolean waiting = !guid.pending.isEmpty();
+    if (guid.pending.containsKey(field)) {
+      merged++;
+      // the newest change goes last like it would have been written
+      guid.pending.remove(field);
+    } else {
+      pendingChanges++;
+    }
+    guid.pending.put(field, value);
+    if (!guid.outstanding && !waiting) {
+      ready.add(guid);
+      notifyAll();
+    }
+    return true;
+  }
+
+  private void sendUpdates() {
+    while (true) {
+      Guid guid;
+      Map<String, Object> changes;
+      synchronized (this) {
+        while (!shutdown && (ready.isEmpty() || outstanding >= window)) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (shutdown) {
+          return;
+        }
+        guid = ready.poll();
+        changes = guid.pending;
+        guid.pending = new LinkedHashMap<>();
+        guid.outstanding = true;
+        pendingChanges -= changes.size();
+        outstanding++;
+        sent += changes.size();
+        // there is room for more changes now
+        notifyAll();
+      }
+      send(guid, changes);
+    }
+  }
+
+  private void send(final Guid guid, final Map<String, Object> changes) {
+    final long startTime = System.currentTimeMillis();
+    JSONObject json = new JSONObject();
+    List<CommandPacket> commands = new ArrayList<>();
+    try {
+      for (Map.Entry<String, Object> change : changes.entrySet()) {
+        if (change.getValue() == REMOVE) {
+          commands.add(GNSCommand.fieldRemove(guid.entry, change.getKey()));
+        } else {
+          json.put(change.getKey(), change.getValue());
+        }
+      }
+      if (json.length() > 0) {
+        commands.add(GNSCommand.update(guid.entry, json));
+      }
+    } catch (ClientException | JSONException | RuntimeException e) {
+      NameResolution.getLogger().log(Level.WARNING, "Unable to make the update of {0}: {1}",
+              new Object[]{guid.entry, e});
+      done(guid, changes.size(), false, startTime);
+      return;
+    }
+    final AtomicInteger remaining = new AtomicInteger(commands.size());
+    final AtomicBoolean finished = new AtomicBoolean();
+    final AtomicBoolean success = new AtomicBoolean(true);
+    final List<Future<?>> futures = new ArrayList<>();
+    final ScheduledFuture<?> timeoutTask = timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        if (finished.compareAndSet(false, true)) {
+          NameResolution.getLogger().log(Level.WARNING, "Update of {0} timed out, sending it again", guid.entry);
+          synchronized (futures) {
+            for (Future<?> future : futures) {
+              // stops waiting, the GNS may still apply it
+              future.cancel(true);
+            }
+          }
+          retry(guid, changes);
+        }
+      }
+    }, timeout, TimeUnit.MILLISECONDS);
+    Callback<CommandPacket, CommandPacket> callback = new Callback<CommandPacket, CommandPacket>() {
+      @Override
+      public CommandPacket processResponse(CommandPacket response) {
+        try {
+          // throws if the GNS returned an error
+          response.getResultString();
+        } catch (ClientException e) {
+          NameResolution.getLogger().log(Level.WARNING, "Update of {0} failed: {1}",
+                  new Object[]{guid.entry, e});
+          success.set(false);
+        }
+        if (remaining.decrementAndGet() == 0 && finished.compareAndSet(false, true)) {
+          timeoutTask.cancel(false);
+          done(guid, changes.size(), success.get(), startTime);
+        }
+        return response;
+      }
+    };
+    for (CommandPacket command : commands) {
+      try {
+        Future<?> future = client.execute(command, callback);
+        synchronized (futures) {
+          futures.add(future);
+        }
+      } catch (IOException | RuntimeException e) {
+        NameResolution.getLogger().log(Level.WARNING, "Unable to send the update of {0}: {1}",
+                new Object[]{guid.entry, e});
+        if (finished.compareAndSet(false, true)) {
+          timeoutTask.cancel(false);
+          done(guid, changes.size(), false, startTime);
+        }
+        return;
+      }
+    }
+  }
+
+  // Sends the changes of an update that timed out again, with the changes that
+  // came in since merged in, before the guid's later updates. The guid stays
+  // outstanding. Nothing orders the timed out update against the new one, so if
+  // the GNS applies it late its older values can overwrite the newer ones until
+  // the fields change again.
+  private synchronized void retry(Guid guid, Map<String, Object> changes) {
+    outstanding--;
+    if (shutdown) {
+      notifyAll();
+      return;
+    }
+    retried += changes.size();
+    Map<String, Object> merged = new LinkedHashMap<>(changes);
+    for (Map.Entry<String, Object> change : guid.pending.entrySet()) {
+      // the newer change goes last
+      merged.remove(change.getKey());
+      merged.put(change.getKey(), change.getValue());
+    }
+    pendingChanges += merged.size() - guid.pending.size();
+    guid.pending = merged;
+    ready.addFirst(guid);
+    notifyAll();
+  }
+
+  private synchronized void done(Guid guid, int changes, boolean success, long startTime) {
+    if (success) {
+      completed += changes;
+    } else {
+      failed += changes;
+    }
+    DelayProfiler.updateDelay("DnsUpdatePipeline", startTime);
+    outstanding--;
+    guid.outstanding = false;
+    if (!guid.pending.isEmpty()) {
+      ready.add(guid);
+    } else {
+      guids.remove(guid.entry.getGuid());
+    }
+    notifyAll();
+  }
+
+  /**
+   * Waits until all the queued changes have been written or failed.
+   *
+   * @param wait ms to wait at most
+   * @return true if nothing is left
+   * @throws InterruptedException
+   */
+  public synchronized boolean awaitIdle(long wait) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + wait;
+    while (!guids.isEmpty()) {
+      long left = deadline - System.currentTimeMillis();
+      if (left <= 0) {
+        return false;
+      }
+      wait(left);
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if callers would be held back by a new change.
+   *
+   * @return true if busy
+   */
+  public synchronized boolean isBusy() {
+    return pendingChanges >= maxPending;
+  }
+
+  /**
+   * Returns the progress of the pipeline: changes submitted, merged into
+   * a change already waiting, sent, completed, failed and sent again after a
+   * timeout since the start, and the changes waiting and guids with an update
+   * outstanding now.
+   *
+   * @return the progress
+   */
+  public synchronized JSONObject getProgress() {
+    JSONObject progress = new JSONObject();
+    try {
+      progress.put("submitted", submitted);
+      progress.put("merged", merged);
+      progress.put("sent", sent);
+      progress.put("completed", completed);
+      progress.put("failed", failed);
+      progress.put("retried", retried);
+      progress.put("pending", pendingChanges);
+      progress.put("outstanding", outstanding);
+      progress.put("busy", pendingChanges >= maxPending);
+    } catch (JSONException e) {
+      // can't happen with these values
+    }
+    return progress;
+  }
+
+  @Override
+  public void shutdown() {
+    synchronized (this) {
+      shutdown = true;
+      notifyAll();
+    }
+    timer.shutdownNow();
+  }
+}
@@ -1,286 +1,353 @@
-/*
- *
- *  Copyright (c) 2015 University of Massachusetts
- *
- *  Licensed under the Apache License, Version 2.0 (the "License"); you
- *  may not use this file except in compliance with the License. You
- *  may obtain a copy of the License at
- *
- *  http://www.apache.org/licenses/LICENSE-2.0
- *
- *  Unless required by applicable law or agreed to in writing, software
- *  distributed under the License is distributed on an "AS IS" BASIS,
- *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
- *  implied. See the License for the specific language governing
- *  permissions and limitations under the License.
- *
- *  Initial developer(s): Westy, Emmanuel Cecchet
- *
- */
-package edu.umass.cs.gnsserver.gnamed;
-
-import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
-import edu.umass.cs.utils.DelayProfiler;
-
-import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.logging.Level;
-
-import org.xbill.DNS.Flags;
-import org.xbill.DNS.Message;
-import org.xbill.DNS.Rcode;
-import org.xbill.DNS.SimpleResolver;
-import org.xbill.DNS.Cache;
-import org.xbill.DNS.SetResponse;
-import org.xbill.DNS.RRset;
-import org.xbill.DNS.Section;
-import org.xbill.DNS.Credibility;
-
-/**
- * This class defines a LookupWorker which handles a single query.
- *
- * DNS requests can be handled just by the GNS server or by the GNS server
- * with a DNS server as a fallback.
- * When using DNS as a fallback we send out parallel requests and whichever returns
- * first is returned to the client as the answer.
- *
- * @author westy
- * @version 1.0
- */
-public class LookupWorker implements Runnable {
-
-  private final SimpleResolver dnsServer;
-  private final SimpleResolver gnsServer;
-  private final Cache dnsCache;
-  private final DatagramSocket socket;
-  private final DatagramPacket incomingPacket;
-  private final byte[] incomingData;
-  private final ClientRequestHandlerInterface handler;
-
-  /**
-   * Creates a new <code>LookupWorker</code> object which handles the parallel GNS and DNS requesting.
-   *
-   * @param socket
-   * @param incomingPacket
-   * @param incomingData
-   * @param dnsServer (might be null meaning don't send requests to a DNS server)
-   * @param gnsServer (might be null gns requests are resolved locally)
-   * @param dnsCache (might be null meaning DNS responses are not cached)
-   * @param handler
-   */
-  public LookupWorker(DatagramSocket socket, DatagramPacket incomingPacket, byte[] incomingData, SimpleResolver gnsServer,
-          SimpleResolver dnsServer, Cache dnsCache, ClientRequestHandlerInterface handler) {
-    this.socket = socket;
-    this.incomingPacket = incomingPacket;
-    this.incomingData = incomingData;
-    this.dnsServer = dnsServer;
-    this.dnsCache = dnsCache;
-    this.gnsServer = gnsServer;
-    this.handler = handler;
-  }
-
-  /**
-   * @see java.lang.Thread#run()
-   */
-  @Override
-  public void run() {
-    long startTime = System.currentTimeMillis();
-    Message query;
-    Message response;
-    int maxLength;
-
-    // create a Message from the query data;
-    try {
-      query = new Message(incomingData);
-    } catch (IOException e) {
-      // Send out an error response.
-      sendResponse(NameResolution.formErrorMessage(incomingData).toWire());
-      return;
-    }
-    // THE MEAT IS IN HERE. Try to get a response from the GNS or DNS servers.
-    response = generateReply(query);
-    long postStart = System.currentTimeMillis();
-    if (response == null) { // means we don't need to do anything
-      return;
-    }
-    if (query.getOPT() != null) {
-      maxLength = Math.max(query.getOPT().getPayloadSize(), 512);
-    } else {
-      maxLength = 512;
-    }
-    NameResolution.getLogger().log(Level.FINE, "Q/R: {0}",
-            NameResolution.queryAndResponseToString(query, response));
-    // Send out the response.
-    DelayProfiler.updateDelay("LookupWorker.postGenerate", postStart);
-    long sendStart = System.currentTimeMillis();
-    sendResponse(response.toWire(maxLength));
-    DelayProfiler.updateDelay("LookupWorker.sendResponse", sendStart);
-    DelayProfiler.updateDelay("LookupWorker", startTime);
-  }
-
-  /**
-   * Queries DNS and/or GNS servers for DNS records.
-   *
-   * Note: a null return value means that the caller doesn't need to do
-   * anything. Currently this only happens if this is an AXFR request over TCP.
-   */
-  private Message generateReply(Message query) {
-    long startTime = System.currentTimeMillis();
-    NameResolution.getLogger().log(Level.FINE, "Incoming request:\n {0}", query.toString());
-
-    // If it's not a query we just ignore it.
-    if (query.getHeader().getFlag(Flags.QR)) {
-      return null;
-    }
-
-    long checkStart = System.currentTimeMillis();
-    // Check for wierd queries we can't handle.
-    Message errorMessage;
-    if ((errorMessage = NameResolution.checkForErroneousQueries(query)) != null) {
-      return errorMessage;
-    }
-    DelayProfiler.updateDelay("checkForErroneousQueries", checkStart);
-
-    // If we're not consulting the DNS server as well just send the query to GNS.
-    if (dnsServer == null) {
-      Message result = NameResolution.lookupGnsServer(incomingPacket.getAddress(), query, handler);
-      DelayProfiler.updateDelay("generateReply", startTime);
-      return result;
-    }
-
-    // Otherwise as a first step before performing GNS/DNS lookup we check our own local cache.
-    if (dnsCache != null) {
-      Message tempQuery = (Message) query.clone();
-      Message result = NameResolution.lookupDnsCache(tempQuery, dnsCache);
-      if (result.getHeader().getRcode() == Rcode.NOERROR) {
-        NameResolution.getLogger().log(Level.FINE,
-                "Responding the request from cache {0}", NameResolution.queryAndResponseToString(query, result));
-        return result;
-      }
-    }
-
-    // Create a clone of the query for duplicating the request to GNS and DNS
-    Message dnsQuery = (Message) query.clone();
-    List<LookupTask> tasks;
-    if (gnsServer == null) {
-      // We make two tasks to check the DNS and GNS in parallel
-      tasks = Arrays.asList(
-              // Create GNS lookup task
-              new LookupTask(query, handler),
-              // Create DNS lookup task
-              new LookupTask(dnsQuery, dnsServer, handler));
-    } else {
-      tasks = Arrays.asList(
-              // Create GNS lookup task
-              new LookupTask(query, gnsServer, true, /* isGNS */ handler),
-              // Create DNS lookup task
-              new LookupTask(dnsQuery, dnsServer, false, /* isGNS */ handler));
-    }
-
-    // A little bit of overkill for two tasks, but it's really not that much longer (if any) than
-    // the altenative. Plus it's cool and trendy to use futures.
-    ExecutorService executor = Executors.newFixedThreadPool(2);
-    ExecutorCompletionService<Message> completionService = new ExecutorCompletionService<>(executor);
-    List<Future<Message>> futures = new ArrayList<>(2);
-    for (Callable<Message> task : tasks) {
-      futures.add(completionService.submit(task));
-    }
-    Message successResponse = null;
-    Message errorResponse = null;
-    // loop throught the tasks getting results as they complete
-    for (int i=0; i<tasks.size(); i++) { // this is just doing things twice btw
-      try {
-        Message result = completionService.take().get();
-        if (result.getHeader().getRcode() == Rcode.NOERROR) {
-          successResponse = result;
-          break;
-        } else {
-          // squirrel this away for later in case we get no successes
-          errorResponse = result;
-        }
-      } catch (ExecutionException e) {
-        NameResolution.getLogger().log(Level.WARNING, "Problem handling lookup task: {0}", e);
-      } catch (InterruptedException e) {
-        NameResolution.getLogger().log(Level.WARNING, "Lookup task interrupted: {0}", e);
-      }
-    }
-    // Shutdown the executor threadpool
-    executor.shutdown();
-    if (successResponse != null) {
-      // Cache the successful response
-      try {
-        SetResponse addMsgResponse = dnsCache.addMessage(successResponse);
-        if (!addMsgResponse.isSuccessful()) {
-          RRset[] answers = successResponse.getSectionRRsets(Section.ANSWER);
-          boolean isAuth = successResponse.getHeader().getFlag(Flags.AA);
-          int qClass = successResponse.getQuestion().getDClass();
-          for (int i = 0; i < answers.length; i++) {
-            if (answers[i].getDClass() != qClass) {
-              continue;
-            }
-            int cred = getCred(Section.ANSWER, isAuth);
-            dnsCache.addRRset(answers[i], cred);
-            NameResolution.getLogger().log(Level.FINE,
-                    "Records added to cache {0}", answers[i].toString());
-          }
-        }
-      } catch (NullPointerException e) {
-        NameResolution.getLogger().log(Level.WARNING, "Failed to add a dns response to cache{0}", e);
-      }
-      return successResponse;
-    } else if (errorResponse != null) {
-      // currently this is returning the second error response... do we care?
-      return errorResponse;
-    } else {
-      return NameResolution.errorMessage(query, Rcode.NXDOMAIN);
-    }
-  }
-
-  /**
-   * Returns a response to the sender.
-   *
-   * @param responseBytes
-   */
-  private void sendResponse(byte[] responseBytes) {
-    DatagramPacket outgoingPacket = new DatagramPacket(responseBytes, responseBytes.length, incomingPacket.getAddress(), incomingPacket.getPort());
-    try {
-      socket.send(outgoingPacket);
-      NameResolution.getLogger().log(Level.FINE,
-              "Response sent to {0} {1}", new Object[]{incomingPacket.getAddress().toString(),
-                incomingPacket.getPort()});
-    } catch (IOException e) {
-      NameResolution.getLogger().log(Level.SEVERE, "Failed to send response{0}", e);
-    }
-  }
-
-  private int getCred(int section, boolean isAuth) {
-    switch (section) {
-      case Section.ANSWER:
-        if (isAuth) {
-          return Credibility.AUTH_ANSWER;
-        } else {
-          return Credibility.NONAUTH_ANSWER;
-        }
-      case Section.AUTHORITY:
-        if (isAuth) {
-          return Credibility.AUTH_AUTHORITY;
-        } else {
-          return Credibility.NONAUTH_AUTHORITY;
-        }
-      case Section.ADDITIONAL:
-        return Credibility.ADDITIONAL;
-      default:
-        throw new IllegalArgumentException("getCred: invalid section");
-    }
-  }
-}
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy, Emmanuel Cecchet
+ *
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.utils.DelayProfiler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.OPTRecord;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Cache;
+import org.xbill.DNS.SetResponse;
+import org.xbill.DNS.RRset;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+import org.xbill.DNS.Credibility;
+
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+
+/**
+ * This class defines a LookupWorker which handles a single query.
+ *
+ * DNS requests can be handled just by the GNS server or by the GNS server
+ * with a DNS server as a fallback.
+ * When using DNS as a fallback we send out parallel requests and whichever returns
+ * first is returned to the client as the answer. Both requests run on the
+ * {@link AsyncResolver} shared by all the workers and the one that loses is cancelled.
+ *
+ * @author westy
+ * @version 1.0
+ */
+public class LookupWorker implements Runnable {
+
+  private final InetSocketAddress dnsServer;
+  private final InetSocketAddress gnsServer;
+  private final AsyncResolver resolver;
+  private final Cache dnsCache;
+  private final DnsTransport transport;
+  private final InetSocketAddress client;
+  private final byte[] incomingData;
+  private final ClientRequestHandlerInterface handler;
+
+  /**
+   * Creates a new <code>LookupWorker</code> object which handles the parallel GNS and DNS requesting.
+   *
+   * @param transport the front end to send the response through
+   * @param client the address the query came from
+   * @param incomingData
+   * @param dnsServer (might be null meaning don't send requests to a DNS server)
+   * @param gnsServer (might be null gns requests are resolved locally)
+   * @param dnsCache (might be null meaning DNS responses are not cached)
+   * @param resolver runs the GNS and DNS requests (only needed with a dnsServer)
+   * @param handler
+   */
+  public LookupWorker(DnsTransport transport, InetSocketAddress client, byte[] incomingData,
+          InetSocketAddress gnsServer, InetSocketAddress dnsServer, Cache dnsCache,
+          AsyncResolver resolver, ClientRequestHandlerInterface handler) {
+    this.transport = transport;
+    this.resolver = resolver;
+    this.client = client;
+    this.incomingData = incomingData;
+    this.dnsServer = dnsServer;
+    this.dnsCache = dnsCache;
+    this.gnsServer = gnsServer;
+    this.handler = handler;
+  }
+
+  /**
+   * @see java.lang.Thread#run()
+   */
+  @Override
+  public void run() {
+    long startTime = System.currentTimeMillis();
+    Message query;
+    Message response;
+    int maxLength;
+
+    // create a Message from the query data;
+    try {
+      query = new Message(incomingData);
+    } catch (IOException e) {
+      // Send out an error response.
+      Message error = NameResolution.formErrorMessage(incomingData);
+      if (error != null) {
+        sendResponse(error.toWire());
+      }
+      return;
+    }
+    int payloadSize = Math.max(Config.getGlobalInt(GNSConfig.GNSC.DNS_EDNS_PAYLOAD_SIZE), 512);
+    if (transport.isStream()) {
+      // over TCP the length prefix is the only limit
+      maxLength = 65535;
+    } else if (query.getOPT() != null) {
+      // EDNS0: the client takes up to its payload size, we send up to ours
+      maxLength = Math.min(Math.max(query.getOPT().getPayloadSize(), 512), payloadSize);
+    } else {
+      maxLength = 512;
+    }
+    // Hot names are answered from the wire format cache without touching the database.
+    byte[] cached = DnsAnswerCache.get(query, maxLength);
+    if (cached != null) {
+      sendResponse(cached);
+      DelayProfiler.updateDelay("LookupWorker.cached", startTime);
+      return;
+    }
+    // THE MEAT IS IN HERE. Try to get a response from the GNS or DNS servers.
+    response = generateReply(query);
+    long postStart = System.currentTimeMillis();
+    if (response == null) { // means we don't need to do anything
+      return;
+    }
+    if (query.getOPT() != null && response.getOPT() == null) {
+      response.addRecord(new OPTRecord(payloadSize, 0, 0), Section.ADDITIONAL);
+    }
+    NameResolution.getLogger().log(Level.FINE, "Q/R: {0}",
+            NameResolution.queryAndResponseToString(query, response));
+    // Send out the response.
+    DelayProfiler.updateDelay("LookupWorker.postGenerate", postStart);
+    long sendStart = System.currentTimeMillis();
+    sendResponse(response.toWire(maxLength));
+    DelayProfiler.updateDelay("LookupWorker.sendResponse", sendStart);
+    DelayProfiler.updateDelay("LookupWorker", startTime);
+  }
+
+  /**
+   * Queries DNS and/or GNS servers for DNS records.
+   *
+   * Note: a null return value means that the caller doesn't need to do
+   * anything. Currently this only happens if this is an AXFR request over TCP.
+   */
+  private Message generateReply(Message query) {
+    long startTime = System.currentTimeMillis();
+    NameResolution.getLogger().log(Level.FINE, "Incoming request:\n {0}", query.toString());
+
+    // If it's not a query we just ignore it.
+    if (query.getHeader().getFlag(Flags.QR)) {
+      return null;
+    }
+
+    long checkStart = System.currentTimeMillis();
+    // Check for wierd queries we can't handle.
+    Message errorMessage;
+    if ((errorMessage = NameResolution.checkForErroneousQueries(query)) != null) {
+      return errorMessage;
+    }
+    DelayProfiler.updateDelay("checkForErroneousQueries", checkStart);
+
+    // Zone transfers are answered from the records on this server.
+    int type = query.getQuestion() != null ? query.getQuestion().getType() : 0;
+    if (type == Type.AXFR || type == Type.IXFR) {
+      return ZoneTransfer.transfer(transport, client, query, handler);
+    }
+
+    // If we're not consulting the DNS server as well just send the query to GNS.
+    if (dnsServer == null) {
+      Message result = NameResolution.lookupGnsServer(client.getAddress(), query, handler);
+      DelayProfiler.updateDelay("generateReply", startTime);
+      return result;
+    }
+
+    // Otherwise as a first step before performing GNS/DNS lookup we check our own local cache.
+    if (dnsCache != null) {
+      Message tempQuery = (Message) query.clone();
+      Message result = NameResolution.lookupDnsCache(tempQuery, dnsCache);
+      if (result.getHeader().getRcode() == Rcode.NOERROR) {
+        NameResolution.getLogger().log(Level.FINE,
+                "Responding the request from cache {0}", NameResolution.queryAndResponseToString(query, result));
+        return result;
+      }
+    }
+
+    // Create a clone of the query for duplicating the request to GNS and DNS
+    final Message gnsQuery = (Message) query.clone();
+    CompletableFuture<Message> gnsLookup;
+    if (gnsServer == null) {
+      gnsLookup = resolver.submit("gns", new Callable<Message>() {
+        @Override
+        public Message call() {
+          return NameResolution.lookupGnsServer(null, gnsQuery, handler);
+        }
+      });
+    } else {
+      gnsLookup = checked(gnsQuery, resolver.forward("gns", gnsQuery, gnsServer));
+    }
+    Message dnsQuery = (Message) query.clone();
+    CompletableFuture<Message> dnsLookup = checked(dnsQuery, resolver.forward("dns", dnsQuery, dnsServer));
+
+    Message[] results = race(gnsLookup, dnsLookup);
+    Message successResponse = results[0];
+    Message errorResponse = results[1];
+    DelayProfiler.updateDelay("generateReply", startTime);
+    if (successResponse != null) {
+      // Cache the successful response
+      try {
+        SetResponse addMsgResponse = dnsCache.addMessage(successResponse);
+        if (!addMsgResponse.isSuccessful()) {
+          RRset[] answers = successResponse.getSectionRRsets(Section.ANSWER);
+          boolean isAuth = successResponse.getHeader().getFlag(Flags.AA);
+          int qClass = successResponse.getQuestion().getDClass();
+          for (int i = 0; i < answers.length; i++) {
+            if (answers[i].getDClass() != qClass) {
+              continue;
+            }
+            int cred = getCred(Section.ANSWER, isAuth);
+            dnsCache.addRRset(answers[i], cred);
+            NameResolution.getLogger().log(Level.FINE,
+                    "Records added to cache {0}", answers[i].toString());
+          }
+        }
+      } catch (NullPointerException e) {
+        NameResolution.getLogger().log(Level.WARNING, "Failed to add a dns response to cache{0}", e);
+      }
+      return successResponse;
+    } else if (errorResponse != null) {
+      // currently this is returning the last error response... do we care?
+      return errorResponse;
+    } else {
+      return NameResolution.errorMessage(query, Rcode.NXDOMAIN);
+    }
+  }
+
+  // Turns a response from a name server that isn't useful into NXDOMAIN like the blocking forwarding does.
+  private static CompletableFuture<Message> checked(final Message query, CompletableFuture<Message> lookup) {
+    final CompletableFuture<Message> result = new CompletableFuture<>();
+    lookup.whenComplete(new BiConsumer<Message, Throwable>() {
+      @Override
+      public void accept(Message response, Throwable throwable) {
+        if (throwable != null) {
+          result.completeExceptionally(throwable);
+        } else {
+          result.complete(NameResolution.checkForwardedResponse(query, response));
+        }
+      }
+    });
+    // cancelling the result cancels the lookup
+    result.whenComplete(new BiConsumer<Message, Throwable>() {
+      @Override
+      public void accept(Message response, Throwable throwable) {
+        if (throwable != null) {
+          lookup.cancel(true);
+        }
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Waits for the first lookup that returns NOERROR and cancels the others.
+   *
+   * @return the successful response (or null) and the last error response (or null)
+   */
+  @SafeVarargs
+  private final Message[] race(final CompletableFuture<Message>... lookups) {
+    final CompletableFuture<Message> winner = new CompletableFuture<>();
+    final AtomicReference<Message> errorResponse = new AtomicReference<>();
+    final AtomicInteger remaining = new AtomicInteger(lookups.length);
+    for (CompletableFuture<Message> lookup : lookups) {
+      lookup.whenComplete(new BiConsumer<Message, Throwable>() {
+        @Override
+        public void accept(Message result, Throwable throwable) {
+          if (throwable != null) {
+            NameResolution.getLogger().log(Level.FINE, "Problem handling lookup: {0}", throwable);
+          } else if (result != null && result.getHeader().getRcode() == Rcode.NOERROR) {
+            winner.complete(result);
+          } else if (result != null) {
+            // squirrel this away for later in case we get no successes
+            errorResponse.set(result);
+          }
+          if (remaining.decrementAndGet() == 0) {
+            winner.complete(null);
+          }
+        }
+      });
+    }
+    Message successResponse = null;
+    try {
+      // every lookup times out on its own, this just guards against a lost completion
+      successResponse = winner.get(2 * Config.getGlobalInt(GNSConfig.GNSC.DNS_LOOKUP_TIMEOUT),
+              TimeUnit.MILLISECONDS);
+    } catch (ExecutionException | TimeoutException e) {
+      NameResolution.getLogger().log(Level.WARNING, "Problem handling lookups: {0}", e);
+    } catch (InterruptedException e) {
+      NameResolution.getLogger().log(Level.WARNING, "Lookups interrupted: {0}", e);
+      Thread.currentThread().interrupt();
+    }
+    for (CompletableFuture<Message> lookup : lookups) {
+      // no-op for the ones that finished
+      lookup.cancel(true);
+    }
+    return new Message[]{successResponse, errorResponse.get()};
+  }
+
+  /**
+   * Returns a response to the sender.
+   *
+   * @param responseBytes
+   */
+  private void sendResponse(byte[] responseBytes) {
+    transport.send(client, responseBytes);
+  }
+
+  private int getCred(int section, boolean isAuth) {
+    switch (section) {
+      case Section.ANSWER:
+        if (isAuth) {
+          return Credibility.AUTH_ANSWER;
+        } else {
+          return Credibility.NONAUTH_ANSWER;
+        }
+      case Section.AUTHORITY:
+        if (isAuth) {
+          return Credibility.AUTH_AUTHORITY;
+        } else {
+          return Credibility.NONAUTH_AUTHORITY;
+        }
+      case Section.ADDITIONAL:
+        return Credibility.ADDITIONAL;
+      default:
+        throw new IllegalArgumentException("getCred: invalid section");
+    }
+  }
+}
@@ -26,7 +26,6 @@ import org.json.JSONObject;
 
 import edu.umass.cs.gnsclient.client.GNSClient;
 import edu.umass.cs.gnsclient.client.GNSClientCommands;
-import edu.umass.cs.gnsclient.client.GNSCommand;
 import edu.umass.cs.gnsclient.client.util.GuidEntry;
 import edu.umass.cs.gnsclient.client.util.GuidUtils;
 import edu.umass.cs.gnscommon.exceptions.client.ClientException;
@@ -38,6 +37,12 @@ import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.Activ
  * as a managed DNS provider server. The front end is maintained
  * at https://github.com/ZhaoyuUmass/node-express
  * 
+ * Record changes are acknowledged once they are queued on a
+ * {@link DnsUpdatePipeline} which writes them to GNS in the background.
+ * If too many changes are waiting the response has an "error" of "busy"
+ * and the front end should retry later. The "status" action returns the
+ * progress of the pipeline.
+ * 
  * 
  * @author gaozy
  *
@@ -57,6 +62,9 @@ public class ManagedDNSServiceProxy implements Runnable {
 	private final static String VALUE_FIELD = "value";
 	private final static String USERNAME_FIELD = "username";
 	private final static String FIELD_NAME = "field";
+	private final static String ERROR_FIELD = "error";
+	private final static String PROGRESS_FIELD = "progress";
+	private final static String BUSY = "busy";
 	
 	private final static String A_RECORD_FIELD = "A";
 	private final static String NS_RECORD_FIELD = "NS";
@@ -87,7 +95,9 @@ public class ManagedDNSServiceProxy implements Runnable {
 	    // update NS record
 	    UPDATE_NS("update_ns"),
 	    // delete NS record
-	    DELETE_NS("delete_ns")
+	    DELETE_NS("delete_ns"),
+	    // progress of the record updates
+	    STATUS("status")
 	    ;
 
 	    private final String text;
@@ -110,6 +120,7 @@ public class ManagedDNSServiceProxy implements Runnable {
 	
 	private static GNSClientCommands client;
 	private static GuidEntry accountGuid;
+	protected static DnsUpdatePipeline updates;
 	
 	private final static int default_ttl = 60;
 	private final static String DOMAIN = "pnsanonymous.org.";
@@ -129,6 +140,7 @@ public class ManagedDNSServiceProxy implements Runnable {
 		
 		try {
 			client = new GNSClientCommands(new GNSClient());
+			updates = new DnsUpdatePipeline(client.getGNSClient());
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -250,35 +262,31 @@ public class ManagedDNSServiceProxy implements Runnable {
 		}
 	}
 	
-	private static void updateRecord(GuidEntry entry, String fieldToUpdate, List<String> ips, int ttl){
+	private static boolean updateRecord(GuidEntry entry, String fieldToUpdate, List<String> ips, int ttl){
 		System.out.println("Ready to update record for "+entry+" field:"+fieldToUpdate);
 		JSONObject recordObj = recordToCreate(ips, ttl);
-		try {
-			client.getGNSClient().execute(GNSCommand.fieldUpdate(entry, fieldToUpdate, recordObj));
-		} catch (ClientException | IOException e) {
-			// The update failed	
-			e.printStackTrace();					
-		}	
+		return updateField(entry, fieldToUpdate, recordObj);
 	}
 	
-	private static void deleteRecord(GuidEntry entry){
-		deleteField(entry, A_RECORD_FIELD);
+	private static boolean deleteRecord(GuidEntry entry){
+		return deleteField(entry, A_RECORD_FIELD);
 	}
 	
-	private static void deleteField(GuidEntry entry, String fieldToDelete){
+	private static boolean deleteField(GuidEntry entry, String fieldToDelete){
 		try {
-			client.getGNSClient().execute(GNSCommand.fieldRemove(entry, fieldToDelete));
-		} catch (ClientException | IOException e) {
-			// the delete operation failed
-			e.printStackTrace();
+			return updates.remove(entry, fieldToDelete);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
 		}
 	}
 	
-	private static void updateField(GuidEntry entry, String fieldToUpdate, Object obj){		
+	private static boolean updateField(GuidEntry entry, String fieldToUpdate, Object obj){		
 		try {		
-			client.getGNSClient().execute(GNSCommand.fieldUpdate(entry, fieldToUpdate, obj));
-		} catch (ClientException | IOException e) {
-			e.printStackTrace();
+			return updates.update(entry, fieldToUpdate, obj);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
 		}
 	}
 	
@@ -289,15 +297,11 @@ public class ManagedDNSServiceProxy implements Runnable {
 	 * @param fieldToUpdate
 	 * @param records
 	 * @param ttl
+	 * @return false if the update was not queued because too many are waiting
 	 */
-	private static void updateSpecialField(GuidEntry entry, String fieldToUpdate, List<JSONArray> records, int ttl){
+	private static boolean updateSpecialField(GuidEntry entry, String fieldToUpdate, List<JSONArray> records, int ttl){
 		JSONObject recordObj = generateRecordWithListOfJSONArray(records, ttl);
-		try {
-			client.getGNSClient().execute(GNSCommand.fieldUpdate(entry, fieldToUpdate, recordObj));
-		} catch (ClientException | IOException e) {
-			// The update failed	
-			e.printStackTrace();					
-		}	
+		return updateField(entry, fieldToUpdate, recordObj);
 	}
 	
 	private static String serializeGuid(GuidEntry entry){
@@ -327,8 +331,10 @@ public class ManagedDNSServiceProxy implements Runnable {
 		 }
 	}
 	
-	private static JSONObject handleRequest(JSONObject req){
+	protected static JSONObject handleRequest(JSONObject req){
 		JSONObject result = new JSONObject();
+		// false if a record change could not be queued
+		boolean queued = true;
 		try {
 			Actions action = Actions.valueOf(req.getString(ACTION_FIELD).toUpperCase());
 			switch(action){
@@ -346,13 +352,13 @@ public class ManagedDNSServiceProxy implements Runnable {
 					GuidEntry guid = deserializeGuid(req.getString(GUID_FIELD));
 					Object obj = req.get(VALUE_FIELD); 
 					String field = req.getString(FIELD_NAME);
-					updateField(guid, field, obj);
+					queued = updateField(guid, field, obj);
 				}
 				break;
 				case DELETE_FIELD:{
 					GuidEntry guid = deserializeGuid(req.getString(GUID_FIELD));
 					String field = req.getString(FIELD_NAME);
-					deleteField(guid, field);
+					queued = deleteField(guid, field);
 				}
 				break;
 				// update active code
@@ -373,13 +379,13 @@ public class ManagedDNSServiceProxy implements Runnable {
 					String record = req.getString(RECORD_FIELD);
 					GuidEntry guid = deserializeGuid(req.getString(GUID_FIELD));
 					List<String> ips = Arrays.asList(record.split("\\n"));
-					updateRecord(guid, A_RECORD_FIELD, ips, default_ttl);		
+					queued = updateRecord(guid, A_RECORD_FIELD, ips, default_ttl);		
 				}
 				break;
 				// delete A record
 				case DELETE_RECORD:{
 					GuidEntry guid = deserializeGuid(req.getString(GUID_FIELD));
-					deleteRecord(guid);
+					queued = deleteRecord(guid);
 				}
 				break;
 				// update MX record
@@ -398,13 +404,13 @@ public class ManagedDNSServiceProxy implements Runnable {
 						}
 						mxs.add(ns_record);
 					}
-					updateSpecialField(guid, MX_RECORD_FIELD, mxs, 300);
+					queued = updateSpecialField(guid, MX_RECORD_FIELD, mxs, 300);
 				}
 				break;
 				// delete MX record
 				case DELETE_MX:{
 					GuidEntry guid = deserializeGuid(req.getString(GUID_FIELD));
-					deleteField(guid, MX_RECORD_FIELD);
+					queued = deleteField(guid, MX_RECORD_FIELD);
 				}
 				break;
 				// update NS record
@@ -423,31 +429,41 @@ public class ManagedDNSServiceProxy implements Runnable {
 						}
 						names.add(ns_record);
 					}
-					updateSpecialField(guid, NS_RECORD_FIELD, names, 300);
+					queued = updateSpecialField(guid, NS_RECORD_FIELD, names, 300);
 				}
 				break;
 				// delete NS record
 				case DELETE_NS:{
 					GuidEntry guid = deserializeGuid(req.getString(GUID_FIELD));
-					deleteField(guid, NS_RECORD_FIELD);
+					queued = deleteField(guid, NS_RECORD_FIELD);
 				}
 				break;
 				// update CNAME
 				case UPDATE_CNAME:{
 					String cname = req.getString(CNAME_FIELD);
 					GuidEntry guid = deserializeGuid(req.getString(GUID_FIELD));
-					updateField(guid, CNAME_RECORD_FIELD, cname);
+					queued = updateField(guid, CNAME_RECORD_FIELD, cname);
 				}
 				break;
 				// delete CNAME
 				case DELETE_CNAME:{
 					GuidEntry guid = deserializeGuid(req.getString(GUID_FIELD));
-					deleteField(guid, CNAME_RECORD_FIELD);
+					queued = deleteField(guid, CNAME_RECORD_FIELD);
+				}
+				break;
+				// progress of the record updates
+				case STATUS:{
+					result.put(PROGRESS_FIELD, updates.getProgress());
 				}
 				break;
 				default:
 					break;
 			}
+			if (!queued) {
+				// tell the front end to slow down and retry
+				result.put(ERROR_FIELD, BUSY);
+				result.put(PROGRESS_FIELD, updates.getProgress());
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
 			return null;
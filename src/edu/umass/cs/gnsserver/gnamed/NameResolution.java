@@ -26,7 +26,9 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -55,11 +57,18 @@ import org.xbill.DNS.TextParseException;
 import org.xbill.DNS.Type;
 
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnscommon.exceptions.server.FieldNotFoundException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
 import edu.umass.cs.gnsserver.database.ColumnFieldType;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.ActiveCode;
 import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSFieldAccess;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.BasicRecordMap;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
+import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.DelayProfiler;
 
 /**
@@ -86,15 +95,7 @@ public class NameResolution {
    */
   public static Message forwardToDnsServer(SimpleResolver dnsServer, Message query) {
     try {
-      Message dnsResponse = dnsServer.send(query);
-      NameResolution.getLogger().log(Level.FINE,
-              "DNS response {0} with {1} answer, {2} authoritative and {3} additional records", new Object[]{Rcode.string(dnsResponse.getHeader().getRcode()), dnsResponse.getSectionArray(Section.ANSWER).length, dnsResponse.getSectionArray(Section.AUTHORITY).length, dnsResponse.getSectionArray(Section.ADDITIONAL).length});
-
-      if (isReasonableResponse(dnsResponse)) {
-        NameResolution.getLogger().log(Level.FINE,
-                "Outgoing response from DNS: {0}", dnsResponse.toString());
-        return dnsResponse;
-      }
+      return checkForwardedResponse(query, dnsServer.send(query));
     } catch (IOException e) {
       NameResolution.getLogger().log(Level.WARNING,
               "DNS resolution failed for {0}: {1}", new Object[]{query, e});
@@ -110,22 +111,27 @@ public class NameResolution {
    * @return A message with either a good response or an error.
    */
   public static Message forwardToGnsServer(SimpleResolver gnsServer, Message query) {
-    try {
-      Message dnsResponse = gnsServer.send(query);
-      NameResolution.getLogger().log(Level.FINE,
-              "DNS response {0} with {1} answer, {2} authoritative and {3} additional records",
-              new Object[]{Rcode.string(dnsResponse.getHeader().getRcode()),
-                dnsResponse.getSectionArray(Section.ANSWER).length,
-                dnsResponse.getSectionArray(Section.AUTHORITY).length,
-                dnsResponse.getSectionArray(Section.ADDITIONAL).length});
-      if (isReasonableResponse(dnsResponse)) {
-        NameResolution.getLogger().log(Level.FINE, "Outgoing response from DNS: {0}",
-                dnsResponse.toString());
-        return dnsResponse;
-      }
-    } catch (IOException e) {
-      NameResolution.getLogger().log(Level.WARNING,
-              "DNS resolution failed for {0}: {1}", new Object[]{query, e});
+    return forwardToDnsServer(gnsServer, query);
+  }
+
+  /**
+   * Checks the response a name server sent for a forwarded query.
+   *
+   * @param query
+   * @param dnsResponse
+   * @return the response if it is reasonable, otherwise an NXDOMAIN error
+   */
+  public static Message checkForwardedResponse(Message query, Message dnsResponse) {
+    NameResolution.getLogger().log(Level.FINE,
+            "DNS response {0} with {1} answer, {2} authoritative and {3} additional records",
+            new Object[]{Rcode.string(dnsResponse.getHeader().getRcode()),
+              dnsResponse.getSectionArray(Section.ANSWER).length,
+              dnsResponse.getSectionArray(Section.AUTHORITY).length,
+              dnsResponse.getSectionArray(Section.ADDITIONAL).length});
+    if (isReasonableResponse(dnsResponse)) {
+      NameResolution.getLogger().log(Level.FINE, "Outgoing response from DNS: {0}",
+              dnsResponse.toString());
+      return dnsResponse;
     }
     return errorMessage(query, Rcode.NXDOMAIN);
   }
@@ -176,7 +182,7 @@ public class NameResolution {
     /**
      * Request DNS fields of an alias and prepare a DNS response message 
      */
-    ArrayList<String> fields = new ArrayList<>(Arrays.asList("A", "NS", "CNAME", "SOA", "PTR", "MX"));
+    ArrayList<String> fields = new ArrayList<>(DnsAnswerCache.DNS_FIELDS);
     
     /**
      * <p>
@@ -201,7 +207,11 @@ public class NameResolution {
      */
 	  long resolveStart = System.currentTimeMillis();      
 	  
-	  JSONObject fieldResponseJson = lookupGuidField(addr.getHostAddress().toString(), query.getHeader().getID(), domainName, null, fields, handler);
+	  // taken before the reads so a change while answering keeps the answer out of the cache
+	  long generation = DnsAnswerCache.getGeneration();
+	  String guid = lookupGuid(domainName, handler);
+	  JSONObject fieldResponseJson = guid == null ? null
+	          : lookupGuidFields(addr != null ? addr.getHostAddress() : null, query.getHeader().getID(), guid, fields, handler);
 	  if (fieldResponseJson == null) {
 	    NameResolution.getLogger().log(Level.FINE, "GNS lookup for domain {0} failed.", domainName);
 	    return errorMessage(query, Rcode.NXDOMAIN);
@@ -326,6 +336,18 @@ public class NameResolution {
 	    	  }
 	      }
     	  break;
+      case Type.SOA:
+	      {
+	    	  // only zones that can be transferred have a start of authority
+	    	  if (!Config.getGlobalBoolean(GNSConfig.GNSC.DNS_ZONE_TRANSFER)) {
+	    		  return errorMessage(query, Rcode.NOTIMPL);
+	    	  }
+	    	  response.addRecord(ZoneTransfer.soa(requestedName, fieldResponseJson, ZoneJournal.getSerial()),
+	    			  Section.ANSWER);
+	    	  // the serial changes with every update so it isn't cached
+	    	  DelayProfiler.updateDelay("ResolveName", resolveStart);
+	    	  return response;
+	      }
 	  default:
 		  // we haven't implemented yet
 		  return errorMessage(query, Rcode.NOTIMPL);
@@ -334,9 +356,26 @@ public class NameResolution {
       
     DelayProfiler.updateDelay("ResolveName", resolveStart);
     NameResolution.getLogger().log(Level.FINER, "Outgoing response from GNS: {0}", response.toString());
+    if (!hasReadActiveCode(guid, handler.getApp().getDB())) {
+      DnsAnswerCache.put(query, response, generation, guid, domainName);
+    }
     return response;
   }
 
+  // Read active code gets the client's address so its answers can differ per client.
+  private static boolean hasReadActiveCode(String guid, BasicRecordMap db) {
+    if (Config.getGlobalBoolean(GNSConfig.GNSC.DISABLE_ACTIVE_CODE)) {
+      return false;
+    }
+    try {
+      return NameRecord.getNameRecordMultiUserFields(db, guid, ColumnFieldType.USER_JSON, ActiveCode.ON_READ)
+              .getValuesMap().has(ActiveCode.ON_READ);
+    } catch (RecordNotFoundException | FailedDBOperationException | FieldNotFoundException e) {
+      // can't tell so don't cache
+      return true;
+    }
+  }
+
   /**
    * retrieve all A records from A field of a JSON object
    * 
@@ -520,6 +559,79 @@ public class NameResolution {
   }
   
   
+  /**
+   * Returns the records of a name kept in the DNS fields of its guid
+   * without the addresses of name and mail servers that go in the additional section.
+   *
+   * @param name the domain name, ended with a dot
+   * @param fields the fields of the guid
+   * @return the records
+   */
+  public static List<Record> dnsRecords(String name, JSONObject fields) {
+    List<Record> records = new ArrayList<>();
+    try {
+      JSONArray aList = getARecordsFromAField(fields, name);
+      for (int i = 0; aList != null && i < aList.length(); i++) {
+        records.add((Record) aList.get(i));
+      }
+      JSONObject obj = getNSRecordsFromNSField(fields, name);
+      JSONArray nsList = obj != null ? obj.getJSONArray("NS") : null;
+      for (int i = 0; nsList != null && i < nsList.length(); i++) {
+        records.add((Record) nsList.get(i));
+      }
+      obj = getMXRecordsFromMXField(fields, name);
+      JSONArray mxList = obj != null ? obj.getJSONArray("MX") : null;
+      for (int i = 0; mxList != null && i < mxList.length(); i++) {
+        records.add((Record) mxList.get(i));
+      }
+      if (fields.has("CNAME")) {
+        String cname = fields.getString("CNAME");
+        if (!cname.endsWith(".")) {
+          cname = cname + ".";
+        }
+        records.add(new CNAMERecord(new Name(name), DClass.IN, 60, new Name(cname)));
+      }
+    } catch (JSONException | TextParseException e) {
+      NameResolution.getLogger().log(Level.FINE, "Bad DNS field for {0}: {1}", new Object[]{name, e});
+    }
+    return records;
+  }
+
+  /**
+   * Returns true if changing the fields changes DNS answers. The read active
+   * code of a guid counts since it decides if its answers are cached.
+   *
+   * @param fields the fields that changed or null if the whole record did
+   * @return true if DNS answers change
+   */
+  public static boolean isDnsChange(Collection<String> fields) {
+    if (fields == null) {
+      return true;
+    }
+    for (String field : fields) {
+      // fields can be in dot notation
+      String top = field.indexOf('.') < 0 ? field : field.substring(0, field.indexOf('.'));
+      if (DnsAnswerCache.DNS_FIELDS.contains(top) || HRN_GUID.equals(top) || ActiveCode.ON_READ.equals(top)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Called after a record on this server was created, changed or removed.
+   *
+   * @param name the guid or domain name of the record
+   * @param fields the fields that changed or null if the whole record did
+   * @param db
+   */
+  public static void recordChanged(String name, Collection<String> fields, BasicRecordMap db) {
+    if (isDnsChange(fields)) {
+      DnsAnswerCache.recordChanged(name);
+      ZoneJournal.recordChanged(name, db);
+    }
+  }
+
   /**
    * Lookup the field or fields in the guid.
    * Returns a JSONObject containing the fields and values
@@ -541,10 +653,28 @@ public class NameResolution {
     /**
      * 1. Lookup guid for the domain name
      */
+    String guid = lookupGuid(domain, handler);
+    
+    /**
+     * 2. Lookup the record
+     */
+    if (guid == null) {
+      return null;
+    }
+    return lookupGuidFields(addr, id, guid, fields, handler);
+  }
+
+  /**
+   * Lookup the guid of a domain name.
+   *
+   * @param domain - the HRN of the guid
+   * @param handler
+   * @return the guid or null
+   */
+  static String lookupGuid(String domain, ClientRequestHandlerInterface handler) {
     String guid = null;
-    final ValuesMap result;
     try{
-	    result = NSFieldAccess.lookupJSONFieldLocalNoAuth(null, domain,
+	    ValuesMap result = NSFieldAccess.lookupJSONFieldLocalNoAuth(null, domain,
 	            HRN_GUID, handler.getApp(), false);
 	    if (result != null) {
 	        guid = result.getString(HRN_GUID);
@@ -554,12 +684,26 @@ public class NameResolution {
                 "No guid for {0}: {1}", new Object[]{domain, e});
     	return null;
     }
-    
-    /**
-     * 2. Lookup the record
-     */
+    if (guid == null) {
+    	NameResolution.getLogger().log(Level.FINE,
+                "No guid for {0} is found", new Object[]{domain});
+    }
+    return guid;
+  }
+
+  /**
+   * Lookup the fields in the guid.
+   *
+   * @param addr
+   * @param id
+   * @param guid
+   * @param fields
+   * @param handler
+   * @return a JSONObject containing the fields and values or null
+   */
+  static JSONObject lookupGuidFields(String addr, int id, String guid, ArrayList<String> fields,
+          ClientRequestHandlerInterface handler) {
     JSONObject value = null;
-    if(guid != null){
     	// Generate a DNS header for local read 
     	InternalRequestHeader header = new InternalRequestHeader(){
 
@@ -570,11 +714,7 @@ public class NameResolution {
 
 			@Override
 			public String getOriginatingGUID() {
-				try {
-					return result.getString(HRN_GUID);
-				} catch (JSONException e) {
-					return null;
-				}
+				return guid;
 			}
 
 			@Override
@@ -598,12 +738,8 @@ public class NameResolution {
 			value = NSFieldAccess.lookupFieldsLocalNoAuth(header, guid, fields, ColumnFieldType.USER_JSON, handler);
 		} catch (FailedDBOperationException e) {
 			NameResolution.getLogger().log(Level.FINE,
-	                "Fetching record failed for {0}: {1}", new Object[]{domain, e});
+	                "Fetching record failed for {0}: {1}", new Object[]{guid, e});
 		}
-    }else{
-    	NameResolution.getLogger().log(Level.FINE,
-                "No guid for {0} is found", new Object[]{domain});
-    }
     return value;
     
   }
@@ -727,13 +863,25 @@ public class NameResolution {
    * @return the error message
    */
   public static Message formErrorMessage(byte[] in) {
+    return errorMessage(in, Rcode.FORMERR);
+  }
+
+  /**
+   * Forms an error message from an incoming packet and response code
+   * without parsing more than the header.
+   *
+   * @param in
+   * @param rcode
+   * @return the error message or null if the header can't be read
+   */
+  public static Message errorMessage(byte[] in, int rcode) {
     Header header;
     try {
       header = new Header(in);
     } catch (IOException e) {
       return null;
     }
-    return buildErrorMessage(header, Rcode.FORMERR, null);
+    return buildErrorMessage(header, rcode, null);
   }
 
   /**
@@ -0,0 +1,466 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.gnsserver.utils.Shutdownable;
+import edu.umass.cs.utils.Config;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Rcode;
+
+/**
+ * Receives DNS queries over TCP and hands them to a pool of workers
+ * which send the responses back through {@link #send}.
+ *
+ * One selector thread accepts the connections, reads the length prefixed
+ * queries and writes the responses. A connection stays open for more
+ * queries until it has been idle for {@link GNSConfig.GNSC#DNS_TCP_IDLE_TIMEOUT}
+ * and clients can send queries without waiting for the answers to the
+ * earlier ones. The answers are sent as they are ready, not necessarily in
+ * the order of the queries. Workers never wait for a client to read: a client
+ * that lets more than a megabyte of responses pile up is disconnected. Zone
+ * transfers are sent through {@link #stream} instead, which waits for the
+ * client to read the earlier messages.
+ *
+ * Connections are told apart by the client's address so workers send
+ * their responses the same way they do through a {@link DnsFrontEnd}.
+ *
+ * @author westy
+ */
+public class TcpDnsFrontEnd implements DnsTransport, Shutdownable {
+
+  private static final int MAX_BACKLOG = 1024 * 1024;
+  // streamed responses wait until no more than this is unsent
+  private static final int STREAM_BACKLOG = 64 * 1024;
+
+  private static class Connection {
+
+    private final SocketChannel channel;
+    private final InetSocketAddress client;
+    private final ByteBuffer length = ByteBuffer.allocate(2);
+    private ByteBuffer query;
+    // guarded by this, which is notified when the backlog goes down or it closes
+    private final Queue<ByteBuffer> writes = new ArrayDeque<>();
+    private int backlog;
+    private boolean closed;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile long lastActive = System.currentTimeMillis();
+    private SelectionKey key;
+
+    Connection(SocketChannel channel, InetSocketAddress client) {
+      this.channel = channel;
+      this.client = client;
+    }
+  }
+
+  private final String name;
+  private final ServerSocketChannel server;
+  private final Selector selector;
+  private final DnsFrontEnd.WorkerFactory workerFactory;
+  private final ThreadPoolExecutor workers;
+  private final int maxConnections;
+  private final long idleTimeout;
+  private final ConcurrentMap<InetSocketAddress, Connection> connections = new ConcurrentHashMap<>();
+  // connections with responses to write, handed to the selector thread
+  private final Queue<Connection> writeReady = new ConcurrentLinkedQueue<>();
+  private volatile boolean running = true;
+
+  /**
+   * Creates a front end bound to the given IP/port using the settings in {@link GNSConfig}.
+   *
+   * @param name used to name the threads
+   * @param addr IP to bind (0.0.0.0 is acceptable)
+   * @param port port to bind (53 is default for DNS)
+   * @param workerFactory
+   * @throws SocketException
+   */
+  public TcpDnsFrontEnd(String name, InetAddress addr, int port, DnsFrontEnd.WorkerFactory workerFactory)
+          throws SocketException {
+    this(name, addr, port, workerFactory, Config.getGlobalInt(GNSConfig.GNSC.DNS_WORKER_THREADS),
+            Config.getGlobalInt(GNSConfig.GNSC.DNS_QUEUE_SIZE),
+            Config.getGlobalInt(GNSConfig.GNSC.DNS_TCP_MAX_CONNECTIONS),
+            Config.getGlobalInt(GNSConfig.GNSC.DNS_TCP_IDLE_TIMEOUT));
+  }
+
+  /**
+   * Creates a front end bound to the given IP/port.
+   *
+   * @param name used to name the threads
+   * @param addr IP to bind (0.0.0.0 is acceptable)
+   * @param port port to bind (53 is default for DNS, 0 for any)
+   * @param workerFactory
+   * @param workerThreads
+   * @param queueSize
+   * @param maxConnections
+   * @param idleTimeout in milliseconds
+   * @throws SocketException
+   */
+  public TcpDnsFrontEnd(final String name, InetAddress addr, int port, DnsFrontEnd.WorkerFactory workerFactory,
+          int workerThreads, int queueSize, int maxConnections, long idleTimeout) throws SocketException {
+    this.name = name;
+    this.workerFactory = workerFactory;
+    this.maxConnections = maxConnections;
+    this.idleTimeout = idleTimeout;
+    try {
+      this.server = ServerSocketChannel.open();
+      this.selector = Selector.open();
+    } catch (IOException e) {
+      throw (SocketException) new SocketException("Unable to open DNS TCP channel").initCause(e);
+    }
+    try {
+      // the socket adaptor throws BindException like a ServerSocket does
+      this.server.socket().setReuseAddress(true);
+      this.server.socket().bind(new InetSocketAddress(addr, port));
+      this.server.configureBlocking(false);
+      this.server.register(selector, SelectionKey.OP_ACCEPT);
+    } catch (SocketException e) {
+      throw e;
+    } catch (IOException e) {
+      throw (SocketException) new SocketException("Unable to bind DNS TCP channel").initCause(e);
+    }
+    this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + "TcpWorker" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Starts the selector thread.
+   */
+  public void start() {
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        select();
+      }
+    }, name + "TcpSelect").start();
+  }
+
+  /**
+   * Returns the address the front end is bound to.
+   *
+   * @return the address
+   */
+  public InetSocketAddress getLocalAddress() {
+    return (InetSocketAddress) server.socket().getLocalSocketAddress();
+  }
+
+  /**
+   * Returns the number of open connections.
+   *
+   * @return the number of connections
+   */
+  public int getConnectionCount() {
+    return connections.size();
+  }
+
+  private void select() {
+    while (running) {
+      try {
+        selector.select(Math.max(idleTimeout / 2, 1));
+        Connection ready;
+        while ((ready = writeReady.poll()) != null) {
+          write(ready);
+        }
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+            continue;
+          }
+          Connection connection = (Connection) key.attachment();
+          if (key.isReadable()) {
+            read(connection);
+          }
+          if (key.isValid() && key.isWritable()) {
+            write(connection);
+          }
+        }
+        closeIdle();
+      } catch (ClosedSelectorException e) {
+        // shut down
+        return;
+      } catch (IOException | RuntimeException e) {
+        NameResolution.getLogger().log(Level.SEVERE, "Error in {0} handling DNS connections: {1}",
+                new Object[]{name, e});
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel;
+    while ((channel = server.accept()) != null) {
+      if (connections.size() >= maxConnections) {
+        NameResolution.getLogger().log(Level.FINE, "{0} has too many connections, closing {1}",
+                new Object[]{name, channel.getRemoteAddress()});
+        channel.close();
+        continue;
+      }
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      Connection connection = new Connection(channel, (InetSocketAddress) channel.getRemoteAddress());
+      connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+      connections.put(connection.client, connection);
+    }
+  }
+
+  // Reads as many whole queries as have arrived.
+  private void read(Connection connection) {
+    try {
+      while (true) {
+        if (connection.query == null) {
+          if (connection.channel.read(connection.length) < 0) {
+            close(connection);
+            return;
+          }
+          if (connection.length.hasRemaining()) {
+            return;
+          }
+          connection.length.flip();
+          int length = connection.length.getShort() & 0xFFFF;
+          connection.length.clear();
+          if (length == 0) {
+            close(connection);
+            return;
+          }
+          connection.query = ByteBuffer.allocate(length);
+        }
+        if (connection.channel.read(connection.query) < 0) {
+          close(connection);
+          return;
+        }
+        if (connection.query.hasRemaining()) {
+          return;
+        }
+        connection.lastActive = System.currentTimeMillis();
+        byte[] query = connection.query.array();
+        connection.query = null;
+        dispatch(connection, query);
+      }
+    } catch (IOException e) {
+      NameResolution.getLogger().log(Level.FINE, "{0} closing {1}: {2}", new Object[]{name, connection.client, e});
+      close(connection);
+    }
+  }
+
+  private void dispatch(final Connection connection, byte[] query) {
+    final Runnable worker = workerFactory.createWorker(this, connection.client, query);
+    connection.inFlight.incrementAndGet();
+    try {
+      workers.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            worker.run();
+          } finally {
+            connection.inFlight.decrementAndGet();
+            connection.lastActive = System.currentTimeMillis();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      connection.inFlight.decrementAndGet();
+      if (running) {
+        NameResolution.getLogger().log(Level.FINE, "{0} shedding query from {1}",
+                new Object[]{name, connection.client});
+        Message response = NameResolution.errorMessage(query, Rcode.SERVFAIL);
+        if (response != null) {
+          response.getHeader().setFlag(Flags.QR);
+          send(connection.client, response.toWire());
+        }
+      }
+    }
+  }
+
+  // Called on the selector thread only.
+  private void write(Connection connection) {
+    synchronized (connection) {
+      if (connection.closed) {
+        return;
+      }
+      try {
+        ByteBuffer buffer;
+        while ((buffer = connection.writes.peek()) != null) {
+          connection.channel.write(buffer);
+          if (buffer.hasRemaining()) {
+            break;
+          }
+          connection.writes.remove();
+          connection.backlog -= buffer.capacity();
+        }
+        if (connection.backlog <= STREAM_BACKLOG) {
+          connection.notifyAll();
+        }
+        connection.lastActive = System.currentTimeMillis();
+        connection.key.interestOps(connection.writes.isEmpty() ? SelectionKey.OP_READ
+                : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      } catch (IOException e) {
+        NameResolution.getLogger().log(Level.FINE, "{0} closing {1}: {2}", new Object[]{name, connection.client, e});
+        close(connection);
+      }
+    }
+  }
+
+  private void closeIdle() {
+    long now = System.currentTimeMillis();
+    for (Connection connection : connections.values()) {
+      // responses that haven't moved for that long aren't going to be read either
+      if (connection.inFlight.get() == 0 && now - connection.lastActive > idleTimeout) {
+        close(connection);
+      }
+    }
+  }
+
+  private void close(Connection connection) {
+    synchronized (connection) {
+      connection.closed = true;
+      connection.writes.clear();
+      connection.notifyAll();
+    }
+    connections.remove(connection.client, connection);
+    if (connection.key != null) {
+      connection.key.cancel();
+    }
+    try {
+      connection.channel.close();
+    } catch (IOException e) {
+      // already gone
+    }
+  }
+
+  /**
+   * Sends a response to a client, closing the connection instead if a lot
+   * of earlier responses to that client are still unsent.
+   *
+   * @param client
+   * @param response
+   */
+  @Override
+  public void send(InetSocketAddress client, byte[] response) {
+    Connection connection = connections.get(client);
+    if (connection == null) {
+      NameResolution.getLogger().log(Level.FINE, "{0} dropping response to closed {1}", new Object[]{name, client});
+      return;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(response.length + 2);
+    buffer.putShort((short) response.length).put(response).flip();
+    synchronized (connection) {
+      if (connection.closed) {
+        return;
+      }
+      if (connection.backlog > MAX_BACKLOG) {
+        // the worker sending this is shared so it can't wait for the client
+        // like streamed responses do
+        NameResolution.getLogger().log(Level.FINE, "{0} closing {1} which isn't reading",
+                new Object[]{name, client});
+        close(connection);
+        return;
+      }
+      connection.writes.add(buffer);
+      connection.backlog += buffer.capacity();
+    }
+    writeReady.add(connection);
+    selector.wakeup();
+  }
+
+  /**
+   * Sends one of the messages of a zone transfer, waiting while more than
+   * 64KB of earlier responses to the client are unsent. A client that stops
+   * reading altogether is closed once it has been idle for too long.
+   *
+   * @param client
+   * @param response
+   * @return false if the connection is closed
+   */
+  @Override
+  public boolean stream(InetSocketAddress client, byte[] response) {
+    Connection connection = connections.get(client);
+    if (connection == null) {
+      NameResolution.getLogger().log(Level.FINE, "{0} dropping response to closed {1}", new Object[]{name, client});
+      return false;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(response.length + 2);
+    buffer.putShort((short) response.length).put(response).flip();
+    synchronized (connection) {
+      try {
+        while (!connection.closed && connection.backlog > STREAM_BACKLOG) {
+          connection.wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+      if (connection.closed) {
+        return false;
+      }
+      connection.writes.add(buffer);
+      connection.backlog += buffer.capacity();
+    }
+    writeReady.add(connection);
+    selector.wakeup();
+    return true;
+  }
+
+  @Override
+  public boolean isStream() {
+    return true;
+  }
+
+  @Override
+  public void shutdown() {
+    running = false;
+    for (Connection connection : connections.values()) {
+      close(connection);
+    }
+    try {
+      server.close();
+      selector.close();
+    } catch (IOException e) {
+      NameResolution.getLogger().log(Level.WARNING, "Problem closing {0}: {1}", new Object[]{name, e});
+    }
+    workers.shutdown();
+  }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
+import edu.umass.cs.gnsserver.database.AbstractRecordCursor;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GuidInfo;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.BasicRecordMap;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.TextParseException;
+
+/**
+ * Keeps the recent changes to the DNS records on this server for incremental
+ * zone transfers (see {@link ZoneTransfer}).
+ *
+ * The journal knows the DNS records of every guid on this server with a domain
+ * name. It reads them all once when the first change or transfer comes along and
+ * after that rereads a guid's record each time its DNS fields change, logging
+ * the records that went away and the ones that were added under a new serial.
+ * This is done one change at a time in the order they happened on a separate
+ * thread so updates aren't slowed down.
+ *
+ * The serial is shared by all zones. It goes up by one with every change but
+ * never falls behind the seconds since the epoch so a restarted server
+ * starts from a serial higher than the ones it gave out before, unless it
+ * had more than one change a second on average. The last
+ * {@link GNSConfig.GNSC#DNS_JOURNAL_SIZE} changes are kept; secondaries whose serial
+ * is older than that get the whole zone.
+ *
+ * @author westy
+ */
+public class ZoneJournal {
+
+  /**
+   * The records of a name that went away and the ones that were added by a change.
+   */
+  static class Change {
+
+    private final long serial;
+    private final List<Record> deleted;
+    private final List<Record> added;
+
+    Change(long serial, List<Record> deleted, List<Record> added) {
+      this.serial = serial;
+      this.deleted = deleted;
+      this.added = added;
+    }
+
+    /**
+     * @return the serial of the zone after the change
+     */
+    long getSerial() {
+      return serial;
+    }
+
+    /**
+     * @return the records that went away
+     */
+    List<Record> getDeleted() {
+      return deleted;
+    }
+
+    /**
+     * @return the records that were added
+     */
+    List<Record> getAdded() {
+      return added;
+    }
+  }
+
+  private static final boolean ENABLED = Config.getGlobalBoolean(GNSConfig.GNSC.DNS_ZONE_TRANSFER);
+  private static final int SIZE = Config.getGlobalInt(GNSConfig.GNSC.DNS_JOURNAL_SIZE);
+
+  // all guarded by ZoneJournal.class
+  private static final Deque<Change> CHANGES = new ArrayDeque<>();
+  private static long serial = System.currentTimeMillis() / 1000;
+  // changes after this serial are all in the journal
+  private static long oldestSerial = Long.MAX_VALUE;
+
+  // guid => records, only touched by the journal thread
+  private static final Map<String, List<Record>> RECORDS = new HashMap<>();
+  private static BasicRecordMap db;
+
+  private static final ExecutorService JOURNAL = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "ZoneJournal");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  /**
+   * Called after the DNS fields of a record on this server changed.
+   *
+   * @param guid
+   * @param recordMap
+   */
+  static void recordChanged(final String guid, final BasicRecordMap recordMap) {
+    if (!ENABLED) {
+      return;
+    }
+    JOURNAL.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (readRecords(recordMap)) {
+          journal(guid);
+        }
+      }
+    });
+  }
+
+  /**
+   * Reads the DNS records on this server if that hasn't been done yet so changes
+   * can be journaled from now on.
+   *
+   * @param recordMap
+   */
+  static void start(final BasicRecordMap recordMap) {
+    if (!ENABLED) {
+      return;
+    }
+    JOURNAL.execute(new Runnable() {
+      @Override
+      public void run() {
+        readRecords(recordMap);
+      }
+    });
+  }
+
+  // Returns false if the records could not be read.
+  private static boolean readRecords(BasicRecordMap recordMap) {
+    if (db != null) {
+      return true;
+    }
+    long startTime = System.currentTimeMillis();
+    try {
+      AbstractRecordCursor cursor = NameRecord.getAllRowsIterator(recordMap);
+      while (cursor.hasNext()) {
+        JSONObject record = cursor.nextJSONObject();
+        List<Record> records = dnsRecords(record);
+        if (!records.isEmpty()) {
+          RECORDS.put(record.getString(NameRecord.NAME.getName()), records);
+        }
+      }
+    } catch (FailedDBOperationException | JSONException e) {
+      NameResolution.getLogger().log(Level.WARNING, "Unable to read the DNS records: {0}", e);
+      RECORDS.clear();
+      return false;
+    }
+    db = recordMap;
+    synchronized (ZoneJournal.class) {
+      // changes the read missed got a serial before this one
+      serial = nextSerial();
+      oldestSerial = serial;
+    }
+    NameResolution.getLogger().log(Level.INFO, "Zone journal read {0} DNS names in {1}ms",
+            new Object[]{RECORDS.size(), System.currentTimeMillis() - startTime});
+    return true;
+  }
+
+  private static void journal(String guid) {
+    JSONObject record;
+    try {
+      record = db.lookupEntireRecord(guid);
+    } catch (RecordNotFoundException e) {
+      record = null;
+    } catch (FailedDBOperationException e) {
+      NameResolution.getLogger().log(Level.WARNING, "Unable to read {0} for the zone journal: {1}",
+              new Object[]{guid, e});
+      // the change is lost so the records are read again with the next one
+      // and secondaries from before then get the whole zone
+      RECORDS.clear();
+      db = null;
+      synchronized (ZoneJournal.class) {
+        oldestSerial = Long.MAX_VALUE;
+      }
+      return;
+    }
+    List<Record> previous = RECORDS.get(guid);
+    List<Record> current = record != null ? dnsRecords(record) : Collections.<Record>emptyList();
+    if (previous == null) {
+      previous = Collections.emptyList();
+    }
+    List<Record> deleted = minus(previous, current);
+    List<Record> added = minus(current, previous);
+    if (deleted.isEmpty() && added.isEmpty()) {
+      return;
+    }
+    if (current.isEmpty()) {
+      RECORDS.remove(guid);
+    } else {
+      RECORDS.put(guid, current);
+    }
+    synchronized (ZoneJournal.class) {
+      serial = nextSerial();
+      CHANGES.addLast(new Change(serial, deleted, added));
+      while (CHANGES.size() > SIZE) {
+        oldestSerial = CHANGES.removeFirst().serial;
+      }
+    }
+  }
+
+  // guarded by ZoneJournal.class
+  private static long nextSerial() {
+    return Math.max(serial + 1, System.currentTimeMillis() / 1000);
+  }
+
+  // TTLs count so records are compared as text
+  private static List<Record> minus(List<Record> records, List<Record> others) {
+    Set<String> otherText = new HashSet<>();
+    for (Record other : others) {
+      otherText.add(other.toString());
+    }
+    List<Record> result = new ArrayList<>();
+    for (Record record : records) {
+      if (!otherText.contains(record.toString())) {
+        result.add(record);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the DNS records kept in a record read from the database.
+   *
+   * @param record
+   * @return the records, empty if the record isn't a guid with a domain name
+   */
+  static List<Record> dnsRecords(JSONObject record) {
+    JSONObject valuesMap = record.optJSONObject(NameRecord.VALUES_MAP.getName());
+    JSONObject guidInfo = valuesMap != null ? valuesMap.optJSONObject(AccountAccess.GUID_INFO) : null;
+    if (guidInfo == null) {
+      return Collections.emptyList();
+    }
+    try {
+      String name = new GuidInfo(guidInfo).getName();
+      // only absolute domain names are in DNS
+      if (name == null || !name.endsWith(".")) {
+        return Collections.emptyList();
+      }
+      Name.fromString(name);
+      return NameResolution.dnsRecords(name, valuesMap);
+    } catch (JSONException | ParseException | TextParseException e) {
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * Returns the current serial.
+   *
+   * @return the serial
+   */
+  public static synchronized long getSerial() {
+    return serial;
+  }
+
+  /**
+   * Returns the changes to a zone after a serial up to another one.
+   *
+   * @param zone
+   * @param from the serial the secondary has
+   * @param to the serial the secondary is brought to
+   * @return the changes in order with only the records in the zone or null if
+   * the journal doesn't go back that far
+   */
+  static synchronized List<Change> changesSince(Name zone, long from, long to) {
+    if (from < oldestSerial) {
+      return null;
+    }
+    List<Change> result = new ArrayList<>();
+    for (Change change : CHANGES) {
+      if (change.serial <= from || change.serial > to) {
+        continue;
+      }
+      List<Record> deleted = inZone(change.deleted, zone);
+      List<Record> added = inZone(change.added, zone);
+      if (!deleted.isEmpty() || !added.isEmpty()) {
+        result.add(new Change(change.serial, deleted, added));
+      }
+    }
+    return result;
+  }
+
+  private static List<Record> inZone(List<Record> records, Name zone) {
+    List<Record> result = new ArrayList<>();
+    for (Record record : records) {
+      if (record.getName().subdomain(zone)) {
+        result.add(record);
+      }
+    }
+    return result;
+  }
+}
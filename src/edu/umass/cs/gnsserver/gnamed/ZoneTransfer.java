@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnsserver.database.AbstractRecordCursor;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.BasicRecordMap;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DelayProfiler;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.json.JSONObject;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.NSRecord;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+/**
+ * Answers AXFR and IXFR queries for zones whose records are in the GNS
+ * so secondaries can mirror them instead of looking up names one by one.
+ *
+ * Any domain name with a guid is a zone. Its start of authority is made up: the
+ * primary name server is the first NS record of the zone's guid or the zone itself,
+ * and the serial is the one of the {@link ZoneJournal}. A full transfer (AXFR)
+ * streams the DNS records of every guid on this server whose name is in the zone,
+ * read from the database one row at a time. An incremental transfer (IXFR) sends
+ * the changes the journal has since the secondary's serial, or the whole zone
+ * if the journal doesn't go back that far.
+ *
+ * Transfers are sent by their own threads, {@link GNSConfig.GNSC#DNS_ZONE_TRANSFER_THREADS}
+ * of them, which wait for the secondary to read each message before reading
+ * more records, and stop if it goes away.
+ *
+ * Transfers need {@link GNSConfig.GNSC#DNS_ZONE_TRANSFER} and a client listed in
+ * {@link GNSConfig.GNSC#DNS_ZONE_TRANSFER_CLIENTS}. Over UDP, IXFR is answered with
+ * the current SOA which tells the secondary to come back over TCP, and AXFR isn't
+ * supported.
+ *
+ * @author westy
+ */
+public class ZoneTransfer {
+
+  private static final int RECORDS_PER_MESSAGE = 100;
+  private static final long SOA_TTL = 3600;
+  private static final long REFRESH = 3600;
+  private static final long RETRY = 600;
+  private static final long EXPIRE = 86400;
+  private static final long MINIMUM = 60;
+
+  private static ThreadPoolExecutor transfers = null;
+
+  private static synchronized ThreadPoolExecutor getTransfers() {
+    if (transfers == null) {
+      int threads = Math.max(Config.getGlobalInt(GNSConfig.GNSC.DNS_ZONE_TRANSFER_THREADS), 1);
+      transfers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+              new ArrayBlockingQueue<Runnable>(threads), new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "ZoneTransfer" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      transfers.allowCoreThreadTimeOut(true);
+    }
+    return transfers;
+  }
+
+  // Packs the records of a transfer into messages and sends them.
+  private static class Stream {
+
+    private final DnsTransport transport;
+    private final InetSocketAddress client;
+    private final Message query;
+    private Message message;
+    private int count;
+    private boolean first = true;
+    private boolean open = true;
+
+    Stream(DnsTransport transport, InetSocketAddress client, Message query) {
+      this.transport = transport;
+      this.client = client;
+      this.query = query;
+    }
+
+    // Returns false once the client is gone.
+    boolean add(Record record) {
+      if (message == null) {
+        message = new Message(query.getHeader().getID());
+        message.getHeader().setFlag(Flags.QR);
+        message.getHeader().setFlag(Flags.AA);
+        if (first) {
+          // only the first message has to have the question
+          message.addRecord(query.getQuestion(), Section.QUESTION);
+          first = false;
+        }
+      }
+      message.addRecord(record, Section.ANSWER);
+      if (++count == RECORDS_PER_MESSAGE) {
+        return flush();
+      }
+      return open;
+    }
+
+    boolean flush() {
+      if (message != null) {
+        open = open && transport.stream(client, message.toWire());
+        message = null;
+        count = 0;
+      }
+      return open;
+    }
+  }
+
+  /**
+   * Answers a zone transfer query.
+   *
+   * @param transport
+   * @param client
+   * @param query an AXFR or IXFR query
+   * @param handler
+   * @return the response to send or null if the responses are being sent
+   */
+  public static Message transfer(final DnsTransport transport, final InetSocketAddress client, final Message query,
+          ClientRequestHandlerInterface handler) {
+    final long startTime = System.currentTimeMillis();
+    if (!Config.getGlobalBoolean(GNSConfig.GNSC.DNS_ZONE_TRANSFER) || !isAllowed(client)) {
+      return NameResolution.errorMessage(query, Rcode.REFUSED);
+    }
+    int type = query.getQuestion().getType();
+    if (type == Type.AXFR && !transport.isStream()) {
+      return NameResolution.errorMessage(query, Rcode.NOTIMP);
+    }
+    final Name zone = query.getQuestion().getName();
+    String guid = NameResolution.lookupGuid(zone.toString(), handler);
+    if (guid == null) {
+      return NameResolution.errorMessage(query, Rcode.NOTAUTH);
+    }
+    JSONObject apex = NameResolution.lookupGuidFields(client.getAddress().getHostAddress(),
+            query.getHeader().getID(), guid, new ArrayList<>(DnsAnswerCache.DNS_FIELDS), handler);
+    final BasicRecordMap db = handler.getApp().getDB();
+    // incremental transfers can be answered from now on
+    ZoneJournal.start(db);
+    final long serial = ZoneJournal.getSerial();
+    final SOARecord soa = soa(zone, apex, serial);
+    Runnable transfer = null;
+    if (type == Type.IXFR) {
+      Record[] authority = query.getSectionArray(Section.AUTHORITY);
+      if (authority.length != 1 || !(authority[0] instanceof SOARecord)) {
+        return NameResolution.errorMessage(query, Rcode.FORMERR);
+      }
+      final long clientSerial = ((SOARecord) authority[0]).getSerial();
+      if (clientSerial >= serial || !transport.isStream()) {
+        // up to date or come back over TCP
+        Message response = new Message(query.getHeader().getID());
+        response.getHeader().setFlag(Flags.QR);
+        response.getHeader().setFlag(Flags.AA);
+        response.addRecord(query.getQuestion(), Section.QUESTION);
+        response.addRecord(soa, Section.ANSWER);
+        return response;
+      }
+      final List<ZoneJournal.Change> changes = ZoneJournal.changesSince(zone, clientSerial, serial);
+      if (changes != null) {
+        transfer = new Runnable() {
+          @Override
+          public void run() {
+            NameResolution.getLogger().log(Level.FINE, "IXFR of {0} from {1} to {2} for {3}",
+                    new Object[]{zone, clientSerial, serial, client});
+            sendIncremental(new Stream(transport, client, query), soa, clientSerial, changes);
+            DelayProfiler.updateDelay("ZoneTransfer.incremental", startTime);
+          }
+        };
+      }
+    }
+    if (transfer == null) {
+      transfer = new Runnable() {
+        @Override
+        public void run() {
+          sendFull(new Stream(transport, client, query), db, zone, soa);
+          DelayProfiler.updateDelay("ZoneTransfer.full", startTime);
+        }
+      };
+    }
+    try {
+      getTransfers().execute(transfer);
+    } catch (RejectedExecutionException e) {
+      NameResolution.getLogger().log(Level.FINE, "Too many zone transfers, failing {0} for {1}",
+              new Object[]{zone, client});
+      return NameResolution.errorMessage(query, Rcode.SERVFAIL);
+    }
+    return null;
+  }
+
+  // Reads the records as the secondary takes them and stops if it goes away.
+  private static void sendFull(Stream stream, BasicRecordMap db, Name zone, SOARecord soa) {
+    NameResolution.getLogger().log(Level.FINE, "AXFR of {0} at {1} for {2}",
+            new Object[]{zone, soa.getSerial(), stream.client});
+    if (!stream.add(soa)) {
+      return;
+    }
+    try {
+      AbstractRecordCursor cursor = NameRecord.getAllRowsIterator(db);
+      while (cursor.hasNext()) {
+        for (Record record : ZoneJournal.dnsRecords(cursor.nextJSONObject())) {
+          if (record.getName().subdomain(zone) && !stream.add(record)) {
+            NameResolution.getLogger().log(Level.FINE, "AXFR of {0} stopped, {1} is gone",
+                    new Object[]{zone, stream.client});
+            return;
+          }
+        }
+      }
+    } catch (FailedDBOperationException e) {
+      NameResolution.getLogger().log(Level.WARNING, "AXFR of {0} failed: {1}", new Object[]{zone, e});
+      if (stream.flush()) {
+        // tells the secondary the transfer didn't finish
+        stream.transport.stream(stream.client, NameResolution.errorMessage(stream.query, Rcode.SERVFAIL).toWire());
+      }
+      return;
+    }
+    stream.add(soa);
+    stream.flush();
+  }
+
+  // The changes are chained from the secondary's serial to the current one.
+  private static void sendIncremental(Stream stream, SOARecord soa, long clientSerial,
+          List<ZoneJournal.Change> changes) {
+    stream.add(soa);
+    long previous = clientSerial;
+    // with no changes to this zone the serial still moves to the current one
+    int sequences = Math.max(changes.size(), 1);
+    for (int i = 0; i < sequences; i++) {
+      ZoneJournal.Change change = i < changes.size() ? changes.get(i) : null;
+      long next = i == sequences - 1 ? soa.getSerial() : change.getSerial();
+      stream.add(withSerial(soa, previous));
+      if (change != null) {
+        for (Record record : change.getDeleted()) {
+          stream.add(record);
+        }
+      }
+      stream.add(withSerial(soa, next));
+      if (change != null) {
+        for (Record record : change.getAdded()) {
+          stream.add(record);
+        }
+      }
+      previous = next;
+    }
+    stream.add(soa);
+    stream.flush();
+  }
+
+  private static SOARecord withSerial(SOARecord soa, long serial) {
+    return new SOARecord(soa.getName(), soa.getDClass(), soa.getTTL(), soa.getHost(), soa.getAdmin(),
+            serial, soa.getRefresh(), soa.getRetry(), soa.getExpire(), soa.getMinimum());
+  }
+
+  /**
+   * Returns the start of authority of a zone.
+   *
+   * @param zone
+   * @param fields the DNS fields of the zone's guid (can be null)
+   * @param serial
+   * @return the SOA record
+   */
+  public static SOARecord soa(Name zone, JSONObject fields, long serial) {
+    Name host = zone;
+    if (fields != null) {
+      for (Record record : NameResolution.dnsRecords(zone.toString(), fields)) {
+        if (record instanceof NSRecord) {
+          host = ((NSRecord) record).getTarget();
+          break;
+        }
+      }
+    }
+    Name admin;
+    try {
+      admin = Name.concatenate(Name.fromString("hostmaster"), zone);
+    } catch (TextParseException | org.xbill.DNS.NameTooLongException e) {
+      admin = zone;
+    }
+    return new SOARecord(zone, DClass.IN, SOA_TTL, host, admin, serial, REFRESH, RETRY, EXPIRE, MINIMUM);
+  }
+
+  private static boolean isAllowed(InetSocketAddress client) {
+    List<String> allowed = Arrays.asList(Config.getGlobalString(GNSConfig.GNSC.DNS_ZONE_TRANSFER_CLIENTS)
+            .replace(" ", "").split(","));
+    return allowed.contains("*") || allowed.contains(client.getAddress().getHostAddress());
+  }
+}
@@ -57,6 +57,7 @@ import edu.umass.cs.gnsserver.database.MongoRecords;
 import edu.umass.cs.gnsserver.database.NoSQLRecords;
 import edu.umass.cs.gnsserver.extensions.sanitycheck.AbstractSanityCheck;
 import edu.umass.cs.gnsserver.gnamed.DnsTranslator;
+import edu.umass.cs.gnsserver.gnamed.NameResolution;
 import edu.umass.cs.gnsserver.gnamed.UdpDnsServer;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.AdminListener;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandler;
@@ -80,7 +81,9 @@ import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnsserver.nodeconfig.GNSNodeConfig;
 import edu.umass.cs.gnsserver.utils.Shutdownable;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
+import edu.umass.cs.nio.GenericMessagingTask;
 import edu.umass.cs.nio.JSONMessenger;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.nio.interfaces.IntegerPacketType;
 import edu.umass.cs.nio.interfaces.NodeConfig;
 import edu.umass.cs.nio.interfaces.SSLMessenger;
@@ -614,6 +617,7 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
         // the record. If the record does not exists this is just a
         // noop.
         NameRecord.removeNameRecord(nameRecordDB, name);
+        NameResolution.recordChanged(name, null, nameRecordDB);
       } else // state does not equal null so we either create a new record
       // or update the existing one
        if (!NameRecord.containsRecord(nameRecordDB, name)) {
@@ -623,6 +627,7 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
             NameRecord nameRecord = new NameRecord(nameRecordDB, name,
                     valuesMap);
             NameRecord.addNameRecord(nameRecordDB, nameRecord);
+            NameResolution.recordChanged(name, null, nameRecordDB);
           } catch (RecordExistsException | JSONException e) {
         	  e.printStackTrace();
         	  GNSConfig.getLogger().log(Level.SEVERE,
@@ -635,6 +640,7 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
                     nameRecordDB, name);
             nameRecord
                     .updateState(new ValuesMap(new JSONObject(state)));
+            NameResolution.recordChanged(name, null, nameRecordDB);
           } catch (JSONException | FieldNotFoundException | RecordNotFoundException | FailedDBOperationException e) {
             GNSConfig.getLogger().log(Level.SEVERE,
                     "Problem updating name {0} with state {1}: {2}", new Object[]{name, state, e});
@@ -818,6 +824,16 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
     messenger.sendToAddress(address, msg);
   }
 
+  @Override
+  public void sendToAddress(InetSocketAddress address, Byteable msg) throws IOException {
+    try {
+      ((JSONMessenger<String>) messenger).send(new GenericMessagingTask<>(
+              new Object[]{address}, msg.toBytes()));
+    } catch (JSONException e) {
+      throw new IOException(e);
+    }
+  }
+
   @Override
   public ActiveCodeHandler getActiveCodeHandler() {
     return activeCodeHandler;
@@ -51,7 +51,7 @@ public class GNSAppUtil {
           request = (Request) Packet.createInstance(json, unstringer);
         } else {
           // parse non-JSON byteified form
-          return fromBytes(msgBytes);
+          return fromBytes(msgBytes, header, unstringer);
         }
         if (Util.oneIn(100)) {
           DelayProfiler.updateDelayNano(
@@ -68,17 +68,31 @@ public class GNSAppUtil {
      * {@link Byteable#toBytes()} method for GNSApp packets.
      *
      * @param msgBytes
+     * @param header
+     * @param unstringer
      * @return a request
      * @throws RequestParseException
      */
-    private static Request fromBytes(byte[] msgBytes)
+    private static Request fromBytes(byte[] msgBytes, NIOHeader header,
+            Stringifiable<String> unstringer)
             throws RequestParseException {
       switch (Packet.PacketType.getPacketType(ByteBuffer.wrap(msgBytes)
               .getInt())) {
         case COMMAND:
           return new CommandPacket(msgBytes);
-        /* Currently only CommandPacket is Byteable, so we shouldn't come
-               * here for anything else. */
+        case SELECT_REQUEST:
+        case SELECT_RESPONSE:
+          // select packets are only sent byteified to servers that asked for it
+          try {
+            JSONObject json = Packet.fromBytes(msgBytes);
+            MessageExtractor.stampAddressIntoJSONObject(header.sndr,
+                    header.rcvr, json);
+            return (Request) Packet.createInstance(json, unstringer);
+          } catch (JSONException e) {
+            throw new RequestParseException(e);
+          }
+        /* Currently only CommandPacket and the select packets are Byteable,
+               * so we shouldn't come here for anything else. */
         default:
           throw new RequestParseException(new RuntimeException(
                   "Unrecognizable request type"));
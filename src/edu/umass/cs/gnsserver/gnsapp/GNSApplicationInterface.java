@@ -30,6 +30,7 @@ import edu.umass.cs.gnscommon.packets.CommandPacket;
 import edu.umass.cs.gnsserver.activecode.ActiveCodeHandler;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.BasicRecordMap;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.nio.interfaces.SSLMessenger;
 
 /**
@@ -77,6 +78,15 @@ public interface GNSApplicationInterface<NodeIDType> {
    */
   void sendToAddress(InetSocketAddress address, JSONObject msg) throws IOException;
 
+  /**
+   * Sends a packet to a node in its byteified form.
+   *
+   * @param address
+   * @param msg
+   * @throws IOException
+   */
+  void sendToAddress(InetSocketAddress address, Byteable msg) throws IOException;
+
   /**
    * @param originalRequest
    * @param response
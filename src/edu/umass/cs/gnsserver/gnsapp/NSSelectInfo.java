@@ -30,8 +30,11 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectResponsePacket;
+
 /**
  * This class represents a data structure to store information
  * about Select operations performed on the GNS.
@@ -41,6 +44,8 @@ public class NSSelectInfo {
   private final int queryId;
   private final Set<InetSocketAddress> serversToBeProcessed; // the list of servers that have yet to be processed
   private final ConcurrentHashMap<String, JSONObject> responses;
+  // pages received and pages expected (once the last page shows up) from each server
+  private final ConcurrentHashMap<InetSocketAddress, int[]> pages;
   private final SelectOperation selectOperation;
   private final SelectGroupBehavior groupBehavior;
   private final String guid; // the group GUID we are maintaining or null for simple select
@@ -49,6 +54,11 @@ public class NSSelectInfo {
   // Null means return GUIDS instead of whole records (old style select).
   private final List<String> projection;
   private final int minRefreshInterval; // in seconds
+  private final int serverCount;
+  // completed with the collated response once the query is done
+  private final CompletableFuture<SelectResponsePacket> future = new CompletableFuture<>();
+  // the state of a select with a limit or null
+  private volatile SelectCursors.SelectCursor cursor;
 
   /**
    *
@@ -67,7 +77,9 @@ public class NSSelectInfo {
     this.queryId = id;
     this.serversToBeProcessed = Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
     this.serversToBeProcessed.addAll(serverIds);
+    this.serverCount = serverIds.size();
     this.responses = new ConcurrentHashMap<>(10, 0.75f, 3);
+    this.pages = new ConcurrentHashMap<>(10, 0.75f, 3);
     this.selectOperation = selectOperation;
     this.groupBehavior = groupBehavior;
     this.query = query;
@@ -88,9 +100,32 @@ public class NSSelectInfo {
    * Removes the server if from the list of servers that have yet to be processed.
    *
    * @param address
+   * @return true if the server had yet to be processed
+   */
+  public boolean removeServerAddress(InetSocketAddress address) {
+    return serversToBeProcessed.remove(address);
+  }
+
+  /**
+   * Records that a page of the response from the server has been received.
+   * Pages can arrive in any order so the server is only finished once
+   * the last page, which carries the page count, and all the pages before
+   * it have been seen.
+   *
+   * @param address
+   * @param pageCount - the number of pages if this is the last page, zero otherwise
+   * @return true if all the pages from the server have been received
    */
-  public void removeServerAddress(InetSocketAddress address) {
-    serversToBeProcessed.remove(address);
+  public boolean addPage(InetSocketAddress address, int pageCount) {
+    pages.putIfAbsent(address, new int[]{0, 0});
+    int[] counts = pages.get(address);
+    synchronized (counts) {
+      counts[0]++;
+      if (pageCount > 0) {
+        counts[1] = pageCount;
+      }
+      return counts[1] > 0 && counts[0] >= counts[1];
+    }
   }
 
   /**
@@ -110,6 +145,25 @@ public class NSSelectInfo {
     return serversToBeProcessed.isEmpty();
   }
 
+  /**
+   * Returns true if at least the given percentage of the name servers have responded.
+   *
+   * @param percent
+   * @return true if enough name servers have responded
+   */
+  public boolean quorumResponded(int percent) {
+    return (serverCount - serversToBeProcessed.size()) * 100 >= percent * serverCount;
+  }
+
+  /**
+   * Returns the future that is completed with the response to the query.
+   *
+   * @return the future
+   */
+  public CompletableFuture<SelectResponsePacket> getFuture() {
+    return future;
+  }
+
   /**
    * Adds the result of a query for a particular guid if the guid has not been seen yet.
    *
@@ -191,6 +245,24 @@ public class NSSelectInfo {
     return guid;
   }
 
+  /**
+   * Return the state of a select with a limit.
+   *
+   * @return the cursor or null if the select has no limit
+   */
+  SelectCursors.SelectCursor getCursor() {
+    return cursor;
+  }
+
+  /**
+   * Sets the state of a select with a limit.
+   *
+   * @param cursor
+   */
+  void setCursor(SelectCursors.SelectCursor cursor) {
+    this.cursor = cursor;
+  }
+
   /**
    * Return the minimum refresh interval.
    *
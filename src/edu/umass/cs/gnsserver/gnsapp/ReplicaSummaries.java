@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import edu.umass.cs.gnsserver.database.ReplicaSummary;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.GNSRecordMap;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.ReplicaSummaryTracker;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The summaries of the records of the other servers that let {@link Select}
+ * skip servers that can't have any matching records.
+ *
+ * Instead of a separate gossip protocol the summaries ride along with the
+ * last page of the select responses, at most once every
+ * {@link GNSConfig.GNSC#SELECT_SUMMARY_INTERVAL} per collecting server.
+ * Summaries older than {@link GNSConfig.GNSC#SELECT_SUMMARY_MAX_AGE} aren't
+ * used, so a server that hasn't been selected from in a while gets the next
+ * select and sends a new summary back.
+ *
+ * @author westy
+ */
+public class ReplicaSummaries {
+
+  private static final long SUMMARY_INTERVAL = Config.getGlobalInt(GNSConfig.GNSC.SELECT_SUMMARY_INTERVAL);
+  private static final long SUMMARY_MAX_AGE = Config.getGlobalInt(GNSConfig.GNSC.SELECT_SUMMARY_MAX_AGE);
+  private final static double METERS_PER_DEGREE = 111.12 * 1000; // at the equator
+
+  // The summaries of the other servers
+  private static final ConcurrentHashMap<InetSocketAddress, ReceivedSummary> SUMMARIES
+          = new ConcurrentHashMap<>();
+  // When we last sent our summary to each collecting server
+  private static final ConcurrentHashMap<InetSocketAddress, Long> LAST_SENT = new ConcurrentHashMap<>();
+
+  private static class ReceivedSummary {
+
+    private final ReplicaSummary summary;
+    private final long receivedTime;
+
+    ReceivedSummary(ReplicaSummary summary, long receivedTime) {
+      this.summary = summary;
+      this.receivedTime = receivedTime;
+    }
+  }
+
+  /**
+   * Returns the servers that the select should be sent to. Those are this
+   * server, the servers we don't have a recent summary of and the servers
+   * whose summary doesn't rule out a match.
+   *
+   * @param serverAddresses
+   * @param packet
+   * @param self
+   * @return the servers to send the select to
+   */
+  public static Set<InetSocketAddress> prune(Set<InetSocketAddress> serverAddresses,
+          SelectRequestPacket packet, InetSocketAddress self) {
+    Map<String, Object> query = null;
+    Set<InetSocketAddress> result = new HashSet<>();
+    long now = System.currentTimeMillis();
+    for (InetSocketAddress address : serverAddresses) {
+      ReceivedSummary received = SUMMARIES.get(address);
+      if (address.equals(self) || received == null || now - received.receivedTime > SUMMARY_MAX_AGE) {
+        result.add(address);
+        continue;
+      }
+      try {
+        if (mayMatch(received.summary, packet)) {
+          result.add(address);
+        }
+      } catch (RuntimeException e) {
+        GNSConfig.getLogger().log(Level.FINE, "Unable to check summary of {0}: {1}", new Object[]{address, e});
+        result.add(address);
+      }
+    }
+    GNSConfig.getLogger().log(Level.FINE, "Select {0} goes to {1} of {2} servers",
+            new Object[]{packet.getSummary(), result.size(), serverAddresses.size()});
+    return result;
+  }
+
+  private static boolean mayMatch(ReplicaSummary summary, SelectRequestPacket packet) {
+    String fieldName = NameRecord.VALUES_MAP.getName() + "." + packet.getKey();
+    switch (packet.getSelectOperation()) {
+      case EQUALS:
+        return summary.mayMatch(Collections.singletonMap(fieldName, packet.getValue()));
+      case NEAR:
+        if (packet.getValue() instanceof String && packet.getOtherValue() instanceof String) {
+          try {
+            JSONArray point = new JSONArray((String) packet.getValue());
+            Map<String, Object> near = new HashMap<>();
+            near.put("$near", Arrays.asList(point.getDouble(0), point.getDouble(1)));
+            near.put("$maxDistance", Double.parseDouble((String) packet.getOtherValue()) / METERS_PER_DEGREE);
+            return summary.mayMatch(Collections.singletonMap(fieldName, near));
+          } catch (JSONException | NumberFormatException e) {
+            return true;
+          }
+        }
+        return true;
+      case WITHIN:
+        if (packet.getValue() instanceof String) {
+          try {
+            JSONArray box = new JSONArray((String) packet.getValue());
+            Map<String, Object> shape = Collections.<String, Object>singletonMap("$box", Arrays.asList(
+                    Arrays.asList(box.getJSONArray(0).getDouble(0), box.getJSONArray(0).getDouble(1)),
+                    Arrays.asList(box.getJSONArray(1).getDouble(0), box.getJSONArray(1).getDouble(1))));
+            return summary.mayMatch(Collections.singletonMap(fieldName,
+                    Collections.singletonMap("$geoWithin", shape)));
+          } catch (JSONException e) {
+            return true;
+          }
+        }
+        return true;
+      case QUERY:
+        return packet.getQuery() == null || summary.mayMatchQuery(packet.getQuery());
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Stores the summary a server sent along with a select response.
+   *
+   * @param address the server that sent it
+   * @param json
+   */
+  public static void receive(InetSocketAddress address, JSONObject json) {
+    try {
+      SUMMARIES.put(address, new ReceivedSummary(ReplicaSummary.fromJSON(json), System.currentTimeMillis()));
+    } catch (JSONException e) {
+      GNSConfig.getLogger().log(Level.WARNING, "Unable to read summary from {0}: {1}",
+              new Object[]{address, e.getMessage()});
+    }
+  }
+
+  /**
+   * Returns the summary of our records to send to the collecting server
+   * if it is time to send it one.
+   *
+   * @param returnAddress the collecting server
+   * @param app
+   * @return the summary or null
+   */
+  public static JSONObject summaryToSend(InetSocketAddress returnAddress, GNSApplicationInterface<String> app) {
+    if (!(app.getDB() instanceof GNSRecordMap)) {
+      return null;
+    }
+    ReplicaSummaryTracker tracker = ((GNSRecordMap<?>) app.getDB()).getSummaryTracker();
+    ReplicaSummary summary = tracker != null ? tracker.getSummary() : null;
+    if (summary == null) {
+      return null;
+    }
+    long now = System.currentTimeMillis();
+    Long lastSent = LAST_SENT.get(returnAddress);
+    if (lastSent != null && now - lastSent < SUMMARY_INTERVAL
+            || !(lastSent == null ? LAST_SENT.putIfAbsent(returnAddress, now) == null
+                    : LAST_SENT.replace(returnAddress, lastSent, now))) {
+      return null;
+    }
+    try {
+      return summary.toJSONObject();
+    } catch (JSONException e) {
+      GNSConfig.getLogger().log(Level.WARNING, "Unable to send summary: {0}", e.getMessage());
+      return null;
+    }
+  }
+}
@@ -25,24 +25,32 @@ package edu.umass.cs.gnsserver.gnsapp;
  * All Rights Reserved
  */
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SignatureException;
-import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -59,10 +67,11 @@ import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.exceptions.server.InternalRequestException;
 import edu.umass.cs.gnscommon.packets.PacketUtils;
 import edu.umass.cs.gnsserver.database.AbstractRecordCursor;
+import edu.umass.cs.gnsserver.database.CompiledSelectQuery;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GroupAccess;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.InternalField;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
-import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSAuthentication;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.BatchAclEvaluator;
 import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSGroupAccess;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectGroupBehavior;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectOperation;
@@ -74,11 +83,13 @@ import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnsserver.utils.ResultValue;
 import edu.umass.cs.reconfiguration.ReconfigurationConfig;
 import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DelayProfiler;
 
 /**
  * This class handles select operations which have a similar semantics to an SQL SELECT.
  * The base architecture of the select methods is that we broadcast a query
- * to all the servers and collate the responses.
+ * to all the servers and collate the responses. With {@link GNSConfig.GNSC#SELECT_PRUNING}
+ * servers whose {@link ReplicaSummaries summary} shows they can't have a match are skipped.
  * The most general purpose select method is implemented in SelectQuery. It takes a
  * mongo-style query and returns all the records that match that query.
  *
@@ -93,6 +104,11 @@ import edu.umass.cs.utils.Config;
  * Select, SelectNear, SelectWithin all handle specific types of queries.
  * They remove the need for the user to understand mongo syntax, but are really not necessary.
  *
+ * All four can be given a limit in which case they return a page of at most that many
+ * results and a cursor for the next page. Every server stops once it has selected a page
+ * worth of records and the collecting NS keeps what it needs for the next page
+ * (see {@link SelectCursors}).
+ *
  * SelectGroupSetupQuery and SelectGroupLookupQuery were implemented as
  * prototypes of a full-fledged Context Notification Service. They use the
  * underlying select architecture, but add on to it the notion that the
@@ -127,6 +143,13 @@ import edu.umass.cs.utils.Config;
  * (in the other case the response is sent back on request side of things).
  * We handle this exactly the same as we do GROUP_SETUP (set group, return results, time bookkeeping).
  *
+ * With {@link GNSConfig.GNSC#SELECT_STANDING_QUERIES} the servers also keep the members of the
+ * group up to date as their records change (see {@link StandingQueries}) so lookups only rerun
+ * the select every {@link GNSConfig.GNSC#SELECT_STANDING_REFRESH_INTERVAL}.
+ *
+ * With {@link GNSConfig.GNSC#SELECT_BINARY_ENCODING} the select requests and pages are
+ * sent in binary to the servers that said in an earlier packet that they take it.
+ *
  * @author westy
  */
 public class Select extends AbstractSelector {
@@ -135,8 +158,27 @@ public class Select extends AbstractSelector {
   private static final Random RANDOM_ID = new Random();
   private static final ConcurrentMap<Integer, NSSelectInfo> QUERIES_IN_PROGRESS
           = new ConcurrentHashMap<>(10, 0.75f, 3);
-  private static final ConcurrentMap<Integer, SelectResponsePacket> QUERY_RESULT
-          = new ConcurrentHashMap<>(10, 0.75f, 3);
+  // Completes selects that some servers don't respond to in time.
+  private static final ScheduledExecutorService SELECT_TIMER
+          = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "SelectTimer");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+  // Updates the group guids of selects so their remote calls don't hold up
+  // the thread that completed the select, which can be the SelectTimer.
+  private static final ExecutorService GROUP_UPDATER
+          = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "SelectGroupUpdater");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
 
   /**
    * Handles a select request that was received from a client.
@@ -160,10 +202,25 @@ public class Select extends AbstractSelector {
 
   //FIXME: We need to determine this timeout systematically, not an ad hoc constant.
   private static final long SELECT_REQUEST_TIMEOUT = Config.getGlobalInt(GNSConfig.GNSC.SELECT_REQUEST_TIMEOUT);
+  // How much longer than the timeout a client waits for the response to be collated.
+  private static final long SELECT_WAIT_SLACK = 5000;
+  private static final int SELECT_PAGE_SIZE = Config.getGlobalInt(GNSConfig.GNSC.SELECT_PAGE_SIZE);
+  private static final int SELECT_QUORUM_PERCENT = Config.getGlobalInt(GNSConfig.GNSC.SELECT_QUORUM_PERCENT);
+  private static final boolean SELECT_PRUNING = Config.getGlobalBoolean(GNSConfig.GNSC.SELECT_PRUNING);
+  private static final boolean SELECT_STANDING_QUERIES
+          = Config.getGlobalBoolean(GNSConfig.GNSC.SELECT_STANDING_QUERIES);
+  private static final long SELECT_STANDING_REFRESH_INTERVAL
+          = Config.getGlobalInt(GNSConfig.GNSC.SELECT_STANDING_REFRESH_INTERVAL);
+  private static final boolean SELECT_BINARY_ENCODING
+          = Config.getGlobalBoolean(GNSConfig.GNSC.SELECT_BINARY_ENCODING);
+  // The servers that said they take select requests in binary. Older servers
+  // never say so and keep getting JSON.
+  private static final Set<InetSocketAddress> BINARY_PEERS = ConcurrentHashMap.newKeySet();
 
   /**
    * Handle a select request from a client.
    * This node is the broadcaster and selector.
+   * Waits for the response because Replicable.execute(.) has to return it.
    *
    * @param header
    * @param packet
@@ -172,19 +229,76 @@ public class Select extends AbstractSelector {
    * @throws JSONException
    * @throws UnknownHostException
    * @throws FailedDBOperationException
-   * @throws InternalRequestException
+   * @throws InternalRequestException if the select was interrupted, failed or wasn't answered in time
    */
-//  @Override
-  public  SelectResponsePacket handleSelectRequestFromClient(InternalRequestHeader header,
+  @Override
+  public SelectResponsePacket handleSelectRequestFromClient(InternalRequestHeader header,
           SelectRequestPacket packet,
           GNSApplicationInterface<String> app) throws JSONException, UnknownHostException,
           FailedDBOperationException, InternalRequestException {
+    // The future is completed by the timeout at the latest, the slack
+    // only keeps us from waiting forever if collating the responses hangs.
+    try {
+      return handleSelectRequestFromClientAsync(header, packet, app).get(
+              SELECT_REQUEST_TIMEOUT + SELECT_WAIT_SLACK, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InternalRequestException(ResponseCode.INTERNAL_REQUEST_EXCEPTION,
+              "Interrupted waiting for select " + packet.getId());
+    } catch (TimeoutException e) {
+      LOGGER.log(Level.WARNING, "Select {0} wasn''t answered in {1}ms",
+              new Object[]{packet.getId(), SELECT_REQUEST_TIMEOUT + SELECT_WAIT_SLACK});
+      throw new InternalRequestException(ResponseCode.TIMEOUT,
+              "Timed out waiting for select " + packet.getId());
+    } catch (ExecutionException e) {
+      LOGGER.log(Level.SEVERE, "Exception while collating select responses: {0}", e.getCause());
+      Throwable cause = e.getCause();
+      if (cause instanceof JSONException) {
+        throw (JSONException) cause;
+      } else if (cause instanceof UnknownHostException) {
+        throw (UnknownHostException) cause;
+      } else if (cause instanceof FailedDBOperationException) {
+        throw (FailedDBOperationException) cause;
+      } else if (cause instanceof InternalRequestException) {
+        throw (InternalRequestException) cause;
+      }
+      throw new InternalRequestException(ResponseCode.QUERY_PROCESSING_ERROR,
+              "Problem collating select responses: " + cause);
+    }
+  }
+
+  /**
+   * Handle a select request from a client without waiting for the other servers.
+   * This node is the broadcaster and selector.
+   * The returned future is completed by whichever thread delivers the last response
+   * needed (see {@link GNSConfig.GNSC#SELECT_QUORUM_PERCENT}) or with the responses
+   * received so far after {@link GNSConfig.GNSC#SELECT_REQUEST_TIMEOUT}.
+   *
+   * @param header
+   * @param packet
+   * @param app
+   * @return a future select response packet which is null if the select failed
+   * @throws JSONException
+   * @throws UnknownHostException
+   * @throws FailedDBOperationException
+   * @throws InternalRequestException
+   */
+  @Override
+  public CompletableFuture<SelectResponsePacket> handleSelectRequestFromClientAsync(
+          final InternalRequestHeader header, final SelectRequestPacket packet,
+          final GNSApplicationInterface<String> app) throws JSONException, UnknownHostException,
+          FailedDBOperationException, InternalRequestException {
     // special case handling of the GROUP_LOOK operation
     // If sufficient time hasn't passed we just send the current value back
     if (packet.getGroupBehavior().equals(SelectGroupBehavior.GROUP_LOOKUP)) {
       // grab the timing parameters that we squirreled away from the SETUP
       Date lastUpdate = NSGroupAccess.getLastUpdate(header, packet.getGuid(), app.getRequestHandler());
-      int minRefreshInterval = NSGroupAccess.getMinRefresh(header, packet.getGuid(), app.getRequestHandler());
+      long minRefreshInterval = NSGroupAccess.getMinRefresh(header, packet.getGuid(), app.getRequestHandler());
+      if (SELECT_STANDING_QUERIES && StandingQueries.isStanding(
+              NSGroupAccess.getQueryString(header, packet.getGuid(), app.getRequestHandler()))) {
+        // the servers keep the members up to date so we only need to rerun it now and then
+        minRefreshInterval = Math.max(minRefreshInterval, SELECT_STANDING_REFRESH_INTERVAL);
+      }
       if (lastUpdate != null) {
         LOGGER.log(Level.FINE,
                 "GROUP_LOOKUP Request: {0} - {1} <= {2}",
@@ -196,13 +310,16 @@ public class Select extends AbstractSelector {
                   "GROUP_LOOKUP Request: Time has not elapsed. Returning current group value for {0}",
                   packet.getGuid());
           ResultValue result = NSGroupAccess.lookupMembers(header, packet.getGuid(), true, app.getRequestHandler());
-          return SelectResponsePacket.makeSuccessPacketForGuidsOnly(packet.getId(), null, -1, null,
-                  new JSONArray(result.toStringSet()));
+          return CompletableFuture.completedFuture(SelectResponsePacket.makeSuccessPacketForGuidsOnly(
+                  packet.getId(), null, -1, null, new JSONArray(result.toStringSet())));
         }
       } else {
         LOGGER.fine("GROUP_LOOKUP Request: No Last Update Info ");
       }
     }
+    if (packet.getCursor() != null) {
+      return handleNextPageRequest(header, packet, app);
+    }
     // the code below executes for regular selects and also for GROUP SETUP and GROUP LOOKUP but for lookup
     // only if enough time has elapsed since last lookup (see above)
     // OR in the anamolous situation where the update info could not be found
@@ -215,19 +332,81 @@ public class Select extends AbstractSelector {
     Set<InetSocketAddress> serverAddresses = new HashSet<>(PaxosConfig.getActives().values());
     //Set<String> serverIds = app.getGNSNodeConfig().getActiveReplicas();
 
-    // store the info for later
-    int queryId = addQueryInfo(serverAddresses, packet.getSelectOperation(), packet.getGroupBehavior(),
-            packet.getQuery(), packet.getProjection(), packet.getMinRefreshInterval(), packet.getGuid());
+    // the query info keeps what the request had before this
+    String requestQuery = packet.getQuery();
+    List<String> requestProjection = packet.getProjection();
     if (packet.getGroupBehavior().equals(SelectGroupBehavior.GROUP_LOOKUP)) {
       // the query string is supplied with a lookup so we stuff in it there. It was saved from the SETUP operation.
       packet.setQuery(NSGroupAccess.getQueryString(header, packet.getGuid(), app.getRequestHandler()));
       packet.setProjection(NSGroupAccess.getProjection(header, packet.getGuid(), app.getRequestHandler()));
     }
+    // all of the servers need to know the query of a standing group
+    if (SELECT_PRUNING && !(!packet.getGroupBehavior().equals(SelectGroupBehavior.NONE)
+            && StandingQueries.isStanding(packet.getQuery()))) {
+      serverAddresses = ReplicaSummaries.prune(serverAddresses, packet, app.getNodeAddress());
+    }
+
+    // a select with a limit keeps what it needs for the next page
+    SelectCursors.SelectCursor cursor = null;
+    if (packet.getLimit() > 0 && packet.getGroupBehavior().equals(SelectGroupBehavior.NONE)) {
+      cursor = new SelectCursors.SelectCursor(packet.toJSONObject(), packet.getReader(), packet.getLimit());
+    }
+
+    // store the info for later
+    final NSSelectInfo info = addQueryInfo(serverAddresses, packet.getSelectOperation(), packet.getGroupBehavior(),
+            requestQuery, requestProjection, packet.getMinRefreshInterval(), packet.getGuid());
+    info.setCursor(cursor);
+    return sendToServers(header, packet, info, serverAddresses,
+            Collections.<InetSocketAddress, Integer>emptyMap(), app);
+  }
+
+  /**
+   * Handles a request for the next page of a select with a limit.
+   * The page comes from the records collected for the last page if there are
+   * enough of them, otherwise the servers that stopped early are asked for more.
+   */
+  private CompletableFuture<SelectResponsePacket> handleNextPageRequest(
+          final InternalRequestHeader header, final SelectRequestPacket packet,
+          final GNSApplicationInterface<String> app) throws JSONException, InternalRequestException {
+    SelectCursors.SelectCursor cursor = SelectCursors.take(packet.getCursor(), packet.getReader());
+    if (cursor == null) {
+      return CompletableFuture.completedFuture(SelectResponsePacket.makeFailPacket(packet.getId(),
+              null, -1, null, "Unknown or expired cursor " + packet.getCursor()));
+    }
+    // the rest of the pages use the query of the first one
+    SelectRequestPacket request = new SelectRequestPacket(cursor.getRequest());
+    request.setRequestId(packet.getId());
+    if (!cursor.needsMoreRecords()) {
+      return CompletableFuture.completedFuture(makeNextPage(request.getId(), cursor, request.getProjection()));
+    }
+    Map<InetSocketAddress, Integer> skips = new HashMap<>(cursor.getResumeAt());
+    cursor.getResumeAt().clear();
+    NSSelectInfo info = addQueryInfo(skips.keySet(), request.getSelectOperation(), request.getGroupBehavior(),
+            request.getQuery(), request.getProjection(), request.getMinRefreshInterval(), request.getGuid());
+    info.setCursor(cursor);
+    LOGGER.log(Level.FINE, "NS {0} asking {1} for the next page of select {2}",
+            new Object[]{app.getNodeID(), skips, request.getSummary()});
+    return sendToServers(header, request, info, skips.keySet(), skips, app);
+  }
+
+  /**
+   * Sends the select to the servers, handles our own records and returns
+   * the future that is completed with the collated response.
+   *
+   * @param skips - for the next page of a select with a limit the number of
+   * records each server went through so far, empty otherwise
+   */
+  private CompletableFuture<SelectResponsePacket> sendToServers(final InternalRequestHeader header,
+          final SelectRequestPacket packet, final NSSelectInfo info, Set<InetSocketAddress> serverAddresses,
+          Map<InetSocketAddress, Integer> skips, final GNSApplicationInterface<String> app)
+          throws JSONException, InternalRequestException {
+    int queryId = info.getId();
     InetSocketAddress returnAddress = new InetSocketAddress(app.getNodeAddress().getAddress(),
             ReconfigurationConfig.getClientFacingPort(app.getNodeAddress().getPort()));
     packet.setNSReturnAddress(returnAddress);
     //packet.setNameServerID(app.getNodeID());
     packet.setNsQueryId(queryId); // Note: this also tells handleSelectRequest that it should go to NS now
+    packet.setAcceptsBinary(true);
     JSONObject outgoingJSON = packet.toJSONObject();
     try {
 
@@ -236,100 +415,120 @@ public class Select extends AbstractSelector {
       // Forward to all but self because...
       for (InetSocketAddress address : serverAddresses) {
         if (!address.equals(app.getNodeAddress())) {
+          if (skips.containsKey(address)) {
+            packet.setSkip(skips.get(address));
+            outgoingJSON = packet.toJSONObject();
+          }
           InetSocketAddress offsetAddress = new InetSocketAddress(address.getAddress(),
                   ReconfigurationConfig.getClientFacingPort(address.getPort()));
           LOGGER.log(Level.INFO, "NS {0} sending select {1} to {2} ({3})",
                   new Object[]{app.getNodeID(), outgoingJSON, offsetAddress, address});
-          app.sendToAddress(offsetAddress, outgoingJSON);
+          if (SELECT_BINARY_ENCODING && BINARY_PEERS.contains(address)) {
+            app.sendToAddress(offsetAddress, packet);
+          } else {
+            app.sendToAddress(offsetAddress, outgoingJSON);
+          }
         }
       }
 
-      // we handle our self by locally getting self-select records
-      handleSelectResponse(getMySelectedRecords(packet, app), app);
-      // Wait for responses, otherwise you are violating Replicable.execute(.)'s semantics.
-      synchronized (QUERIES_IN_PROGRESS) {
-        while (QUERIES_IN_PROGRESS.containsKey(queryId)) {
+      // If some servers don't respond in time we go with what we have.
+      final ScheduledFuture<?> timeout = SELECT_TIMER.schedule(new Runnable() {
+        @Override
+        public void run() {
+          LOGGER.log(Level.WARNING, "NS {0} select {1} timed out waiting for {2}",
+                  new Object[]{app.getNodeID(), info.getId(), info.serversYetToRespond()});
           try {
-            QUERIES_IN_PROGRESS.wait(SELECT_REQUEST_TIMEOUT);
-          } catch (InterruptedException e) {
-            e.printStackTrace();
+            completeQuery(header, packet.getId(), info, app);
+          } catch (JSONException | ClientException | IOException | InternalRequestException e) {
+            LOGGER.log(Level.SEVERE, "Exception while completing timed out select: {0}", e);
           }
         }
-      }
-      if (QUERY_RESULT.containsKey(queryId)) {
-        return QUERY_RESULT.remove(queryId);
-      }
+      }, SELECT_REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+      info.getFuture().whenComplete(new BiConsumer<SelectResponsePacket, Throwable>() {
+        @Override
+        public void accept(SelectResponsePacket response, Throwable throwable) {
+          timeout.cancel(false);
+        }
+      });
 
+      // we handle our self by locally getting self-select records
+      // unless this is the next page of a select we have no more records for
+      if (skips.isEmpty() || skips.containsKey(app.getNodeAddress())) {
+        packet.setSkip(skips.isEmpty() ? 0 : skips.get(app.getNodeAddress()));
+        handleMySelectedRecords(packet, app);
+      }
     } catch (IOException | ClientException e) {
       LOGGER.log(Level.SEVERE, "Exception while sending select request: {0}", e);
+      if (QUERIES_IN_PROGRESS.remove(queryId, info)) {
+        info.getFuture().complete(null);
+      }
     }
-    return null;
+    return info.getFuture();
   }
 
-  private static SelectResponsePacket getMySelectedRecords(
+  // Handles the self-select records a page at a time the same way we handle pages from other servers.
+  private void handleMySelectedRecords(
           SelectRequestPacket request,
-          GNSApplicationInterface<String> app) {
-    SelectResponsePacket response;
+          final GNSApplicationInterface<String> app) throws JSONException, ClientException,
+          IOException, InternalRequestException {
     try {
-      // grab the records
-      JSONArray jsonRecords = getJSONRecordsForSelect(request, app);
-      jsonRecords = aclCheckFilterReturnedRecord(request, jsonRecords, request.getReader(), app);
-      
-      JSONArray finalResult = performProjectionForUserRequestedAttributes(app, request, jsonRecords);
-      
-      
-      response = SelectResponsePacket.makeSuccessPacketForFullRecords(
-              request.getId(), request.getClientAddress(),
-              request.getCcpQueryId(), request.getNsQueryId(),
-              app.getNodeAddress(), finalResult);
+      int pageCount = selectRecordsInPages(request, app, new SelectPageHandler() {
+        @Override
+        public void handlePage(SelectResponsePacket page) throws JSONException, ClientException,
+                IOException, InternalRequestException {
+          handleSelectResponse(page, app);
+        }
+      });
       LOGGER.log(
               Level.FINE,
-              "NS {0} sending back {1} record(s) in response to self-select request {2}",
-              new Object[]{app.getNodeID(), finalResult.length(),
-                request.getSummary()});
+              "NS {0} handled {1} page(s) of records in response to self-select request {2}",
+              new Object[]{app.getNodeID(), pageCount, request.getSummary()});
     } catch (FailedDBOperationException e) {
       LOGGER.log(Level.SEVERE, "Exception while handling self-select request: {0}",
               e.getMessage());
-      //e.printStackTrace();
-      response = SelectResponsePacket.makeFailPacket(request.getId(), request.getClientAddress(),
-              request.getNsQueryId(), app.getNodeAddress(), e.getMessage());
+      handleSelectResponse(SelectResponsePacket.makeFailPacket(request.getId(), request.getClientAddress(),
+              request.getNsQueryId(), app.getNodeAddress(), e.getMessage()), app);
     }
-    return response;
   }
 
   /**
    * Handle a select request from the collecting NS. This is what other NSs do when they
    * get a SelectRequestPacket from the NS that originally received the packet (the one that is collecting
    * all the records).
-   * This NS looks up the records and returns them.
+   * This NS looks up the records and returns them a page at a time.
    *
    * @param incomingJSON
    * @param app
    * @throws JSONException
    */
-  private static void handleSelectRequestFromNS(SelectRequestPacket request,
-          GNSApplicationInterface<String> app) throws JSONException {
+  private static void handleSelectRequestFromNS(final SelectRequestPacket request,
+          final GNSApplicationInterface<String> app) throws JSONException {
     LOGGER.log(Level.FINE,
             "NS {0} {1} received query {2}",
             new Object[]{Select.class.getSimpleName(),
               app.getNodeID(), request.getSummary()});
     try {
-      // grab the records
-      JSONArray jsonRecords = getJSONRecordsForSelect(request, app);
-      jsonRecords = aclCheckFilterReturnedRecord(request, jsonRecords, request.getReader(), app);
-      
-      JSONArray finalResult = performProjectionForUserRequestedAttributes(app, request, jsonRecords);
-      
-      
-      SelectResponsePacket response = SelectResponsePacket.makeSuccessPacketForFullRecords(request.getId(),
-              request.getClientAddress(),
-              request.getCcpQueryId(), request.getNsQueryId(), app.getNodeAddress(), finalResult);
+      int pageCount = selectRecordsInPages(request, app, new SelectPageHandler() {
+        @Override
+        public void handlePage(SelectResponsePacket page) throws JSONException, IOException {
+          if (SELECT_PRUNING && page.getPageCount() != 0) {
+            // the last page carries our summary now and then
+            page.setSummary(ReplicaSummaries.summaryToSend(request.getNSReturnAddress(), app));
+          }
+          // send them back to the originating NS
+          page.setAcceptsBinary(true);
+          if (SELECT_BINARY_ENCODING && request.acceptsBinary()) {
+            app.sendToAddress(request.getNSReturnAddress(), page);
+          } else {
+            app.sendToAddress(request.getNSReturnAddress(), page.toJSONObject());
+          }
+        }
+      });
       LOGGER.log(Level.FINE,
-              "NS {0} sending back {1} record(s) in response to {2}",
-              new Object[]{app.getNodeID(), finalResult.length(), request.getSummary()});
-      // and send them back to the originating NS
-      app.sendToAddress(request.getNSReturnAddress(), response.toJSONObject());
-    } catch (FailedDBOperationException | JSONException | IOException e) {
+              "NS {0} sent back {1} page(s) of records in response to {2}",
+              new Object[]{app.getNodeID(), pageCount, request.getSummary()});
+    } catch (FailedDBOperationException | JSONException | IOException | ClientException
+            | InternalRequestException e) {
       LOGGER.log(Level.SEVERE, "{0} exception while handling select request {1}: {2}", new Object[]{app, request.getSummary(), e});
       SelectResponsePacket failResponse = SelectResponsePacket.makeFailPacket(request.getId(),
               request.getClientAddress(),
@@ -341,8 +540,77 @@ public class Select extends AbstractSelector {
       }
     }
   }
-  
-  
+
+  // Receives each page of selected records.
+  private interface SelectPageHandler {
+
+    void handlePage(SelectResponsePacket page) throws JSONException, ClientException,
+            IOException, InternalRequestException;
+  }
+
+  /**
+   * Reads the records selected by the request SELECT_PAGE_SIZE at a time,
+   * filters and projects each page and passes it to the handler
+   * before reading the next one. This keeps the memory used by a select
+   * bounded by the page size rather than the size of the result.
+   * There is always at least one page and the last one carries the number of pages.
+   *
+   * @param request
+   * @param app
+   * @param handler
+   * @return the number of pages
+   */
+  private static int selectRecordsInPages(SelectRequestPacket request,
+          GNSApplicationInterface<String> app, SelectPageHandler handler)
+          throws FailedDBOperationException, JSONException, ClientException,
+          IOException, InternalRequestException {
+    // changes from now on are evaluated against the query of a standing group
+    boolean standing = StandingQueries.register(request, getFieldsForQueryType(request));
+    Set<String> selected = new HashSet<>();
+    AbstractRecordCursor cursor = getRecordCursorForSelect(request, app);
+    // the next page of a select with a limit starts where the last one stopped
+    int read = 0;
+    while (cursor != null && read < request.getSkip() && cursor.hasNext()) {
+      cursor.nextJSONObject();
+      read++;
+    }
+    int remaining = request.getLimit() > 0 ? request.getLimit() : Integer.MAX_VALUE;
+    int pageCount = 0;
+    boolean morePages;
+    do {
+      JSONArray jsonRecords = new JSONArray();
+      // Reading no more than the remaining records keeps us within the limit after the ACL check.
+      while (cursor != null && jsonRecords.length() < Math.min(SELECT_PAGE_SIZE, remaining) && cursor.hasNext()) {
+        JSONObject record = cursor.nextJSONObject();
+        LOGGER.log(Level.FINE, "NS{0} record returned: {1}", new Object[]{app.getNodeID(), record});
+        jsonRecords.put(record);
+        read++;
+      }
+      jsonRecords = aclCheckFilterReturnedRecord(request, jsonRecords, request.getReader(), app);
+      JSONArray finalResult = performProjectionForUserRequestedAttributes(app, request, jsonRecords);
+      remaining -= finalResult.length();
+      morePages = remaining > 0 && cursor != null && cursor.hasNext();
+      if (standing) {
+        for (int i = 0; i < finalResult.length(); i++) {
+          selected.add(finalResult.getJSONObject(i).getString(NameRecord.NAME.getName()));
+        }
+      }
+      pageCount++;
+      SelectResponsePacket page = SelectResponsePacket.makeSuccessPacketForRecordsPage(request.getId(),
+              request.getClientAddress(), request.getNsQueryId(), app.getNodeAddress(),
+              finalResult, morePages ? 0 : pageCount);
+      if (remaining <= 0 && cursor.hasNext()) {
+        // we stopped at the limit so the next page starts here
+        page.setResumeAt(read);
+      }
+      handler.handlePage(page);
+    } while (morePages);
+    if (standing) {
+      StandingQueries.selectDone(request.getGuid(), selected, app);
+    }
+    return pageCount;
+  }
+
   private static JSONArray performProjectionForUserRequestedAttributes(GNSApplicationInterface<String> app, 
 			SelectRequestPacket packet, JSONArray records)
   {
@@ -407,27 +675,10 @@ public class Select extends AbstractSelector {
   
   /**
    * Filters records and fields from returned records based on ACL checks.
-   *
-   * @param packet
-   * @param records
-   * @param reader
-   * @param app
-   * @return
-   */
-  private static JSONArray aclCheckFilterReturnedRecord(SelectRequestPacket packet, JSONArray records,
-          String reader, GNSApplicationInterface<String> app) {
-    // First we filter out records
-    JSONArray filteredRecords = aclCheckFilterForRecordsArray(packet, records, reader, app);
-    //return filteredRecords;
-    // then we filter fields
-    return aclCheckFilterFields(packet, filteredRecords, reader, app);
-  }
-  
-  
-  /**
-   * This filters entire records if the query uses fields that cannot be accessed in the
+   * Records are filtered out if the query uses fields that cannot be accessed in the
    * returned record by the reader. Otherwise the user would be able to determine that
    * some GUIDS contain specific values for fields they can't access.
+   * Then individual fields are filtered if they cannot be accessed by the reader.
    *
    * @param packet
    * @param records
@@ -435,78 +686,17 @@ public class Select extends AbstractSelector {
    * @param app
    * @return
    */
-  private static JSONArray aclCheckFilterForRecordsArray(SelectRequestPacket packet, JSONArray records,
+  private static JSONArray aclCheckFilterReturnedRecord(SelectRequestPacket packet, JSONArray records,
           String reader, GNSApplicationInterface<String> app) {
-    JSONArray result = new JSONArray();
-    for (int i = 0; i < records.length(); i++) {
-      try {
-        JSONObject record = records.getJSONObject(i);
-        String guid = record.getString(NameRecord.NAME.getName());
-        List<String> queryFields = getFieldsForQueryType(packet);
-        
-        NameRecord nr = new NameRecord(app.getDB(), record);
-        
-        ResponseCode responseCode = NSAuthentication.signatureAndACLCheck(null, guid, null, queryFields, reader,
-                null, null, MetaDataTypeName.READ_WHITELIST, app, true, nr);
-        
-        
-        LOGGER.log(Level.FINE, "{0} ACL check for select: guid={0} queryFields={1} responsecode={2}",
-                new Object[]{app.getNodeID(), guid, queryFields, responseCode});
-        if (responseCode.isOKResult()) {
-          result.put(record);
-        }
-      } catch (JSONException | InvalidKeyException | InvalidKeySpecException | SignatureException | NoSuchAlgorithmException | FailedDBOperationException | UnsupportedEncodingException e) {
-        // ignore json errros
-        LOGGER.log(Level.FINE, "{0} Problem getting guid from json: {1}",
-                new Object[]{app.getNodeID(), e.getMessage()});
-      }
-    }
+    long startTime = System.nanoTime();
+    JSONArray result = new BatchAclEvaluator(reader, MetaDataTypeName.READ_WHITELIST, app)
+            .filter(records, getFieldsForQueryType(packet));
+    DelayProfiler.updateDelayNano("selectAclCheck", startTime);
+    LOGGER.log(Level.FINE, "{0} ACL check for select kept {1} of {2} records",
+            new Object[]{app.getNodeID(), result.length(), records.length()});
     return result;
   }
 
-  /**
-   * This filters individual fields if the cannot be accessed by the reader.
-   *
-   * @param packet
-   * @param records
-   * @param reader
-   * @param app
-   * @return
-   */
-  private static JSONArray aclCheckFilterFields(SelectRequestPacket packet, JSONArray records,
-          String reader, GNSApplicationInterface<String> app) {
-    for (int i = 0; i < records.length(); i++) {
-      try {
-        JSONObject record = records.getJSONObject(i);
-        String guid = record.getString(NameRecord.NAME.getName());
-        // Look at the keys in the values map
-        JSONObject valuesMap = record.getJSONObject(NameRecord.VALUES_MAP.getName());
-        Iterator<?> keys = valuesMap.keys();
-        while (keys.hasNext()) {
-          String field = (String) keys.next();
-          if (!InternalField.isInternalField(field)) {
-            LOGGER.log(Level.FINE, "{0} Checking: {1}", new Object[]{app.getNodeID(), field});
-            ResponseCode responseCode = NSAuthentication.signatureAndACLCheck(null, guid, field, null, reader,
-                    null, null, MetaDataTypeName.READ_WHITELIST, app, true,
-                    new NameRecord(app.getDB(), record));
-            
-            
-            if (!responseCode.isOKResult()) {
-              LOGGER.log(Level.FINE, "{0} Removing: {1}", new Object[]{app.getNodeID(), field});
-              // removing the offending field
-              keys.remove();
-            }
-          }
-        }
-      } catch (JSONException | InvalidKeyException | InvalidKeySpecException | SignatureException | NoSuchAlgorithmException | FailedDBOperationException | UnsupportedEncodingException e) {
-        // ignore json errros
-        LOGGER.log(Level.FINE, "{0} Problem getting guid from json: {1}",
-                new Object[]{app.getNodeID(), e.getMessage()});
-      }
-    }
-    return records;
-  }
-
   // Returns the fields that present in a query.
   private static List<String> getFieldsForQueryType(SelectRequestPacket request) {
     switch (request.getSelectOperation()) {
@@ -521,8 +711,14 @@ public class Select extends AbstractSelector {
     }
   }
 
-  // Uses a regular expression to extract the fields from a select query.
+  // Returns the fields of the compiled query. Falls back to a regular expression
+  // for queries that don't parse, which the database will reject anyway.
   private static List<String> getFieldsFromQuery(String query) {
+    try {
+      return new ArrayList<>(CompiledSelectQuery.compile(query).getFields());
+    } catch (IllegalArgumentException e) {
+      // fall through
+    }
     List<String> result = new ArrayList<>();
     // Create a Pattern object
     Matcher m = Pattern.compile("~\\w+(\\.\\w+)*").matcher(query);
@@ -551,17 +747,28 @@ public class Select extends AbstractSelector {
             "NS {0} recvd from NS {1}",
             new Object[]{replica.getNodeID(),
               packet.getNSAddress()});
+    if (packet.getSummary() != null) {
+      ReplicaSummaries.receive(packet.getNSAddress(), packet.getSummary());
+    }
+    if (packet.acceptsBinary()) {
+      BINARY_PEERS.add(packet.getNSAddress());
+    }
     NSSelectInfo info = QUERIES_IN_PROGRESS.get(packet.getNsQueryId());
     if (info == null) {
-      LOGGER.log(Level.WARNING,
+      // Pages can straggle in after a query was completed by a quorum or timed out.
+      LOGGER.log(Level.FINE,
               "NS {0} unabled to located query info:{1}",
               new Object[]{replica.getNodeID(), packet.getNsQueryId()});
       return;
     }
+    boolean serverFinished = true;
     // if there is no error update our results list
     if (SelectResponsePacket.ResponseCode.NOERROR.equals(packet.getResponseCode())) {
       // stuff all the unique records into the info structure
       processJSONRecords(packet.getRecords(), info, replica);
+      if (info.getCursor() != null && packet.getResumeAt() >= 0) {
+        info.getCursor().setResumeAt(packet.getNSAddress(), packet.getResumeAt());
+      }
     } else {
       // error response
       LOGGER.log(Level.FINE,
@@ -569,16 +776,22 @@ public class Select extends AbstractSelector {
               new Object[]{replica.getNodeID(), packet.getErrorMessage()});
     }
     // Remove the NS Address from the list to keep track of who has responded
-    boolean allServersResponded;
+    boolean enoughServersResponded;
     /* synchronization needed, otherwise assertion in app.sendToClient
      * implying that an outstanding request is always found gets violated. */
     synchronized (info) {
-      // Remove the NS Address from the list to keep track of who has responded
-      info.removeServerAddress(packet.getNSAddress());
-      allServersResponded = info.allServersResponded();
+      // Servers send their records in pages so a server has only responded
+      // once we have all of them. An error finishes the server regardless.
+      if (SelectResponsePacket.ResponseCode.NOERROR.equals(packet.getResponseCode())) {
+        serverFinished = info.addPage(packet.getNSAddress(), packet.getPageCount());
+      }
+      // Remove the NS Address from the list to keep track of who has responded.
+      // A page that straggles in after the server was removed doesn't finish the query again.
+      enoughServersResponded = serverFinished && info.removeServerAddress(packet.getNSAddress())
+              && (info.allServersResponded() || info.quorumResponded(SELECT_QUORUM_PERCENT));
     }
-    if (allServersResponded) {
-      handledAllServersResponded(PacketUtils.getInternalRequestHeader(packet), packet, info, replica);
+    if (enoughServersResponded) {
+      completeQuery(PacketUtils.getInternalRequestHeader(packet), packet.getId(), info, replica);
     } else {
       LOGGER.log(Level.FINE,
               "NS{0} servers yet to respond:{1}",
@@ -586,50 +799,64 @@ public class Select extends AbstractSelector {
     }
   }
 
-  // If all the servers have sent us a response we're done.
-  private static void handledAllServersResponded(InternalRequestHeader header,
-          SelectResponsePacket packet, NSSelectInfo info,
-          GNSApplicationInterface<String> replica) throws JSONException,
+  // Collates the responses once enough servers have responded or the query timed out.
+  // Only the first of these to happen completes the query.
+  private static void completeQuery(final InternalRequestHeader header,
+          long requestId, final NSSelectInfo info,
+          final GNSApplicationInterface<String> replica) throws JSONException,
           ClientException, IOException, InternalRequestException {
-	  
+    if (!QUERIES_IN_PROGRESS.remove(info.getId(), info)) {
+      return;
+    }
     Set<JSONObject> allRecords = info.getResponsesAsSet();
     // Todo - clean up this use of guids further below in the group code
-    Set<String> guids = extractGuidsFromRecords(allRecords);
+    final Set<String> guids = extractGuidsFromRecords(allRecords);
     LOGGER.log(Level.FINE,
             "NS{0} guids:{1}",
             new Object[]{replica.getNodeID(), guids});
 
-    SelectResponsePacket response;
-    // If projection is null we return guids (old-style).
-    if (info.getProjection() == null) {
-      response = SelectResponsePacket.makeSuccessPacketForGuidsOnly(packet.getId(),
-              null, -1, null, new JSONArray(guids));
-      // Otherwise we return a list of records.
-    } else {
-      List<JSONObject> records = filterAndMassageRecords(allRecords);
-      LOGGER.log(Level.FINE,
-              "NS{0} record:{1}",
-              new Object[]{replica.getNodeID(), records});
-      response = SelectResponsePacket.makeSuccessPacketForFullRecords(packet.getId(),
-              null, -1, -1, null, new JSONArray(records));
-    }
-
-    // Put the result where the coordinator can see it.
-    QUERY_RESULT.put(packet.getNsQueryId(), response);
-    // and let the coordinator know the value is there
-    if (GNSApp.DELEGATE_CLIENT_MESSAGING) {
-      synchronized (QUERIES_IN_PROGRESS) {
-    	  // Must be done after setting result in QUERY_RESULT,
-    	  // Otherwise, the waiting thread will wake up and 
-    	  // find the query is not in progress but will not find any result
-    	  // so will return a wrong response. A wait()
-    	  // can wake spuriously without the notify() as mentioned
-    	  // in the documentation of these functions.
-    	  QUERIES_IN_PROGRESS.remove(packet.getNsQueryId());
-          QUERIES_IN_PROGRESS.notify();
+    SelectResponsePacket response = null;
+    try {
+      if (info.getCursor() != null) {
+        info.getCursor().addRecords(allRecords);
+        response = makeNextPage(requestId, info.getCursor(), info.getProjection());
+        // If projection is null we return guids (old-style).
+      } else if (info.getProjection() == null) {
+        response = SelectResponsePacket.makeSuccessPacketForGuidsOnly(requestId,
+                null, -1, null, new JSONArray(guids));
+        // Otherwise we return a list of records.
+      } else {
+        List<JSONObject> records = filterAndMassageRecords(allRecords);
+        LOGGER.log(Level.FINE,
+                "NS{0} record:{1}",
+                new Object[]{replica.getNodeID(), records});
+        response = SelectResponsePacket.makeSuccessPacketForFullRecords(requestId,
+                null, -1, -1, null, new JSONArray(records));
       }
+    } finally {
+      // the coordinator gets null if the response couldn't be made
+      info.getFuture().complete(response);
     }
     // Now we update any group guid stuff
+    if (info.getGroupBehavior().equals(SelectGroupBehavior.GROUP_SETUP)
+            || info.getGroupBehavior().equals(SelectGroupBehavior.GROUP_LOOKUP)) {
+      GROUP_UPDATER.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            updateGroup(header, info, guids, replica);
+          } catch (JSONException | ClientException | IOException | InternalRequestException e) {
+            LOGGER.log(Level.SEVERE, "Exception while updating group {0}: {1}",
+                    new Object[]{info.getGuid(), e});
+          }
+        }
+      });
+    }
+  }
+
+  private static void updateGroup(InternalRequestHeader header, NSSelectInfo info, Set<String> guids,
+          GNSApplicationInterface<String> replica) throws JSONException,
+          ClientException, IOException, InternalRequestException {
     if (info.getGroupBehavior().equals(SelectGroupBehavior.GROUP_SETUP)) {
       LOGGER.log(Level.FINE,
               "NS{0} storing query string and other info", replica.getNodeID());
@@ -638,16 +865,35 @@ public class Select extends AbstractSelector {
               info.getQuery(), info.getProjection(), replica.getRequestHandler());
       NSGroupAccess.updateMinRefresh(header, info.getGuid(), info.getMinRefreshInterval(), replica.getRequestHandler());
     }
-    if (info.getGroupBehavior().equals(SelectGroupBehavior.GROUP_SETUP)
-            || info.getGroupBehavior().equals(SelectGroupBehavior.GROUP_LOOKUP)) {
-      String guid = info.getGuid();
-      LOGGER.log(Level.FINE, "NS{0} updating group members", replica.getNodeID());
-      GroupAccess.addToGroup(header, guid, new ResultValue(guids), null, null, null, null,
-              replica.getRequestHandler());
-      //NSGroupAccess.updateMembers(header, guid, guids, replica.getRequestHandler());
-      //NSGroupAccess.updateRecords(guid, processResponsesIntoJSONArray(info.getResponsesAsMap()), replica); 
-      NSGroupAccess.updateLastUpdate(header, guid, new Date(), replica.getRequestHandler());
+    String guid = info.getGuid();
+    LOGGER.log(Level.FINE, "NS{0} updating group members", replica.getNodeID());
+    GroupAccess.addToGroup(header, guid, new ResultValue(guids), null, null, null, null,
+            replica.getRequestHandler());
+    //NSGroupAccess.updateMembers(header, guid, guids, replica.getRequestHandler());
+    //NSGroupAccess.updateRecords(guid, processResponsesIntoJSONArray(info.getResponsesAsMap()), replica); 
+    NSGroupAccess.updateLastUpdate(header, guid, new Date(), replica.getRequestHandler());
+  }
+
+  // Makes the response with the next page of a select with a limit
+  // and keeps the cursor if there are more pages.
+  private static SelectResponsePacket makeNextPage(long requestId, SelectCursors.SelectCursor cursor,
+          List<String> projection) throws JSONException {
+    Set<JSONObject> page = new LinkedHashSet<>(cursor.nextPage());
+    SelectResponsePacket response;
+    if (projection == null) {
+      JSONArray guids = new JSONArray();
+      for (JSONObject record : page) {
+        guids.put(record.getString(NameRecord.NAME.getName()));
+      }
+      response = SelectResponsePacket.makeSuccessPacketForGuidsOnly(requestId, null, -1, null, guids);
+    } else {
+      response = SelectResponsePacket.makeSuccessPacketForFullRecords(requestId,
+              null, -1, -1, null, new JSONArray(filterAndMassageRecords(page)));
     }
+    if (cursor.hasMore()) {
+      response.setCursor(SelectCursors.save(cursor));
+    }
+    return response;
   }
 
   // Converts a record from the database into something we can return to 
@@ -688,61 +934,59 @@ public class Select extends AbstractSelector {
     return result;
   }
 
-  private static int addQueryInfo(Set<InetSocketAddress> serverAddresses, SelectOperation selectOperation,
+  private static NSSelectInfo addQueryInfo(Set<InetSocketAddress> serverAddresses, SelectOperation selectOperation,
           SelectGroupBehavior groupBehavior, String query, List<String> projection,
           int minRefreshInterval, String guid) {
-    int id;
+    NSSelectInfo info;
     do {
-      id = RANDOM_ID.nextInt();
-    } while (QUERIES_IN_PROGRESS.containsKey(id));
-    //Add query info
-    NSSelectInfo info = new NSSelectInfo(id, serverAddresses, selectOperation, groupBehavior,
-            query, projection,
-            minRefreshInterval, guid);
-    QUERIES_IN_PROGRESS.put(id, info);
-    return id;
+      info = new NSSelectInfo(RANDOM_ID.nextInt(), serverAddresses, selectOperation, groupBehavior,
+              query, projection,
+              minRefreshInterval, guid);
+    } while (QUERIES_IN_PROGRESS.putIfAbsent(info.getId(), info) != null);
+    return info;
   }
 
-  private static JSONArray getJSONRecordsForSelect(SelectRequestPacket request,
+  // Returns the fields the database needs to return for the request. The database always adds
+  // the name and the fields needed for the ACL checks. Old style selects only return guids
+  // so they don't need any other fields.
+  private static List<String> getDatabaseProjection(SelectRequestPacket request) {
+    return request.getProjection() != null ? request.getProjection() : new ArrayList<String>();
+  }
+
+  // Returns a cursor over the records selected by the request or null if there aren't any.
+  private static AbstractRecordCursor getRecordCursorForSelect(SelectRequestPacket request,
           GNSApplicationInterface<String> ar) throws FailedDBOperationException {
-    JSONArray jsonRecords = new JSONArray();
-    // actually only need name and values map... fix this
+    List<String> projection = getDatabaseProjection(request);
     AbstractRecordCursor cursor = null;
     switch (request.getSelectOperation()) {
       case EQUALS:
-        cursor = NameRecord.selectRecords(ar.getDB(), request.getKey(), request.getValue());
+        cursor = NameRecord.selectRecords(ar.getDB(), request.getKey(), request.getValue(), projection);
         break;
       case NEAR:
         if (request.getValue() instanceof String) {
           cursor = NameRecord.selectRecordsNear(ar.getDB(), request.getKey(), (String) request.getValue(),
-                  Double.parseDouble((String) request.getOtherValue()));
+                  Double.parseDouble((String) request.getOtherValue()), projection);
         } else {
           break;
         }
         break;
       case WITHIN:
         if (request.getValue() instanceof String) {
-          cursor = NameRecord.selectRecordsWithin(ar.getDB(), request.getKey(), (String) request.getValue());
+          cursor = NameRecord.selectRecordsWithin(ar.getDB(), request.getKey(), (String) request.getValue(),
+                  projection);
         } else {
           break;
         }
         break;
       case QUERY:
         LOGGER.log(Level.FINE, "NS{0} query: {1} {2}",
-                new Object[]{ar.getNodeID(), request.getQuery(), request.getProjection()});
-        cursor = NameRecord.selectRecordsQuery(ar.getDB(), request.getQuery(), request.getProjection());
+                new Object[]{ar.getNodeID(), request.getQuery(), projection});
+        cursor = NameRecord.selectRecordsQuery(ar.getDB(), request.getQuery(), projection);
         break;
       default:
         break;
     }
-    // think about returning a cursor that has prefetched a limited (100 which is like mongo limit)
-    // number of records in it and the ability to fetch more
-    while (cursor != null && cursor.hasNext()) {
-      JSONObject record = cursor.nextJSONObject();
-      LOGGER.log(Level.FINE, "NS{0} record returned: {1}", new Object[]{ar.getNodeID(), record});
-      jsonRecords.put(record);
-    }
-    return jsonRecords;
+    return cursor;
   }
 
   // Takes the JSON records that are returned from an NS and stuffs the into the NSSelectInfo record
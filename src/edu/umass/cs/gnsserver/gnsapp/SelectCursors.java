@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+
+/**
+ * The state of the selects with a limit whose next pages haven't been
+ * asked for yet. It lives on the server that collected the select, which
+ * returns the cursor of the state with each page.
+ *
+ * Every server stops selecting once it has a page worth of records and tells
+ * the collecting server how many of its records it went through. The
+ * records that were collected but didn't fit in the page are kept here
+ * along with where each server stopped. The next page comes from the kept
+ * records and, if there aren't enough of those, from asking the servers that
+ * stopped early for their next records.
+ *
+ * Records are returned in the order of their guids within what was collected
+ * for a page. The guids already returned are remembered so that records
+ * that are on more than one server are only returned once.
+ *
+ * Cursors are used once and are forgotten after
+ * {@link GNSConfig.GNSC#SELECT_CURSOR_TTL}.
+ *
+ * @author westy
+ */
+public class SelectCursors {
+
+  private static final SecureRandom RANDOM_TOKEN = new SecureRandom();
+  private static final Cache<String, SelectCursor> CURSORS
+          = CacheBuilder.newBuilder().concurrencyLevel(Runtime.getRuntime().availableProcessors())
+          .maximumSize(Config.getGlobalInt(GNSConfig.GNSC.SELECT_CURSOR_MAX))
+          .expireAfterWrite(Config.getGlobalInt(GNSConfig.GNSC.SELECT_CURSOR_TTL), TimeUnit.MILLISECONDS)
+          .build();
+
+  /**
+   * The state of a select with a limit.
+   */
+  static class SelectCursor {
+
+    private final JSONObject request;
+    private final String reader;
+    private final int limit;
+    // guid => record of the records that were collected but not returned yet
+    private final TreeMap<String, JSONObject> records = new TreeMap<>();
+    private final Set<String> returned = new HashSet<>();
+    // server => the number of its records it went through, for the servers that have more
+    private final Map<InetSocketAddress, Integer> resumeAt = new ConcurrentHashMap<>();
+
+    /**
+     * @param request the first request of the select
+     * @param reader
+     * @param limit
+     */
+    SelectCursor(JSONObject request, String reader, int limit) {
+      this.request = request;
+      this.reader = reader;
+      this.limit = limit;
+    }
+
+    /**
+     * Returns the first request of the select.
+     *
+     * @return the request
+     */
+    JSONObject getRequest() {
+      return request;
+    }
+
+    /**
+     * Returns the servers that stopped before they ran out of records
+     * and how many they went through.
+     *
+     * @return a map from server to the number of records
+     */
+    Map<InetSocketAddress, Integer> getResumeAt() {
+      return resumeAt;
+    }
+
+    /**
+     * Records where a server stopped.
+     *
+     * @param address
+     * @param count the number of records it went through
+     */
+    void setResumeAt(InetSocketAddress address, int count) {
+      resumeAt.put(address, count);
+    }
+
+    /**
+     * Adds the records the servers returned for a page.
+     *
+     * @param collected
+     */
+    synchronized void addRecords(Collection<JSONObject> collected) {
+      for (JSONObject record : collected) {
+        String guid = record.optString(NameRecord.NAME.getName(), null);
+        if (guid != null && !returned.contains(guid)) {
+          records.put(guid, record);
+        }
+      }
+    }
+
+    /**
+     * Returns true if the kept records don't fill a page and some
+     * servers have more.
+     *
+     * @return true if the servers need to be asked for more records
+     */
+    synchronized boolean needsMoreRecords() {
+      return records.size() < limit && !resumeAt.isEmpty();
+    }
+
+    /**
+     * Returns true if there are records for another page.
+     *
+     * @return true if there are more records
+     */
+    synchronized boolean hasMore() {
+      return !records.isEmpty() || !resumeAt.isEmpty();
+    }
+
+    /**
+     * Takes the records of the next page out of the kept records.
+     *
+     * @return at most limit records
+     */
+    synchronized List<JSONObject> nextPage() {
+      List<JSONObject> page = new ArrayList<>();
+      while (page.size() < limit && !records.isEmpty()) {
+        Map.Entry<String, JSONObject> entry = records.pollFirstEntry();
+        returned.add(entry.getKey());
+        page.add(entry.getValue());
+      }
+      return page;
+    }
+  }
+
+  /**
+   * Keeps the state of a select until its next page is asked for.
+   *
+   * @param cursor
+   * @return the token of the cursor
+   */
+  static String save(SelectCursor cursor) {
+    String token = new BigInteger(128, RANDOM_TOKEN).toString(32);
+    CURSORS.put(token, cursor);
+    return token;
+  }
+
+  /**
+   * Returns the state of a select and forgets it.
+   * Only the reader of the select can continue it.
+   *
+   * @param token
+   * @param reader
+   * @return the state or null if the cursor is unknown or expired
+   */
+  static SelectCursor take(String token, String reader) {
+    SelectCursor cursor = CURSORS.getIfPresent(token);
+    if (cursor == null || !(reader == null ? cursor.reader == null : reader.equals(cursor.reader))) {
+      return null;
+    }
+    // only one of the requests that use the same cursor at the same time gets it
+    return CURSORS.asMap().remove(token, cursor) ? cursor : null;
+  }
+}
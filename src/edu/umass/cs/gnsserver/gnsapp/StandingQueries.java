@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import edu.umass.cs.gnscommon.ResponseCode;
+import edu.umass.cs.gnscommon.exceptions.client.ClientException;
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnscommon.exceptions.server.InternalRequestException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
+import edu.umass.cs.gnsserver.database.AbstractRecordCursor;
+import edu.umass.cs.gnsserver.database.JSONQueryMatcher;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GroupAccess;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.BatchAclEvaluator;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectGroupBehavior;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Keeps the members of context aware groups (see {@link Select}) up to date
+ * as records change instead of only when the group's select is rerun.
+ *
+ * Every server that runs the select of a GROUP_SETUP or GROUP_LOOKUP
+ * remembers the group's query and its reader. After each change to one of
+ * its records it evaluates the queries against the new record and adds it to
+ * or removes it from the group guid, wherever that lives, if it matches but
+ * isn't a member yet or doesn't match but is one. Whether a guid is a member
+ * comes from the groups it is in, which are kept in its own record
+ * (see {@link GroupAccess#GROUPS}), so nothing needs to be remembered about the
+ * members. Of the replicas of a record only the one an update came in at
+ * evaluates it. The changes are evaluated one at a time in the order they happened
+ * on a separate thread so that updates aren't slowed down by the group updates,
+ * and are dropped when {@link GNSConfig.GNSC#SELECT_STANDING_QUEUE_SIZE} are waiting.
+ *
+ * After the select of the group ran, the records on this server that are
+ * members but weren't selected are evaluated too, which removes members that
+ * stopped matching while the query wasn't known here (after a restart say).
+ *
+ * A server forgets a query that hasn't been rerun for twice
+ * {@link GNSConfig.GNSC#SELECT_STANDING_REFRESH_INTERVAL}. Queries that
+ * {@link JSONQueryMatcher} can't evaluate are only refreshed by reruns.
+ *
+ * @author westy
+ */
+public class StandingQueries {
+
+  private static final boolean ENABLED = Config.getGlobalBoolean(GNSConfig.GNSC.SELECT_STANDING_QUERIES);
+  private static final long REFRESH_INTERVAL = Config.getGlobalInt(GNSConfig.GNSC.SELECT_STANDING_REFRESH_INTERVAL);
+  private static final Random RANDOM_ID = new Random();
+
+  // group guid => query
+  private static final ConcurrentHashMap<String, StandingQuery> QUERIES = new ConcurrentHashMap<>();
+  private static final AtomicLong DROPPED = new AtomicLong();
+  // Evaluates the changes in order and drops them when too many are waiting.
+  private static final ThreadPoolExecutor EVALUATOR = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<Runnable>(Config.getGlobalInt(GNSConfig.GNSC.SELECT_STANDING_QUEUE_SIZE)),
+          new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "StandingQueryEvaluator");
+      thread.setDaemon(true);
+      return thread;
+    }
+  }, new RejectedExecutionHandler() {
+    @Override
+    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+      // the next rerun of the select fixes up the groups
+      long dropped = DROPPED.incrementAndGet();
+      GNSConfig.getLogger().log(dropped % 1000 == 1 ? Level.WARNING : Level.FINE,
+              "Standing queries are behind, {0} changes dropped", dropped);
+    }
+  });
+
+  private static class StandingQuery {
+
+    private final String groupGuid;
+    private final Map<?, ?> query;
+    private final List<String> queryFields;
+    private final String reader;
+    private final long registeredTime;
+
+    StandingQuery(String groupGuid, Map<?, ?> query, List<String> queryFields, String reader,
+            long registeredTime) {
+      this.groupGuid = groupGuid;
+      this.query = query;
+      this.queryFields = queryFields;
+      this.reader = reader;
+      this.registeredTime = registeredTime;
+    }
+  }
+
+  /**
+   * Returns true if group members are kept up to date for the query.
+   *
+   * @param query a query in the syntax of {@link Select}
+   * @return true if the query can be a standing query
+   */
+  public static boolean isStanding(String query) {
+    try {
+      return ENABLED && query != null && JSONQueryMatcher.isSupported(JSONQueryMatcher.parseSelectQuery(query));
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Remembers the query of a group select this server is about to run.
+   * Changes to records from now on are evaluated against it.
+   *
+   * @param request
+   * @param queryFields the fields used in the query
+   * @return true if the query is a standing one
+   */
+  static boolean register(SelectRequestPacket request, List<String> queryFields) {
+    if (!ENABLED || request.getGuid() == null
+            || !(request.getGroupBehavior().equals(SelectGroupBehavior.GROUP_SETUP)
+            || request.getGroupBehavior().equals(SelectGroupBehavior.GROUP_LOOKUP))
+            || !isStanding(request.getQuery())) {
+      return false;
+    }
+    register(request.getGuid(), JSONQueryMatcher.parseSelectQuery(request.getQuery()), queryFields,
+            request.getReader(), System.currentTimeMillis());
+    return true;
+  }
+
+  /**
+   * Remembers the query of a group as of the given time.
+   *
+   * @param groupGuid
+   * @param query the parsed query
+   * @param queryFields the fields used in the query
+   * @param reader null for an unsigned select
+   * @param registeredTime when the select of the group ran
+   */
+  static void register(String groupGuid, Map<?, ?> query, List<String> queryFields, String reader,
+          long registeredTime) {
+    QUERIES.put(groupGuid, new StandingQuery(groupGuid, query, queryFields, reader, registeredTime));
+  }
+
+  /**
+   * Evaluates the records on this server that are members of the group
+   * but weren't selected by the group's select.
+   *
+   * @param groupGuid
+   * @param selected the guids the select found on this server
+   * @param app
+   */
+  static void selectDone(final String groupGuid, final Set<String> selected,
+          final GNSApplicationInterface<String> app) {
+    EVALUATOR.execute(new Runnable() {
+      @Override
+      public void run() {
+        StandingQuery standingQuery = QUERIES.get(groupGuid);
+        if (standingQuery == null) {
+          return;
+        }
+        try {
+          AbstractRecordCursor cursor = NameRecord.selectRecords(app.getDB(), GroupAccess.GROUPS, groupGuid,
+                  Collections.singletonList(GroupAccess.GROUPS));
+          while (cursor.hasNext()) {
+            String guid = cursor.nextJSONObject().getString(NameRecord.NAME.getName());
+            if (!selected.contains(guid)) {
+              evaluate(guid, Collections.singletonList(standingQuery), app);
+            }
+          }
+        } catch (FailedDBOperationException | JSONException e) {
+          GNSConfig.getLogger().log(Level.WARNING, "Unable to check the members of {0}: {1}",
+                  new Object[]{groupGuid, e.getMessage()});
+        }
+      }
+    });
+  }
+
+  /**
+   * Called after a record on this server was changed. Every replica of the
+   * record makes the change but only the one the request came in at
+   * updates the groups, so doNotReplyToClient tells the others to skip it.
+   * Records created or restored from a checkpoint on all the replicas at once
+   * are left to the next rerun of the selects.
+   *
+   * @param guid
+   * @param app
+   * @param doNotReplyToClient true on the replicas that didn't get the request
+   */
+  public static void recordChanged(final String guid, final GNSApplicationInterface<String> app,
+          boolean doNotReplyToClient) {
+    if (doNotReplyToClient || QUERIES.isEmpty()) {
+      return;
+    }
+    EVALUATOR.execute(new Runnable() {
+      @Override
+      public void run() {
+        evaluate(guid, QUERIES.values(), app);
+      }
+    });
+  }
+
+  private static void evaluate(String guid, Iterable<StandingQuery> standingQueries,
+          GNSApplicationInterface<String> app) {
+    JSONObject record;
+    try {
+      record = app.getDB().lookupEntireRecord(guid);
+    } catch (RecordNotFoundException e) {
+      // removing a guid removes it from its groups
+      return;
+    } catch (FailedDBOperationException e) {
+      GNSConfig.getLogger().log(Level.WARNING, "Unable to read {0} for standing queries: {1}",
+              new Object[]{guid, e.getMessage()});
+      return;
+    }
+    if (record == null) {
+      return;
+    }
+    for (StandingQuery standingQuery : standingQueries) {
+      if (System.currentTimeMillis() - standingQuery.registeredTime > 2 * REFRESH_INTERVAL) {
+        QUERIES.remove(standingQuery.groupGuid, standingQuery);
+        continue;
+      }
+      boolean matches;
+      try {
+        matches = JSONQueryMatcher.matches(standingQuery.query, record)
+                && isVisible(standingQuery, record, app);
+      } catch (IllegalArgumentException e) {
+        GNSConfig.getLogger().log(Level.WARNING, "Dropping standing query of {0}: {1}",
+                new Object[]{standingQuery.groupGuid, e.getMessage()});
+        QUERIES.remove(standingQuery.groupGuid, standingQuery);
+        continue;
+      }
+      if (matches != isMember(record, standingQuery.groupGuid)) {
+        updateGroup(standingQuery, guid, matches, app);
+      }
+    }
+  }
+
+  private static boolean isMember(JSONObject record, String groupGuid) {
+    JSONObject valuesMap = record.optJSONObject(NameRecord.VALUES_MAP.getName());
+    JSONArray groups = valuesMap != null ? valuesMap.optJSONArray(GroupAccess.GROUPS) : null;
+    if (groups != null) {
+      for (int i = 0; i < groups.length(); i++) {
+        if (groupGuid.equals(groups.opt(i))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  // The select only returns records whose query fields the reader can see.
+  private static boolean isVisible(StandingQuery standingQuery, JSONObject record,
+          GNSApplicationInterface<String> app) {
+    try {
+      return new BatchAclEvaluator(standingQuery.reader, MetaDataTypeName.READ_WHITELIST, app)
+              .filter(new JSONArray().put(new JSONObject(record.toString())), standingQuery.queryFields)
+              .length() > 0;
+    } catch (JSONException e) {
+      return false;
+    }
+  }
+
+  private static void updateGroup(StandingQuery standingQuery, String guid, boolean add,
+          GNSApplicationInterface<String> app) {
+    GNSConfig.getLogger().log(Level.FINE, "Standing query {0} {1} {2}",
+            new Object[]{add ? "adding" : "removing", guid, standingQuery.groupGuid});
+    InternalRequestHeader header = header(standingQuery.groupGuid);
+    try {
+      ResponseCode code = add
+              ? GroupAccess.addToGroup(header, standingQuery.groupGuid, guid, null, null, null, null,
+                      app.getRequestHandler())
+              : GroupAccess.removeFromGroup(header, null, standingQuery.groupGuid, guid, null, null, null, null,
+                      app.getRequestHandler());
+      if (code.isExceptionOrError()) {
+        GNSConfig.getLogger().log(Level.WARNING, "Unable to update group {0} with {1}: {2}",
+                new Object[]{standingQuery.groupGuid, guid, code});
+      }
+    } catch (ClientException | IOException | JSONException | InternalRequestException e) {
+      GNSConfig.getLogger().log(Level.WARNING, "Unable to update group {0} with {1}: {2}",
+              new Object[]{standingQuery.groupGuid, guid, e});
+    }
+  }
+
+  // The group updates are charged to the group guid.
+  private static InternalRequestHeader header(final String groupGuid) {
+    final long requestId = RANDOM_ID.nextLong();
+    return new InternalRequestHeader() {
+      @Override
+      public long getOriginatingRequestID() {
+        return requestId;
+      }
+
+      @Override
+      public String getOriginatingGUID() {
+        return groupGuid;
+      }
+
+      @Override
+      public int getTTL() {
+        return InternalRequestHeader.DEFAULT_TTL;
+      }
+
+      @Override
+      public boolean hasBeenCoordinatedOnce() {
+        return false;
+      }
+    };
+  }
+}
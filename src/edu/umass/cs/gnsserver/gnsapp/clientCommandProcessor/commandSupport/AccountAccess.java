@@ -46,6 +46,7 @@ import edu.umass.cs.gnscommon.packets.CommandPacket;
 import edu.umass.cs.gnscommon.utils.RandomString;
 import edu.umass.cs.gnsserver.gnsapp.GNSCommandInternal;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.AccessorCache;
 import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSFieldAccess;
 import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
 import edu.umass.cs.gnsserver.main.GNSConfig;
@@ -1081,6 +1082,7 @@ public class AccountAccess {
     } else {
       // Step 4.5 - delete the cache guid info cache entry
       GUID_INFO_CACHE.invalidate(accountInfo.getGuid());
+      AccessorCache.invalidate(accountInfo.getGuid());
       // Step 5 - If all the above stuff worked we delete the account guid record
       ResponseCode deleteGuidResponseCode;
       try {
@@ -1576,6 +1578,7 @@ public class AccountAccess {
     } else {
       // Step 3.5 - delete the cache entry
       GUID_INFO_CACHE.invalidate(guidInfo.getGuid());
+      AccessorCache.invalidate(guidInfo.getGuid());
 
       // Step 4 - If all the above stuff worked we delete the guid record
       ResponseCode deleteGuidResponseCode;
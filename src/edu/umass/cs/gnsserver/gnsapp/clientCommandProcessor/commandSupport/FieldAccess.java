@@ -61,6 +61,7 @@ import edu.umass.cs.gnsserver.gnsapp.packet.SelectGroupBehavior;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectOperation;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectResponsePacket;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
 import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
 import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnsserver.utils.ResultValue;
@@ -573,22 +574,30 @@ public class FieldAccess {
   ///
   /// SELECT METHODS
   ///
-  private static JSONArray executeSelect(InternalRequestHeader header, CommandPacket commandPacket,
+  private static String executeSelect(InternalRequestHeader header, CommandPacket commandPacket,
           SelectOperation operation,
           String reader, String key, Object value, Object otherValue,
+          int limit, String cursor,
           String signature, String message,
           GNSApplicationInterface<String> app)
-          throws FailedDBOperationException, JSONException, UnknownHostException, InternalRequestException {
+          throws FailedDBOperationException, JSONException, UnknownHostException, InternalRequestException,
+          ClientException {
     SelectRequestPacket packet = new SelectRequestPacket(-1, operation,
             SelectGroupBehavior.NONE, reader, key, value, otherValue);
+    packet.setLimit(limit);
+    packet.setCursor(cursor);
     return executeSelectHelper(header, commandPacket, packet, reader, signature, message, app);
   }
 
-  private static JSONArray executeSelectHelper(InternalRequestHeader header, CommandPacket commandPacket,
+  // Returns the result of the select as a JSON string or null if it failed.
+  // The result of a select with a limit is a JSON object with a page of results
+  // and the cursor of the next page if there is one.
+  private static String executeSelectHelper(InternalRequestHeader header, CommandPacket commandPacket,
           SelectRequestPacket packet,
           String reader, String signature, String message,
           GNSApplicationInterface<String> app)
-          throws FailedDBOperationException, JSONException, UnknownHostException, InternalRequestException {
+          throws FailedDBOperationException, JSONException, UnknownHostException, InternalRequestException,
+          ClientException {
     // First do a signature check 
     if (!signatureCheckForSelect(reader, signature, message, app)) {
       return null;
@@ -596,14 +605,24 @@ public class FieldAccess {
 
     SelectResponsePacket responsePacket = GNSConfig.getSelector().
     		handleSelectRequestFromClient(header, packet, app);
+    boolean paged = packet.getLimit() > 0 || packet.getCursor() != null;
     if (responsePacket != null
             && // Fixme: probably should just have handleSelectRequestFromClient throw a clientException
             SelectResponsePacket.ResponseCode.NOERROR.equals(responsePacket.getResponseCode())) {
-      if (packet.getProjection() == null) {
-        return responsePacket.getGuids();
-      } else {
-        return responsePacket.getRecords();
+      JSONArray results = responsePacket.getRecords() != null ? responsePacket.getRecords()
+              : responsePacket.getGuids();
+      if (!paged) {
+        return results.toString();
+      }
+      JSONObject page = new JSONObject();
+      page.put(GNSProtocol.RESULTS.toString(), results);
+      if (responsePacket.getCursor() != null) {
+        page.put(GNSProtocol.CURSOR.toString(), responsePacket.getCursor());
       }
+      return page.toString();
+    } else if (paged && responsePacket != null) {
+      // an empty result would look like the last page
+      throw new ClientException(ResponseCode.QUERY_PROCESSING_ERROR, responsePacket.getErrorMessage());
     } else {
       return null;
     }
@@ -638,6 +657,8 @@ public class FieldAccess {
    * @param reader
    * @param key - the key to match
    * @param value - the value to match
+   * @param limit - the most guids to return or -1 for all of them
+   * @param cursor - the cursor returned with the previous page or null
    * @param signature
    * @param message
    * @param handler
@@ -645,18 +666,20 @@ public class FieldAccess {
    * @throws InternalRequestException
    */
   public static CommandResponse select(InternalRequestHeader header, CommandPacket commandPacket,
-          String reader, String key, Object value,
+          String reader, String key, Object value, int limit, String cursor,
           String signature, String message,
           ClientRequestHandlerInterface handler) throws InternalRequestException {
-    JSONArray result;
+    String result;
     try {
       result = executeSelect(header, commandPacket, SelectOperation.EQUALS, reader, key, value, null,
-              signature, message, handler.getApp());
+              limit, cursor, signature, message, handler.getApp());
       if (result != null) {
-        return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
+        return new CommandResponse(ResponseCode.NO_ERROR, result);
       }
     } catch (IOException | JSONException | FailedDBOperationException e) {
       // FIXME: why silently fail?
+    } catch (ClientException e) {
+      return new CommandResponse(e.getCode(), GNSProtocol.BAD_RESPONSE.toString() + " " + e.getMessage());
     }
     return new CommandResponse(ResponseCode.NO_ERROR, EMPTY_JSON_ARRAY_STRING);
   }
@@ -669,6 +692,8 @@ public class FieldAccess {
    * @param reader
    * @param key - the field to match - should be a location field
    * @param value - a bounding box
+   * @param limit - the most guids to return or -1 for all of them
+   * @param cursor - the cursor returned with the previous page or null
    * @param signature
    * @param message
    * @param handler
@@ -677,19 +702,21 @@ public class FieldAccess {
    */
   public static CommandResponse selectWithin(InternalRequestHeader header, CommandPacket commandPacket,
           String reader,
-          String key, String value,
+          String key, String value, int limit, String cursor,
           String signature, String message,
           ClientRequestHandlerInterface handler) throws InternalRequestException {
-    JSONArray result;
+    String result;
     try {
       result = executeSelect(header, commandPacket, SelectOperation.WITHIN, reader, key, value, null,
-              signature, message,
+              limit, cursor, signature, message,
               handler.getApp());
       if (result != null) {
-        return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
+        return new CommandResponse(ResponseCode.NO_ERROR, result);
       }
     } catch (IOException | JSONException | FailedDBOperationException e) {
       // FIXME: why silently fail?
+    } catch (ClientException e) {
+      return new CommandResponse(e.getCode(), GNSProtocol.BAD_RESPONSE.toString() + " " + e.getMessage());
     }
     return new CommandResponse(ResponseCode.NO_ERROR, EMPTY_JSON_ARRAY_STRING);
 
@@ -704,6 +731,8 @@ public class FieldAccess {
    * @param key - the field to match - should be a location field
    * @param value - the position
    * @param maxDistance - the maximum distance from position
+   * @param limit - the most guids to return or -1 for all of them
+   * @param cursor - the cursor returned with the previous page or null
    * @param signature
    * @param message
    * @param handler
@@ -711,19 +740,21 @@ public class FieldAccess {
    * @throws InternalRequestException
    */
   public static CommandResponse selectNear(InternalRequestHeader header, CommandPacket commandPacket,
-          String reader, String key, String value, String maxDistance,
+          String reader, String key, String value, String maxDistance, int limit, String cursor,
           String signature, String message,
           ClientRequestHandlerInterface handler) throws InternalRequestException {
-    JSONArray result;
+    String result;
     try {
       result = executeSelect(header, commandPacket, SelectOperation.NEAR, reader, key, value, maxDistance,
-              signature, message,
+              limit, cursor, signature, message,
               handler.getApp());
       if (result != null) {
-        return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
+        return new CommandResponse(ResponseCode.NO_ERROR, result);
       }
     } catch (IOException | JSONException | FailedDBOperationException e) {
       // FIXME: why silently fail?
+    } catch (ClientException e) {
+      return new CommandResponse(e.getCode(), GNSProtocol.BAD_RESPONSE.toString() + " " + e.getMessage());
     }
     return new CommandResponse(ResponseCode.NO_ERROR, EMPTY_JSON_ARRAY_STRING);
   }
@@ -736,6 +767,8 @@ public class FieldAccess {
    * @param reader
    * @param query
    * @param projection
+   * @param limit - the most guids or records to return or -1 for all of them
+   * @param cursor - the cursor returned with the previous page or null
    * @param signature
    * @param message
    * @param handler
@@ -743,7 +776,7 @@ public class FieldAccess {
    * @throws InternalRequestException
    */
   public static CommandResponse selectQuery(InternalRequestHeader header, CommandPacket commandPacket,
-          String reader, String query, List<String> projection,
+          String reader, String query, List<String> projection, int limit, String cursor,
           String signature, String message,
           ClientRequestHandlerInterface handler) throws InternalRequestException {
     if (Select.queryContainsEvil(query)) {
@@ -752,16 +785,20 @@ public class FieldAccess {
               + GNSProtocol.OPERATION_NOT_SUPPORTED.toString()
               + " Bad query operators in " + query);
     }
-    JSONArray result;
+    String result;
     try {
       SelectRequestPacket packet = SelectRequestPacket.MakeQueryRequest(-1, reader, query, projection);
+      packet.setLimit(limit);
+      packet.setCursor(cursor);
       result = executeSelectHelper(header, commandPacket, packet, reader, signature, message, handler.getApp());
       if (result != null) {
-        return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
+        return new CommandResponse(ResponseCode.NO_ERROR, result);
       }
     } catch (IOException | JSONException | FailedDBOperationException e) {
     	ClientException cle = new ClientException(e);
     	return new CommandResponse(cle.getCode(), "selectQuery failed. "+cle.getMessage());
+    } catch (ClientException e) {
+      return new CommandResponse(e.getCode(), "selectQuery failed. " + e.getMessage());
     }
     return null;
   }
@@ -822,16 +859,16 @@ public class FieldAccess {
         }
       }
     }
-    JSONArray result;
+    String result;
 
     try {
       SelectRequestPacket packet = SelectRequestPacket.MakeGroupSetupRequest(-1,
               reader, query, null, guid, interval);
       result = executeSelectHelper(header, commandPacket, packet, reader, signature, message, handler.getApp());
       if (result != null) {
-        return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
+        return new CommandResponse(ResponseCode.NO_ERROR, result);
       }
-    } catch (IOException | JSONException | FailedDBOperationException e) {
+    } catch (IOException | JSONException | FailedDBOperationException | ClientException e) {
     	ClientException cle = new ClientException(e);
     	return new CommandResponse(cle.getCode(), "selectGroupSetupQuery failed. "+cle.getMessage());
     }
@@ -855,14 +892,14 @@ public class FieldAccess {
           String reader, String accountGuid,
           String signature, String message,
           ClientRequestHandlerInterface handler) throws InternalRequestException {
-    JSONArray result;
+    String result;
     try {
       SelectRequestPacket packet = SelectRequestPacket.MakeGroupLookupRequest(-1, reader, accountGuid);
       result = executeSelectHelper(header, commandPacket, packet, reader, signature, message, handler.getApp());
       if (result != null) {
-        return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
+        return new CommandResponse(ResponseCode.NO_ERROR, result);
       }
-    } catch (IOException | JSONException | FailedDBOperationException e) {
+    } catch (IOException | JSONException | FailedDBOperationException | ClientException e) {
     	ClientException cle = new ClientException(e);
     	return new CommandResponse(cle.getCode(), "selectGroupLookupQuery failed. "+cle.getMessage());
     }
@@ -947,12 +984,14 @@ public class FieldAccess {
                   MetaDataTypeName.READ_WHITELIST, app)
                   .getResponseCode();
         } else if (fields != null) {
+          NameRecord[] records = NSAuthentication.lookupRecordsForACLCheck(
+                  header.getQueryingGUID(), app);
           for (String aField : fields) {
             AclCheckResult aclResult = NSAuthentication
                     .aclCheck(header, guid, aField,
                             header.getQueryingGUID(),
                             MetaDataTypeName.READ_WHITELIST,
-                            app);
+                            app, records);
             if (aclResult.getResponseCode()
                     .isExceptionOrError()) {
               errorCode = aclResult.getResponseCode();
@@ -30,6 +30,7 @@ import edu.umass.cs.gnscommon.packets.CommandPacket;
 import edu.umass.cs.gnsserver.utils.ResultValue;
 import edu.umass.cs.gnsserver.gnsapp.GNSCommandInternal;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.AccessorCache;
 import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSFieldAccess;
 import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
 
@@ -96,6 +97,7 @@ public class GroupAccess {
     // We need to update the members of the group and the groups of the member. 
     boolean membersUpdateOK = membersUpdateForAdd(header, groupGuid, Sets.newHashSet(memberGuid), handler);
     boolean groupsUpdateOK = groupsUpdateForAdd(header, groupGuid, memberGuid, handler);
+    AccessorCache.invalidateGroups(memberGuid);
     // If both updates were successfull we return success, otherwise not.
     if (membersUpdateOK && groupsUpdateOK) {
       return ResponseCode.NO_ERROR;
@@ -137,6 +139,7 @@ public class GroupAccess {
       if (!groupsUpdateForAdd(header, groupGuid, memberGuid, handler)) {
         allGroupsUpdatesOK = false;
       }
+      AccessorCache.invalidateGroups(memberGuid);
     }
     if (membersUpdateOK && allGroupsUpdatesOK) {
       return ResponseCode.NO_ERROR;
@@ -175,6 +178,7 @@ public class GroupAccess {
     boolean groupsUpdateOK = GNSProtocol.OK_RESPONSE.toString().equals(
             handler.getInternalClient().execute(GNSCommandInternal.fieldRemove(memberGuid,
                     GroupAccess.GROUPS, groupGuid, header)).getResultString());
+    AccessorCache.invalidateGroups(memberGuid);
     if (membersUpdateOK && groupsUpdateOK) {
       return ResponseCode.NO_ERROR;
     } else {
@@ -215,6 +219,7 @@ public class GroupAccess {
               GroupAccess.GROUPS, guid, header)).getResultString())) {
         allGroupsUpdatesOK = false;
       }
+      AccessorCache.invalidateGroups(memberGuid);
     }
     if (membersUpdateOK && allGroupsUpdatesOK) {
       return ResponseCode.NO_ERROR;
@@ -425,6 +430,7 @@ public class GroupAccess {
           InternalRequestException {
 
     LOGGER.log(Level.FINE, "DELETE CLEANUP: {0}", memberGuid);
+    AccessorCache.invalidate(memberGuid);
     try {
       boolean allUpdatesOK = true;
       // We're ignoring signatures and authentication
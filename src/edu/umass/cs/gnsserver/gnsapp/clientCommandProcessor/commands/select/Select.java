@@ -66,7 +66,9 @@ public class Select extends AbstractCommand {
     String value = json.getString(GNSProtocol.VALUE.toString());
     String signature = json.optString(GNSProtocol.SIGNATURE.toString(), null);
     String message = json.optString(GNSProtocol.SIGNATUREFULLMESSAGE.toString(), null);
-    return FieldAccess.select(header, commandPacket, reader, field, value, signature, message, handler);
+    int limit = json.optInt(GNSProtocol.LIMIT.toString(), -1);
+    String cursor = json.optString(GNSProtocol.CURSOR.toString(), null);
+    return FieldAccess.select(header, commandPacket, reader, field, value, limit, cursor, signature, message, handler);
   }
 
 }
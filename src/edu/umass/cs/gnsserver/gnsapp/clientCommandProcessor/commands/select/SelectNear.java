@@ -67,7 +67,9 @@ public class SelectNear extends AbstractCommand {
     String maxDistance = json.getString(GNSProtocol.MAX_DISTANCE.toString());
     String signature = json.optString(GNSProtocol.SIGNATURE.toString(), null);
     String message = json.optString(GNSProtocol.SIGNATUREFULLMESSAGE.toString(), null);
-    return FieldAccess.selectNear(header, commandPacket, reader, field, value, maxDistance, 
+    int limit = json.optInt(GNSProtocol.LIMIT.toString(), -1);
+    String cursor = json.optString(GNSProtocol.CURSOR.toString(), null);
+    return FieldAccess.selectNear(header, commandPacket, reader, field, value, maxDistance, limit, cursor,
             signature, message, handler);
   }
 
@@ -71,6 +71,8 @@ public class SelectQuery extends AbstractCommand {
 
     String signature = json.optString(GNSProtocol.SIGNATURE.toString(), null);
     String message = json.optString(GNSProtocol.SIGNATUREFULLMESSAGE.toString(), null);
+    int limit = json.optInt(GNSProtocol.LIMIT.toString(), -1);
+    String cursor = json.optString(GNSProtocol.CURSOR.toString(), null);
     // Special case handling of the fields argument
     // Empty means this is an older style select which is converted to null
     // GNSProtocol.ENTIRE_RECORD means what you think and is converted to a unique value which
@@ -84,7 +86,7 @@ public class SelectQuery extends AbstractCommand {
     } else {
       fields = JSONUtils.JSONArrayToArrayListString(json.getJSONArray(GNSProtocol.FIELDS.toString()));
     }
-    return FieldAccess.selectQuery(header, commandPacket, reader, query, fields,
+    return FieldAccess.selectQuery(header, commandPacket, reader, query, fields, limit, cursor,
             signature, message, handler);
   }
 
@@ -67,7 +67,9 @@ public class SelectWithin extends AbstractCommand {
     String within = json.getString(GNSProtocol.WITHIN.toString());
     String signature = json.optString(GNSProtocol.SIGNATURE.toString(), null);
     String message = json.optString(GNSProtocol.SIGNATUREFULLMESSAGE.toString(), null);
-    return FieldAccess.selectWithin(header, commandPacket, reader, field, within, signature, message, handler);
+    int limit = json.optInt(GNSProtocol.LIMIT.toString(), -1);
+    String cursor = json.optString(GNSProtocol.CURSOR.toString(), null);
+    return FieldAccess.selectWithin(header, commandPacket, reader, field, within, limit, cursor, signature, message, handler);
   }
 
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GuidInfo;
+import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Caches the guid info and groups of accessor guids for ACL checks.
+ * These usually live on another replica so without the cache every
+ * group based access check costs one or two remote lookups.
+ *
+ * Entries expire after {@link GNSConfig.GNSC#ACCESSOR_CACHE_TTL} and
+ * guids that weren't found are cached too. Membership changes made on this
+ * server invalidate the entries of the members right away; changes made
+ * elsewhere are seen once the entries expire.
+ *
+ * @author westy
+ */
+public class AccessorCache {
+
+  // Marks a guid whose guid info wasn't found.
+  private static final GuidInfo NOT_FOUND = new GuidInfo("", "", "");
+
+  private static final Cache<String, GuidInfo> GUID_INFOS = newCache();
+  private static final Cache<String, Set<String>> GROUPS = newCache();
+  // Bumped by every invalidation so that a lookup that raced with one doesn't
+  // put back what it read before.
+  private static final AtomicLong VERSION = new AtomicLong();
+
+  private static <V> Cache<String, V> newCache() {
+    int size = Config.getGlobalInt(GNSConfig.GNSC.ACCESSOR_CACHE_SIZE);
+    return size > 0
+            ? CacheBuilder.newBuilder().concurrencyLevel(Runtime.getRuntime().availableProcessors())
+            .maximumSize(size)
+            .expireAfterWrite(Config.getGlobalInt(GNSConfig.GNSC.ACCESSOR_CACHE_TTL), TimeUnit.MILLISECONDS)
+            .<String, V>build()
+            : null;
+  }
+
+  /**
+   * Returns the guid info of the accessor guid, looking it up
+   * on another server if need be. Returns null if the guid doesn't exist.
+   *
+   * @param header
+   * @param guid
+   * @param handler
+   * @return the {@link GuidInfo} or null
+   */
+  public static GuidInfo lookupGuidInfo(InternalRequestHeader header, String guid,
+          ClientRequestHandlerInterface handler) {
+    if (GUID_INFOS == null) {
+      return AccountAccess.lookupGuidInfoAnywhere(header, guid, handler);
+    }
+    GuidInfo result = GUID_INFOS.getIfPresent(guid);
+    if (result != null) {
+      ClientSupportConfig.getLogger().log(Level.FINE, "Accessor guid info found in cache {0}", guid);
+      return result != NOT_FOUND ? result : null;
+    }
+    long version = VERSION.get();
+    result = AccountAccess.lookupGuidInfoAnywhere(header, guid, handler);
+    put(GUID_INFOS, guid, result != null ? result : NOT_FOUND, version);
+    return result;
+  }
+
+  /**
+   * Returns the groups the accessor guid is a member of, looking them up
+   * on another server if need be.
+   *
+   * @param header
+   * @param guid
+   * @param handler
+   * @return a set of group guids
+   * @throws FailedDBOperationException
+   */
+  public static Set<String> lookupGroups(InternalRequestHeader header, String guid,
+          ClientRequestHandlerInterface handler) throws FailedDBOperationException {
+    if (GROUPS == null) {
+      return NSGroupAccess.lookupGroups(header, guid, handler);
+    }
+    Set<String> result = GROUPS.getIfPresent(guid);
+    if (result != null) {
+      ClientSupportConfig.getLogger().log(Level.FINE, "Accessor groups found in cache {0}", guid);
+      return result;
+    }
+    long version = VERSION.get();
+    result = Collections.unmodifiableSet(new HashSet<>(NSGroupAccess.lookupGroups(header, guid, handler)));
+    put(GROUPS, guid, result, version);
+    return result;
+  }
+
+  private static <V> void put(Cache<String, V> cache, String guid, V value, long version) {
+    if (VERSION.get() == version) {
+      cache.put(guid, value);
+      if (VERSION.get() != version) {
+        cache.invalidate(guid);
+      }
+    }
+  }
+
+  /**
+   * Forgets the groups of the guid. Called when its membership changes.
+   *
+   * @param guid
+   */
+  public static void invalidateGroups(String guid) {
+    if (GROUPS != null) {
+      VERSION.incrementAndGet();
+      GROUPS.invalidate(guid);
+    }
+  }
+
+  /**
+   * Forgets everything about the guid. Called when it is removed.
+   *
+   * @param guid
+   */
+  public static void invalidate(String guid) {
+    if (GUID_INFOS != null) {
+      VERSION.incrementAndGet();
+      GUID_INFOS.invalidate(guid);
+      GROUPS.invalidate(guid);
+    }
+  }
+}
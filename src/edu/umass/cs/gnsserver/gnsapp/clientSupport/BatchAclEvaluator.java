@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnsserver.gnsapp.GNSApplicationInterface;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GuidInfo;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.InternalField;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.AclMetaData;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Does the ACL checks of a page of select results for one reader.
+ *
+ * Checking each record and then each field of it with
+ * {@link NSAuthentication#signatureAndACLCheck} parses the record's ACLs
+ * and possibly looks up the reader again for every field. This looks up the
+ * reader's guid info and groups at most once per page and parses the ACLs of
+ * each record once, then decides which records and fields the reader can see
+ * the same way {@link NSAuthentication#aclCheck} does.
+ *
+ * The records must contain the guid info and ACLs of the guid
+ * (see {@code MongoRecords.generateSelectFields}).
+ *
+ * @author westy
+ */
+public class BatchAclEvaluator {
+
+  private final String reader;
+  private final MetaDataTypeName access;
+  private final GNSApplicationInterface<String> app;
+  private boolean readerResolved;
+  private GuidInfo readerInfo;
+  private Set<String> readerGroups;
+
+  /**
+   * Creates an evaluator that looks up the reader's guid info and
+   * groups the first time they are needed.
+   *
+   * @param reader the guid doing the select or null for an unsigned select
+   * @param access
+   * @param app
+   */
+  public BatchAclEvaluator(String reader, MetaDataTypeName access, GNSApplicationInterface<String> app) {
+    this.reader = reader;
+    this.access = access;
+    this.app = app;
+  }
+
+  /**
+   * Creates an evaluator for a reader that has already been looked up.
+   *
+   * @param reader
+   * @param readerInfo null if the reader doesn't exist
+   * @param readerGroups
+   * @param access
+   */
+  BatchAclEvaluator(String reader, GuidInfo readerInfo, Set<String> readerGroups, MetaDataTypeName access) {
+    this(reader, access, null);
+    this.readerResolved = true;
+    this.readerInfo = readerInfo;
+    this.readerGroups = readerGroups;
+  }
+
+  /**
+   * Removes the records that have a query field the reader can't
+   * access, otherwise the reader could learn that a guid has
+   * some value for a field they can't read, and then removes the
+   * fields the reader can't access from the remaining records.
+   *
+   * @param records
+   * @param queryFields
+   * @return the records the reader can see
+   */
+  public JSONArray filter(JSONArray records, List<String> queryFields) {
+    JSONArray result = new JSONArray();
+    for (int i = 0; i < records.length(); i++) {
+      try {
+        JSONObject record = records.getJSONObject(i);
+        String guid = record.getString(NameRecord.NAME.getName());
+        JSONObject valuesMap = record.getJSONObject(NameRecord.VALUES_MAP.getName());
+        RecordCheck check = new RecordCheck(guid, valuesMap);
+        if (!check.canAccess(queryFields)) {
+          ClientSupportConfig.getLogger().log(Level.FINE, "ACL check for select removed {0} queryFields={1}",
+                  new Object[]{guid, queryFields});
+          continue;
+        }
+        Iterator<?> keys = valuesMap.keys();
+        while (keys.hasNext()) {
+          String field = (String) keys.next();
+          if (!InternalField.isInternalField(field) && !check.canAccess(field)) {
+            ClientSupportConfig.getLogger().log(Level.FINE, "ACL check for select removed {0} from {1}",
+                    new Object[]{field, guid});
+            keys.remove();
+          }
+        }
+        result.put(record);
+      } catch (JSONException e) {
+        // ignore json errors
+        ClientSupportConfig.getLogger().log(Level.FINE, "Problem getting guid from json: {0}", e.getMessage());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Checks a single field of a record, parsing its ACLs again.
+   * Used to compare with checking a whole page at once.
+   *
+   * @param record
+   * @param field
+   * @return true if the reader can access the field
+   * @throws JSONException
+   */
+  boolean canAccess(JSONObject record, String field) throws JSONException {
+    return new RecordCheck(record.getString(NameRecord.NAME.getName()),
+            record.getJSONObject(NameRecord.VALUES_MAP.getName())).canAccess(field);
+  }
+
+  private void resolveReader() {
+    if (!readerResolved) {
+      readerResolved = true;
+      readerInfo = AccessorCache.lookupGuidInfo(null, reader, app.getRequestHandler());
+      if (readerInfo != null) {
+        try {
+          readerGroups = AccessorCache.lookupGroups(null, reader, app.getRequestHandler());
+        } catch (FailedDBOperationException e) {
+          ClientSupportConfig.getLogger().log(Level.FINE, "Unable to look up groups of {0}: {1}",
+                  new Object[]{reader, e.getMessage()});
+        }
+      }
+      if (readerGroups == null) {
+        readerGroups = Collections.emptySet();
+      }
+    }
+  }
+
+  /**
+   * The ACL checks of one record.
+   */
+  private class RecordCheck {
+
+    private final String guid;
+    private final JSONObject valuesMap;
+    private final AclMetaData metaData;
+    // Whether the reader's own record has its public key.
+    private Boolean readerHasPublicKey;
+
+    RecordCheck(String guid, JSONObject valuesMap) {
+      this.guid = guid;
+      this.valuesMap = valuesMap;
+      this.metaData = AclMetaData.fromValuesMap(valuesMap);
+    }
+
+    // All of the fields must be accessible.
+    boolean canAccess(List<String> fields) {
+      if (reader == null) {
+        // An unsigned select only sees records readable by everyone.
+        return canAccess((String) null);
+      }
+      for (String field : fields) {
+        if (!canAccess(field)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    boolean canAccess(String field) {
+      if (reader == null) {
+        // Same as NSAccessSupport.fieldAccessibleByEveryone
+        AclMetaData.FieldAcl acl = metaData.get(access, Collections.singletonList(field));
+        if (acl == null) {
+          acl = metaData.get(access, Collections.singletonList(GNSProtocol.ENTIRE_RECORD.toString()));
+        }
+        return acl != null && acl.isEveryone();
+      }
+      if (reader.equals(guid)) {
+        // Our own fields are always accessible if we can find our public key.
+        if (readerHasPublicKey == null) {
+          readerHasPublicKey = lookupOwnPublicKey() != null;
+        }
+        return readerHasPublicKey;
+      }
+      AclMetaData.FieldAcl publicKeys = NSAccessSupport.lookupPublicKeysFromAcl(access, guid,
+              NSAuthentication.aclPath(field), metaData);
+      if (publicKeys != null && publicKeys.getPublicKeyForGuid(reader) != null) {
+        return true;
+      }
+      if (publicKeys != null && publicKeys.isEveryone()) {
+        resolveReader();
+        if (readerInfo != null) {
+          return true;
+        }
+      }
+      // The reader could be a member of a group guid in the ACL
+      resolveReader();
+      return readerInfo != null && !readerGroups.isEmpty()
+              && NSAccessSupport.hierarchicalAccessGroupCheck(access, guid, field, readerGroups, metaData);
+    }
+
+    private String lookupOwnPublicKey() {
+      JSONObject guidInfo = valuesMap.optJSONObject(AccountAccess.GUID_INFO);
+      if (guidInfo != null) {
+        try {
+          return new GuidInfo(guidInfo).getPublicKey();
+        } catch (JSONException | ParseException e) {
+          // fall through to the lookup
+        }
+      }
+      if (app == null) {
+        return null;
+      }
+      try {
+        return NSAuthentication.lookupPublicKeyLocallyWithCacheing(guid, app);
+      } catch (FailedDBOperationException e) {
+        return null;
+      }
+    }
+  }
+}
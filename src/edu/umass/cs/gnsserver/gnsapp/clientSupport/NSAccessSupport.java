@@ -31,6 +31,7 @@ import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
@@ -42,20 +43,17 @@ import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.xml.bind.DatatypeConverter;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import com.google.common.collect.Sets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 import edu.umass.cs.gnscommon.GNSProtocol;
-import edu.umass.cs.gnscommon.SharedGuidUtils;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.exceptions.server.FieldNotFoundException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
 import edu.umass.cs.gnscommon.utils.Base64;
 import edu.umass.cs.gnsserver.gnsapp.GNSApplicationInterface;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.AclMetaData;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.BasicRecordMap;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
 import edu.umass.cs.gnsserver.main.GNSConfig.GNSC;
@@ -71,23 +69,77 @@ import edu.umass.cs.utils.Util;
  */
 public class NSAccessSupport {
 
-  private static KeyFactory keyFactory;
-  // arun: at least as many instances as cores for parallelism.
-  private static Signature[] signatureInstances = new Signature[2 * Runtime.getRuntime().availableProcessors()];
+  // Decoded public keys by their Base64 string so KeyFactory isn't run for every request.
+  private static final Cache<String, PublicKey> PUBLIC_KEY_CACHE
+          = CacheBuilder.newBuilder().concurrencyLevel(Runtime.getRuntime().availableProcessors())
+          .maximumSize(10000).build();
+
+  // Signature, Cipher, MessageDigest and KeyFactory instances aren't thread safe so each
+  // thread gets its own, which lets verifications run in parallel without any locking.
+  private static final ThreadLocal<KeyFactory> KEY_FACTORIES = new ThreadLocal<KeyFactory>() {
+    @Override
+    protected KeyFactory initialValue() {
+      try {
+        return KeyFactory.getInstance(GNSProtocol.RSA_ALGORITHM.toString());
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  };
+
+  private static final ThreadLocal<Signature> SIGNATURES = new ThreadLocal<Signature>() {
+    @Override
+    protected Signature initialValue() {
+      try {
+        return Signature.getInstance(GNSProtocol.SIGNATURE_ALGORITHM.toString());
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  };
+
+  private static final ThreadLocal<MessageDigest> MESSAGE_DIGESTS = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance(GNSProtocol.DIGEST_ALGORITHM.toString());
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  };
+
+  private static final ThreadLocal<Cipher> CIPHERS = new ThreadLocal<Cipher>() {
+    @Override
+    protected Cipher initialValue() {
+      try {
+        return Cipher.getInstance(GNSProtocol.SECRET_KEY_ALGORITHM.toString());
+      } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  };
 
   static {
+    // Check the algorithms up front rather than on the first request.
     try {
-      keyFactory = KeyFactory.getInstance(GNSProtocol.RSA_ALGORITHM.toString());
-      for (int i = 0; i < signatureInstances.length; i++) {
-        signatureInstances[i] = Signature.getInstance(GNSProtocol.SIGNATURE_ALGORITHM.toString());
-      }
-    } catch (NoSuchAlgorithmException e) {
-      ClientSupportConfig.getLogger().log(Level.SEVERE, "Unable to initialize for authentication:{0}", e);
+      KEY_FACTORIES.get();
+      SIGNATURES.get();
+    } catch (IllegalStateException e) {
+      ClientSupportConfig.getLogger().log(Level.SEVERE, "Unable to initialize for authentication:{0}", e.getCause());
+    }
+    try {
+      MESSAGE_DIGESTS.get();
+      CIPHERS.get();
+    } catch (IllegalStateException e) {
+      e.printStackTrace();
+      System.exit(1);
     }
   }
 
   /**
    * Verifies that the signature corresponds to the message using the public key.
+   * Safe to call from any number of threads at once.
    *
    * @param accessorPublicKey
    * @param signature
@@ -100,8 +152,8 @@ public class NSAccessSupport {
    */
   public static boolean verifySignature(String accessorPublicKey, String signature, String message) throws
           InvalidKeyException, SignatureException, UnsupportedEncodingException, InvalidKeySpecException {
-    byte[] publickeyBytes = Base64.decode(accessorPublicKey);
-    if (publickeyBytes == null) { // bogus public key
+    PublicKey publicKey = getPublicKey(accessorPublicKey);
+    if (publicKey == null) { // bogus public key
       ClientSupportConfig.getLogger().log(Level.FINE, "&&&&Base 64 decoding is bogus!!!");
       return false;
     }
@@ -111,7 +163,7 @@ public class NSAccessSupport {
               Util.truncate(signature, 16, 16),
               Util.truncate(message, 16, 16)});
     long t = System.nanoTime();
-    boolean result = verifySignatureInternal(publickeyBytes, signature, message);
+    boolean result = verifySignatureInternal(publicKey, signature, message);
     if (Util.oneIn(100)) {
       DelayProfiler.updateDelayNano("verification", t);
     }
@@ -124,18 +176,30 @@ public class NSAccessSupport {
     return result;
   }
 
-  private static int sigIndex = 0;
-
-  private synchronized static Signature getSignatureInstance() {
-    return signatureInstances[sigIndex++ % signatureInstances.length];
+  /**
+   * Returns the public key encoded by the Base64 string, or null if the
+   * string isn't valid Base64.
+   */
+  private static PublicKey getPublicKey(String accessorPublicKey) throws InvalidKeySpecException {
+    PublicKey publicKey = PUBLIC_KEY_CACHE.getIfPresent(accessorPublicKey);
+    if (publicKey == null) {
+      byte[] publickeyBytes = Base64.decode(accessorPublicKey);
+      if (publickeyBytes == null) {
+        return null;
+      }
+      // Two threads may both decode a new key, which is harmless.
+      publicKey = KEY_FACTORIES.get().generatePublic(new X509EncodedKeySpec(publickeyBytes));
+      PUBLIC_KEY_CACHE.put(accessorPublicKey, publicKey);
+    }
+    return publicKey;
   }
 
-  private static synchronized boolean verifySignatureInternal(byte[] publickeyBytes, String signature, String message)
-          throws InvalidKeyException, SignatureException, UnsupportedEncodingException, InvalidKeySpecException {
+  private static boolean verifySignatureInternal(PublicKey publicKey, String signature, String message)
+          throws InvalidKeyException, SignatureException, UnsupportedEncodingException {
 
     if (Config.getGlobalBoolean(GNSC.ENABLE_SECRET_KEY)) {
       try {
-        return verifySignatureInternalSecretKey(publickeyBytes, signature, message);
+        return verifySignatureInternalSecretKey(publicKey, signature, message);
       } catch (Exception e) {
         // This provided backward support for clients that don't have ENABLE_SECRET_KEY on by
         // falling through to non-secret method.
@@ -147,69 +211,25 @@ public class NSAccessSupport {
     }
 
     // Non-secret method kept for backwards compatbility with older clients.
-    X509EncodedKeySpec publicKeySpec = new X509EncodedKeySpec(publickeyBytes);
-    PublicKey publicKey = keyFactory.generatePublic(publicKeySpec);
-
-    Signature sigInstance = getSignatureInstance();
-    synchronized (sigInstance) {
-      sigInstance.initVerify(publicKey);
-      // iOS client uses UTF-8 - should switch to ISO-8859-1 to be consistent with
-      // secret key version
-      sigInstance.update(message.getBytes("UTF-8"));
-      // Non secret uses ISO-8859-1, but the iOS client uses hex so 
-      // we need to keep this for now.
-      try {
-        return sigInstance.verify(DatatypeConverter.parseHexBinary(signature));
-        // This will get thrown if the signature is not a hex string.
-      } catch (IllegalArgumentException e) {
-        return false;
-      }
-      //return sigInstance.verify(ByteUtils.hexStringToByteArray(signature));
-    }
-  }
-
-  private static final MessageDigest[] mds = new MessageDigest[Runtime.getRuntime().availableProcessors()];
-
-  static {
-    for (int i = 0; i < mds.length; i++) {
-      try {
-        mds[i] = MessageDigest.getInstance(GNSProtocol.DIGEST_ALGORITHM.toString());
-      } catch (NoSuchAlgorithmException e) {
-        e.printStackTrace();
-        System.exit(1);
-      }
-    }
-  }
-  private static int mdIndex = 0;
-
-  private static MessageDigest getMessageDigestInstance() {
-    return mds[mdIndex++ % mds.length];
-  }
-
-  private static final Cipher[] ciphers = new Cipher[2 * Runtime.getRuntime().availableProcessors()];
-
-  static {
-    for (int i = 0; i < ciphers.length; i++) {
-      try {
-        ciphers[i] = Cipher.getInstance(GNSProtocol.SECRET_KEY_ALGORITHM.toString());
-      } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-        e.printStackTrace();
-        System.exit(1);
-      }
+    Signature sigInstance = SIGNATURES.get();
+    sigInstance.initVerify(publicKey);
+    // iOS client uses UTF-8 - should switch to ISO-8859-1 to be consistent with
+    // secret key version
+    sigInstance.update(message.getBytes("UTF-8"));
+    // Non secret uses ISO-8859-1, but the iOS client uses hex so 
+    // we need to keep this for now.
+    try {
+      return sigInstance.verify(DatatypeConverter.parseHexBinary(signature));
+      // This will get thrown if the signature is not a hex string.
+    } catch (IllegalArgumentException e) {
+      return false;
     }
+    //return sigInstance.verify(ByteUtils.hexStringToByteArray(signature));
   }
 
-  private static int cipherIndex = 0;
-
-  private static Cipher getCipherInstance() {
-    return ciphers[cipherIndex++ % ciphers.length];
-  }
-
-  private static synchronized boolean verifySignatureInternalSecretKey(byte[] publickeyBytes, String signature, String message)
+  private static boolean verifySignatureInternalSecretKey(PublicKey publicKey, String signature, String message)
           throws InvalidKeyException, SignatureException, UnsupportedEncodingException, InvalidKeySpecException, NoSuchAlgorithmException, NoSuchPaddingException, IllegalBlockSizeException, BadPaddingException {
 
-    PublicKey publicKey = keyFactory.generatePublic(new X509EncodedKeySpec(publickeyBytes));
-
     // FIXME: The reason why we use CHARSET should be more throughly documented here.
     byte[] sigBytes = signature.getBytes(GNSProtocol.CHARSET.toString());
     byte[] bytes = message.getBytes(GNSProtocol.CHARSET.toString());
@@ -223,21 +243,16 @@ public class NSAccessSupport {
     bbuf.get(skCertEncoded);
     SecretKey secretKey = SessionKeys.getSecretKeyFromCertificate(skCertEncoded, publicKey);
 
-    MessageDigest md = getMessageDigestInstance();
-    byte[] digest;
-    synchronized (md) {
-      digest = md.digest(bytes);
-    }
-    Cipher cipher = getCipherInstance();
-    synchronized (cipher) {
-      cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-      return Arrays.equals(sign, cipher.doFinal(digest));
-    }
+    byte[] digest = MESSAGE_DIGESTS.get().digest(bytes);
+    Cipher cipher = CIPHERS.get();
+    cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+    return Arrays.equals(sign, cipher.doFinal(digest));
   }
 
   /**
    * Handles checking of fields with dot notation.
    * Checks deepest field first then backs up.
+   * The meta data of the guid is read once for all the levels.
    *
    * @param accessType
    * @param guid
@@ -249,19 +264,32 @@ public class NSAccessSupport {
    */
   public static boolean hierarchicalAccessGroupCheck(MetaDataTypeName accessType, String guid,
           String field, Set<String> groups,
-          GNSApplicationInterface<String> activeReplica) throws FailedDBOperationException {
+          GNSApplicationInterface<String> activeReplica)
+          throws FailedDBOperationException {
+    AclMetaData metaData = getMetaDataForACLCheck(guid, activeReplica.getDB());
+    if (metaData == null) {
+      ClientSupportConfig.getLogger().log(Level.WARNING,
+              "User {0} access problem for {1} field: no meta data exists",
+              new Object[]{guid, field});
+      return false;
+    }
+    return hierarchicalAccessGroupCheck(accessType, guid, field, groups, metaData);
+  }
+
+  static boolean hierarchicalAccessGroupCheck(MetaDataTypeName accessType, String guid,
+          String field, Set<String> groups, AclMetaData metaData) {
     ClientSupportConfig.getLogger().log(Level.FINE, "###field={0}", field);
     try {
-      return checkForGroupAccess(accessType, guid, field, groups, activeReplica);
+      return checkForGroupAccess(accessType, guid, field, groups, metaData);
     } catch (FieldNotFoundException e) {
       ClientSupportConfig.getLogger().log(Level.FINE, "###field NOT FOUND={0}.. GOING UP", new Object[]{field});
     }
     // otherwise go up the hierarchy and check
     if (field.contains(".")) {
       return hierarchicalAccessGroupCheck(accessType, guid, field.substring(0, field.lastIndexOf(".")),
-              groups, activeReplica);
+              groups, metaData);
     } else if (!GNSProtocol.ENTIRE_RECORD.toString().equals(field)) {
-      return hierarchicalAccessGroupCheck(accessType, guid, GNSProtocol.ENTIRE_RECORD.toString(), groups, activeReplica);
+      return hierarchicalAccessGroupCheck(accessType, guid, GNSProtocol.ENTIRE_RECORD.toString(), groups, metaData);
     } else {
       // check all the way up and there is no access
       return false;
@@ -275,54 +303,23 @@ public class NSAccessSupport {
    * @param accessType
    * @param guid
    * @param field
-   * @param accessorGuid
-   * @param activeReplica
+   * @param groups
+   * @param metaData
    * @return true if access is allowed
-   * @throws FailedDBOperationException
+   * @throws FieldNotFoundException
    */
   private static boolean checkForGroupAccess(MetaDataTypeName accessType,
-          String guid, String field, Set<String> groups,
-          GNSApplicationInterface<String> activeReplica)
-          throws FieldNotFoundException, FailedDBOperationException {
-    try {
-      // FIXME: Tidy this mess up.
-      @SuppressWarnings("unchecked")
-      Set<String> allowedUsers = (Set<String>) (Set<?>) NSFieldMetaData.lookupLocally(accessType,
-              guid, field, activeReplica.getDB());
-      ClientSupportConfig.getLogger().log(Level.FINE, "{0} allowed users of {1} : {2}",
-              new Object[]{guid, field, allowedUsers});
-      return !Sets.intersection(SharedGuidUtils.convertPublicKeysToGuids(allowedUsers), groups).isEmpty();
-    } catch (RecordNotFoundException e) {
-      ClientSupportConfig.getLogger().log(Level.WARNING,
-              "User {0} access problem for {2} field: {3}",
-              new Object[]{guid, field, e});
-      return false;
+          String guid, String field, Set<String> groups, AclMetaData metaData)
+          throws FieldNotFoundException {
+    AclMetaData.FieldAcl allowedUsers = metaData.get(accessType, field);
+    if (allowedUsers == null) {
+      throw new FieldNotFoundException(NameRecord.VALUES_MAP);
     }
+    ClientSupportConfig.getLogger().log(Level.FINE, "{0} allowed users of {1} : {2}",
+            new Object[]{guid, field, allowedUsers});
+    return allowedUsers.containsAnyGuid(groups);
   }
 
-   /**
-	 * return the first index of item in arr, -1 means not found the item in arr
-	 * 
-	 * @param arr
-	 * @param item
-	 * @return index of item in arr
-	 */
-	protected static int indexOfItemInJSONArray(JSONArray arr, String item){
-		int index = -1;
-		if(arr == null)
-			return index;
-		for (int i=0; i<arr.length(); i++){
-			try {
-				if(arr.getString(i).equals(item)){
-					return i;
-				}
-			} catch (JSONException e) {
-				// It doesn't matter if it is not a string
-			}
-		}
-		return index;
-	}
-  
   /**
    * Returns true if the field has access setting that allow it to be read globally.
    *
@@ -334,13 +331,13 @@ public class NSAccessSupport {
    * @throws FailedDBOperationException
    */
   public static boolean fieldAccessibleByEveryone(MetaDataTypeName access, String guid, String field,
-          GNSApplicationInterface<String> activeReplica, NameRecord... alreadyReadRecords) 
+          GNSApplicationInterface<String> activeReplica) 
         		  throws FailedDBOperationException 
   {
 	  /**
 	   * retrieve the metadata for ACL check
 	   */
-	 JSONObject metaData = getMetaDataForACLCheck(guid, activeReplica.getDB(), alreadyReadRecords);
+	 AclMetaData metaData = getMetaDataForACLCheck(guid, activeReplica.getDB());
 	 
 	 if(metaData == null){
 		 ClientSupportConfig.getLogger().log(Level.WARNING,
@@ -348,83 +345,39 @@ public class NSAccessSupport {
 	              new Object[]{guid, field, access.toString()});
 		 return false;
 	 }
-	 // we need another field called MD
-	 final String md = "MD";
-	 try {
-			JSONArray aclOfField = metaData.getJSONObject(access.getPrefix())
-					.getJSONObject(access.name()).getJSONObject(field).getJSONArray(md);
-			if(indexOfItemInJSONArray(aclOfField, GNSProtocol.EVERYONE.toString()) >= 0){				
-				return true;
-			}
-	 } catch (JSONException e) {
-			try {
-				JSONArray aclOfEntireRecord = metaData.getJSONObject(access.getPrefix())
-						.getJSONObject(access.name()).getJSONObject(GNSProtocol.ENTIRE_RECORD.toString()).getJSONArray(md);
-				if(indexOfItemInJSONArray(aclOfEntireRecord, GNSProtocol.EVERYONE.toString()) >= 0){				
-					return true;
-				}
-			} catch (JSONException e1) {
-				// We can not find GNSProtocol.EVERYONE, and return false
-				return false;
-			}
-	  }
-	 return false;
+	 // The field is looked up as a single key, if it has no ACL we check the entire record
+	 AclMetaData.FieldAcl aclOfField = metaData.get(access, Collections.singletonList(field));
+	 if (aclOfField == null) {
+		 aclOfField = metaData.get(access, Collections.singletonList(GNSProtocol.ENTIRE_RECORD.toString()));
+	 }
+	 return aclOfField != null && aclOfField.isEveryone();
   }
 
   /**
+   * Returns the ACLs of the guid from the ACL cache of the database.
+   *
    * @param guid
    * @param basicRecordMap
-   * @return meta data
+   * @return meta data or null if the record can't be read
    */
-  protected static JSONObject getMetaDataForACLCheck(String guid, BasicRecordMap basicRecordMap, 
-		  NameRecord... alreadyReadRecords )
+  protected static AclMetaData getMetaDataForACLCheck(String guid, BasicRecordMap basicRecordMap)
   {
-	  // first retrieve the metadata from alreadyReadRecords
-	  JSONObject metaData =  getMetadataFromReadRecords(guid, alreadyReadRecords);
-	  
-	  if(metaData != null)
-		  return metaData;
-	  
-	  
-	  /**
-	   *  For the rest of ACL and signature check, let's first retrieve
-	   *  the entire record, then check ACL.
-	   */	  
-	  JSONObject json = null;
-	  /**
-	   * 1. Fetch the entire record of guid
-	   */
 	  try {
 		  long startTime = System.nanoTime();
-		  /**
-		   * An entire record retrieved from DB is a JSON
-		   */
-		  json = basicRecordMap.lookupEntireRecord(guid);
-		  DelayProfiler.updateDelayNano("lookupEntireRecordForACLCheck", startTime);
+		  AclMetaData metaData = basicRecordMap.lookupAclMetaData(guid);
+		  DelayProfiler.updateDelayNano("lookupAclMetaDataForACLCheck", startTime);
+		  return metaData;
 	  } catch (FailedDBOperationException | RecordNotFoundException e) {
 		  /**
-		   * If the entire record can not be retrieved, then there is no way for us to check
+		   * If the record can not be retrieved, then there is no way for us to check
 		   * ACL and signature
 		   */
 		  return null;
 	  }
-		
-	  if(json == null){
-		  // The entire record is null, so we did not find the record
-		  return null;
-	  }
-	  
-	  metaData = null; 
-	  try {
-		  metaData = json.getJSONObject(GNSProtocol.META_DATA_FIELD.toString());
-	  } catch (JSONException e) {
-		  return null;
-	  }
-	  return metaData;
   }
   
   /**
-   * Looks up the public key for a guid using the acl of a field.
+   * Looks up the public keys for a guid using the acl of a field.
    * Handles fields that uses dot notation. Recursively goes up the tree
    * towards the root (GNSProtocol.ENTIRE_RECORD.toString()) node.
    *
@@ -432,39 +385,22 @@ public class NSAccessSupport {
    * @param guid
    * @param fields a list of fields from the root to the field that needs to be checked
    * @param metaData 
-   * @return a set of public keys
-   * @throws FailedDBOperationException
+   * @return the acl or null if there isn't one
    */
-  public static JSONArray lookupPublicKeysFromAcl(MetaDataTypeName access, String guid, List<String> fields,
-          JSONObject metaData) throws FailedDBOperationException {
+  public static AclMetaData.FieldAcl lookupPublicKeysFromAcl(MetaDataTypeName access, String guid, List<String> fields,
+          AclMetaData metaData) {
     ClientSupportConfig.getLogger().log(Level.FINE, "###fields={0}", new Object[]{fields});
-    try {
-    	JSONObject fieldACL = metaData.getJSONObject(access.getPrefix())
-				.getJSONObject(access.name());
-    	for(String field:fields){
-    		fieldACL = fieldACL.getJSONObject(field);
-    	}
-    	return fieldACL.getJSONArray(GNSProtocol.MD.toString()); 
-	} catch (JSONException e) {
-		ClientSupportConfig.getLogger().log(Level.FINE, "###field NOT FOUND={0}.. GOING UP", new Object[]{fields});
-	}
-	
-    // otherwise go up the hierarchy and check
-    if (fields.size() > 0) {
-      return lookupPublicKeysFromAcl(access, guid, fields.subList(0, fields.size()-1), metaData);      
-    } else if (fields.size() == 0) {
-    // One last check at the root (GNSProtocol.ENTIRE_RECORD.toString()) field.
-	    try {
-			return metaData.getJSONObject(access.getPrefix())
-					.getJSONObject(access.name()).getJSONObject(GNSProtocol.ENTIRE_RECORD.toString())
-					.getJSONArray(GNSProtocol.MD.toString());
-		} catch (JSONException e) {
-			// No ACL exists for root (GNSProtocol.ENTIRE_RECORD.toString()) field
-			return null;
-		}
-    } else {
-      return null;
+    // go up the hierarchy until we find an acl
+    for (int i = fields.size(); i >= 0; i--) {
+      AclMetaData.FieldAcl acl = metaData.get(access, fields.subList(0, i));
+      if (acl != null) {
+        return acl;
+      }
+      ClientSupportConfig.getLogger().log(Level.FINE, "###field NOT FOUND={0}.. GOING UP",
+              new Object[]{fields.subList(0, i)});
     }
+    // One last check at the root (GNSProtocol.ENTIRE_RECORD.toString()) field.
+    return metaData.get(access, Collections.singletonList(GNSProtocol.ENTIRE_RECORD.toString()));
   }
 
   /**
@@ -484,26 +420,4 @@ public class NSAccessSupport {
     return result;
   }
   
-  
-  private static JSONObject getMetadataFromReadRecords(String guid, 
-		  									NameRecord... alreadyReadRecords)
-  {
-	  if(alreadyReadRecords == null)
-		  return null;
-	  
-	  for(NameRecord nr : alreadyReadRecords)
-	  {
-		  try 
-  		  {
-  			  if( nr.getName().compareToIgnoreCase(guid) == 0 )
-  			  {
-  				  return nr.getValuesMap();
-  			  }
-  		  } catch (FieldNotFoundException e) {
-  			// do nothing, the iteration will complete and return null;
-  		  }
-  	  }
-  	  return null;
-  }
-  
-}
\ No newline at end of file
+}
@@ -26,26 +26,27 @@ import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
 import java.text.ParseException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 
 import edu.umass.cs.gnscommon.GNSProtocol;
 import edu.umass.cs.gnscommon.ResponseCode;
-import edu.umass.cs.gnscommon.SharedGuidUtils;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.exceptions.server.FieldNotFoundException;
 import edu.umass.cs.gnsserver.gnsapp.GNSApplicationInterface;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GroupAccess;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GuidInfo;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.AclMetaData;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
 import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
 
@@ -126,7 +127,7 @@ public class NSAuthentication {
 	  
     // Do a check for unsigned reads if there is no signature
     if ((!skipSigCheck && signature == null) || accessorGuid == null) {
-      if (NSAccessSupport.fieldAccessibleByEveryone(access, guid, field, gnsApp, alreadyReadNRs)) {
+      if (NSAccessSupport.fieldAccessibleByEveryone(access, guid, field, gnsApp)) {
         return ResponseCode.NO_ERROR;
       } else {
         ClientSupportConfig.getLogger().log(Level.FINE, "Name {0} key={1} : ACCESS_ERROR",
@@ -136,6 +137,14 @@ public class NSAuthentication {
     }
  
 
+    // Read the guid info and groups of the accessor if it is on this server once
+    // instead of for each field below. The ACLs of the guid come from the ACL cache.
+    // Accessing our own guid only needs the public key which is usually cached.
+    if ((alreadyReadNRs == null || alreadyReadNRs.length == 0)
+            && (!accessorGuid.equals(guid) || PUBLIC_KEY_CACHE.getIfPresent(guid) == null)) {
+      alreadyReadNRs = lookupRecordsForACLCheck(accessorGuid, gnsApp);
+    }
+
     // Now we do the ACL check. By doing this now we also look up the public key as
     // side effect which we need for the signing check below.
     AclCheckResult aclResult = null;
@@ -208,8 +217,7 @@ public class NSAuthentication {
     	 * In order to not fetch the entire record multiple times,
     	 * we fetch it here and let lookupPublicKeyInACL to get the public key from it.
     	 */
-    	JSONObject metaData = NSAccessSupport.getMetaDataForACLCheck(targetGuid, gnsApp.getDB(),
-    			alreadyReadNRs);
+    	AclMetaData metaData = NSAccessSupport.getMetaDataForACLCheck(targetGuid, gnsApp.getDB());
     	if(metaData == null){
     		// this is a bad GUID as its meta data can not be fetched
     		ClientSupportConfig.getLogger().log(Level.WARNING, "User {0} access problem for {1}'s {2} field: no meta data exists",
@@ -226,16 +234,19 @@ public class NSAuthentication {
     // that group guid is in the ACL
     if (publicKey == null) {
       // First thing to do is to lookup the accessorGuid... possibly remotely.
-      GuidInfo accessorGuidInfo;
-      //TODO: Add a cache here
-      if ((accessorGuidInfo = AccountAccess.lookupGuidInfoAnywhere(header, accessorGuid, gnsApp.getRequestHandler())) != null) {
+      GuidInfo accessorGuidInfo = lookupGuidInfoFromReadRecords(accessorGuid, alreadyReadNRs);
+      if (accessorGuidInfo != null
+              || (accessorGuidInfo = AccessorCache.lookupGuidInfo(header, accessorGuid, gnsApp.getRequestHandler())) != null) {
         ClientSupportConfig.getLogger().log(Level.FINE,
                 "================> Catchall lookup returned: {0}",
                 accessorGuidInfo);
         // Check all the ACLs in the tree for this field to see if there is a group guid that
         // in there somewhere that has accessorGuid as a member
-        Set<String> groups;
-        if (!(groups = NSGroupAccess.lookupGroups(header, accessorGuid, gnsApp.getRequestHandler())).isEmpty()) {
+        Set<String> groups = lookupGroupsFromReadRecords(accessorGuid, alreadyReadNRs);
+        if (groups == null) {
+          groups = AccessorCache.lookupGroups(header, accessorGuid, gnsApp.getRequestHandler());
+        }
+        if (!groups.isEmpty()) {
           if (NSAccessSupport.hierarchicalAccessGroupCheck(access, targetGuid, field, groups, gnsApp)) {
             publicKey = accessorGuidInfo.getPublicKey();
           }
@@ -266,25 +277,20 @@ public class NSAuthentication {
    * @throws FailedDBOperationException
    */
   private static String lookupPublicKeyFromMetaData(InternalRequestHeader header, String guid, String field, String accessorGuid,
-          MetaDataTypeName access, JSONObject metaData, GNSApplicationInterface<String> gnsApp)
+          MetaDataTypeName access, AclMetaData metaData, GNSApplicationInterface<String> gnsApp)
           throws FailedDBOperationException {
-	  List<String> fields = null;
-	if(field.contains("."))  
-		fields = Arrays.asList(field.split("."));
-	else
-		fields = Arrays.asList(field);
     // Field could also be GNSProtocol.ENTIRE_RECORD.toString() here 
-    JSONArray publicKeys = NSAccessSupport.lookupPublicKeysFromAcl(access, guid, fields, metaData);
-    String publicKey = SharedGuidUtils.findPublicKeyForGuid(accessorGuid, publicKeys);
+    AclMetaData.FieldAcl publicKeys = NSAccessSupport.lookupPublicKeysFromAcl(access, guid, aclPath(field), metaData);
+    String publicKey = publicKeys != null ? publicKeys.getPublicKeyForGuid(accessorGuid) : null;
     ClientSupportConfig.getLogger().log(Level.FINE,
             "================> {0} lookup for {1} returned: {2} public keys={3}",
             new Object[]{access.toString(), field, publicKey,
               publicKeys});
     // See if public keys contains GNSProtocol.EVERYONE.toString() which means we need to go old school and lookup the guid 
     // explicitly because it's not going to have an entry in the ACL
-    if (publicKey == null && NSAccessSupport.indexOfItemInJSONArray(publicKeys, GNSProtocol.EVERYONE.toString())>=0) {
+    if (publicKey == null && publicKeys != null && publicKeys.isEveryone()) {
       GuidInfo accessorGuidInfo;
-      if ((accessorGuidInfo = AccountAccess.lookupGuidInfoAnywhere(header, accessorGuid, gnsApp.getRequestHandler())) != null) {
+      if ((accessorGuidInfo = AccessorCache.lookupGuidInfo(header, accessorGuid, gnsApp.getRequestHandler())) != null) {
         ClientSupportConfig.getLogger().log(Level.FINE,
                 "================> {0} lookup for EVERYONE returned {1}",
                 new Object[]{access.toString(), accessorGuidInfo});
@@ -300,6 +306,15 @@ public class NSAuthentication {
     return publicKey;
   }
 
+  // The path of the field passed to NSAccessSupport.lookupPublicKeysFromAcl.
+  static List<String> aclPath(String field) {
+    if (field.contains(".")) {
+      return Arrays.asList(field.split("\\."));
+    } else {
+      return Arrays.asList(field);
+    }
+  }
+
   /**
    * Look up a public key for the {@code guid} using a cache.
    *
@@ -331,28 +346,65 @@ public class NSAuthentication {
   }
   
   
-  private static String lookupPublicKeyFromReadRecords(String guid, NameRecord... readRecords)
-  
-  {
-	  if(readRecords == null)
-		  return null;
-	  
-	  for(NameRecord nr : readRecords)
-	  {
-		  try {
-				  if( nr.getName().compareToIgnoreCase(guid) == 0 )
-				  {
-					  GuidInfo  result = new GuidInfo(nr.getValuesMap().getJSONObject
-								  												(AccountAccess.GUID_INFO));
-					  if(result != null)
-						  return result.getPublicKey();
-				  }
-			  } catch (FieldNotFoundException | JSONException | ParseException e) 
-		  		{
-				  // We ignore the exceptions here and continue with the iterator.
-		  		}
-  	  }
-  	  return null;
+  private static String lookupPublicKeyFromReadRecords(String guid, NameRecord... readRecords) {
+    GuidInfo guidInfo = lookupGuidInfoFromReadRecords(guid, readRecords);
+    return guidInfo != null ? guidInfo.getPublicKey() : null;
+  }
+
+  private static GuidInfo lookupGuidInfoFromReadRecords(String guid, NameRecord... readRecords) {
+    if (readRecords == null) {
+      return null;
     }
-  
+    for (NameRecord nr : readRecords) {
+      try {
+        if (nr.getName().compareToIgnoreCase(guid) == 0) {
+          return new GuidInfo(nr.getValuesMap().getJSONObject(AccountAccess.GUID_INFO));
+        }
+      } catch (FieldNotFoundException | JSONException | ParseException e) {
+        // We ignore the exceptions here and continue with the iterator.
+      }
+    }
+    return null;
+  }
+
+  // Returns null if none of the records read contain the groups of the guid.
+  private static Set<String> lookupGroupsFromReadRecords(String guid, NameRecord... readRecords) {
+    if (readRecords == null) {
+      return null;
+    }
+    for (NameRecord nr : readRecords) {
+      try {
+        if (nr.getName().compareToIgnoreCase(guid) == 0
+                && nr.getValuesMap().has(GroupAccess.GROUPS)) {
+          return nr.getUserKeyAsArray(GroupAccess.GROUPS).toStringSet();
+        }
+      } catch (FieldNotFoundException e) {
+        // We ignore the exceptions here and continue with the iterator.
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Reads the guid info and groups of the accessor if it is on this server.
+   * The ACLs of the guid being accessed aren't read since they come from
+   * the ACL cache of the database. The result can be passed as the already
+   * read records of {@link #signatureAndACLCheck} and {@link #aclCheck}.
+   *
+   * @param accessorGuid
+   * @param gnsApp
+   * @return the records that were found
+   * @throws FailedDBOperationException
+   */
+  public static NameRecord[] lookupRecordsForACLCheck(String accessorGuid,
+          GNSApplicationInterface<String> gnsApp)
+          throws FailedDBOperationException {
+    if (accessorGuid == null) {
+      return new NameRecord[0];
+    }
+    Map<String, NameRecord> records = NameRecord.getNameRecords(gnsApp.getDB(),
+            Collections.singleton(accessorGuid), Arrays.asList(AccountAccess.GUID_INFO, GroupAccess.GROUPS));
+    return records.values().toArray(new NameRecord[records.size()]);
+  }
+
 }
@@ -40,7 +40,11 @@ import edu.umass.cs.utils.DelayProfiler;
 import edu.umass.cs.utils.Util;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 
 import org.json.JSONException;
@@ -104,6 +108,46 @@ public class NSFieldAccess {
     return valuesMap;
   }
 
+  /**
+   * Looks up the value of a field in several guids on this NameServer
+   * using one database lookup.
+   * Active code is automatically handled during this call.
+   *
+   * Guids that aren't on this NameServer are left out of the result.
+   *
+   * @param header
+   * @param guids
+   * @param field
+   * @param gnsApp
+   * @return a map of guid to ValuesMap
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public static Map<String, ValuesMap> lookupJSONFieldLocally(InternalRequestHeader header,
+          Collection<String> guids, String field, GNSApplicationInterface<String> gnsApp)
+          throws FailedDBOperationException {
+    Map<String, ValuesMap> result = new HashMap<>();
+    for (Map.Entry<String, NameRecord> entry : NameRecord.getNameRecords(gnsApp.getDB(), guids,
+            GNSProtocol.ENTIRE_RECORD.toString().equals(field) ? null : Arrays.asList(field)).entrySet()) {
+      ValuesMap valuesMap;
+      try {
+        valuesMap = entry.getValue().getValuesMap();
+      } catch (FieldNotFoundException e) {
+        ClientSupportConfig.getLogger().log(Level.FINE, "Field not found {0} : {1}",
+                new Object[]{entry.getKey(), e});
+        continue;
+      }
+      try {
+        JSONObject activeCodeResult = ActiveCodeHandler.handleActiveCode(header, entry.getKey(), field,
+                ActiveCode.READ_ACTION, valuesMap, gnsApp.getDB());
+        valuesMap = activeCodeResult != null ? new ValuesMap(activeCodeResult) : valuesMap;
+      } catch (InternalRequestException e) {
+        // Active code field lookup failed, do nothing and return the original value
+      }
+      result.put(entry.getKey(), valuesMap);
+    }
+    return result;
+  }
+
   private static ValuesMap lookupFieldLocalNoAuth(String guid, String field, ColumnFieldType returnFormat,
           BasicRecordMap database) throws FailedDBOperationException {
     NameRecord nameRecord = null;
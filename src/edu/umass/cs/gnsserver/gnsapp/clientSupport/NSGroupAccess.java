@@ -37,6 +37,7 @@ import edu.umass.cs.gnsserver.utils.ValuesMap;
 import java.io.IOException;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 
@@ -352,9 +353,14 @@ public class NSGroupAccess {
   public static ValuesMap lookupFieldInGroupGuid(InternalRequestHeader header, String groupGuid, String field,
           GNSApplicationInterface<String> gnsApp) throws FailedDBOperationException, JSONException {
     JSONArray resultArray = new JSONArray();
-    for (Object guidObject : lookupMembers(header, groupGuid, false, gnsApp.getRequestHandler())) {
+    ResultValue members = lookupMembers(header, groupGuid, false, gnsApp.getRequestHandler());
+    // Read all the members that are on this server at once, the rest are looked up one at a time
+    Map<String, ValuesMap> localValues = NSFieldAccess.lookupJSONFieldLocally(header,
+            members.toStringSet(), field, gnsApp);
+    for (Object guidObject : members) {
       String guid = (String) guidObject;
-      ValuesMap valuesMap = NSFieldAccess.lookupJSONFieldAnywhere(header, guid, field, gnsApp);
+      ValuesMap valuesMap = localValues.containsKey(guid) ? localValues.get(guid)
+              : NSFieldAccess.lookupJSONFieldAnywhere(header, guid, field, gnsApp);
       if (valuesMap != null && valuesMap.has(field)) {
         resultArray.put(valuesMap.get(field));
       }
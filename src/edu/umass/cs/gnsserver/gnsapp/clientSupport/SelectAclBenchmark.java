@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.SharedGuidUtils;
+import edu.umass.cs.gnscommon.utils.Base64;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GuidInfo;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.InternalField;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Measures how fast {@link BatchAclEvaluator} filters a page of synthetic
+ * select results compared to evaluating every record and field separately,
+ * which parses the ACLs of a record once per check like the old per field
+ * {@link NSAuthentication#signatureAndACLCheck} calls did.
+ *
+ * The records have a mix of ACLs: the reader's key, a group the reader is in,
+ * everyone and keys of other guids, on the entire record and on single fields.
+ *
+ * Typical incantation:
+ *
+ * java -cp jars/GNS.jar edu.umass.cs.gnsserver.gnsapp.clientSupport.SelectAclBenchmark 10000 20 5
+ *
+ * @author westy
+ */
+public class SelectAclBenchmark {
+
+  private static final MetaDataTypeName ACCESS = MetaDataTypeName.READ_WHITELIST;
+  private static final int OTHER_KEYS = 8;
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args the number of records, the fields per record and the number of rounds
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    int recordCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int fieldCount = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    KeyPairGenerator generator = KeyPairGenerator.getInstance(GNSProtocol.RSA_ALGORITHM.toString());
+    String readerKey = Base64.encodeToString(generator.generateKeyPair().getPublic().getEncoded(), false);
+    String reader = SharedGuidUtils.createGuidStringFromBase64PublicKey(readerKey);
+    List<String> otherKeys = new ArrayList<>();
+    for (int i = 0; i < OTHER_KEYS; i++) {
+      otherKeys.add(Base64.encodeToString(generator.generateKeyPair().getPublic().getEncoded(), false));
+    }
+    // the group is in the ACLs by its guid
+    String groupKey = otherKeys.get(0);
+    GuidInfo readerInfo = new GuidInfo("reader", reader, readerKey);
+    Set<String> groups = Collections.singleton(SharedGuidUtils.createGuidStringFromBase64PublicKey(groupKey));
+    String records = createRecords(recordCount, fieldCount, readerKey, otherKeys).toString();
+    List<String> queryFields = Arrays.asList("field0");
+
+    for (int round = 0; round < rounds; round++) {
+      JSONArray page = new JSONArray(records);
+      long startTime = System.nanoTime();
+      JSONArray result = new BatchAclEvaluator(reader, readerInfo, groups, ACCESS).filter(page, queryFields);
+      double batchMs = (System.nanoTime() - startTime) / 1e6;
+
+      page = new JSONArray(records);
+      startTime = System.nanoTime();
+      int unbatchedCount = filterEachCheckSeparately(page, queryFields,
+              new BatchAclEvaluator(reader, readerInfo, groups, ACCESS)).length();
+      double separateMs = (System.nanoTime() - startTime) / 1e6;
+
+      System.out.println(String.format("round %d: %d of %d records visible; batch %8.1f ms, "
+              + "separate %8.1f ms (%5.1fx)", round, result.length(), recordCount, batchMs, separateMs,
+              separateMs / batchMs));
+      if (unbatchedCount != result.length()) {
+        System.out.println("Mismatch: separate checks kept " + unbatchedCount + " records");
+      }
+    }
+  }
+
+  // Evaluates the records one check at a time.
+  private static JSONArray filterEachCheckSeparately(JSONArray records, List<String> queryFields,
+          BatchAclEvaluator evaluator) throws JSONException {
+    JSONArray result = new JSONArray();
+    for (int i = 0; i < records.length(); i++) {
+      JSONObject record = records.getJSONObject(i);
+      boolean visible = true;
+      for (String field : queryFields) {
+        visible = visible && evaluator.canAccess(record, field);
+      }
+      if (!visible) {
+        continue;
+      }
+      JSONObject valuesMap = record.getJSONObject(NameRecord.VALUES_MAP.getName());
+      for (String field : JSONObject.getNames(valuesMap)) {
+        if (!InternalField.isInternalField(field) && !evaluator.canAccess(record, field)) {
+          valuesMap.remove(field);
+        }
+      }
+      result.put(record);
+    }
+    return result;
+  }
+
+  private static JSONArray createRecords(int recordCount, int fieldCount, String readerKey,
+          List<String> otherKeys) throws JSONException {
+    Random random = new Random(42);
+    JSONArray records = new JSONArray();
+    for (int i = 0; i < recordCount; i++) {
+      String key = otherKeys.get(random.nextInt(otherKeys.size()));
+      String guid = SharedGuidUtils.createGuidStringFromBase64PublicKey(key) + i;
+      JSONObject valuesMap = new JSONObject();
+      JSONObject acls = new JSONObject();
+      for (int f = 0; f < fieldCount; f++) {
+        valuesMap.put("field" + f, "value" + random.nextInt(1000));
+        if (random.nextInt(4) == 0) {
+          acls.put("field" + f, new JSONObject().put(GNSProtocol.MD.toString(),
+                  new JSONArray().put(aclEntry(random, readerKey, otherKeys))));
+        }
+      }
+      acls.put(GNSProtocol.ENTIRE_RECORD.toString(), new JSONObject().put(GNSProtocol.MD.toString(),
+              new JSONArray().put(key).put(aclEntry(random, readerKey, otherKeys))));
+      valuesMap.put(ACCESS.getPrefix(), new JSONObject().put(ACCESS.name(), acls));
+      valuesMap.put(AccountAccess.GUID_INFO, new GuidInfo("record" + i, guid, key).toJSONObject());
+      records.put(new JSONObject().put(NameRecord.NAME.getName(), guid)
+              .put(NameRecord.VALUES_MAP.getName(), valuesMap));
+    }
+    return records;
+  }
+
+  // The reader's key, the group, everyone or another guid's key.
+  private static String aclEntry(Random random, String readerKey, List<String> otherKeys) {
+    switch (random.nextInt(4)) {
+      case 0:
+        return readerKey;
+      case 1:
+        return otherKeys.get(0);
+      case 2:
+        return GNSProtocol.EVERYONE.toString();
+      default:
+        return otherKeys.get(1 + random.nextInt(otherKeys.size() - 1));
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import edu.umass.cs.gnsclient.client.CryptoUtils;
+import edu.umass.cs.gnsclient.client.util.GuidEntry;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.utils.Base64;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Measures how many signatures {@link NSAccessSupport#verifySignature} verifies
+ * per second as the number of verifying threads goes from 1 to twice the
+ * number of cores. The signed requests use a small set of keys like
+ * a replica serving a few busy clients.
+ *
+ * Pass "secret" to sign with the secret key method instead of plain RSA.
+ *
+ * Typical incantation:
+ *
+ * java -cp jars/GNS.jar edu.umass.cs.gnsserver.gnsapp.clientSupport.SignatureVerificationBenchmark 5000
+ *
+ * @author westy
+ */
+public class SignatureVerificationBenchmark {
+
+  private static final int KEYS = 16;
+  private static final String MESSAGE = "{\"command\":\"read\",\"guid\":\"benchmarkGuid\",\"field\":\"field\"}";
+
+  private static final class SignedRequest {
+
+    final String publicKey;
+    final String signature;
+
+    SignedRequest(String publicKey, String signature) {
+      this.publicKey = publicKey;
+      this.signature = signature;
+    }
+  }
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args the milliseconds to run each thread count for and optionally "secret"
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    long duration = args.length > 0 ? Long.parseLong(args[0]) : 5000;
+    boolean secret = args.length > 1 && "secret".equals(args[1]);
+    List<SignedRequest> requests = createRequests(secret);
+    // warm up
+    run(requests, Runtime.getRuntime().availableProcessors(), duration);
+    for (int threads = 1; threads <= 2 * Runtime.getRuntime().availableProcessors(); threads *= 2) {
+      double rate = run(requests, threads, duration);
+      System.out.println(String.format("%3d threads: %10.0f verifications/s", threads, rate));
+    }
+  }
+
+  private static List<SignedRequest> createRequests(boolean secret) throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance(GNSProtocol.RSA_ALGORITHM.toString());
+    List<SignedRequest> requests = new ArrayList<>();
+    for (int i = 0; i < KEYS; i++) {
+      KeyPair keyPair = generator.generateKeyPair();
+      String signature;
+      if (secret) {
+        signature = CryptoUtils.signDigestOfMessageSecretKey(new GuidEntry("benchmark" + i,
+                "benchmarkGuid" + i, keyPair.getPublic(), keyPair.getPrivate()), MESSAGE);
+      } else {
+        Signature signer = Signature.getInstance(GNSProtocol.SIGNATURE_ALGORITHM.toString());
+        signer.initSign(keyPair.getPrivate());
+        signer.update(MESSAGE.getBytes("UTF-8"));
+        signature = DatatypeConverter.printHexBinary(signer.sign());
+      }
+      requests.add(new SignedRequest(Base64.encodeToString(keyPair.getPublic().getEncoded(), false),
+              signature));
+    }
+    return requests;
+  }
+
+  // Returns the verifications per second.
+  private static double run(final List<SignedRequest> requests, int threadCount, long duration)
+          throws InterruptedException {
+    final AtomicBoolean running = new AtomicBoolean(true);
+    final AtomicLong verified = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < threadCount; t++) {
+      final int offset = t;
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          long count = 0;
+          for (int i = offset; running.get(); i++) {
+            SignedRequest request = requests.get(i % requests.size());
+            try {
+              if (!NSAccessSupport.verifySignature(request.publicKey, request.signature, MESSAGE)) {
+                failed.incrementAndGet();
+              }
+            } catch (Exception e) {
+              failed.incrementAndGet();
+            }
+            count++;
+          }
+          verified.addAndGet(count);
+        }
+      });
+      threads.add(thread);
+    }
+    long startTime = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    Thread.sleep(duration);
+    running.set(false);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    double seconds = (System.nanoTime() - startTime) / 1e9;
+    if (failed.get() > 0) {
+      System.out.println(failed.get() + " verifications failed");
+    }
+    return verified.get() / seconds;
+  }
+}
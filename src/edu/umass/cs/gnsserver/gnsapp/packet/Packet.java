@@ -23,6 +23,7 @@ import edu.umass.cs.gnscommon.packets.AdminCommandPacket;
 import edu.umass.cs.gnscommon.packets.CommandPacket;
 import edu.umass.cs.gnscommon.CommandType;
 import edu.umass.cs.gnscommon.packets.ResponsePacket;
+import edu.umass.cs.gnscommon.utils.JSONByteConverter;
 import edu.umass.cs.gnsserver.gnsapp.packet.admin.AdminRequestPacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.admin.AdminResponsePacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.admin.DumpRequestPacket;
@@ -30,6 +31,7 @@ import edu.umass.cs.gnsserver.gnsapp.packet.admin.SentinalPacket;
 import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnsserver.nodeconfig.PortOffsets;
 import edu.umass.cs.gnsserver.nodeconfig.GNSNodeConfig;
+import edu.umass.cs.nio.MessageNIOTransport;
 import edu.umass.cs.nio.interfaces.IntegerPacketType;
 import edu.umass.cs.nio.interfaces.Stringifiable;
 
@@ -39,9 +41,11 @@ import org.json.JSONObject;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.HashMap;
 import java.util.Map;
@@ -239,6 +243,51 @@ public class Packet {
     json.put(PACKET_TYPE, type.getInt());
   }
 
+  /**
+   * Converts a packet to its binary form which is the packet type followed by
+   * the compact {@link JSONByteConverter} encoding of its JSON. Strings, arrays and maps
+   * carry their lengths in that encoding so nothing needs to be escaped or parsed
+   * and the field names repeated in each record are only sent once.
+   * Packets with values the converter can't encode are converted to JSON text
+   * which receivers tell apart from the binary form.
+   *
+   * @param packet
+   * @return the bytes
+   */
+  public static byte[] toBytes(BasicPacket packet) {
+    try {
+      JSONObject json = packet.toJSONObject();
+      try {
+        byte[] body = JSONByteConverter.toBytesCompact(json);
+        return ByteBuffer.allocate(Integer.BYTES + body.length)
+                .putInt(packet.getType().getInt()).put(body).array();
+      } catch (JSONException | IOException e) {
+        return json.toString().getBytes(MessageNIOTransport.NIO_CHARSET_ENCODING);
+      }
+    } catch (JSONException | UnsupportedEncodingException e) {
+      throw new RuntimeException("Unable to byteify " + packet.getType(), e);
+    }
+  }
+
+  /**
+   * Returns the JSON of a packet from the bytes made by {@link #toBytes}.
+   *
+   * @param bytes
+   * @return the JSON of the packet
+   * @throws JSONException
+   */
+  public static JSONObject fromBytes(byte[] bytes) throws JSONException {
+    ByteBuffer buf = ByteBuffer.wrap(bytes);
+    // the JSON has the type too
+    buf.getInt();
+    try {
+      return JSONByteConverter.fromBytesCompact(buf);
+    } catch (RuntimeException e) {
+      // truncated or not made by toBytes
+      throw new JSONException("Unable to read packet bytes: " + e);
+    }
+  }
+
   /**
    * Create an packet instance from a JSON Object that contains a packet plus
    * a Stringifiable instance (same as a packet constructor).
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnsapp.packet;
+
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Compares the size and the encode plus decode time of a page of select
+ * records sent as JSON against the binary form, for pages of 10, 100 and
+ * 1000 records.
+ *
+ * Typical incantation:
+ *
+ * java -cp jars/GNS.jar edu.umass.cs.gnsserver.gnsapp.packet.SelectPacketBytesBenchmark 200
+ *
+ * @author westy
+ */
+public class SelectPacketBytesBenchmark {
+
+  private static final int[] RECORD_COUNTS = {10, 100, 1000};
+  private static final InetSocketAddress SERVER = new InetSocketAddress("127.0.0.1", 24403);
+  // keeps the JIT from throwing away the work
+  private static int sink = 0;
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   * @throws JSONException
+   * @throws UnsupportedEncodingException
+   */
+  public static void main(String[] args) throws JSONException, UnsupportedEncodingException {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    for (int records : RECORD_COUNTS) {
+      SelectResponsePacket page = createPage(records);
+      int jsonSize = page.toJSONObject().toString().getBytes("ISO-8859-1").length;
+      int binarySize = page.toBytes().length;
+      // warm up
+      runJSON(page, iterations);
+      runBinary(page, iterations);
+      long jsonTime = runJSON(page, iterations);
+      long binaryTime = runBinary(page, iterations);
+      System.out.println(String.format("%4d records: JSON %8d bytes %8.2fms/op   binary %8d bytes %8.2fms/op",
+              records, jsonSize, jsonTime / 1e6 / iterations, binarySize, binaryTime / 1e6 / iterations));
+    }
+    System.out.println(sink);
+  }
+
+  private static SelectResponsePacket createPage(int count) throws JSONException {
+    JSONArray records = new JSONArray();
+    for (int i = 0; i < count; i++) {
+      records.put(new JSONObject()
+              .put("nr_valuesMap", new JSONObject()
+                      .put("location", new JSONArray().put(-72.5 + i / 1000.0).put(42.3))
+                      .put("speed", i)
+                      .put("moving", i % 2 == 0)
+                      .put("name", "sensor \"" + i + "\""))
+              .put("nr_name", String.format("%040X", i)));
+    }
+    SelectResponsePacket page = SelectResponsePacket.makeSuccessPacketForRecordsPage(
+            12345, SERVER, 7, SERVER, records, 1);
+    page.setResumeAt(100);
+    page.setAcceptsBinary(true);
+    return page;
+  }
+
+  private static long runJSON(SelectResponsePacket page, int iterations) throws JSONException {
+    long startTime = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      SelectResponsePacket copy = new SelectResponsePacket(new JSONObject(page.toJSONObject().toString()));
+      sink += copy.getRecords().length();
+    }
+    return System.nanoTime() - startTime;
+  }
+
+  private static long runBinary(SelectResponsePacket page, int iterations) throws JSONException {
+    long startTime = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      SelectResponsePacket copy = new SelectResponsePacket(Packet.fromBytes(page.toBytes()));
+      sink += copy.getRecords().length();
+    }
+    return System.nanoTime() - startTime;
+  }
+}
@@ -25,6 +25,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.interfaces.ClientRequest;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.gnsserver.utils.JSONUtils;
 
 /**
@@ -35,7 +36,7 @@ import edu.umass.cs.gnsserver.utils.JSONUtils;
  * @author westy
  */
 public class SelectRequestPacket extends BasicPacketWithNSReturnAddress
-        implements ClientRequest {
+        implements ClientRequest, Byteable {
 
   private final static String ID = "id";
   private final static String KEY = "key";
@@ -50,6 +51,10 @@ public class SelectRequestPacket extends BasicPacketWithNSReturnAddress
   private final static String GROUP_BEHAVIOR = "group";
   private final static String GUID = "guid";
   private final static String REFRESH = "refresh";
+  private final static String LIMIT = "limit";
+  private final static String CURSOR = "cursor";
+  private final static String SKIP = "skip";
+  private final static String BINARY = "binary";
 
   //
   private long requestId;
@@ -66,6 +71,12 @@ public class SelectRequestPacket extends BasicPacketWithNSReturnAddress
   // for group guid
   private String guid; // the group GUID we are maintaning or null for simple select
   private int minRefreshInterval; // minimum time between allowed refreshes of the guid
+  // for paged selects
+  private int limit = -1; // the maximum number of records to return or -1 for all of them
+  private String cursor; // the cursor of the page before this one or null for the first page
+  private int skip = 0; // the number of selected records a server has already gone through
+  // true if the sender takes its responses in binary
+  private boolean acceptsBinary = false;
 
   /**
    * Constructs a new SelectRequestPacket
@@ -205,6 +216,10 @@ public class SelectRequestPacket extends BasicPacketWithNSReturnAddress
     this.groupBehavior = SelectGroupBehavior.valueOf(json.getString(GROUP_BEHAVIOR));
     this.guid = json.optString(GUID, null);
     this.minRefreshInterval = json.optInt(REFRESH, -1);
+    this.limit = json.optInt(LIMIT, -1);
+    this.cursor = json.optString(CURSOR, null);
+    this.skip = json.optInt(SKIP, 0);
+    this.acceptsBinary = json.optBoolean(BINARY, false);
   }
 
   /**
@@ -254,6 +269,18 @@ public class SelectRequestPacket extends BasicPacketWithNSReturnAddress
     if (minRefreshInterval != -1) {
       json.put(REFRESH, minRefreshInterval);
     }
+    if (limit != -1) {
+      json.put(LIMIT, limit);
+    }
+    if (cursor != null) {
+      json.put(CURSOR, cursor);
+    }
+    if (skip != 0) {
+      json.put(SKIP, skip);
+    }
+    if (acceptsBinary) {
+      json.put(BINARY, acceptsBinary);
+    }
   }
 
   /**
@@ -431,6 +458,93 @@ public class SelectRequestPacket extends BasicPacketWithNSReturnAddress
     return minRefreshInterval;
   }
 
+  /**
+   * Return the maximum number of records to return.
+   *
+   * @return the limit or -1 if there isn't one
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * Set the maximum number of records to return.
+   * Each server stops selecting records once it has this many.
+   *
+   * @param limit the limit or -1 for all of them
+   */
+  public void setLimit(int limit) {
+    this.limit = limit;
+  }
+
+  /**
+   * Return the cursor returned with the previous page of the select.
+   *
+   * @return the cursor or null for the first page
+   */
+  public String getCursor() {
+    return cursor;
+  }
+
+  /**
+   * Set the cursor returned with the previous page of the select.
+   *
+   * @param cursor
+   */
+  public void setCursor(String cursor) {
+    this.cursor = cursor;
+  }
+
+  /**
+   * Return the number of selected records the server already went through
+   * for the previous pages.
+   *
+   * @return the number of records to skip
+   */
+  public int getSkip() {
+    return skip;
+  }
+
+  /**
+   * Set the number of selected records the server already went through
+   * for the previous pages.
+   *
+   * @param skip
+   */
+  public void setSkip(int skip) {
+    this.skip = skip;
+  }
+
+  /**
+   * Returns true if the server that sent the request takes
+   * the responses in binary (see {@link Packet#toBytes}).
+   *
+   * @return true if binary responses are accepted
+   */
+  public boolean acceptsBinary() {
+    return acceptsBinary;
+  }
+
+  /**
+   * Sets whether the server sending the request takes the responses in binary.
+   *
+   * @param acceptsBinary
+   */
+  public void setAcceptsBinary(boolean acceptsBinary) {
+    this.acceptsBinary = acceptsBinary;
+  }
+
+  /**
+   * Converts the packet to the binary form of {@link Packet#toBytes}.
+   * Only sent to servers that said they accept it.
+   *
+   * @return the bytes
+   */
+  @Override
+  public byte[] toBytes() {
+    return Packet.toBytes(this);
+  }
+
   /**
    *
    * @return the response
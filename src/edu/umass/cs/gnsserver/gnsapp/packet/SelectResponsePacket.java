@@ -20,6 +20,7 @@
 package edu.umass.cs.gnsserver.gnsapp.packet;
 
 import edu.umass.cs.gigapaxos.interfaces.ClientRequest;
+import edu.umass.cs.nio.interfaces.Byteable;
 
 import java.net.InetSocketAddress;
 
@@ -34,7 +35,7 @@ import org.json.JSONObject;
  * @author Westy
  */
 public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddress
-        implements ClientRequest {
+        implements ClientRequest, Byteable {
 
   //
   private final static String ID = "id";
@@ -43,6 +44,11 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
   private final static String NSQUERYID = "nsQueryId";
   private final static String RESPONSECODE = "code";
   private final static String ERRORSTRING = "error";
+  private final static String PAGES = "pages";
+  private final static String SUMMARY = "summary";
+  private final static String RESUME = "resume";
+  private final static String CURSOR = "cursor";
+  private final static String BINARY = "binary";
   
   /**
    * The possible response codes for select packets.
@@ -65,6 +71,17 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
   private JSONArray guids;
   private ResponseCode responseCode;
   private String errorMessage;
+  // The number of pages in the response if this is the last one, zero otherwise.
+  private int pageCount;
+  // the summary of the records of the responding server or null
+  private JSONObject summary;
+  // where the responding server stopped if it reached the limit before
+  // running out of records, -1 otherwise
+  private int resumeAt = -1;
+  // the cursor of the next page of a paged select or null if there are no more
+  private String cursor;
+  // true if the responding server takes its requests in binary
+  private boolean acceptsBinary = false;
 
   /*
    * Constructs a new SelectResponsePacket
@@ -74,7 +91,7 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
    */
   private SelectResponsePacket(long id, InetSocketAddress clientAddress, int nsQueryId,
           InetSocketAddress nsAddress, JSONArray records, JSONArray guids, ResponseCode responseCode,
-          String errorMessage) {
+          String errorMessage, int pageCount) {
     super(nsAddress, clientAddress);
     this.type = Packet.PacketType.SELECT_RESPONSE;
     this.requestId = id;
@@ -83,6 +100,7 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
     this.guids = guids;
     this.responseCode = responseCode;
     this.errorMessage = errorMessage;
+    this.pageCount = pageCount;
   }
 
   /**
@@ -101,7 +119,27 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
           long lnsQueryId,
           int nsQueryId, InetSocketAddress nsAddress, JSONArray records) {
     return new SelectResponsePacket(id, lnsAddress, nsQueryId, nsAddress, records, null,
-            ResponseCode.NOERROR, null);
+            ResponseCode.NOERROR, null, 1);
+  }
+
+  /**
+   * Used by a NameServer to send one page of a response with full records
+   * back to the collecting NameServer. Every page but the last has a
+   * pageCount of zero, the last page has the total number of pages sent.
+   *
+   * @param id
+   * @param lnsAddress
+   * @param nsQueryId
+   * @param nsAddress
+   * @param records
+   * @param pageCount
+   * @return a SelectResponsePacket
+   */
+  public static SelectResponsePacket makeSuccessPacketForRecordsPage(
+          long id, InetSocketAddress lnsAddress,
+          int nsQueryId, InetSocketAddress nsAddress, JSONArray records, int pageCount) {
+    return new SelectResponsePacket(id, lnsAddress, nsQueryId, nsAddress, records, null,
+            ResponseCode.NOERROR, null, pageCount);
   }
 
   /**
@@ -118,7 +156,7 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
           InetSocketAddress lnsAddress,
           int nsQueryId, InetSocketAddress nsAddress, JSONArray guids) {
     return new SelectResponsePacket(id, lnsAddress, nsQueryId, nsAddress,
-            null, guids, ResponseCode.NOERROR, null);
+            null, guids, ResponseCode.NOERROR, null, 1);
   }
 
   /**
@@ -134,7 +172,7 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
   public static SelectResponsePacket makeFailPacket(long id, InetSocketAddress lnsAddress,
            int nsQueryId, InetSocketAddress nsAddress, String errorMessage) {
     return new SelectResponsePacket(id, lnsAddress, nsQueryId, nsAddress,
-            null, null, ResponseCode.ERROR, errorMessage);
+            null, null, ResponseCode.ERROR, errorMessage, 1);
   }
 
   /**
@@ -158,6 +196,12 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
     this.records = json.optJSONArray(RECORDS);
     this.guids = json.optJSONArray(GUIDS);
     this.errorMessage = json.optString(ERRORSTRING, null);
+    // older servers send everything in one packet
+    this.pageCount = json.optInt(PAGES, 1);
+    this.summary = json.optJSONObject(SUMMARY);
+    this.resumeAt = json.optInt(RESUME, -1);
+    this.cursor = json.optString(CURSOR, null);
+    this.acceptsBinary = json.optBoolean(BINARY, false);
 
   }
 
@@ -186,6 +230,21 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
     if (errorMessage != null) {
       json.put(ERRORSTRING, errorMessage);
     }
+    if (pageCount != 1) {
+      json.put(PAGES, pageCount);
+    }
+    if (summary != null) {
+      json.put(SUMMARY, summary);
+    }
+    if (resumeAt != -1) {
+      json.put(RESUME, resumeAt);
+    }
+    if (cursor != null) {
+      json.put(CURSOR, cursor);
+    }
+    if (acceptsBinary) {
+      json.put(BINARY, acceptsBinary);
+    }
     return json;
   }
 
@@ -225,6 +284,73 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
     return nsQueryId;
   }
 
+  /**
+   * Return the number of pages in the response if this is the last page
+   * or zero if more pages follow.
+   *
+   * @return the page count
+   */
+  public int getPageCount() {
+    return pageCount;
+  }
+
+  /**
+   * Return the summary of the records of the responding server
+   * that came with the last page or null.
+   *
+   * @return the summary
+   */
+  public JSONObject getSummary() {
+    return summary;
+  }
+
+  /**
+   * Sets the summary of the records of the responding server.
+   *
+   * @param summary
+   */
+  public void setSummary(JSONObject summary) {
+    this.summary = summary;
+  }
+
+  /**
+   * Return the number of selected records the responding server went through
+   * if it stopped at the limit of the request with records left.
+   * The next page of the select starts there.
+   *
+   * @return the number of records or -1 if the server has no more
+   */
+  public int getResumeAt() {
+    return resumeAt;
+  }
+
+  /**
+   * Sets the number of selected records the responding server went through.
+   *
+   * @param resumeAt
+   */
+  public void setResumeAt(int resumeAt) {
+    this.resumeAt = resumeAt;
+  }
+
+  /**
+   * Return the cursor of the next page of a paged select.
+   *
+   * @return the cursor or null if there are no more pages
+   */
+  public String getCursor() {
+    return cursor;
+  }
+
+  /**
+   * Sets the cursor of the next page of a paged select.
+   *
+   * @param cursor
+   */
+  public void setCursor(String cursor) {
+    this.cursor = cursor;
+  }
+
   /**
    * Return the response code.
    *
@@ -259,6 +385,36 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
 	  return "SelectResponse";
   }
 
+  /**
+   * Returns true if the responding server takes requests in binary
+   * (see {@link Packet#toBytes}).
+   *
+   * @return true if binary requests are accepted
+   */
+  public boolean acceptsBinary() {
+    return acceptsBinary;
+  }
+
+  /**
+   * Sets whether the responding server takes requests in binary.
+   *
+   * @param acceptsBinary
+   */
+  public void setAcceptsBinary(boolean acceptsBinary) {
+    this.acceptsBinary = acceptsBinary;
+  }
+
+  /**
+   * Converts the packet to the binary form of {@link Packet#toBytes}.
+   * Only sent to servers that said they accept it.
+   *
+   * @return the bytes
+   */
+  @Override
+  public byte[] toBytes() {
+    return Packet.toBytes(this);
+  }
+
   /**
    *
    * @return the response
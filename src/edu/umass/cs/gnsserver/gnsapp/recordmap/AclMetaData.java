@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnsapp.recordmap;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.SharedGuidUtils;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The ACLs of a guid parsed out of its values map so that ACL checks
+ * don't have to walk the JSON or hash every public key in an ACL.
+ *
+ * The ACL of a field is stored in the values map under
+ * {@code <prefix>.<access type>.<field path>.MD} as an array of public keys.
+ * Here each one becomes a {@link FieldAcl} found by access type and field path.
+ *
+ * Instances are immutable and are cached by {@link GNSRecordMap#lookupAclMetaData}.
+ *
+ * @author westy
+ */
+public class AclMetaData {
+
+  // Hashing public keys into guids dominates parsing and the same few keys
+  // show up in the ACLs of many records.
+  private static final Cache<String, String> GUIDS_BY_PUBLIC_KEY
+          = CacheBuilder.newBuilder().concurrencyLevel(Runtime.getRuntime().availableProcessors())
+          .maximumSize(10000).build();
+
+  private static final AclMetaData EMPTY = new AclMetaData(Collections.<MetaDataTypeName, Map<List<String>, FieldAcl>>emptyMap());
+
+  // access type => field path => acl
+  private final Map<MetaDataTypeName, Map<List<String>, FieldAcl>> acls;
+
+  private AclMetaData(Map<MetaDataTypeName, Map<List<String>, FieldAcl>> acls) {
+    this.acls = acls;
+  }
+
+  /**
+   * Parses the ACLs out of the values map of a record.
+   *
+   * @param valuesMap
+   * @return the ACLs
+   */
+  public static AclMetaData fromValuesMap(JSONObject valuesMap) {
+    if (valuesMap == null) {
+      return EMPTY;
+    }
+    Map<MetaDataTypeName, Map<List<String>, FieldAcl>> acls = new HashMap<>();
+    for (MetaDataTypeName access : MetaDataTypeName.values()) {
+      JSONObject prefix = valuesMap.optJSONObject(access.getPrefix());
+      JSONObject accessAcls = prefix != null ? prefix.optJSONObject(access.name()) : null;
+      if (accessAcls != null) {
+        Map<List<String>, FieldAcl> fieldAcls = new HashMap<>();
+        collect(accessAcls, new ArrayList<String>(), fieldAcls);
+        acls.put(access, fieldAcls);
+      }
+    }
+    return new AclMetaData(acls);
+  }
+
+  // Finds the MD arrays at every level below the access type.
+  private static void collect(JSONObject node, List<String> path, Map<List<String>, FieldAcl> fieldAcls) {
+    JSONArray publicKeys = node.optJSONArray(GNSProtocol.MD.toString());
+    if (publicKeys != null) {
+      fieldAcls.put(Collections.unmodifiableList(new ArrayList<>(path)), new FieldAcl(publicKeys));
+    }
+    Iterator<?> keys = node.keys();
+    while (keys.hasNext()) {
+      String key = keys.next().toString();
+      JSONObject child = node.optJSONObject(key);
+      if (child != null) {
+        path.add(key);
+        collect(child, path, fieldAcls);
+        path.remove(path.size() - 1);
+      }
+    }
+  }
+
+  /**
+   * Returns the ACL of the field with the given path, where each element
+   * is one level of the values map, or null if there isn't one.
+   * The ACL of the entire record has the path [ENTIRE_RECORD].
+   *
+   * @param access
+   * @param path
+   * @return the acl or null
+   */
+  public FieldAcl get(MetaDataTypeName access, List<String> path) {
+    Map<List<String>, FieldAcl> fieldAcls = acls.get(access);
+    return fieldAcls != null ? fieldAcls.get(path) : null;
+  }
+
+  /**
+   * Returns the ACL of a dotted field, or null if there isn't one.
+   *
+   * @param access
+   * @param field
+   * @return the acl or null
+   */
+  public FieldAcl get(MetaDataTypeName access, String field) {
+    return get(access, Arrays.asList(field.split("\\.")));
+  }
+
+  @Override
+  public String toString() {
+    return "AclMetaData" + acls;
+  }
+
+  /**
+   * The public keys in the ACL of one field, indexed by the guids they hash to.
+   */
+  public static class FieldAcl {
+
+    private final Set<String> publicKeys = new LinkedHashSet<>();
+    // guid => public key, the first one if several hash to the same guid
+    private final Map<String, String> publicKeysByGuid = new HashMap<>();
+    private final boolean everyone;
+
+    private FieldAcl(JSONArray array) {
+      for (int i = 0; i < array.length(); i++) {
+        String publicKey;
+        try {
+          publicKey = array.getString(i);
+        } catch (JSONException e) {
+          // ignore anything that isn't a string
+          continue;
+        }
+        publicKeys.add(publicKey);
+        try {
+          String guid = GUIDS_BY_PUBLIC_KEY.getIfPresent(publicKey);
+          if (guid == null) {
+            guid = SharedGuidUtils.createGuidStringFromBase64PublicKey(publicKey);
+            GUIDS_BY_PUBLIC_KEY.put(publicKey, guid);
+          }
+          if (!publicKeysByGuid.containsKey(guid)) {
+            publicKeysByGuid.put(guid, publicKey);
+          }
+        } catch (IllegalArgumentException e) {
+          // ignore any bogus publicKeys
+        }
+      }
+      this.everyone = publicKeys.contains(GNSProtocol.EVERYONE.toString());
+    }
+
+    /**
+     * Returns the public key in the ACL that corresponds to the guid or null.
+     *
+     * @param guid
+     * @return a public key or null
+     */
+    public String getPublicKeyForGuid(String guid) {
+      return guid != null ? publicKeysByGuid.get(guid) : null;
+    }
+
+    /**
+     * Returns true if the ACL contains {@link GNSProtocol#EVERYONE}.
+     *
+     * @return true if everyone has access
+     */
+    public boolean isEveryone() {
+      return everyone;
+    }
+
+    /**
+     * Returns true if any of the guids is in the ACL.
+     *
+     * @param guids
+     * @return true if one of the guids is allowed
+     */
+    public boolean containsAnyGuid(Set<String> guids) {
+      for (String guid : guids) {
+        if (publicKeysByGuid.containsKey(guid)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Returns the public keys in the ACL.
+     *
+     * @return a set of public keys
+     */
+    public Set<String> getPublicKeys() {
+      return Collections.unmodifiableSet(publicKeys);
+    }
+
+    @Override
+    public String toString() {
+      return publicKeys.toString();
+    }
+  }
+}
@@ -21,18 +21,29 @@ package edu.umass.cs.gnsserver.gnsapp.recordmap;
 
 import edu.umass.cs.gnsserver.database.AbstractRecordCursor;
 import edu.umass.cs.gnsserver.database.ColumnField;
+import edu.umass.cs.gnsserver.database.ColumnFieldType;
 import edu.umass.cs.gnsserver.database.NoSQLRecords;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
 import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
+import edu.umass.cs.utils.Config;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 /**
@@ -44,8 +55,26 @@ import java.util.logging.Level;
  */
 public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
 
+  // The values map keys the ACLs are kept under
+  private static final Set<String> ACL_PREFIXES = new HashSet<>();
+
+  static {
+    for (MetaDataTypeName access : MetaDataTypeName.values()) {
+      ACL_PREFIXES.add(access.getPrefix());
+    }
+  }
+
   private final String collectionName;
   private final NoSQLRecords noSqlRecords;
+  // null if caching is disabled
+  private final RecordCache recordCache;
+  // null if caching is disabled
+  private final Cache<String, AclMetaData> aclCache;
+  // Bumped before invalidating the acl cache so a lookup that raced with a
+  // change to the ACLs doesn't cache what it read.
+  private final AtomicLong aclVersion = new AtomicLong();
+  // null if select pruning is disabled
+  private final ReplicaSummaryTracker summaryTracker;
 
   /**
    * Creates an MongoRecordMap instance.
@@ -56,6 +85,65 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
   public GNSRecordMap(NoSQLRecords noSqlRecords, String collectionName) {
     this.collectionName = collectionName;
     this.noSqlRecords = noSqlRecords;
+    int cacheSize = Config.getGlobalInt(GNSConfig.GNSC.RECORD_CACHE_SIZE);
+    this.recordCache = cacheSize > 0 ? new RecordCache(cacheSize) : null;
+    int aclCacheSize = Config.getGlobalInt(GNSConfig.GNSC.ACL_CACHE_SIZE);
+    this.aclCache = aclCacheSize > 0
+            ? CacheBuilder.newBuilder().concurrencyLevel(Runtime.getRuntime().availableProcessors())
+            .maximumSize(aclCacheSize).<String, AclMetaData>build()
+            : null;
+    this.summaryTracker = Config.getGlobalBoolean(GNSConfig.GNSC.SELECT_PRUNING)
+            ? new ReplicaSummaryTracker(this) : null;
+  }
+
+  /**
+   * Returns the tracker of the summary of the records used to prune selects
+   * or null if pruning is disabled.
+   *
+   * @return the {@link ReplicaSummaryTracker}
+   */
+  public ReplicaSummaryTracker getSummaryTracker() {
+    return summaryTracker;
+  }
+
+  /**
+   * Returns the cache of recently read records or null if caching is disabled.
+   *
+   * @return the {@link RecordCache}
+   */
+  public RecordCache getRecordCache() {
+    return recordCache;
+  }
+
+  // Must be called after every change to a record
+  private void invalidate(String name) {
+    invalidate(name, true);
+  }
+
+  private void invalidate(String name, boolean aclChanged) {
+    if (recordCache != null) {
+      recordCache.invalidate(name);
+    }
+    if (aclCache != null && aclChanged) {
+      aclVersion.incrementAndGet();
+      aclCache.invalidate(name);
+    }
+  }
+
+  // Returns true if changing any of the values map keys could change the ACLs.
+  private static boolean changesAcl(ColumnField mapField, List<ColumnField> keys) {
+    if (mapField != NameRecord.VALUES_MAP || keys == null) {
+      return true;
+    }
+    for (ColumnField key : keys) {
+      for (String prefix : ACL_PREFIXES) {
+        if (key.getName().equals(prefix) || key.getName().startsWith(prefix + ".")
+                || prefix.startsWith(key.getName() + ".")) {
+          return true;
+        }
+      }
+    }
+    return false;
   }
 
   @Override
@@ -65,14 +153,94 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
 
   @Override
   public JSONObject lookupEntireRecord(String name) throws RecordNotFoundException, FailedDBOperationException {
-    return noSqlRecords.lookupEntireRecord(collectionName, name);
+    if (recordCache == null) {
+      return noSqlRecords.lookupEntireRecord(collectionName, name);
+    }
+    try {
+      JSONObject record = recordCache.getEntireRecord(name);
+      if (record == null) {
+        long version = recordCache.getVersion(name);
+        record = noSqlRecords.lookupEntireRecord(collectionName, name);
+        if (record != null) {
+          recordCache.putEntireRecord(name, record, version);
+        }
+      }
+      return record;
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collectionName, name, "Unable to cache record: " + e.getMessage());
+    }
+  }
+
+  @Override
+  public Map<String, JSONObject> lookupMany(Collection<String> names, List<String> projection)
+          throws FailedDBOperationException {
+    return noSqlRecords.lookupMany(collectionName, names, projection);
+  }
+
+  @Override
+  public AclMetaData lookupAclMetaData(String name) throws RecordNotFoundException, FailedDBOperationException {
+    AclMetaData aclMetaData;
+    if (aclCache != null && (aclMetaData = aclCache.getIfPresent(name)) != null) {
+      return aclMetaData;
+    }
+    long version = aclVersion.get();
+    // Just the ACL part of the values map rather than the entire record
+    ArrayList<ColumnField> keys = new ArrayList<>();
+    for (String prefix : ACL_PREFIXES) {
+      keys.add(new ColumnField(prefix, ColumnFieldType.USER_JSON));
+    }
+    HashMap<ColumnField, Object> hashMap = lookupUserFields(name, NameRecord.NAME, NameRecord.VALUES_MAP, keys);
+    aclMetaData = AclMetaData.fromValuesMap((ValuesMap) hashMap.get(NameRecord.VALUES_MAP));
+    if (aclCache != null && aclVersion.get() == version) {
+      aclCache.put(name, aclMetaData);
+      if (aclVersion.get() != version) {
+        // the ACLs changed while we were putting it in
+        aclCache.invalidate(name);
+      }
+    }
+    return aclMetaData;
   }
 
   @Override
   public HashMap<ColumnField, Object> lookupUserFields(String name, ColumnField nameField,
           ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys)
           throws RecordNotFoundException, FailedDBOperationException {
-    return noSqlRecords.lookupSomeFields(collectionName, name, nameField, valuesMapField, valuesMapKeys);
+    List<String> keys = cacheableKeys(valuesMapField, valuesMapKeys);
+    if (keys == null) {
+      return noSqlRecords.lookupSomeFields(collectionName, name, nameField, valuesMapField, valuesMapKeys);
+    }
+    try {
+      ValuesMap valuesMap = recordCache.getFields(name, keys);
+      if (valuesMap != null) {
+        HashMap<ColumnField, Object> hashMap = new HashMap<>();
+        hashMap.put(nameField, name);
+        hashMap.put(valuesMapField, valuesMap);
+        return hashMap;
+      }
+      long version = recordCache.getVersion(name);
+      HashMap<ColumnField, Object> hashMap = noSqlRecords.lookupSomeFields(collectionName, name,
+              nameField, valuesMapField, valuesMapKeys);
+      recordCache.putFields(name, keys, (ValuesMap) hashMap.get(valuesMapField), version);
+      return hashMap;
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collectionName, name, "Unable to cache record: " + e.getMessage());
+    }
+  }
+
+  // Returns the names of the keys if the lookup can use the cache, otherwise null.
+  // Only user fields in USER_JSON format are cached.
+  private List<String> cacheableKeys(ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys) {
+    if (recordCache == null || valuesMapField != NameRecord.VALUES_MAP || valuesMapKeys == null) {
+      return null;
+    }
+    List<String> keys = new ArrayList<>();
+    for (ColumnField key : valuesMapKeys) {
+      if (key.type() != ColumnFieldType.USER_JSON) {
+        return null;
+      }
+      keys.add(key.getName());
+    }
+    return keys;
   }
 
   @Override
@@ -80,7 +248,14 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
     NoSQLRecords records = noSqlRecords;
     try {
       String name = json.getString(NameRecord.NAME.getName());
-      records.insert(collectionName, name, json);
+      try {
+        records.insert(collectionName, name, json);
+      } finally {
+        invalidate(name);
+      }
+      if (summaryTracker != null) {
+        summaryTracker.valuesMapWritten(json.optJSONObject(NameRecord.VALUES_MAP.getName()));
+      }
       GNSConfig.getLogger().log(Level.FINER, "{0}:: Added {1} JSON: {2}",
               new Object[]{records.toString(), name, json});
     } catch (JSONException e) {
@@ -91,7 +266,11 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
 
   @Override
   public void removeRecord(String name) throws FailedDBOperationException {
-    noSqlRecords.removeEntireRecord(collectionName, name);
+    try {
+      noSqlRecords.removeEntireRecord(collectionName, name);
+    } finally {
+      invalidate(name);
+    }
   }
 
   @Override
@@ -102,20 +281,40 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
   @Override
   public void updateEntireValuesMap(String name, ValuesMap valuesMap)
           throws FailedDBOperationException {
-    noSqlRecords.updateEntireRecord(collectionName, name, valuesMap);
+    try {
+      noSqlRecords.updateEntireRecord(collectionName, name, valuesMap);
+    } finally {
+      invalidate(name);
+    }
+    if (summaryTracker != null) {
+      summaryTracker.valuesMapWritten(valuesMap);
+    }
   }
 
   @Override
   public void updateIndividualFields(String name, ArrayList<ColumnField> valuesMapKeys, ArrayList<Object> valuesMapValues)
           throws FailedDBOperationException {
-    noSqlRecords.updateIndividualFields(collectionName, name,
-            NameRecord.VALUES_MAP, valuesMapKeys, valuesMapValues);
+    try {
+      noSqlRecords.updateIndividualFields(collectionName, name,
+              NameRecord.VALUES_MAP, valuesMapKeys, valuesMapValues);
+    } finally {
+      invalidate(name, changesAcl(NameRecord.VALUES_MAP, valuesMapKeys));
+    }
+    if (summaryTracker != null) {
+      for (int i = 0; i < valuesMapKeys.size(); i++) {
+        summaryTracker.fieldWritten(valuesMapKeys.get(i).getName(), valuesMapValues.get(i));
+      }
+    }
   }
 
   @Override
   public void removeMapKeys(String name, ColumnField mapField, ArrayList<ColumnField> mapKeys)
           throws FailedDBOperationException {
-    noSqlRecords.removeMapKeys(collectionName, name, mapField, mapKeys);
+    try {
+      noSqlRecords.removeMapKeys(collectionName, name, mapField, mapKeys);
+    } finally {
+      invalidate(name, changesAcl(mapField, mapKeys));
+    }
   }
 
   @Override
@@ -124,18 +323,21 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
   }
 
   @Override
-  public AbstractRecordCursor selectRecords(ColumnField valuesMapField, String key, Object value) throws FailedDBOperationException {
-    return noSqlRecords.selectRecords(collectionName, valuesMapField, key, value);
+  public AbstractRecordCursor selectRecords(ColumnField valuesMapField, String key, Object value,
+          List<String> projection) throws FailedDBOperationException {
+    return noSqlRecords.selectRecords(collectionName, valuesMapField, key, value, projection);
   }
 
   @Override
-  public AbstractRecordCursor selectRecordsWithin(ColumnField valuesMapField, String key, String value) throws FailedDBOperationException {
-    return noSqlRecords.selectRecordsWithin(collectionName, valuesMapField, key, value);
+  public AbstractRecordCursor selectRecordsWithin(ColumnField valuesMapField, String key, String value,
+          List<String> projection) throws FailedDBOperationException {
+    return noSqlRecords.selectRecordsWithin(collectionName, valuesMapField, key, value, projection);
   }
 
   @Override
-  public AbstractRecordCursor selectRecordsNear(ColumnField valuesMapField, String key, String value, Double maxDistance) throws FailedDBOperationException {
-    return noSqlRecords.selectRecordsNear(collectionName, valuesMapField, key, value, maxDistance);
+  public AbstractRecordCursor selectRecordsNear(ColumnField valuesMapField, String key, String value, Double maxDistance,
+          List<String> projection) throws FailedDBOperationException {
+    return noSqlRecords.selectRecordsNear(collectionName, valuesMapField, key, value, maxDistance, projection);
   }
 
   @Override
@@ -146,7 +348,8 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
 
   @Override
   public String toString() {
-    return "MongoRecordMap{" + "collectionName=" + collectionName + ", records=" + noSqlRecords + '}';
+    return "MongoRecordMap{" + "collectionName=" + collectionName + ", records=" + noSqlRecords
+            + (recordCache != null ? ", cache=" + recordCache : "") + '}';
   }
 
 }
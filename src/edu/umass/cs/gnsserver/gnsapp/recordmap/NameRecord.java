@@ -35,9 +35,11 @@ import edu.umass.cs.utils.Util;
 import org.json.JSONException;
 import org.json.JSONObject;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 
 /**
@@ -380,6 +382,32 @@ public class NameRecord implements Comparable<NameRecord>, Summarizable {
             userFieldList(returnType, userFieldNames)));
   }
 
+  /**
+   * Load several name records from the backing database in one operation.
+   * If userFieldNames is null all the fields are retrieved.
+   * Names that aren't in the database are left out.
+   *
+   * @param recordMap
+   * @param names
+   * @param userFieldNames - the user fields to return or null for all of them
+   * @return a map of name to NameRecord
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public static Map<String, NameRecord> getNameRecords(BasicRecordMap recordMap,
+          Collection<String> names, List<String> userFieldNames)
+          throws FailedDBOperationException {
+    Map<String, NameRecord> result = new HashMap<>();
+    for (Map.Entry<String, JSONObject> entry : recordMap.lookupMany(names, userFieldNames).entrySet()) {
+      try {
+        result.put(entry.getKey(), new NameRecord(recordMap, entry.getValue()));
+      } catch (JSONException e) {
+        GNSConfig.getLogger().log(Level.SEVERE, "Error getting name record {0}: {1}",
+                new Object[]{entry.getKey(), e});
+      }
+    }
+    return result;
+  }
+
   private static ArrayList<ColumnField> userFieldList(ColumnFieldType returnType, String... fieldNames) {
     ArrayList<ColumnField> result = new ArrayList<>();
     for (String fieldName : fieldNames) {
@@ -429,11 +457,13 @@ public class NameRecord implements Comparable<NameRecord>, Summarizable {
    * @param recordMap
    * @param key
    * @param value
+   * @param projection the user fields to return or null for the entire record
    * @return an {@link AbstractRecordCursor}
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
-  public static AbstractRecordCursor selectRecords(BasicRecordMap recordMap, String key, Object value) throws FailedDBOperationException {
-    return recordMap.selectRecords(NameRecord.VALUES_MAP, key, value);
+  public static AbstractRecordCursor selectRecords(BasicRecordMap recordMap, String key, Object value,
+          List<String> projection) throws FailedDBOperationException {
+    return recordMap.selectRecords(NameRecord.VALUES_MAP, key, value, projection);
   }
 
   /**
@@ -443,11 +473,13 @@ public class NameRecord implements Comparable<NameRecord>, Summarizable {
    * @param recordMap
    * @param key
    * @param value - a string that looks like this: [[LONG_UL, LAT_UL],[LONG_BR, LAT_BR]]
+   * @param projection the user fields to return or null for the entire record
    * @return an {@link AbstractRecordCursor}
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
-  public static AbstractRecordCursor selectRecordsWithin(BasicRecordMap recordMap, String key, String value) throws FailedDBOperationException {
-    return recordMap.selectRecordsWithin(NameRecord.VALUES_MAP, key, value);
+  public static AbstractRecordCursor selectRecordsWithin(BasicRecordMap recordMap, String key, String value,
+          List<String> projection) throws FailedDBOperationException {
+    return recordMap.selectRecordsWithin(NameRecord.VALUES_MAP, key, value, projection);
   }
 
   /**
@@ -458,11 +490,13 @@ public class NameRecord implements Comparable<NameRecord>, Summarizable {
    * @param key
    * @param value - a string that looks like this: [LONG, LAT]
    * @param maxDistance - the distance in meters
+   * @param projection the user fields to return or null for the entire record
    * @return an {@link AbstractRecordCursor}
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
-  public static AbstractRecordCursor selectRecordsNear(BasicRecordMap recordMap, String key, String value, Double maxDistance) throws FailedDBOperationException {
-    return recordMap.selectRecordsNear(NameRecord.VALUES_MAP, key, value, maxDistance);
+  public static AbstractRecordCursor selectRecordsNear(BasicRecordMap recordMap, String key, String value, Double maxDistance,
+          List<String> projection) throws FailedDBOperationException {
+    return recordMap.selectRecordsNear(NameRecord.VALUES_MAP, key, value, maxDistance, projection);
   }
 
   /**
@@ -470,7 +504,7 @@ public class NameRecord implements Comparable<NameRecord>, Summarizable {
    *
    * @param recordMap
    * @param query
-   * @param projection
+   * @param projection the user fields to return or null for the entire record
    * @return an {@link AbstractRecordCursor}
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnsapp.recordmap;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import edu.umass.cs.gnscommon.utils.JSONDotNotation;
+import edu.umass.cs.gnsserver.utils.ValuesMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A cache of recently read records kept in front of the database.
+ *
+ * Entries are keyed by name and hold either the entire record or some of the
+ * user fields of the record. The cache is bounded by the approximate size
+ * of the entries in bytes rather than by the number of entries.
+ *
+ * Every write to a name must call {@link #invalidate} after it has gone to
+ * the database. Readers take a version with {@link #getVersion} before reading
+ * the database and the entry is only installed if no invalidation happened
+ * in between, so a stale read can never overwrite a newer write.
+ *
+ * Values are copied going in and coming out because callers modify
+ * the records they get back.
+ *
+ * @author westy
+ */
+public class RecordCache {
+
+  private static final int STRIPES = 256;
+  private static final Object MISSING = new Object();
+
+  private final Cache<String, Entry> cache;
+  private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+  private final Object[] locks = new Object[STRIPES];
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a RecordCache that holds approximately maximumBytes of records.
+   *
+   * @param maximumBytes
+   */
+  public RecordCache(long maximumBytes) {
+    this.cache = CacheBuilder.newBuilder().concurrencyLevel(16)
+            .maximumWeight(maximumBytes)
+            .weigher(new Weigher<String, Entry>() {
+              @Override
+              public int weigh(String key, Entry entry) {
+                return 2 * key.length() + entry.weight;
+              }
+            })
+            .recordStats().build();
+    for (int i = 0; i < STRIPES; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  // A cached record. Immutable once it is in the cache.
+  private static class Entry {
+
+    // The entire record or null if only some fields are known.
+    private final JSONObject record;
+    // Values of user fields or MISSING if the record doesn't have the field.
+    private final Map<String, Object> fields;
+    private final int weight;
+
+    private Entry(JSONObject record, Map<String, Object> fields, int weight) {
+      this.record = record;
+      this.fields = fields;
+      this.weight = weight;
+    }
+  }
+
+  private static int stripe(String name) {
+    return (name.hashCode() & 0x7fffffff) % STRIPES;
+  }
+
+  /**
+   * Returns the version of the name that must be passed to the put methods.
+   *
+   * @param name
+   * @return the version
+   */
+  public long getVersion(String name) {
+    return versions.get(stripe(name));
+  }
+
+  /**
+   * Returns a copy of the entire record or null if it isn't cached.
+   *
+   * @param name
+   * @return a JSONObject or null
+   * @throws JSONException
+   */
+  public JSONObject getEntireRecord(String name) throws JSONException {
+    Entry entry = cache.getIfPresent(name);
+    if (entry != null && entry.record != null) {
+      hits.incrementAndGet();
+      return (JSONObject) copy(entry.record);
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Returns a copy of the given user fields of the record as a ValuesMap or null
+   * if any of the fields isn't cached. Fields the record doesn't have
+   * are left out of the ValuesMap.
+   *
+   * @param name
+   * @param keys
+   * @return a ValuesMap or null
+   * @throws JSONException
+   */
+  public ValuesMap getFields(String name, List<String> keys) throws JSONException {
+    Entry entry = cache.getIfPresent(name);
+    if (entry != null) {
+      ValuesMap valuesMap = new ValuesMap();
+      JSONObject recordValues = entry.record != null
+              ? entry.record.optJSONObject(NameRecord.VALUES_MAP.getName()) : null;
+      boolean found = true;
+      for (String key : keys) {
+        Object value = entry.fields.get(key);
+        if (value == null && recordValues != null) {
+          value = lookupField(recordValues, key);
+        }
+        if (value == null) {
+          found = false;
+          break;
+        } else if (value != MISSING) {
+          valuesMap.put(key, copy(value));
+        }
+      }
+      if (found) {
+        hits.incrementAndGet();
+        return valuesMap;
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  // Returns the value of the possibly dotted key, MISSING if the values don't have it.
+  private static Object lookupField(JSONObject values, String key) throws JSONException {
+    Object value = values.opt(key);
+    if (value != null) {
+      return value;
+    } else if (JSONDotNotation.containsFieldDotNotation(key, values)) {
+      return JSONDotNotation.getWithDotNotation(key, values);
+    }
+    return MISSING;
+  }
+
+  /**
+   * Caches a copy of the entire record read from the database.
+   *
+   * @param name
+   * @param record
+   * @param version - the version from before the database was read
+   * @throws JSONException
+   */
+  public void putEntireRecord(String name, JSONObject record, long version) throws JSONException {
+    JSONObject copy = (JSONObject) copy(record);
+    install(name, new Entry(copy, new HashMap<>(), estimateSize(copy)), version);
+  }
+
+  /**
+   * Caches copies of the given user fields read from the database.
+   * Keys that aren't in the valuesMap are remembered as not being in the record.
+   *
+   * @param name
+   * @param keys
+   * @param valuesMap
+   * @param version - the version from before the database was read
+   * @throws JSONException
+   */
+  public void putFields(String name, List<String> keys, ValuesMap valuesMap, long version)
+          throws JSONException {
+    Map<String, Object> fields = new HashMap<>();
+    int weight = 0;
+    for (String key : keys) {
+      Object value = valuesMap != null && valuesMap.has(key) ? copy(lookupField(valuesMap, key)) : MISSING;
+      fields.put(key, value);
+      weight += 2 * key.length() + estimateSize(value);
+    }
+    synchronized (locks[stripe(name)]) {
+      Entry entry = cache.getIfPresent(name);
+      if (entry != null) {
+        if (entry.record != null) {
+          // Already have all of it
+          return;
+        }
+        // Merge with the fields we already have
+        for (Map.Entry<String, Object> field : entry.fields.entrySet()) {
+          if (!fields.containsKey(field.getKey())) {
+            fields.put(field.getKey(), field.getValue());
+            weight += 2 * field.getKey().length() + estimateSize(field.getValue());
+          }
+        }
+      }
+      install(name, new Entry(null, fields, weight), version);
+    }
+  }
+
+  private void install(String name, Entry entry, long version) {
+    int stripe = stripe(name);
+    synchronized (locks[stripe]) {
+      if (versions.get(stripe) == version) {
+        cache.put(name, entry);
+      }
+    }
+  }
+
+  /**
+   * Removes the name from the cache. Must be called after every
+   * change to the record in the database.
+   *
+   * @param name
+   */
+  public void invalidate(String name) {
+    int stripe = stripe(name);
+    synchronized (locks[stripe]) {
+      versions.incrementAndGet(stripe);
+      cache.invalidate(name);
+    }
+  }
+
+  /**
+   * Removes everything from the cache.
+   */
+  public void invalidateAll() {
+    for (int i = 0; i < STRIPES; i++) {
+      synchronized (locks[i]) {
+        versions.incrementAndGet(i);
+      }
+    }
+    cache.invalidateAll();
+  }
+
+  /**
+   * @return the number of reads answered from the cache
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of reads that had to go to the database
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * @return the number of entries evicted to stay under the size bound
+   */
+  public long getEvictionCount() {
+    return cache.stats().evictionCount();
+  }
+
+  @Override
+  public String toString() {
+    return "RecordCache{" + "size=" + cache.size() + ", hits=" + getHitCount()
+            + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + '}';
+  }
+
+  // Copies JSONObjects and JSONArrays, everything else in a record is immutable.
+  private static Object copy(Object value) throws JSONException {
+    if (value instanceof JSONObject) {
+      JSONObject json = (JSONObject) value;
+      JSONObject copy = new JSONObject();
+      Iterator<?> keys = json.keys();
+      while (keys.hasNext()) {
+        String key = (String) keys.next();
+        copy.put(key, copy(json.get(key)));
+      }
+      return copy;
+    } else if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      JSONArray copy = new JSONArray();
+      for (int i = 0; i < array.length(); i++) {
+        copy.put(copy(array.get(i)));
+      }
+      return copy;
+    }
+    return value;
+  }
+
+  // A rough estimate of the number of bytes used by the value.
+  private static int estimateSize(Object value) throws JSONException {
+    if (value instanceof JSONObject) {
+      JSONObject json = (JSONObject) value;
+      int size = 64;
+      Iterator<?> keys = json.keys();
+      while (keys.hasNext()) {
+        String key = (String) keys.next();
+        size += 32 + 2 * key.length() + estimateSize(json.get(key));
+      }
+      return size;
+    } else if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      int size = 64;
+      for (int i = 0; i < array.length(); i++) {
+        size += 8 + estimateSize(array.get(i));
+      }
+      return size;
+    } else if (value instanceof String) {
+      return 40 + 2 * ((String) value).length();
+    }
+    return 16;
+  }
+}
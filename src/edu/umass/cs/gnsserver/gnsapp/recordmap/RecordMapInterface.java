@@ -28,8 +28,10 @@ import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
 import org.json.JSONObject;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -64,6 +66,31 @@ public interface RecordMapInterface {
    */
   public JSONObject lookupEntireRecord(String name) throws RecordNotFoundException, FailedDBOperationException;
 
+  /**
+   * Retrieve several name records from the database in one operation.
+   * If projection is null the entire records are returned, otherwise
+   * just the name and the user fields in the projection.
+   * Names that aren't in the database are left out of the result.
+   *
+   * @param names
+   * @param projection
+   * @return a map of name to record
+   * @throws FailedDBOperationException
+   */
+  public Map<String, JSONObject> lookupMany(Collection<String> names, List<String> projection)
+          throws FailedDBOperationException;
+
+  /**
+   * Retrieve the parsed ACLs of a name record. Unlike the other lookups
+   * the result may come from a cache that is only invalidated when the ACLs change.
+   *
+   * @param name
+   * @return the ACLs
+   * @throws RecordNotFoundException
+   * @throws FailedDBOperationException
+   */
+  public AclMetaData lookupAclMetaData(String name) throws RecordNotFoundException, FailedDBOperationException;
+
   /**
    *
    * @param name - the name of the record
@@ -154,11 +181,12 @@ public interface RecordMapInterface {
    * @param valuesMapField - the field in the row that contains the *user* fields
    * @param key
    * @param value
+   * @param projection the user fields to return or null for the entire record
    * @return an {@link AbstractRecordCursor}
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
   public abstract AbstractRecordCursor selectRecords(ColumnField valuesMapField,
-          String key, Object value) throws FailedDBOperationException;
+          String key, Object value, List<String> projection) throws FailedDBOperationException;
 
   /**
    * If key is a GeoSpatial field return all fields that are within value which is a bounding box specified
@@ -167,11 +195,12 @@ public interface RecordMapInterface {
    * @param valuesMapField - the field in the row that contains the *user* fields
    * @param key
    * @param value - a string that looks like this [[LONG_UL, LAT_UL],[LONG_BR, LAT_BR]]
+   * @param projection the user fields to return or null for the entire record
    * @return an {@link AbstractRecordCursor}
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
   public abstract AbstractRecordCursor selectRecordsWithin(ColumnField valuesMapField,
-          String key, String value) throws FailedDBOperationException;
+          String key, String value, List<String> projection) throws FailedDBOperationException;
 
   /**
    * If key is a GeoSpatial field return all fields that are near value which is a point specified
@@ -181,18 +210,19 @@ public interface RecordMapInterface {
    * @param key
    * @param value - a string that looks like this [LONG, LAT]
    * @param maxDistance - the distance in meters
+   * @param projection the user fields to return or null for the entire record
    * @return an {@link AbstractRecordCursor}
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
   public abstract AbstractRecordCursor selectRecordsNear(ColumnField valuesMapField,
-          String key, String value, Double maxDistance) throws FailedDBOperationException;
+          String key, String value, Double maxDistance, List<String> projection) throws FailedDBOperationException;
 
   /**
    * Return all the fields that match the query.
    *
    * @param valuesMapField
    * @param query
-   * @param projection
+   * @param projection the user fields to return or null for the entire record
    * @return {@link AbstractRecordCursor}
    * @throws FailedDBOperationException
    */
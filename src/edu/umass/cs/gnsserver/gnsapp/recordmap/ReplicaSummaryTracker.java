@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnsapp.recordmap;
+
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnsserver.database.AbstractRecordCursor;
+import edu.umass.cs.gnsserver.database.ReplicaSummary;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import org.json.JSONObject;
+
+/**
+ * Keeps the {@link ReplicaSummary} of the records of a record map up to date.
+ *
+ * Every write adds the new values to the summary. Since removed values can't
+ * be taken out the summary is rebuilt from all of the records every
+ * {@link GNSConfig.GNSC#SELECT_SUMMARY_INTERVAL}. Writes made during a rebuild
+ * go into the new summary too, so that it has all of the records that existed
+ * when it is swapped in.
+ *
+ * @author westy
+ */
+public class ReplicaSummaryTracker {
+
+  private static final ScheduledExecutorService REBUILDER
+          = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "ReplicaSummaryRebuilder");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+
+  private final BasicRecordMap recordMap;
+  private final AtomicBoolean started = new AtomicBoolean();
+  // null until the first build is done
+  private volatile ReplicaSummary summary;
+  // the summary being built or null
+  private volatile ReplicaSummary building;
+
+  /**
+   * Creates a tracker for the records of the record map.
+   *
+   * @param recordMap
+   */
+  public ReplicaSummaryTracker(BasicRecordMap recordMap) {
+    this.recordMap = recordMap;
+  }
+
+  /**
+   * Returns the current summary. The first call starts building them.
+   *
+   * @return the summary or null if the first one isn't built yet
+   */
+  public ReplicaSummary getSummary() {
+    if (started.compareAndSet(false, true)) {
+      long interval = Config.getGlobalInt(GNSConfig.GNSC.SELECT_SUMMARY_INTERVAL);
+      REBUILDER.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          rebuild();
+        }
+      }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+    return summary;
+  }
+
+  /**
+   * Adds the values of a record that was written. Must be called after the
+   * write so that a rebuild either reads the record or sees this call.
+   *
+   * @param valuesMap
+   */
+  public void valuesMapWritten(JSONObject valuesMap) {
+    ReplicaSummary current = summary;
+    if (current != null) {
+      current.addValuesMap(valuesMap);
+    }
+    ReplicaSummary next = building;
+    if (next != null) {
+      next.addValuesMap(valuesMap);
+    }
+  }
+
+  /**
+   * Adds the value of a dotted field of the values map that was written.
+   *
+   * @param field
+   * @param value
+   */
+  public void fieldWritten(String field, Object value) {
+    ReplicaSummary current = summary;
+    if (current != null) {
+      current.addField(field, value);
+    }
+    ReplicaSummary next = building;
+    if (next != null) {
+      next.addField(field, value);
+    }
+  }
+
+  private void rebuild() {
+    long startTime = System.currentTimeMillis();
+    ReplicaSummary current = summary;
+    // leave room for the values to grow
+    long expected = Math.max(Config.getGlobalInt(GNSConfig.GNSC.SELECT_SUMMARY_BLOOM_SIZE),
+            current != null ? 2 * current.getInsertions() : 0);
+    ReplicaSummary next = new ReplicaSummary((int) Math.min(expected, Integer.MAX_VALUE));
+    building = next;
+    int count = 0;
+    try {
+      AbstractRecordCursor cursor = recordMap.getAllRowsIterator();
+      while (cursor.hasNext()) {
+        next.addValuesMap(cursor.nextJSONObject().optJSONObject(NameRecord.VALUES_MAP.getName()));
+        count++;
+      }
+      summary = next;
+      GNSConfig.getLogger().log(Level.FINE, "Rebuilt the summary of {0} records in {1}ms",
+              new Object[]{count, System.currentTimeMillis() - startTime});
+    } catch (FailedDBOperationException | RuntimeException e) {
+      // keep the old one, it only lacks removals
+      GNSConfig.getLogger().log(Level.WARNING, "Unable to rebuild the summary of the records: {0}", e);
+    } finally {
+      building = null;
+    }
+  }
+}
@@ -69,6 +69,43 @@ public class GNSConfig {
      * DiskMap is also enabled.
      */
     IN_MEMORY_DB(false),
+    /**
+     * The interval in milliseconds at which changed DiskMap records are
+     * written behind to mongo.
+     */
+    DISKMAP_FLUSH_INTERVAL(1000),
+    /**
+     * The number of changed DiskMap records that triggers a write behind
+     * to mongo before the flush interval expires.
+     */
+    DISKMAP_DIRTY_WATERMARK(1024),
+    /**
+     * If enabled, DiskMap collections keep their own in memory indexes
+     * of the indexed fields and answer the selects they can without mongo.
+     */
+    DISKMAP_INDEXES(true),
+    /**
+     * The approximate size in bytes of the cache of recently read records
+     * kept in front of the database by each replica. Zero disables the cache.
+     */
+    RECORD_CACHE_SIZE(32 * 1024 * 1024),
+    /**
+     * The number of guids whose parsed ACLs are cached by each replica
+     * for access checks. Zero disables the cache.
+     */
+    ACL_CACHE_SIZE(10000),
+    /**
+     * The number of accessor guids whose guid info and groups are cached
+     * by each replica for access checks. Zero disables the cache.
+     */
+    ACCESSOR_CACHE_SIZE(10000),
+    /**
+     * The time in milliseconds an accessor's cached guid info and groups,
+     * including the fact that they weren't found, are used before being
+     * looked up again. Bounds how long a membership change made on another
+     * replica can go unnoticed.
+     */
+    ACCESSOR_CACHE_TTL(10000),
     /**
      * If enabled, the GNS will cache and return the same value for reads.
      *
@@ -110,6 +147,80 @@ public class GNSConfig {
     /* FIXME: arun: need to determine this timeout systematically, not an ad
 		 * hoc constant. */
     SELECT_REQUEST_TIMEOUT(5000),
+    /**
+     * The percentage of servers whose responses complete a select
+     * without waiting for the rest. 100 waits for all of them or the
+     * {@link #SELECT_REQUEST_TIMEOUT}, whichever comes first.
+     */
+    SELECT_QUORUM_PERCENT(100),
+    /**
+     * The number of records a replica reads, filters and sends back
+     * in each partial response to a select.
+     */
+    SELECT_PAGE_SIZE(100),
+    /**
+     * If true selects are only sent to the servers whose summary of
+     * their fields and values shows that they may have matching records.
+     * A summary can miss records written on a server since it was sent, up to
+     * {@link #SELECT_SUMMARY_MAX_AGE} ago, so selects can miss them too.
+     */
+    SELECT_PRUNING(false),
+    /**
+     * How often in milliseconds a server rebuilds its summary, which
+     * forgets removed values, and at most how often it sends it to each
+     * server that selects from it.
+     */
+    SELECT_SUMMARY_INTERVAL(60000),
+    /**
+     * Summaries older than this many milliseconds aren't used to skip
+     * servers; the select goes to them and they send back a new one.
+     */
+    SELECT_SUMMARY_MAX_AGE(120000),
+    /**
+     * The smallest number of distinct field values the bloom filter
+     * of a summary is sized for.
+     */
+    SELECT_SUMMARY_BLOOM_SIZE(100000),
+    /**
+     * If true the servers keep the members of context aware groups up to
+     * date by evaluating the group's query against every change to their
+     * records, and group lookups only rerun the select every
+     * {@link #SELECT_STANDING_REFRESH_INTERVAL} instead of every minimum
+     * refresh interval of the group.
+     */
+    SELECT_STANDING_QUERIES(false),
+    /**
+     * How often in milliseconds a group lookup reruns the select of a group whose
+     * members are kept up to date as records change. This picks up servers that
+     * restarted and fixes up members whose updates were lost.
+     */
+    SELECT_STANDING_REFRESH_INTERVAL(600000),
+    /**
+     * The most record changes waiting to be evaluated against the standing
+     * queries of a server. Changes beyond that are dropped and their groups
+     * are fixed up by the next rerun of the select.
+     */
+    SELECT_STANDING_QUEUE_SIZE(10000),
+    /**
+     * How long in milliseconds the server that collected a select with a
+     * limit keeps what it needs to return the next page.
+     */
+    SELECT_CURSOR_TTL(60000),
+    /**
+     * The most select cursors a server keeps at a time.
+     */
+    SELECT_CURSOR_MAX(10000),
+    /**
+     * If true select packets between servers are sent in binary (see
+     * {@link edu.umass.cs.gnsserver.gnsapp.packet.Packet#toBytes}) to the servers
+     * that said they accept it. Servers that don't get JSON.
+     */
+    SELECT_BINARY_ENCODING(false),
+    /**
+     * The most compiled select queries a server caches (see
+     * {@link edu.umass.cs.gnsserver.database.CompiledSelectQuery}).
+     */
+    SELECT_QUERY_CACHE_SIZE(1000),
     /**
      *
      */
@@ -118,6 +229,16 @@ public class GNSConfig {
      * The class used to represent NoSQL records.
      */
     NOSQL_RECORDS_CLASS("edu.umass.cs.gnsserver.database.MongoRecords"),
+    /**
+     * The directory where the EmbeddedRecords database keeps its files.
+     * Each node uses a subdirectory named after its node id.
+     */
+    EMBEDDED_DB_DIRECTORY("embedded_db"),
+    /**
+     * The size in bytes of each memory-mapped segment file of the
+     * EmbeddedRecords database.
+     */
+    EMBEDDED_DB_SEGMENT_SIZE(64 * 1024 * 1024),
     //
     // ACCOUNT GUIDS
     //
@@ -223,6 +344,98 @@ public class GNSConfig {
      * requests to DNS and GNS servers.
      */
     DNS_ONLY(false),
+    /**
+     * The number of threads receiving DNS queries on the DNS port.
+     */
+    DNS_RECEIVE_THREADS(2),
+    /**
+     * The number of threads answering DNS queries.
+     */
+    DNS_WORKER_THREADS(16),
+    /**
+     * The most DNS queries waiting for a worker. Queries that arrive when
+     * it is full are shed (see {@link #DNS_SHED_WITH_SERVFAIL}).
+     */
+    DNS_QUEUE_SIZE(1000),
+    /**
+     * If true shed DNS queries are answered with SERVFAIL so clients
+     * retry elsewhere right away, otherwise they are dropped.
+     */
+    DNS_SHED_WITH_SERVFAIL(true),
+    /**
+     * The largest UDP payload the DNS service advertises and sends to
+     * clients that use EDNS0. Larger responses are truncated.
+     */
+    DNS_EDNS_PAYLOAD_SIZE(1232),
+    /**
+     * The number of threads the DNS service shares for GNS lookups
+     * and for retrying truncated upstream responses over TCP.
+     */
+    DNS_RESOLVER_THREADS(8),
+    /**
+     * The most upstream DNS queries (and queued GNS lookups) the DNS service
+     * waits on at once. Lookups beyond this fail right away.
+     */
+    DNS_RESOLVER_MAX_PENDING(1000),
+    /**
+     * The time in milliseconds the GNS and the DNS each have to answer
+     * a query before that branch of the lookup gives up.
+     */
+    DNS_LOOKUP_TIMEOUT(3000),
+    /**
+     * The number of GNS answers to DNS queries cached in wire format.
+     * 0 turns the cache off.
+     */
+    DNS_ANSWER_CACHE_SIZE(10000),
+    /**
+     * If true the DNS service also answers queries over TCP on the same
+     * port, which clients use to retry truncated answers and for zone transfers.
+     */
+    DNS_TCP(true),
+    /**
+     * The time in milliseconds a DNS TCP connection can sit idle
+     * before the server closes it.
+     */
+    DNS_TCP_IDLE_TIMEOUT(10000),
+    /**
+     * The most DNS TCP connections open at once. Others are closed right away.
+     */
+    DNS_TCP_MAX_CONNECTIONS(1000),
+    /**
+     * If true the DNS service answers SOA, AXFR and IXFR queries so
+     * secondaries can mirror the domains whose records are in the GNS.
+     * A transfer contains the records stored on this server.
+     */
+    DNS_ZONE_TRANSFER(false),
+    /**
+     * The comma separated IPs allowed to transfer zones, * for any.
+     */
+    DNS_ZONE_TRANSFER_CLIENTS("127.0.0.1"),
+    /**
+     * The most zone transfers sent at once, each on its own thread so a
+     * slow secondary doesn't hold up the DNS workers. As many more can
+     * wait; others get SERVFAIL.
+     */
+    DNS_ZONE_TRANSFER_THREADS(2),
+    /**
+     * The number of changes to DNS records kept for incremental zone
+     * transfers. Secondaries further behind get the whole zone.
+     */
+    DNS_JOURNAL_SIZE(10000),
+    /**
+     * The most record updates the managed DNS proxy has outstanding at the GNS.
+     */
+    DNS_PROXY_WINDOW(100),
+    /**
+     * The most changes the managed DNS proxy holds before it tells the
+     * front end it is busy.
+     */
+    DNS_PROXY_MAX_PENDING(10000),
+    /**
+     * How long in ms the managed DNS proxy waits for an update to the GNS
+     * and for room for a change before reporting it busy.
+     */
+    DNS_PROXY_TIMEOUT(10000),
     //
     // Contect Name Service
     //
@@ -312,11 +525,14 @@ public class GNSConfig {
      */
     public static Class<?> getNoSqlRecordsClass() {
       if (noSqlRecordsclass == null) {
+        String recordsClass = Config.getGlobalString(GNSC.NOSQL_RECORDS_CLASS);
         // arun: in-memory DB => DiskMap
+        // A records class other than the mongo default overrides ENABLE_DISKMAP.
         noSqlRecordsclass = getClassSuppressExceptions(Config
                 .getGlobalBoolean(GNSC.ENABLE_DISKMAP)
+                && NOSQL_RECORDS_CLASS.getDefaultValue().equals(recordsClass)
                 || Config.getGlobalBoolean(GNSConfig.GNSC.IN_MEMORY_DB) ? "edu.umass.cs.gnsserver.database.DiskMapRecords"
-                : Config.getGlobalString(GNSC.NOSQL_RECORDS_CLASS));
+                : recordsClass);
       }
       return noSqlRecordsclass;
     }
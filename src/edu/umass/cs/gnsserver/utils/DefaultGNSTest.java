@@ -50,6 +50,7 @@ import edu.umass.cs.gnsclient.client.util.GuidUtils;
 import edu.umass.cs.gnscommon.exceptions.client.ClientException;
 import edu.umass.cs.gnscommon.utils.RandomString;
 import edu.umass.cs.gnscommon.utils.ThreadUtils;
+import edu.umass.cs.gnsserver.database.EmbeddedRecords;
 import edu.umass.cs.gnsserver.database.MongoRecords;
 import edu.umass.cs.reconfiguration.ReconfigurableNode;
 import edu.umass.cs.reconfiguration.ReconfigurationConfig;
@@ -453,6 +454,7 @@ public class DefaultGNSTest extends DefaultTest {
 		for (String server : new DefaultNodeConfig<>(PaxosConfig.getActives(),
 				ReconfigurationConfig.getReconfigurators()).getNodeIDs()) {
 			MongoRecords.dropNodeDatabase(server);
+			EmbeddedRecords.dropNodeDatabase(server);
 		}
 	}
 
@@ -0,0 +1,72 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.database;
+
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import java.util.Arrays;
+import static org.junit.Assert.*;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the CompiledSelectQuery.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class CompiledSelectQueryTest {
+
+  private static final String QUERY = "$or: [{~location:($near:[1,2], $maxDistance:3)},"
+          + " {~a.b:{$regex:\"^x~y\"}}, {~a.b:{$gt:0}}]";
+
+  /**
+   *
+   */
+  @Test
+  public void test_01_Compile() {
+    CompiledSelectQuery plan = CompiledSelectQuery.compile(QUERY);
+    assertSame(plan, CompiledSelectQuery.compile(QUERY));
+    assertEquals(Arrays.asList("location", "a.b"), plan.getFields());
+    assertFalse(plan.containsEvil());
+    assertTrue(CompiledSelectQuery.compile("$where : \"this.nr_valuesMap.secret == 'x'\"").containsEvil());
+    assertTrue(CompiledSelectQuery.compile("nr_valuesMap.secret:($regex : \"^i_like\")").containsEvil());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_02_NativeQuery() {
+    String query = CompiledSelectQuery.compile(QUERY).toNativeQuery(NameRecord.VALUES_MAP).toString();
+    assertTrue(query, query.contains("\"nr_valuesMap.location\" : { \"$near\""));
+    assertTrue(query, query.contains("\"nr_valuesMap." + AccountAccess.GUID_INFO + "\" : { \"$exists\" : true}"));
+    // only keys are fields
+    assertTrue(query, query.contains("\"^x~y\""));
+  }
+
+  /**
+   *
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void test_03_Unparsable() {
+    CompiledSelectQuery.compile("~a : {$gt");
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.database;
+
+import com.mongodb.util.JSON;
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the DiskMapIndexes.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class DiskMapIndexesTest {
+
+  private static final String COLOR = NameRecord.VALUES_MAP.getName() + ".color";
+  private static final String SIZE = NameRecord.VALUES_MAP.getName() + ".size";
+  private static final String LOCATION = NameRecord.VALUES_MAP.getName() + ".location";
+
+  private static JSONObject record(String name, Object color, double size, double x, double y)
+          throws JSONException {
+    return new JSONObject().put(NameRecord.NAME.getName(), name)
+            .put(NameRecord.VALUES_MAP.getName(), new JSONObject().put("color", color)
+                    .put("size", size).put("location", new JSONArray().put(x).put(y)));
+  }
+
+  private static Map<?, ?> query(String query) {
+    return (Map<?, ?>) JSON.parse(query);
+  }
+
+  private static DiskMapIndexes indexes() throws FailedDBOperationException, JSONException {
+    DiskMapIndexes indexes = new DiskMapIndexes("test");
+    indexes.addIndex(COLOR, "1");
+    indexes.addIndex(SIZE, "1");
+    indexes.addIndex(LOCATION, "2d");
+    // not used until built
+    assertNull(indexes.candidates(query("{'" + COLOR + "':'red'}")));
+    indexes.build(new EmbeddedRecordCursor(Arrays.asList(record("a", "red", 1, 10.5, 20.5),
+            record("b", new JSONArray().put("red").put("blue"), 2, 10.5, 40.5)).iterator()));
+    indexes.update("c", record("c", "green", 3, -70.5, 42.5));
+    return indexes;
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_01_Equals() {
+    try {
+      DiskMapIndexes indexes = indexes();
+      assertEquals(new HashSet<>(Arrays.asList("a", "b")), indexes.candidates(query("{'" + COLOR + "':'red'}")));
+      assertEquals(Collections.singleton("b"), indexes.candidates(query("{'" + COLOR + "':{$eq:'blue'}}")));
+      assertEquals(new HashSet<>(Arrays.asList("b", "c")),
+              indexes.candidates(query("{'" + COLOR + "':{$in:['blue','green']}}")));
+      assertTrue(indexes.candidates(query("{'" + COLOR + "':'purple'}")).isEmpty());
+      // not indexed
+      assertNull(indexes.candidates(query("{'" + NameRecord.VALUES_MAP.getName() + ".other':'red'}")));
+      // removing and changing records
+      indexes.update("a", null);
+      indexes.update("b", record("b", "purple", 2, 10.5, 40.5));
+      assertTrue(indexes.candidates(query("{'" + COLOR + "':'red'}")).isEmpty());
+      assertEquals(Collections.singleton("b"), indexes.candidates(query("{'" + COLOR + "':'purple'}")));
+    } catch (FailedDBOperationException | JSONException e) {
+      fail("Problem with equals: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_02_Range() {
+    try {
+      DiskMapIndexes indexes = indexes();
+      assertEquals(new HashSet<>(Arrays.asList("b", "c")), indexes.candidates(query("{'" + SIZE + "':{$gt:1}}")));
+      assertEquals(new HashSet<>(Arrays.asList("a", "b")), indexes.candidates(query("{'" + SIZE + "':{$gte:1,$lte:2}}")));
+      assertTrue(indexes.candidates(query("{'" + SIZE + "':{$lt:'x'}}")).isEmpty());
+      // the smallest of the conditions that can use an index
+      assertEquals(Collections.singleton("a"), indexes.candidates(query("{$and:[{'" + SIZE + "':{$lt:3}},{'"
+              + COLOR + "':'red'},{'" + SIZE + "':{$lt:2}}]}")));
+      // an $or only helps if every branch is indexed
+      assertEquals(new HashSet<>(Arrays.asList("a", "c")), indexes.candidates(query("{$or:[{'" + SIZE + "':1},{'"
+              + COLOR + "':'green'}]}")));
+      assertNull(indexes.candidates(query("{$or:[{'" + SIZE + "':1},{'x':'green'}]}")));
+    } catch (FailedDBOperationException | JSONException e) {
+      fail("Problem with range: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_03_Spatial() {
+    try {
+      DiskMapIndexes indexes = indexes();
+      assertEquals(new HashSet<>(Arrays.asList("a", "b")),
+              indexes.candidates(query("{'" + LOCATION + "':{$geoWithin:{$box:[[10,20],[11,41]]}}}")));
+      assertEquals(Collections.singleton("c"),
+              indexes.candidates(query("{'" + LOCATION + "':{$near:[-70,42],$maxDistance:1}}")));
+      assertEquals(Collections.singleton("c"),
+              indexes.candidates(query("{'" + LOCATION + "':{$within:{$center:[[-70,42],1]}}}")));
+      // too big to be worth it
+      assertNull(indexes.candidates(query("{'" + LOCATION + "':{$geoWithin:{$box:[[-1000,-1000],[1000,1000]]}}}")));
+    } catch (FailedDBOperationException | JSONException e) {
+      fail("Problem with spatial: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_04_FailedBuild() {
+    try {
+      DiskMapIndexes indexes = new DiskMapIndexes("test");
+      indexes.addIndex(COLOR, "1");
+      final JSONObject a = record("a", "red", 1, 10.5, 20.5);
+      try {
+        indexes.build(new AbstractRecordCursor() {
+          private boolean first = true;
+
+          @Override
+          public boolean hasNext() {
+            return true;
+          }
+
+          @Override
+          public JSONObject nextJSONObject() throws FailedDBOperationException {
+            if (first) {
+              first = false;
+              return a;
+            }
+            throw new FailedDBOperationException("test", "b", "lost the connection");
+          }
+        });
+        fail("The build should have failed");
+      } catch (FailedDBOperationException e) {
+        // expected
+      }
+      // still not used
+      assertNull(indexes.candidates(query("{'" + COLOR + "':'red'}")));
+      // a change while it is unused and then building it again
+      indexes.update("a", record("a", "blue", 1, 10.5, 20.5));
+      indexes.build(new EmbeddedRecordCursor(Arrays.asList(a, record("b", "red", 2, 10.5, 40.5)).iterator()));
+      assertEquals(Collections.singleton("b"), indexes.candidates(query("{'" + COLOR + "':'red'}")));
+      assertEquals(Collections.singleton("a"), indexes.candidates(query("{'" + COLOR + "':'blue'}")));
+    } catch (FailedDBOperationException | JSONException e) {
+      fail("Problem with failed build: " + e);
+    }
+  }
+}
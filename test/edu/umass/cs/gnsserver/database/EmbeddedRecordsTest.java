@@ -0,0 +1,262 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.database;
+
+import edu.umass.cs.gnsclient.jsonassert.JSONAssert;
+import edu.umass.cs.gnsclient.jsonassert.JSONCompareMode;
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the EmbeddedRecords database including reopening it from disk.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class EmbeddedRecordsTest {
+
+  private static final String node = "embeddedTestNode";
+  private static final String collection = "testCollection";
+  private static final String guid = "testGuid";
+  private static final String guid2 = "testGuid2";
+  private static EmbeddedRecords instance;
+
+  /**
+   * The EmbeddedRecordsTest.
+   */
+  public EmbeddedRecordsTest() {
+    if (instance == null) {
+      EmbeddedRecords.dropNodeDatabase(node);
+      instance = new EmbeddedRecords(node);
+    }
+  }
+
+  private static JSONObject record(String name, String color, JSONArray location) throws JSONException {
+    JSONObject valuesMap = new JSONObject();
+    valuesMap.put(AccountAccess.GUID_INFO, new JSONObject().put("name", name));
+    valuesMap.put("color", color);
+    valuesMap.put("location", location);
+    return new JSONObject().put(NameRecord.NAME.getName(), name)
+            .put(NameRecord.VALUES_MAP.getName(), valuesMap);
+  }
+
+  private static int count(AbstractRecordCursor cursor) throws FailedDBOperationException {
+    int count = 0;
+    while (cursor.hasNext()) {
+      cursor.nextJSONObject();
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_01_Insert() {
+    try {
+      instance.insert(collection, guid, record(guid, "red", new JSONArray(Arrays.asList(10.0, 10.0))));
+      instance.insert(collection, guid2, record(guid2, "blue", new JSONArray(Arrays.asList(50.0, 50.0))));
+    } catch (FailedDBOperationException | JSONException | RecordExistsException e) {
+      fail("Problem during insert " + e);
+    }
+    try {
+      instance.insert(collection, guid, new JSONObject());
+      fail("Should have thrown RecordExistsException");
+    } catch (RecordExistsException e) {
+      // expected
+    } catch (FailedDBOperationException e) {
+      fail("Problem during insert " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_02_LookupEntireRecord() {
+    try {
+      JSONAssert.assertEquals(
+              record(guid, "red", new JSONArray(Arrays.asList(10.0, 10.0))),
+              instance.lookupEntireRecord(collection, guid),
+              JSONCompareMode.STRICT);
+    } catch (RecordNotFoundException | FailedDBOperationException | JSONException e) {
+      fail("Problem during LookupEntireRecord: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_03_UpdateIndividualFields() {
+    try {
+      instance.updateIndividualFields(collection, guid, NameRecord.VALUES_MAP,
+              new ArrayList<>(Arrays.asList(new ColumnField("nested.inner", ColumnFieldType.USER_JSON))),
+              new ArrayList<>(Arrays.asList((Object) "value")));
+      JSONObject valuesMap = instance.lookupEntireRecord(collection, guid)
+              .getJSONObject(NameRecord.VALUES_MAP.getName());
+      assertEquals("value", valuesMap.getJSONObject("nested").getString("inner"));
+      assertEquals("red", valuesMap.getString("color"));
+    } catch (RecordNotFoundException | FailedDBOperationException | JSONException e) {
+      fail("Problem during updateIndividualFields: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_04_RemoveMapKeys() {
+    try {
+      instance.removeMapKeys(collection, guid, NameRecord.VALUES_MAP,
+              new ArrayList<>(Arrays.asList(new ColumnField("nested.inner", ColumnFieldType.USER_JSON))));
+      JSONObject valuesMap = instance.lookupEntireRecord(collection, guid)
+              .getJSONObject(NameRecord.VALUES_MAP.getName());
+      assertFalse(valuesMap.getJSONObject("nested").has("inner"));
+    } catch (RecordNotFoundException | FailedDBOperationException | JSONException e) {
+      fail("Problem during removeMapKeys: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_05_Selects() {
+    try {
+      assertEquals(1, count(instance.selectRecords(collection, NameRecord.VALUES_MAP, "color", "blue", null)));
+      assertEquals(1, count(instance.selectRecordsWithin(collection, NameRecord.VALUES_MAP, "location",
+              "[[0,0],[20,20]]", null)));
+      assertEquals(2, count(instance.selectRecordsWithin(collection, NameRecord.VALUES_MAP, "location",
+              "[[0,0],[60,60]]", null)));
+      assertEquals(1, count(instance.selectRecordsNear(collection, NameRecord.VALUES_MAP, "location",
+              "[11,11]", 200000.0, null)));
+      assertEquals(2, count(instance.selectRecordsQuery(collection, NameRecord.VALUES_MAP,
+              "$or: [(~color: \"red\"), (~color: \"blue\")]", null)));
+      AbstractRecordCursor cursor = instance.selectRecordsQuery(collection, NameRecord.VALUES_MAP,
+              "~location: ($geoWithin: ($box: [[40,40],[60,60]]))", new ArrayList<>(Arrays.asList("color")));
+      assertTrue(cursor.hasNext());
+      JSONObject json = cursor.nextJSONObject();
+      assertEquals(guid2, json.getString(NameRecord.NAME.getName()));
+      assertEquals("blue", json.getJSONObject(NameRecord.VALUES_MAP.getName()).getString("color"));
+      assertFalse(json.getJSONObject(NameRecord.VALUES_MAP.getName()).has("location"));
+      assertFalse(cursor.hasNext());
+      cursor = instance.selectRecordsNear(collection, NameRecord.VALUES_MAP, "location",
+              "[11,11]", 200000.0, new ArrayList<String>());
+      json = cursor.nextJSONObject();
+      assertEquals(guid, json.getString(NameRecord.NAME.getName()));
+      assertFalse(json.getJSONObject(NameRecord.VALUES_MAP.getName()).has("color"));
+    } catch (FailedDBOperationException | JSONException e) {
+      fail("Problem during select: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_06_RemoveEntireRecord() {
+    try {
+      instance.removeEntireRecord(collection, guid);
+      assertFalse(instance.contains(collection, guid));
+    } catch (FailedDBOperationException e) {
+      fail("Problem while deleting record: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_07_Reopen() {
+    instance.close();
+    instance = new EmbeddedRecords(node);
+    try {
+      assertFalse(instance.contains(collection, guid));
+      assertEquals("blue", instance.lookupEntireRecord(collection, guid2)
+              .getJSONObject(NameRecord.VALUES_MAP.getName()).getString("color"));
+      assertEquals(1, count(instance.getAllRowsIterator(collection)));
+    } catch (RecordNotFoundException | FailedDBOperationException | JSONException e) {
+      fail("Problem after reopening: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_08_LookupMany() {
+    try {
+      Map<String, JSONObject> records = instance.lookupMany(collection,
+              Arrays.asList(guid, guid2, "missingGuid"), new ArrayList<>(Arrays.asList("color")));
+      assertEquals(1, records.size());
+      JSONObject valuesMap = records.get(guid2).getJSONObject(NameRecord.VALUES_MAP.getName());
+      assertEquals("blue", valuesMap.getString("color"));
+      assertFalse(valuesMap.has("location"));
+      records = instance.lookupMany(collection, Arrays.asList(guid2), null);
+      assertTrue(records.get(guid2).getJSONObject(NameRecord.VALUES_MAP.getName()).has("location"));
+    } catch (FailedDBOperationException | JSONException e) {
+      fail("Problem during lookupMany: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_09_Async() {
+    AsyncNoSQLRecords async = AsyncRecordsAdapter.getAsyncRecords(instance);
+    try {
+      CompletableFuture<JSONObject> first = async.lookupEntireRecordAsync(collection, guid2);
+      CompletableFuture<JSONObject> second = async.lookupEntireRecordAsync(collection, guid2);
+      assertEquals(guid2, AsyncRecordsAdapter.await(first).getString(NameRecord.NAME.getName()));
+      assertEquals(guid2, AsyncRecordsAdapter.await(second).getString(NameRecord.NAME.getName()));
+      AsyncRecordsAdapter.await(async.lookupEntireRecordAsync(collection, "missingGuid"));
+      fail("Should have thrown RecordNotFoundException");
+    } catch (RecordNotFoundException e) {
+      // expected
+    } catch (FailedDBOperationException | RecordExistsException | JSONException e) {
+      fail("Problem during async lookup: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_99_Drop() {
+    instance.close();
+    EmbeddedRecords.dropNodeDatabase(node);
+  }
+}
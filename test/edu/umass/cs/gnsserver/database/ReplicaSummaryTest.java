@@ -0,0 +1,105 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.database;
+
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the ReplicaSummary.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ReplicaSummaryTest {
+
+  private static ReplicaSummary summary() throws JSONException {
+    ReplicaSummary summary = new ReplicaSummary(1000);
+    summary.addValuesMap(new JSONObject().put("color", "red").put("size", 5)
+            .put("location", new JSONArray().put(10.5).put(20.5))
+            .put("tags", new JSONArray().put("x").put(new JSONObject().put("deep", true)))
+            .put(AccountAccess.GUID_INFO, new JSONObject().put("name", "a")));
+    summary.addField("size", 12);
+    summary.addField("address.city", "Amherst");
+    return summary;
+  }
+
+  private static void assertMatches(ReplicaSummary summary, boolean expected, String query) {
+    assertEquals(query, expected, summary.mayMatchQuery(query));
+  }
+
+  private static void check(ReplicaSummary summary) {
+    assertMatches(summary, true, "~color:\"red\"");
+    assertMatches(summary, false, "~color:\"blue\"");
+    assertMatches(summary, true, "~color:($in:[\"blue\",\"red\"])");
+    assertMatches(summary, true, "~size:12");
+    assertMatches(summary, false, "~size:7.5");
+    assertMatches(summary, true, "~size:($gt:10)");
+    assertMatches(summary, false, "~size:($gt:12)");
+    assertMatches(summary, false, "~size:($lt:5)");
+    assertMatches(summary, true, "~tags:\"x\"");
+    assertMatches(summary, true, "~tags.deep:true");
+    assertMatches(summary, true, "~address.city:\"Amherst\"");
+    assertMatches(summary, true, "~address:($exists:true)");
+    assertMatches(summary, false, "~missing:($exists:true)");
+    assertMatches(summary, true, "~missing:($exists:false)");
+    assertMatches(summary, true, "~color:($ne:\"red\")");
+    assertMatches(summary, true, "~location:($geoWithin:($box:[[10,20],[11,21]]))");
+    assertMatches(summary, false, "~location:($geoWithin:($box:[[-80,40],[-70,45]]))");
+    assertMatches(summary, true, "~location:($near:[12,22],$maxDistance:2)");
+    assertMatches(summary, false, "~location:($near:[50,50],$maxDistance:2)");
+    assertMatches(summary, true, "$or:[(~color:\"blue\"),(~size:5)]");
+    assertMatches(summary, false, "$or:[(~color:\"blue\"),(~size:6)]");
+    assertMatches(summary, false, "$and:[(~color:\"red\"),(~size:6)]");
+    // anything it doesn't understand may match
+    assertMatches(summary, true, "$where:\"this.x == 1\"");
+    assertMatches(summary, true, "~color:($regex:\"^r\")");
+    assertMatches(summary, true, "not a query");
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_01_MayMatch() {
+    try {
+      check(summary());
+    } catch (JSONException e) {
+      fail("Problem with summary: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_02_ToJSON() {
+    try {
+      check(ReplicaSummary.fromJSON(new JSONObject(summary().toJSONObject().toString())));
+    } catch (JSONException e) {
+      fail("Problem with summary: " + e);
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.OPTRecord;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+import static org.junit.Assert.*;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the DnsAnswerCache.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class DnsAnswerCacheTest {
+
+  private static Message query(String name, int id, boolean recursion, boolean edns) throws IOException {
+    Message query = Message.newQuery(Record.newRecord(Name.fromString(name), Type.A, DClass.IN));
+    query.getHeader().setID(id);
+    if (!recursion) {
+      query.getHeader().unsetFlag(Flags.RD);
+    }
+    if (edns) {
+      query.addRecord(new OPTRecord(1232, 0, 0), Section.ADDITIONAL);
+    }
+    return query;
+  }
+
+  private static Message response(Message query, String address) throws IOException {
+    Message response = new Message(query.getHeader().getID());
+    response.getHeader().setFlag(Flags.QR);
+    response.getHeader().setFlag(Flags.AA);
+    response.addRecord(query.getQuestion(), Section.QUESTION);
+    response.addRecord(new ARecord(query.getQuestion().getName(), DClass.IN, 60,
+            InetAddress.getByName(address)), Section.ANSWER);
+    return response;
+  }
+
+  private static void put(String name, String address, long generation, String... names) throws IOException {
+    Message query = query(name, 1, true, false);
+    DnsAnswerCache.put(query, response(query, address), generation, names);
+  }
+
+  private static String address(byte[] wire) throws IOException {
+    return ((ARecord) new Message(wire).getSectionArray(Section.ANSWER)[0]).getAddress().getHostAddress();
+  }
+
+  /**
+   *
+   * @throws IOException
+   */
+  @Test
+  public void test_01_Patching() throws IOException {
+    put("patch.example.com.", "10.0.0.1", DnsAnswerCache.getGeneration(), "patchGuid", "patch.example.com.");
+
+    byte[] wire = DnsAnswerCache.get(query("Patch.EXAMPLE.com.", 4321, true, true), 65535);
+    assertNotNull(wire);
+    Message answer = new Message(wire);
+    assertEquals(4321, answer.getHeader().getID());
+    assertTrue(answer.getHeader().getFlag(Flags.QR));
+    assertTrue(answer.getHeader().getFlag(Flags.RA));
+    // the case the client used
+    assertEquals("Patch.EXAMPLE.com.", answer.getQuestion().getName().toString());
+    assertEquals("10.0.0.1", address(wire));
+    assertNotNull(answer.getOPT());
+    assertEquals(1, answer.getHeader().getCount(Section.ADDITIONAL));
+
+    wire = DnsAnswerCache.get(query("patch.example.com.", 99, false, false), 65535);
+    answer = new Message(wire);
+    assertEquals(99, answer.getHeader().getID());
+    assertFalse(answer.getHeader().getFlag(Flags.RA));
+    assertNull(answer.getOPT());
+    assertEquals(0, answer.getHeader().getCount(Section.ADDITIONAL));
+
+    // not cached
+    assertNull(DnsAnswerCache.get(query("other.example.com.", 1, true, false), 65535));
+  }
+
+  /**
+   *
+   * @throws IOException
+   */
+  @Test
+  public void test_02_MaxLength() throws IOException {
+    put("long.example.com.", "10.0.0.2", DnsAnswerCache.getGeneration(), "longGuid", "long.example.com.");
+    Message query = query("long.example.com.", 1, true, true);
+    int length = DnsAnswerCache.get(query, 65535).length;
+    assertNotNull(DnsAnswerCache.get(query, length));
+    // left to be built and truncated the usual way
+    assertNull(DnsAnswerCache.get(query, length - 1));
+  }
+
+  /**
+   *
+   * @throws IOException
+   */
+  @Test
+  public void test_03_RecordChanged() throws IOException {
+    put("changed.example.com.", "10.0.0.3", DnsAnswerCache.getGeneration(), "changedGuid", "changed.example.com.");
+    put("kept.example.com.", "10.0.0.4", DnsAnswerCache.getGeneration(), "keptGuid", "kept.example.com.");
+    // replacing an answer keeps it indexed
+    put("changed.example.com.", "10.0.0.5", DnsAnswerCache.getGeneration(), "changedGuid", "changed.example.com.");
+    assertEquals("10.0.0.5", address(DnsAnswerCache.get(query("changed.example.com.", 1, true, false), 65535)));
+
+    DnsAnswerCache.recordChanged("changedGuid");
+    assertNull(DnsAnswerCache.get(query("changed.example.com.", 1, true, false), 65535));
+    assertNotNull(DnsAnswerCache.get(query("kept.example.com.", 1, true, false), 65535));
+
+    // by the domain name as well
+    put("changed.example.com.", "10.0.0.6", DnsAnswerCache.getGeneration(), "changedGuid", "changed.example.com.");
+    DnsAnswerCache.recordChanged("changed.example.com.");
+    assertNull(DnsAnswerCache.get(query("changed.example.com.", 1, true, false), 65535));
+
+    // an answer cached again after an explicit removal is still dropped
+    put("changed.example.com.", "10.0.0.7", DnsAnswerCache.getGeneration(), "changedGuid", "changed.example.com.");
+    DnsAnswerCache.recordChanged("changedGuid");
+    assertNull(DnsAnswerCache.get(query("changed.example.com.", 1, true, false), 65535));
+  }
+
+  /**
+   *
+   * @throws IOException
+   */
+  @Test
+  public void test_04_Generation() throws IOException {
+    long generation = DnsAnswerCache.getGeneration();
+    // some record changed while the answer was being built
+    DnsAnswerCache.recordChanged("someOtherGuid");
+    put("stale.example.com.", "10.0.0.8", generation, "staleGuid", "stale.example.com.");
+    assertNull(DnsAnswerCache.get(query("stale.example.com.", 1, true, false), 65535));
+
+    put("stale.example.com.", "10.0.0.9", DnsAnswerCache.getGeneration(), "staleGuid", "stale.example.com.");
+    assertEquals("10.0.0.9", address(DnsAnswerCache.get(query("stale.example.com.", 1, true, false), 65535)));
+  }
+}
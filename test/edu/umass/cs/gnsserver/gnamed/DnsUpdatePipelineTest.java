@@ -0,0 +1,230 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import edu.umass.cs.gnsclient.client.util.GuidEntry;
+import edu.umass.cs.gnscommon.CommandType;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.exceptions.client.EncryptionException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import org.json.JSONException;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the DnsUpdatePipeline with a client that holds the commands until
+ * the test answers them.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class DnsUpdatePipelineTest {
+
+  private static final long WAIT = 5000;
+
+  private static KeyPair keyPair;
+
+  static GuidEntry entry(String name) throws NoSuchAlgorithmException, EncryptionException {
+    if (keyPair == null) {
+      keyPair = KeyPairGenerator.getInstance(GNSProtocol.RSA_ALGORITHM.toString()).generateKeyPair();
+    }
+    return new GuidEntry(name, name.toUpperCase(), keyPair.getPublic(), keyPair.getPrivate());
+  }
+
+  private static RecordingClient.Request next(RecordingClient client) throws InterruptedException {
+    RecordingClient.Request request = client.next(WAIT);
+    assertNotNull("Nothing was sent", request);
+    return request;
+  }
+
+  private static void assertUpdate(RecordingClient.Request request, JSONObject values) throws JSONException {
+    assertEquals(CommandType.ReplaceUserJSON, request.getType());
+    assertEquals(values.toString(), new JSONObject(request.getValues(), JSONObject.getNames(values)).toString());
+    assertEquals(values.length(), request.getValues().length());
+  }
+
+  /**
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_01_Coalescing() throws Exception {
+    RecordingClient client = new RecordingClient();
+    DnsUpdatePipeline pipeline = new DnsUpdatePipeline(client, 1, 100, WAIT);
+    try {
+      GuidEntry guid = entry("coalesced");
+      assertTrue(pipeline.update(guid, "A", "1"));
+      RecordingClient.Request first = next(client);
+      assertEquals(guid.getGuid(), first.getGuid());
+      assertUpdate(first, new JSONObject().put("A", "1"));
+
+      // wait for the outstanding update, the last change of a field wins
+      assertTrue(pipeline.update(guid, "A", "2"));
+      assertTrue(pipeline.update(guid, "A", "3"));
+      assertTrue(pipeline.update(guid, "MX", "m"));
+      assertNull(client.next(100));
+
+      first.respond();
+      RecordingClient.Request second = next(client);
+      assertUpdate(second, new JSONObject().put("A", "3").put("MX", "m"));
+      second.respond();
+      assertTrue(pipeline.awaitIdle(WAIT));
+      assertNull(client.next(100));
+
+      JSONObject progress = pipeline.getProgress();
+      assertEquals(4, progress.getInt("submitted"));
+      assertEquals(1, progress.getInt("merged"));
+      assertEquals(3, progress.getInt("sent"));
+      assertEquals(3, progress.getInt("completed"));
+      assertEquals(0, progress.getInt("pending"));
+      assertEquals(0, progress.getInt("outstanding"));
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+
+  /**
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_02_RemoveAndUpdate() throws Exception {
+    RecordingClient client = new RecordingClient();
+    DnsUpdatePipeline pipeline = new DnsUpdatePipeline(client, 1, 100, WAIT);
+    try {
+      GuidEntry guid = entry("removed");
+      assertTrue(pipeline.update(guid, "A", "1"));
+      RecordingClient.Request first = next(client);
+
+      // removed then updated is an update
+      assertTrue(pipeline.remove(guid, "CNAME"));
+      assertTrue(pipeline.update(guid, "CNAME", "c"));
+      // updated then removed is a removal
+      assertTrue(pipeline.update(guid, "MX", "m"));
+      assertTrue(pipeline.remove(guid, "MX"));
+
+      first.respond();
+      RecordingClient.Request removal = next(client);
+      RecordingClient.Request update = next(client);
+      assertNull(client.next(100));
+      assertEquals(CommandType.RemoveField, removal.getType());
+      assertEquals("MX", removal.getField());
+      assertUpdate(update, new JSONObject().put("CNAME", "c"));
+      removal.respond();
+      // done once both commands are answered
+      assertFalse(pipeline.awaitIdle(100));
+      update.respond();
+      assertTrue(pipeline.awaitIdle(WAIT));
+      assertEquals(3, pipeline.getProgress().getInt("completed"));
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+
+  /**
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_03_TimeoutRetry() throws Exception {
+    RecordingClient client = new RecordingClient();
+    DnsUpdatePipeline pipeline = new DnsUpdatePipeline(client, 1, 100, 1000);
+    try {
+      GuidEntry guid = entry("retried");
+      assertTrue(pipeline.update(guid, "A", "1"));
+      RecordingClient.Request lost = next(client);
+      assertTrue(pipeline.update(guid, "MX", "m"));
+
+      // sent again with the change that came in since
+      RecordingClient.Request retry = next(client);
+      assertTrue(lost.isCancelled());
+      assertUpdate(retry, new JSONObject().put("A", "1").put("MX", "m"));
+      assertEquals(1, pipeline.getProgress().getInt("retried"));
+
+      // the guid is still outstanding
+      assertTrue(pipeline.update(guid, "A", "2"));
+      assertNull(client.next(100));
+      // a late response to the lost update changes nothing
+      lost.respond();
+      assertNull(client.next(100));
+
+      retry.respond();
+      RecordingClient.Request last = next(client);
+      assertUpdate(last, new JSONObject().put("A", "2"));
+      last.respond();
+      assertTrue(pipeline.awaitIdle(WAIT));
+      JSONObject progress = pipeline.getProgress();
+      assertEquals(3, progress.getInt("completed"));
+      assertEquals(0, progress.getInt("failed"));
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+
+  /**
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_04_MaxPending() throws Exception {
+    RecordingClient client = new RecordingClient();
+    DnsUpdatePipeline pipeline = new DnsUpdatePipeline(client, 1, 2, 500);
+    try {
+      assertTrue(pipeline.update(entry("busy1"), "A", "1"));
+      RecordingClient.Request first = next(client);
+      assertTrue(pipeline.update(entry("busy2"), "A", "1"));
+      assertTrue(pipeline.update(entry("busy3"), "A", "1"));
+      assertTrue(pipeline.isBusy());
+      assertTrue(pipeline.getProgress().getBoolean("busy"));
+
+      // held back for the timeout and then dropped
+      long start = System.currentTimeMillis();
+      assertFalse(pipeline.update(entry("busy4"), "A", "1"));
+      assertTrue(System.currentTimeMillis() - start >= 400);
+      // a change to a field that is waiting is merged right away
+      assertTrue(pipeline.update(entry("busy2"), "A", "2"));
+
+      // the first update timed out meanwhile and went out again
+      RecordingClient.Request retry = next(client);
+      assertTrue(first.isCancelled());
+      assertEquals("BUSY1", retry.getGuid());
+      assertTrue(pipeline.isBusy());
+      retry.respond();
+      RecordingClient.Request second = next(client);
+      assertEquals("BUSY2", second.getGuid());
+      assertUpdate(second, new JSONObject().put("A", "2"));
+      assertFalse(pipeline.isBusy());
+      assertTrue(pipeline.update(entry("busy4"), "A", "1"));
+
+      client.setAutoRespond(true);
+      second.respond();
+      assertTrue(pipeline.awaitIdle(WAIT));
+      assertEquals("BUSY3", next(client).getGuid());
+      assertEquals("BUSY4", next(client).getGuid());
+      assertEquals(5, pipeline.getProgress().getInt("submitted"));
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import edu.umass.cs.gnsclient.client.util.GuidEntry;
+import edu.umass.cs.gnscommon.CommandType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Base64;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the record change requests of the ManagedDNSServiceProxy against a
+ * pipeline whose client holds the commands until the test answers them.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ManagedDNSServiceProxyTest {
+
+  private static String serialize(GuidEntry entry) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+      entry.writeObject(output);
+    }
+    return Base64.getEncoder().encodeToString(bytes.toByteArray());
+  }
+
+  private static JSONObject updateField(String name, String field, Object value) throws Exception {
+    return new JSONObject().put("action", "update_field").put("guid", serialize(DnsUpdatePipelineTest.entry(name)))
+            .put("field", field).put("value", value);
+  }
+
+  /**
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_01_Requests() throws Exception {
+    RecordingClient client = new RecordingClient();
+    ManagedDNSServiceProxy.updates = new DnsUpdatePipeline(client, 1, 1, 300);
+    try {
+      // acknowledged once queued, before the GNS answers
+      JSONObject result = ManagedDNSServiceProxy.handleRequest(updateField("proxy1", "A", "1.2.3.4"));
+      assertNotNull(result);
+      assertFalse(result.has("error"));
+      RecordingClient.Request first = client.next(5000);
+      assertNotNull(first);
+      assertEquals(CommandType.ReplaceUserJSON, first.getType());
+      assertEquals("1.2.3.4", first.getValues().getString("A"));
+
+      // one change waiting is all this pipeline takes
+      result = ManagedDNSServiceProxy.handleRequest(new JSONObject().put("action", "delete_cname")
+              .put("guid", serialize(DnsUpdatePipelineTest.entry("proxy2"))));
+      assertFalse(result.has("error"));
+      result = ManagedDNSServiceProxy.handleRequest(updateField("proxy3", "A", "1.2.3.5"));
+      assertEquals("busy", result.getString("error"));
+      assertTrue(result.getJSONObject("progress").getBoolean("busy"));
+
+      // the first update timed out while the last one was held back
+      RecordingClient.Request retry = client.next(5000);
+      assertNotNull(retry);
+      assertTrue(first.isCancelled());
+
+      result = ManagedDNSServiceProxy.handleRequest(new JSONObject().put("action", "status"));
+      assertFalse(result.has("error"));
+      JSONObject progress = result.getJSONObject("progress");
+      assertEquals(2, progress.getInt("submitted"));
+      assertEquals(2, progress.getInt("sent"));
+      assertEquals(1, progress.getInt("retried"));
+      assertEquals(1, progress.getInt("outstanding"));
+      assertTrue(progress.getBoolean("busy"));
+
+      retry.respond();
+      RecordingClient.Request second = client.next(5000);
+      assertNotNull(second);
+      assertEquals(CommandType.RemoveField, second.getType());
+      second.respond();
+      assertTrue(ManagedDNSServiceProxy.updates.awaitIdle(5000));
+      progress = ManagedDNSServiceProxy.handleRequest(new JSONObject().put("action", "status"))
+              .getJSONObject("progress");
+      assertEquals(2, progress.getInt("completed"));
+      assertFalse(progress.getBoolean("busy"));
+    } finally {
+      ManagedDNSServiceProxy.updates.shutdown();
+    }
+  }
+}
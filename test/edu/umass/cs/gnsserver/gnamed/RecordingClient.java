@@ -0,0 +1,135 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import edu.umass.cs.gigapaxos.interfaces.Callback;
+import edu.umass.cs.gigapaxos.interfaces.RequestFuture;
+import edu.umass.cs.gnsclient.client.GNSClient;
+import edu.umass.cs.gnscommon.CommandType;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.ResponseCode;
+import edu.umass.cs.gnscommon.packets.CommandPacket;
+import edu.umass.cs.gnscommon.packets.PacketUtils;
+import edu.umass.cs.gnscommon.packets.ResponsePacket;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A GNSClient for the DNS proxy tests that keeps the commands it is given
+ * until the test answers them, or answers them right away.
+ *
+ */
+class RecordingClient extends GNSClient {
+
+  /**
+   * A command that was executed.
+   */
+  static class Request implements RequestFuture<CommandPacket> {
+
+    private final CommandPacket command;
+    private final Callback<CommandPacket, CommandPacket> callback;
+    private volatile boolean cancelled;
+
+    Request(CommandPacket command, Callback<CommandPacket, CommandPacket> callback) {
+      this.command = command;
+      this.callback = callback;
+    }
+
+    CommandType getType() {
+      return command.getCommandType();
+    }
+
+    String getGuid() {
+      return command.getCommand().optString(GNSProtocol.GUID.toString());
+    }
+
+    // The removed field.
+    String getField() {
+      return command.getCommand().optString(GNSProtocol.FIELD.toString());
+    }
+
+    // The updated fields.
+    JSONObject getValues() throws JSONException {
+      return new JSONObject(command.getCommand().getString(GNSProtocol.USER_JSON.toString()));
+    }
+
+    void respond() {
+      PacketUtils.setResult(command, new ResponsePacket(command.getServiceName(), command.getRequestID(),
+              ResponseCode.NO_ERROR, GNSProtocol.OK_RESPONSE.toString()));
+      callback.processResponse(command);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      cancelled = true;
+      return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+      return cancelled;
+    }
+
+    @Override
+    public CommandPacket get() {
+      return null;
+    }
+
+    @Override
+    public CommandPacket get(long timeout, TimeUnit unit) {
+      return null;
+    }
+  }
+
+  private final LinkedBlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+  private volatile boolean autoRespond;
+
+  RecordingClient() throws IOException {
+    super(false);
+  }
+
+  void setAutoRespond(boolean autoRespond) {
+    this.autoRespond = autoRespond;
+  }
+
+  // The next command executed or null if none was in time.
+  Request next(long wait) throws InterruptedException {
+    return requests.poll(wait, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public RequestFuture<CommandPacket> execute(CommandPacket command,
+          Callback<CommandPacket, CommandPacket> callback) {
+    Request request = new Request(command, callback);
+    requests.add(request);
+    if (autoRespond) {
+      request.respond();
+    }
+    return request;
+  }
+}
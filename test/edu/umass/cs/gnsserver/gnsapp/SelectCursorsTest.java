@@ -0,0 +1,112 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.json.JSONException;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the SelectCursors.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SelectCursorsTest {
+
+  private static List<JSONObject> records(String... guids) throws JSONException {
+    List<JSONObject> result = new ArrayList<>();
+    for (String guid : guids) {
+      result.add(new JSONObject().put(NameRecord.NAME.getName(), guid));
+    }
+    return result;
+  }
+
+  private static List<String> guids(List<JSONObject> records) throws JSONException {
+    List<String> result = new ArrayList<>();
+    for (JSONObject record : records) {
+      result.add(record.getString(NameRecord.NAME.getName()));
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @throws JSONException
+   */
+  @Test
+  public void test_01_Pages() throws JSONException {
+    InetSocketAddress server = new InetSocketAddress("127.0.0.1", 24403);
+    SelectCursors.SelectCursor cursor = new SelectCursors.SelectCursor(new JSONObject(), "reader", 2);
+    cursor.addRecords(records("c", "a", "b"));
+    cursor.setResumeAt(server, 3);
+    assertEquals(Arrays.asList("a", "b"), guids(cursor.nextPage()));
+    assertTrue(cursor.hasMore());
+    assertTrue(cursor.needsMoreRecords());
+    // records on more than one server are only returned once
+    cursor.getResumeAt().clear();
+    cursor.addRecords(records("a", "d", "c"));
+    assertFalse(cursor.needsMoreRecords());
+    assertEquals(Arrays.asList("c", "d"), guids(cursor.nextPage()));
+    assertFalse(cursor.hasMore());
+  }
+
+  /**
+   *
+   * @throws JSONException
+   */
+  @Test
+  public void test_02_Take() throws JSONException {
+    SelectCursors.SelectCursor cursor = new SelectCursors.SelectCursor(new JSONObject(), "reader", 2);
+    String token = SelectCursors.save(cursor);
+    assertNull(SelectCursors.take(token, "someoneElse"));
+    assertSame(cursor, SelectCursors.take(token, "reader"));
+    // cursors are used once
+    assertNull(SelectCursors.take(token, "reader"));
+  }
+
+  /**
+   *
+   * @throws JSONException
+   */
+  @Test
+  public void test_03_RequestToJSON() throws JSONException {
+    SelectRequestPacket packet = SelectRequestPacket.MakeQueryRequest(1, "reader", "~a:1", null);
+    packet.setLimit(10);
+    packet.setCursor("abc");
+    packet.setSkip(25);
+    SelectRequestPacket copy = new SelectRequestPacket(packet.toJSONObject());
+    assertEquals(10, copy.getLimit());
+    assertEquals("abc", copy.getCursor());
+    assertEquals(25, copy.getSkip());
+    copy = new SelectRequestPacket(SelectRequestPacket.MakeQueryRequest(1, "reader", "~a:1", null).toJSONObject());
+    assertEquals(-1, copy.getLimit());
+    assertNull(copy.getCursor());
+    assertEquals(0, copy.getSkip());
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import edu.umass.cs.gnscommon.CommandType;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.ResponseCode;
+import edu.umass.cs.gnscommon.packets.CommandPacket;
+import edu.umass.cs.gnscommon.packets.PacketUtils;
+import edu.umass.cs.gnscommon.packets.ResponsePacket;
+import edu.umass.cs.gnsserver.database.EmbeddedRecords;
+import edu.umass.cs.gnsserver.database.JSONQueryMatcher;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GroupAccess;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.BasicRecordMap;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.GNSRecordMap;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the StandingQueries against records in an EmbeddedRecords database
+ * with an app whose internal client records the group updates.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class StandingQueriesTest {
+
+  private static final String NODE = "standingQueriesTestNode";
+  private static final MetaDataTypeName READ = MetaDataTypeName.READ_WHITELIST;
+  private static final long WAIT = 10000;
+
+  private static BasicRecordMap db;
+  private static GNSApplicationInterface<String> app;
+  // "type guid field" of each group update sent
+  private static final List<String> COMMANDS = Collections.synchronizedList(new ArrayList<String>());
+  // how often the evaluator got the database
+  private static final AtomicInteger DB_CALLS = new AtomicInteger();
+  // set to hold up the evaluator
+  private static volatile CountDownLatch blocked = null;
+
+  /**
+   * The StandingQueriesTest.
+   *
+   * @throws IOException
+   */
+  public StandingQueriesTest() throws IOException {
+    if (app == null) {
+      EmbeddedRecords.dropNodeDatabase(NODE);
+      db = new GNSRecordMap<String>(new EmbeddedRecords(NODE), "testCollection");
+      final GNSClientInternal client = new GNSClientInternal(NODE) {
+        @Override
+        public CommandPacket execute(CommandPacket command) {
+          JSONObject json = command.getCommand();
+          String result = GNSProtocol.OK_RESPONSE.toString();
+          if (command.getCommandType() == CommandType.ReadUnsigned) {
+            // nobody is a member yet as far as the group updates can tell
+            result = "[]";
+          } else {
+            COMMANDS.add(command.getCommandType() + " " + json.optString(GNSProtocol.GUID.toString())
+                    + " " + json.optString(GNSProtocol.FIELD.toString()));
+          }
+          return PacketUtils.setResult(command, new ResponsePacket(command.getServiceName(),
+                  command.getRequestID(), ResponseCode.NO_ERROR, result));
+        }
+      };
+      final ClientRequestHandlerInterface handler = stub(ClientRequestHandlerInterface.class,
+              new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          return "getInternalClient".equals(method.getName()) ? client : null;
+        }
+      });
+      app = stub(GNSApplicationInterface.class, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws InterruptedException {
+          switch (method.getName()) {
+            case "getDB":
+              CountDownLatch latch = blocked;
+              if (latch != null) {
+                latch.await();
+              }
+              DB_CALLS.incrementAndGet();
+              return db;
+            case "getRequestHandler":
+              return handler;
+            default:
+              return null;
+          }
+        }
+      });
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T stub(Class<?> type, InvocationHandler handler) {
+    return (T) Proxy.newProxyInstance(StandingQueriesTest.class.getClassLoader(), new Class<?>[]{type}, handler);
+  }
+
+  // A guid record everyone can read with the given color in the given groups.
+  private static void addRecord(String guid, String color, String... groups) {
+    try {
+      db.addRecord(new JSONObject().put(NameRecord.NAME.getName(), guid)
+              .put(NameRecord.VALUES_MAP.getName(), new JSONObject().put("color", color)
+                      .put(AccountAccess.GUID_INFO, new JSONObject().put("name", guid))
+                      .put(GroupAccess.GROUPS, new JSONArray(Arrays.asList(groups)))
+                      .put(READ.getPrefix(), new JSONObject().put(READ.name(),
+                              new JSONObject().put(GNSProtocol.ENTIRE_RECORD.toString(),
+                                      new JSONObject().put(GNSProtocol.MD.toString(),
+                                              new JSONArray().put(GNSProtocol.EVERYONE.toString())))))));
+    } catch (Exception e) {
+      fail("Problem adding " + guid + ": " + e);
+    }
+  }
+
+  private static void register(String groupGuid, String color, long registeredTime) {
+    StandingQueries.register(groupGuid, JSONQueryMatcher.parseSelectQuery("~color : \"" + color + "\""),
+            Collections.singletonList("color"), null, registeredTime);
+  }
+
+  private static String added(String member) {
+    return CommandType.AppendOrCreateListUnsigned + " " + member + " " + GroupAccess.GROUPS;
+  }
+
+  private static String removed(String member) {
+    return CommandType.RemoveUnsigned + " " + member + " " + GroupAccess.GROUPS;
+  }
+
+  // The changes are evaluated in order so once this one shows up the earlier ones are done.
+  private static void awaitCommand(String command) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + WAIT;
+    while (!COMMANDS.contains(command) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue("Missing " + command + " in " + COMMANDS, COMMANDS.contains(command));
+  }
+
+  /**
+   *
+   * @throws InterruptedException
+   */
+  @Test
+  public void test_01_Evaluate() throws InterruptedException {
+    register("redGroup", "red", System.currentTimeMillis());
+    addRecord("newRed", "red");
+    addRecord("oldBlue", "blue", "redGroup");
+    addRecord("oldRed", "red", "redGroup");
+    addRecord("newBlue", "blue");
+    addRecord("lastRed", "red");
+
+    // only the replica that got the request updates the groups
+    StandingQueries.recordChanged("newRed", app, true);
+    for (String guid : Arrays.asList("newRed", "oldBlue", "oldRed", "newBlue", "lastRed")) {
+      StandingQueries.recordChanged(guid, app, false);
+    }
+    awaitCommand(added("lastRed"));
+    assertEquals(1, Collections.frequency(COMMANDS, added("newRed")));
+    assertTrue(COMMANDS.contains(removed("oldBlue")));
+    // already right
+    assertFalse(COMMANDS.contains(added("oldRed")));
+    assertFalse(COMMANDS.contains(removed("oldRed")));
+    assertFalse(COMMANDS.contains(added("newBlue")));
+    // removed guids aren't evaluated
+    StandingQueries.recordChanged("missing", app, false);
+  }
+
+  /**
+   *
+   * @throws InterruptedException
+   */
+  @Test
+  public void test_02_Expiry() throws InterruptedException {
+    long refreshInterval = Config.getGlobalInt(GNSConfig.GNSC.SELECT_STANDING_REFRESH_INTERVAL);
+    register("greenGroup", "green", System.currentTimeMillis() - 2 * refreshInterval - 1000);
+    register("yellowGroup", "yellow", System.currentTimeMillis() - 2 * refreshInterval + 60000);
+    addRecord("green", "green");
+    addRecord("yellow", "yellow");
+    StandingQueries.recordChanged("green", app, false);
+    StandingQueries.recordChanged("yellow", app, false);
+    // not run again for twice the refresh interval
+    awaitCommand(added("yellow"));
+    assertFalse(COMMANDS.contains(added("green")));
+
+    // forgotten, so only a new select brings it back
+    addRecord("green2", "green");
+    addRecord("yellow2", "yellow");
+    StandingQueries.recordChanged("green2", app, false);
+    StandingQueries.recordChanged("yellow2", app, false);
+    awaitCommand(added("yellow2"));
+    register("greenGroup", "green", System.currentTimeMillis());
+    StandingQueries.recordChanged("green", app, false);
+    awaitCommand(added("green"));
+    assertEquals(1, Collections.frequency(COMMANDS, added("green")));
+    assertFalse(COMMANDS.contains(added("green2")));
+  }
+
+  /**
+   *
+   * @throws InterruptedException
+   */
+  @Test
+  public void test_03_SelectDone() throws InterruptedException {
+    register("purpleGroup", "purple", System.currentTimeMillis());
+    // members that stopped matching while the query wasn't known here
+    addRecord("wasPurple", "orange", "purpleGroup");
+    addRecord("selectedNotPurple", "orange", "purpleGroup");
+    addRecord("stillPurple", "purple", "purpleGroup");
+    StandingQueries.selectDone("purpleGroup", new HashSet<>(Arrays.asList("selectedNotPurple", "stillPurple")),
+            app);
+    // a group that isn't known here
+    StandingQueries.selectDone("unknownGroup", Collections.<String>emptySet(), app);
+    addRecord("lastPurple", "purple");
+    StandingQueries.recordChanged("lastPurple", app, false);
+    awaitCommand(added("lastPurple"));
+    assertTrue(COMMANDS.contains(removed("wasPurple")));
+    // the selected ones are left alone
+    assertFalse(COMMANDS.contains(removed("selectedNotPurple")));
+    assertFalse(COMMANDS.contains(removed("stillPurple")));
+  }
+
+  /**
+   *
+   * @throws InterruptedException
+   */
+  @Test
+  public void test_04_QueueFull() throws InterruptedException {
+    int queueSize = Config.getGlobalInt(GNSConfig.GNSC.SELECT_STANDING_QUEUE_SIZE);
+    register("whiteGroup", "white", System.currentTimeMillis());
+    addRecord("white", "white");
+    blocked = new CountDownLatch(1);
+    int start = DB_CALLS.get();
+    // one being evaluated, queueSize waiting and 100 dropped
+    for (int i = 0; i < queueSize + 100; i++) {
+      StandingQueries.recordChanged("missing" + i, app, false);
+    }
+    StandingQueries.recordChanged("white", app, false);
+    blocked.countDown();
+    blocked = null;
+    long deadline = System.currentTimeMillis() + WAIT;
+    while (DB_CALLS.get() - start < queueSize + 1 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(100);
+    assertEquals(queueSize + 1, DB_CALLS.get() - start);
+    assertFalse(COMMANDS.contains(added("white")));
+
+    // and then it catches up
+    StandingQueries.recordChanged("white", app, false);
+    awaitCommand(added("white"));
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.SharedGuidUtils;
+import edu.umass.cs.gnscommon.utils.Base64;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GuidInfo;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the BatchAclEvaluator.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class BatchAclEvaluatorTest {
+
+  private static final MetaDataTypeName READ = MetaDataTypeName.READ_WHITELIST;
+
+  private static String publicKey() throws NoSuchAlgorithmException {
+    return Base64.encodeToString(KeyPairGenerator.getInstance(GNSProtocol.RSA_ALGORITHM.toString())
+            .generateKeyPair().getPublic().getEncoded(), false);
+  }
+
+  private static JSONObject acl(String... publicKeys) throws JSONException {
+    return new JSONObject().put(GNSProtocol.MD.toString(), new JSONArray(Arrays.asList(publicKeys)));
+  }
+
+  private static JSONObject record(String guid, JSONObject acls) throws JSONException {
+    return new JSONObject().put(NameRecord.NAME.getName(), guid)
+            .put(NameRecord.VALUES_MAP.getName(), new JSONObject().put("a", 1).put("b", 2).put("c", 3)
+                    .put(READ.getPrefix(), new JSONObject().put(READ.name(), acls)));
+  }
+
+  private static Set<String> fields(JSONArray records, String guid) throws JSONException {
+    for (int i = 0; i < records.length(); i++) {
+      JSONObject record = records.getJSONObject(i);
+      if (record.getString(NameRecord.NAME.getName()).equals(guid)) {
+        Set<String> result = new HashSet<>(Arrays.asList(JSONObject.getNames(
+                record.getJSONObject(NameRecord.VALUES_MAP.getName()))));
+        result.remove(READ.getPrefix());
+        result.remove(AccountAccess.GUID_INFO);
+        return result;
+      }
+    }
+    return null;
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_01_Filter() {
+    try {
+      String readerKey = publicKey();
+      String reader = SharedGuidUtils.createGuidStringFromBase64PublicKey(readerKey);
+      String groupKey = publicKey();
+      String group = SharedGuidUtils.createGuidStringFromBase64PublicKey(groupKey);
+      String otherKey = publicKey();
+
+      JSONArray records = new JSONArray()
+              // the reader can read everything but c
+              .put(record("r1", new JSONObject().put(GNSProtocol.ENTIRE_RECORD.toString(), acl(readerKey))
+                      .put("c", acl(otherKey))))
+              // only a through the group and b through everyone
+              .put(record("r2", new JSONObject().put(GNSProtocol.ENTIRE_RECORD.toString(), acl(otherKey))
+                      .put("a", acl(groupKey)).put("b", acl(GNSProtocol.EVERYONE.toString()))))
+              // nothing
+              .put(record("r3", new JSONObject().put(GNSProtocol.ENTIRE_RECORD.toString(), acl(otherKey))));
+      JSONObject own = record(reader, new JSONObject());
+      own.getJSONObject(NameRecord.VALUES_MAP.getName()).put(AccountAccess.GUID_INFO,
+              new GuidInfo("reader", reader, readerKey).toJSONObject());
+      records.put(own);
+
+      JSONArray result = new BatchAclEvaluator(reader, new GuidInfo("reader", reader, readerKey),
+              Collections.singleton(group), READ).filter(new JSONArray(records.toString()),
+                      Collections.<String>emptyList());
+      assertEquals(new HashSet<>(Arrays.asList("a", "b")), fields(result, "r1"));
+      assertEquals(new HashSet<>(Arrays.asList("a", "b")), fields(result, "r2"));
+      assertEquals(Collections.emptySet(), fields(result, "r3"));
+      assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")), fields(result, reader));
+
+      // records with a query field the reader can't read are removed
+      result = new BatchAclEvaluator(reader, new GuidInfo("reader", reader, readerKey),
+              Collections.singleton(group), READ).filter(new JSONArray(records.toString()),
+                      Collections.singletonList("b"));
+      assertNotNull(fields(result, "r1"));
+      assertNotNull(fields(result, "r2"));
+      assertNull(fields(result, "r3"));
+
+      // a reader that doesn't exist gets neither the group nor everyone
+      result = new BatchAclEvaluator(reader, null, Collections.<String>emptySet(), READ)
+              .filter(new JSONArray(records.toString()), Collections.<String>emptyList());
+      assertEquals(Collections.emptySet(), fields(result, "r2"));
+    } catch (JSONException | NoSuchAlgorithmException e) {
+      fail("Problem with filter: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_02_DottedField() {
+    try {
+      assertEquals(Arrays.asList("a", "b"), NSAuthentication.aclPath("a.b"));
+      String readerKey = publicKey();
+      String reader = SharedGuidUtils.createGuidStringFromBase64PublicKey(readerKey);
+      String otherKey = publicKey();
+      // the reader can read a and everything under it
+      JSONObject record = record("r1", new JSONObject().put(GNSProtocol.ENTIRE_RECORD.toString(), acl(otherKey))
+              .put("a", acl(readerKey)));
+      BatchAclEvaluator evaluator = new BatchAclEvaluator(reader, new GuidInfo("reader", reader, readerKey),
+              Collections.<String>emptySet(), READ);
+      assertTrue(evaluator.canAccess(record, "a.b"));
+      assertTrue(evaluator.canAccess(record, "a.b.c"));
+      assertFalse(evaluator.canAccess(record, "b.a"));
+      assertEquals(1, evaluator.filter(new JSONArray().put(record), Collections.singletonList("a.b")).length());
+      assertEquals(0, evaluator.filter(new JSONArray().put(record), Collections.singletonList("b.a")).length());
+    } catch (JSONException | NoSuchAlgorithmException e) {
+      fail("Problem with dotted field: " + e);
+    }
+  }
+}
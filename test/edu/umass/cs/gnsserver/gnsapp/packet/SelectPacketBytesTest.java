@@ -0,0 +1,105 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.packet;
+
+import java.net.InetSocketAddress;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the binary form of the select packets.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SelectPacketBytesTest {
+
+  private static final InetSocketAddress SERVER = new InetSocketAddress("127.0.0.1", 24403);
+
+  private static SelectResponsePacket makePage(int count) throws JSONException {
+    JSONArray records = new JSONArray();
+    for (int i = 0; i < count; i++) {
+      records.put(new JSONObject()
+              .put("nr_valuesMap", new JSONObject()
+                      .put("location", new JSONArray().put(-72.5 + i / 1000.0).put(42.3))
+                      .put("speed", i)
+                      .put("moving", i % 2 == 0)
+                      .put("name", "sensor \"" + i + "\""))
+              .put("nr_name", String.format("%040X", i)));
+    }
+    SelectResponsePacket page = SelectResponsePacket.makeSuccessPacketForRecordsPage(
+            12345, SERVER, 7, SERVER, records, 1);
+    page.setResumeAt(100);
+    page.setAcceptsBinary(true);
+    return page;
+  }
+
+  /**
+   *
+   * @throws JSONException
+   */
+  @Test
+  public void test_01_RequestRoundTrip() throws JSONException {
+    SelectRequestPacket packet = SelectRequestPacket.MakeQueryRequest(1, "reader", "~speed:{$gt:10}", null);
+    packet.setNsQueryId(3);
+    packet.setNSReturnAddress(SERVER);
+    packet.setSkip(25);
+    packet.setAcceptsBinary(true);
+    byte[] bytes = packet.toBytes();
+    // receivers tell it apart from JSON by its first byte
+    assertNotEquals('{', bytes[0]);
+    SelectRequestPacket copy = new SelectRequestPacket(Packet.fromBytes(bytes));
+    assertEquals(packet.toJSONObject().toString(), copy.toJSONObject().toString());
+    assertTrue(copy.acceptsBinary());
+  }
+
+  /**
+   *
+   * @throws JSONException
+   */
+  @Test
+  public void test_02_ResponseRoundTrip() throws JSONException {
+    SelectResponsePacket page = makePage(10);
+    SelectResponsePacket copy = new SelectResponsePacket(Packet.fromBytes(page.toBytes()));
+    assertEquals(page.toJSONObject().toString(), copy.toJSONObject().toString());
+    assertEquals(100, copy.getResumeAt());
+    assertTrue(copy.acceptsBinary());
+    // booleans stay booleans
+    assertTrue(copy.getRecords().getJSONObject(0).getJSONObject("nr_valuesMap").getBoolean("moving"));
+  }
+
+  /**
+   * The binary form of a page of records is smaller than the JSON one.
+   * See SelectPacketBytesBenchmark for the encode plus decode times.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_03_Comparison() throws Exception {
+    SelectResponsePacket page = makePage(1000);
+    int jsonSize = page.toJSONObject().toString().getBytes("ISO-8859-1").length;
+    int binarySize = page.toBytes().length;
+    assertTrue(binarySize < jsonSize);
+  }
+}
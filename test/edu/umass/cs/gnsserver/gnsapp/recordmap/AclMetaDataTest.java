@@ -0,0 +1,94 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.recordmap;
+
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.SharedGuidUtils;
+import edu.umass.cs.gnscommon.utils.Base64;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the AclMetaData.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class AclMetaDataTest {
+
+  private static final MetaDataTypeName READ = MetaDataTypeName.READ_WHITELIST;
+
+  private static String publicKey() throws NoSuchAlgorithmException {
+    return Base64.encodeToString(KeyPairGenerator.getInstance(GNSProtocol.RSA_ALGORITHM.toString())
+            .generateKeyPair().getPublic().getEncoded(), false);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_01_Lookup() {
+    try {
+      String key1 = publicKey();
+      String key2 = publicKey();
+      JSONObject acls = new JSONObject()
+              .put(GNSProtocol.ENTIRE_RECORD.toString(), new JSONObject()
+                      .put(GNSProtocol.MD.toString(), new JSONArray().put(key1)))
+              .put("outer", new JSONObject()
+                      .put(GNSProtocol.MD.toString(), new JSONArray().put(GNSProtocol.EVERYONE.toString()))
+                      .put("inner", new JSONObject()
+                              .put(GNSProtocol.MD.toString(), new JSONArray().put(key2))));
+      JSONObject valuesMap = new JSONObject().put("color", "red")
+              .put(READ.getPrefix(), new JSONObject().put(READ.name(), acls));
+      AclMetaData aclMetaData = AclMetaData.fromValuesMap(valuesMap);
+
+      AclMetaData.FieldAcl entireRecord = aclMetaData.get(READ,
+              Collections.singletonList(GNSProtocol.ENTIRE_RECORD.toString()));
+      assertEquals(key1, entireRecord.getPublicKeyForGuid(SharedGuidUtils.createGuidStringFromBase64PublicKey(key1)));
+      assertNull(entireRecord.getPublicKeyForGuid(SharedGuidUtils.createGuidStringFromBase64PublicKey(key2)));
+      assertFalse(entireRecord.isEveryone());
+
+      assertTrue(aclMetaData.get(READ, "outer").isEveryone());
+      AclMetaData.FieldAcl inner = aclMetaData.get(READ, "outer.inner");
+      assertEquals(Collections.singleton(key2), inner.getPublicKeys());
+      assertTrue(inner.containsAnyGuid(new HashSet<>(Arrays.asList("someGroup",
+              SharedGuidUtils.createGuidStringFromBase64PublicKey(key2)))));
+      assertFalse(inner.containsAnyGuid(Collections.singleton("someGroup")));
+      // a dotted field is not a single key
+      assertNull(aclMetaData.get(READ, Collections.singletonList("outer.inner")));
+
+      assertNull(aclMetaData.get(READ, "color"));
+      assertNull(aclMetaData.get(MetaDataTypeName.WRITE_WHITELIST, "outer"));
+      assertNull(AclMetaData.fromValuesMap(null).get(READ, "outer"));
+    } catch (JSONException | NoSuchAlgorithmException e) {
+      fail("Problem with lookup: " + e);
+    }
+  }
+}
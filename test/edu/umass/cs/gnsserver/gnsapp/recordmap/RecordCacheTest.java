@@ -0,0 +1,128 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.recordmap;
+
+import edu.umass.cs.gnsserver.utils.ValuesMap;
+import java.util.Arrays;
+import org.json.JSONException;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the RecordCache.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RecordCacheTest {
+
+  private static final String guid = "testGuid";
+
+  private static JSONObject record(String color) throws JSONException {
+    return new JSONObject().put(NameRecord.NAME.getName(), guid)
+            .put(NameRecord.VALUES_MAP.getName(), new JSONObject().put("color", color)
+                    .put("nested", new JSONObject().put("inner", "value")));
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_01_EntireRecord() {
+    RecordCache cache = new RecordCache(1024 * 1024);
+    try {
+      assertNull(cache.getEntireRecord(guid));
+      cache.putEntireRecord(guid, record("red"), cache.getVersion(guid));
+      JSONObject cached = cache.getEntireRecord(guid);
+      assertEquals("red", cached.getJSONObject(NameRecord.VALUES_MAP.getName()).getString("color"));
+      // changing what we got back doesn't change the cache
+      cached.getJSONObject(NameRecord.VALUES_MAP.getName()).put("color", "blue");
+      assertEquals("red", cache.getEntireRecord(guid)
+              .getJSONObject(NameRecord.VALUES_MAP.getName()).getString("color"));
+      // fields can be answered from the entire record
+      ValuesMap valuesMap = cache.getFields(guid, Arrays.asList("color", "nested.inner", "missing"));
+      assertEquals("red", valuesMap.getString("color"));
+      assertEquals("value", valuesMap.getString("nested.inner"));
+      assertFalse(valuesMap.has("missing"));
+      assertEquals(3, cache.getHitCount());
+      assertEquals(1, cache.getMissCount());
+    } catch (JSONException e) {
+      fail("Problem with entire record: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_02_Fields() {
+    RecordCache cache = new RecordCache(1024 * 1024);
+    try {
+      ValuesMap fromDatabase = new ValuesMap();
+      fromDatabase.put("color", "red");
+      cache.putFields(guid, Arrays.asList("color", "missing"), fromDatabase, cache.getVersion(guid));
+      ValuesMap valuesMap = cache.getFields(guid, Arrays.asList("color", "missing"));
+      assertEquals("red", valuesMap.getString("color"));
+      assertFalse(valuesMap.has("missing"));
+      // a field we haven't read yet
+      assertNull(cache.getFields(guid, Arrays.asList("color", "other")));
+    } catch (JSONException e) {
+      fail("Problem with fields: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_03_Invalidate() {
+    RecordCache cache = new RecordCache(1024 * 1024);
+    try {
+      cache.putEntireRecord(guid, record("red"), cache.getVersion(guid));
+      cache.invalidate(guid);
+      assertNull(cache.getEntireRecord(guid));
+      // a read that started before a write must not be cached
+      long version = cache.getVersion(guid);
+      cache.invalidate(guid);
+      cache.putEntireRecord(guid, record("red"), version);
+      assertNull(cache.getEntireRecord(guid));
+    } catch (JSONException e) {
+      fail("Problem with invalidate: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_04_Eviction() {
+    RecordCache cache = new RecordCache(4 * 1024);
+    try {
+      for (int i = 0; i < 100; i++) {
+        cache.putEntireRecord(guid + i, record("red"), cache.getVersion(guid + i));
+      }
+      assertTrue(cache.getEvictionCount() > 0);
+    } catch (JSONException e) {
+      fail("Problem with eviction: " + e);
+    }
+  }
+}